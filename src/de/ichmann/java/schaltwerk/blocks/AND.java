@@ -79,25 +79,21 @@ public class AND extends BaseBlock {
 	}
 
 	@Override
-	public void evaluate() {
+	protected void calculateOutputs() {
 
 		LOG.trace("Evaluating AND block...");
 
-		if (!wasAlreadyEvaluated()) {
-			// calculate output of AND block and...
-			output("1").setSignalValue(Signals.ONE);
-			for (String s : inputList()) {
-				if (input(s).getSignalValue() == Signals.ZERO) {
-					output("1").setSignalValue(Signals.ZERO);
-					break;
-				}
+		// calculate output of AND block
+		Signals value = Signals.ONE;
+		for (int i = 0; i < countInputs(); i++) {
+			final Signals in = input(i).getSignalValue();
+			if (in == Signals.ZERO) {
+				value = Signals.ZERO;
+				break;
+			} else if (in != Signals.ONE) {
+				value = Signals.X;
 			}
-
-			propagateBlockOutputs();
-
-			hasBeenEvaluated();
-
-			evaluateNextHops();
 		}
+		output(0).setSignalValue(value);
 	}
 }
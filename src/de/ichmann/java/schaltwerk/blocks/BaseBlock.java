@@ -28,6 +28,10 @@ package de.ichmann.java.schaltwerk.blocks;
  */
 public abstract class BaseBlock extends Block {
 
+	private static final int DEFAULT_DELAY = -1;
+
+	private int delay = DEFAULT_DELAY;
+
 	/**
 	 * Initializes a base block like an AND or an OR block. Only the number of
 	 * inputs has to be given because a base block has <b>always</b> only one
@@ -43,14 +47,38 @@ public abstract class BaseBlock extends Block {
 		super(blockID, inputs, 1);
 	}
 
-	@Override
-	public abstract void evaluate();
+	/**
+	 * Gets propagation delay of this block in units of simulation time. If no
+	 * delay was set for this block, the default delay of its block type is
+	 * returned.
+	 * 
+	 * @return propagation delay
+	 */
+	public final int getDelay() {
 
-	@Override
-	public final void unevaluate() {
+		if (delay == DEFAULT_DELAY) {
+			return getBlockType().getDefaultDelay();
+		}
+		return delay;
+	}
 
-		resetEvaluated();
+	/**
+	 * Sets propagation delay of this block in units of simulation time. The
+	 * delay is only used by timing simulations.
+	 * 
+	 * @param delay
+	 *            propagation delay
+	 * @throws IllegalArgumentException
+	 *             if delay is not positive
+	 */
+	public final void setDelay(final int delay) {
 
-		unevaluateNextHops();
+		if (delay < 1) {
+			throw new IllegalArgumentException("Delay has to be positive.");
+		}
+		this.delay = delay;
 	}
+
+	@Override
+	protected abstract void calculateOutputs();
 }
@@ -17,8 +17,12 @@
  *****************************************************************************/
 package de.ichmann.java.schaltwerk.blocks;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class as base of all block classes e.g. BaseBlock and CompoundBlock.
@@ -35,7 +39,25 @@ public abstract class Block {
 	private final List<Input> inputsList = new ArrayList<Input>();
 	private final List<Output> outputsList = new ArrayList<Output>();
 
-	private boolean alreadyEvaluated = false;
+	private final Map<String, Integer> inputIndices = new HashMap<String, Integer>();
+	private final Map<String, Integer> outputIndices = new HashMap<String, Integer>();
+
+	private static final long NOT_EVALUATED = -1;
+
+	/*
+	 * Global counter for evaluation cycles. It is not synchronized because
+	 * evaluating blocks is not thread safe anyway.
+	 */
+	private static long currentEpoch = 0;
+
+	/*
+	 * Stack of blocks scheduled for evaluation. It is shared by all
+	 * evaluations, so evaluating a block allocates nothing. Nested evaluations
+	 * only evaluate the blocks above the depth of the stack when they started.
+	 */
+	private static final Deque<Block> scheduledBlocks = new ArrayDeque<Block>();
+
+	private long evaluationEpoch = NOT_EVALUATED;
 
 	private String blockID = "";
 	private String blockDescription = "";
@@ -54,12 +76,12 @@ public abstract class Block {
 
 		for (int i = 1; i <= inputs; i++) {
 
-			inputsList.add(new Input(this, Integer.toString(i)));
+			addInput(new Input(this, Integer.toString(i)));
 		}
 
 		for (int i = 1; i <= outputs; i++) {
 
-			outputsList.add(new Output(this, Integer.toString(i)));
+			addOutput(new Output(this, Integer.toString(i)));
 		}
 	}
 
@@ -75,32 +97,59 @@ public abstract class Block {
 		setBlockID(blockID);
 
 		for (String string : inputs) {
-			inputsList.add(new Input(this, string));
+			addInput(new Input(this, string));
 		}
 
 		for (String string : outputs) {
-			outputsList.add(new Output(this, string));
+			addOutput(new Output(this, string));
 		}
 	}
 
 	public final void addInput(Input newInput) {
 
+		if (!inputIndices.containsKey(newInput.getSignalID())) {
+			inputIndices.put(newInput.getSignalID(), inputsList.size());
+		}
 		inputsList.add(newInput);
 	}
 
 	public final void removeInput(Input oldInput) {
 
 		inputsList.remove(oldInput);
+		updateIndices(inputsList, inputIndices);
 	}
 
 	public final void addOutput(Output newOutput) {
 
+		if (!outputIndices.containsKey(newOutput.getSignalID())) {
+			outputIndices.put(newOutput.getSignalID(), outputsList.size());
+		}
 		outputsList.add(newOutput);
 	}
 
 	public final void removeOutput(Output oldOutput) {
 
 		outputsList.remove(oldOutput);
+		updateIndices(outputsList, outputIndices);
+	}
+
+	/**
+	 * Rebuilds map from signal ids to their index in the given list.
+	 * 
+	 * @param signals
+	 *            list of signals
+	 * @param indices
+	 *            map to rebuild
+	 */
+	private void updateIndices(List<? extends Signal> signals,
+			Map<String, Integer> indices) {
+
+		indices.clear();
+		for (int i = 0; i < signals.size(); i++) {
+			if (!indices.containsKey(signals.get(i).getSignalID())) {
+				indices.put(signals.get(i).getSignalID(), i);
+			}
+		}
 	}
 
 	public final int countInputs() {
@@ -159,12 +208,7 @@ public abstract class Block {
 	 */
 	public final Output output(String outputID) {
 
-		for (Output o : outputsList) {
-			if (outputID.equals(o.getSignalID())) {
-				return o;
-			}
-		}
-		throw new IllegalArgumentException("Given output id not found.");
+		return outputsList.get(outputIndex(outputID));
 	}
 
 	/**
@@ -178,12 +222,71 @@ public abstract class Block {
 	 */
 	public final Input input(String inputID) {
 
-		for (Input i : inputsList) {
-			if (inputID.equals(i.getSignalID())) {
-				return i;
-			}
+		return inputsList.get(inputIndex(inputID));
+	}
+
+	/**
+	 * Returns <code>Output</code> object for given index. Outputs are numbered
+	 * in the order they were added to this block starting by zero.
+	 * 
+	 * @param index
+	 *            index of output to return
+	 * @return <code>Output</code> object for given index
+	 */
+	public final Output output(int index) {
+
+		return outputsList.get(index);
+	}
+
+	/**
+	 * Returns <code>Input</code> object for given index. Inputs are numbered
+	 * in the order they were added to this block starting by zero.
+	 * 
+	 * @param index
+	 *            index of input to return
+	 * @return <code>Input</code> object for given index
+	 */
+	public final Input input(int index) {
+
+		return inputsList.get(index);
+	}
+
+	/**
+	 * Returns index of the output for given string. The index can be used to
+	 * access the output without looking up its string again.
+	 * 
+	 * @param outputID
+	 *            string representing output
+	 * @return index of output
+	 * @throws IllegalArgumentException
+	 *             if given string is not found
+	 */
+	public final int outputIndex(String outputID) {
+
+		Integer index = outputIndices.get(outputID);
+		if (index == null) {
+			throw new IllegalArgumentException("Given output id not found.");
+		}
+		return index;
+	}
+
+	/**
+	 * Returns index of the input for given string. The index can be used to
+	 * access the input without looking up its string again.
+	 * 
+	 * @param inputID
+	 *            string representing input
+	 * @return index of input
+	 * @throws IllegalArgumentException
+	 *             if given string is not found
+	 */
+	public final int inputIndex(String inputID) {
+
+		Integer index = inputIndices.get(inputID);
+		if (index == null) {
+			throw new IllegalArgumentException("Given input id not found.");
 		}
-		throw new IllegalArgumentException("Given input id not found.");
+		return index;
 	}
 
 	/**
@@ -256,7 +359,7 @@ public abstract class Block {
 	 */
 	protected final boolean wasAlreadyEvaluated() {
 
-		return alreadyEvaluated;
+		return evaluationEpoch == currentEpoch;
 	}
 
 	/**
@@ -264,7 +367,7 @@ public abstract class Block {
 	 */
 	protected final void hasBeenEvaluated() {
 
-		this.alreadyEvaluated = true;
+		this.evaluationEpoch = currentEpoch;
 	}
 
 	/**
@@ -272,17 +375,17 @@ public abstract class Block {
 	 */
 	protected final void resetEvaluated() {
 
-		this.alreadyEvaluated = false;
+		this.evaluationEpoch = NOT_EVALUATED;
 	}
 
 	/**
 	 * Evaluates this block. This method reads input values, changes internal
 	 * states according to inputs and sets values for all outputs and next hops
-	 * in the net.
+	 * in the net. After that all next hops are evaluated.
 	 * <p>
-	 * At the end of evaluation the method <code>hasBeenEvaluated()</code> has
-	 * to be called to remember evaluation. If this is not done evaluation can
-	 * result in endless loops.
+	 * Next hops are not evaluated recursively but by an explicit stack of
+	 * scheduled blocks. So even very long chains of blocks can be evaluated.
+	 * Every block is evaluated only once per cycle to prevent endless loops.
 	 * <p>
 	 * It is guaranteed that all signals in logical circuits without feedback
 	 * reached a stable state after one call of this method on its surrounding
@@ -290,54 +393,113 @@ public abstract class Block {
 	 * than one evaluation cycle. After each call of <code>evaluate()</code> the
 	 * method <code>unevaluate()</code> has to be called.
 	 */
-	public abstract void evaluate();
+	public final void evaluate() {
+
+		final int depth = countScheduledBlocks();
+		scheduleBlock(this);
+		evaluateScheduledBlocks(depth);
+	}
 
 	/**
-	 * Resets this block in a state where it can be evaluated. This is necessary
-	 * to prevent endless loops due to feedback and loops in the logical circuit
-	 * when <code>evaluate()</code> is called.
+	 * Starts a new evaluation cycle, so all blocks can be evaluated again.
+	 * This is necessary to prevent endless loops due to feedback and loops in
+	 * the logical circuit when <code>evaluate()</code> is called.
+	 * <p>
+	 * Evaluation cycles are counted by a global epoch. A block counts as
+	 * evaluated when it was evaluated in the current epoch. So this method
+	 * does not have to visit any block and resets all blocks of all circuits
+	 * at once.
 	 */
-	public abstract void unevaluate();
+	public final void unevaluate() {
+
+		currentEpoch++;
+	}
 
 	/**
-	 * Propagates output values to all next hops connected to this block.
+	 * Calculates values of all outputs of this block from the values of its
+	 * inputs. Propagating outputs to next hops and evaluating next hops is
+	 * done by <code>evaluate()</code>.
 	 */
-	protected final void propagateBlockOutputs() {
+	protected abstract void calculateOutputs();
+
+	/**
+	 * Returns number of blocks on the stack of scheduled blocks. It is used
+	 * as depth to which <code>evaluateScheduledBlocks()</code> evaluates.
+	 * 
+	 * @return number of scheduled blocks
+	 */
+	protected static final int countScheduledBlocks() {
 
-		for (Output o : outputsList) {
+		return scheduledBlocks.size();
+	}
 
-			o.propagateOutput();
-		}
+	/**
+	 * Pushes a block on the stack of scheduled blocks.
+	 * 
+	 * @param block
+	 *            block to evaluate
+	 */
+	protected static final void scheduleBlock(final Block block) {
+
+		scheduledBlocks.push(block);
 	}
 
 	/**
-	 * Helper method to call method <code>evaluate()</code> of all next hops.
+	 * Evaluates all blocks scheduled above the given depth and the blocks they
+	 * schedule until no block is left above it. Next hops are pushed in
+	 * reverse order, so blocks are evaluated in the same order as by a depth
+	 * first traversal of the net. Blocks scheduled below the depth belong to
+	 * an enclosing evaluation and are left on the stack.
+	 * 
+	 * @param depth
+	 *            number of scheduled blocks when the evaluation started
 	 */
-	protected final void evaluateNextHops() {
-
-		// call evaluate for all children
-		for (String s : outputList()) {
-			for (Input nextHop : output(s).listNextHops()) {
-				Block tmp = nextHop.getOwnerBlock();
-				if (!(tmp instanceof CompoundBlock)) {
-					nextHop.getOwnerBlock().evaluate();
+	protected static final void evaluateScheduledBlocks(final int depth) {
+
+		try {
+			while (scheduledBlocks.size() > depth) {
+				final Block block = scheduledBlocks.pop();
+				if (!block.wasAlreadyEvaluated()) {
+					block.calculateOutputs();
+					block.propagateBlockOutputs();
+					block.hasBeenEvaluated();
+					block.scheduleNextHops();
 				}
 			}
+		} finally {
+			// drop blocks left by an exception
+			while (scheduledBlocks.size() > depth) {
+				scheduledBlocks.pop();
+			}
+		}
+	}
+
+	/**
+	 * Propagates output values to all next hops connected to this block.
+	 */
+	protected final void propagateBlockOutputs() {
+
+		for (int i = 0; i < outputsList.size(); i++) {
+
+			outputsList.get(i).propagateOutput();
 		}
 	}
 
 	/**
-	 * Helper method to call method <code>evaluate()</code> of all next hops.
+	 * Helper method to schedule all next hops for evaluation. Connections to
+	 * the internal outputs of the surrounding compound block are not
+	 * followed.
 	 */
-	protected final void unevaluateNextHops() {
+	private void scheduleNextHops() {
 
-		// call unevaluate for all children
-		for (String s : outputList()) {
-			for (Input nextHop : output(s).listNextHops()) {
-				Block tmp = nextHop.getOwnerBlock();
+		for (int i = outputsList.size() - 1; i >= 0; i--) {
+			final Output o = outputsList.get(i);
+			for (int j = o.countNextHops() - 1; j >= 0; j--) {
+				final Input nextHop = o.nextHop(j);
+				final Block tmp = nextHop.getOwnerBlock();
 				if (!(tmp instanceof CompoundBlock)
-						&& tmp.wasAlreadyEvaluated()) {
-					nextHop.getOwnerBlock().unevaluate();
+						|| !((CompoundBlock) tmp).isInternalOutput(nextHop)) {
+					scheduledBlocks.push(tmp);
 				}
 			}
 		}
@@ -29,6 +29,8 @@ public final class BlockFactory {
 
 	private static BlockFactory blockFactory = null;
 
+	private CircuitDefinition rsFlipFlopDefinition = null;
+
 	private BlockFactory() {
 	}
 
@@ -79,6 +81,62 @@ public final class BlockFactory {
 		return circuit;
 	}
 
+	/**
+	 * Returns the definition shared by all rs-flip-flop instances. It is
+	 * created from a rs-flip-flop block when it is needed for the first time.
+	 * 
+	 * @return definition of rs-flip-flops
+	 */
+	public CircuitDefinition getRSFlipFlopDefinition() {
+
+		if (rsFlipFlopDefinition == null) {
+			rsFlipFlopDefinition = new CircuitDefinition(getRSFlipFLop(false));
+		}
+		return rsFlipFlopDefinition;
+	}
+
+	/**
+	 * Returns a new instance of a rs-flip-flop with inputs "R" and "S" and
+	 * outputs "Q" and "~Q". All instances share the gates of a single
+	 * definition and store only the values of its nets, so they should be
+	 * used for registers and memories with many flip-flops. Like the block
+	 * returned by <code>getRSFlipFLop(boolean)</code>, both outputs are ZERO
+	 * while both inputs are ONE.
+	 * 
+	 * @return rs-flip-flop instance
+	 */
+	public CircuitInstance getRSFlipFlopInstance() {
+
+		return getRSFlipFlopDefinition().newInstance();
+	}
+
+	/**
+	 * Returns a new d-flip-flop block with input "D" and output "Q". The
+	 * flip-flop stores the value of its input on every clock edge.
+	 * 
+	 * @return d-flip-flop block
+	 */
+	public Register getDFlipFlop() {
+
+		return new Register(1, false);
+	}
+
+	/**
+	 * Returns a new register block with inputs "D0", "D1", ... and outputs
+	 * "Q0", "Q1", ... A register with enable input "EN" stores its data inputs
+	 * only on clock edges while the enable input is ONE.
+	 * 
+	 * @param width
+	 *            number of stored bits
+	 * @param enable
+	 *            whether register should have an enable input
+	 * @return register block
+	 */
+	public Register getRegister(int width, boolean enable) {
+
+		return new Register(width, enable);
+	}
+
 	/**
 	 * Returns a new NOT block.
 	 * 
@@ -55,7 +55,20 @@ public enum Blocks {
 	 * Block with two outputs ("Q", "~Q") that can be set or reset through two
 	 * inputs ("S", "R"). One output has the inverted value of the other.
 	 */
-	RS_FLIPFLOP;
+	RS_FLIPFLOP,
+
+	/**
+	 * Block with one output ("Q") that stores the value of its input ("D") on
+	 * every clock edge.
+	 */
+	D_FLIPFLOP,
+
+	/**
+	 * Block with a number of outputs ("Q0", "Q1", ...) that store the values
+	 * of the data inputs ("D0", "D1", ...) on every clock edge. An optional
+	 * input ("EN") enables storing.
+	 */
+	REGISTER;
 
 	public String getLocalizedName() {
 
@@ -80,6 +93,12 @@ public enum Blocks {
 		case RS_FLIPFLOP:
 			localizedName = "";
 			break;
+		case D_FLIPFLOP:
+			localizedName = "";
+			break;
+		case REGISTER:
+			localizedName = "";
+			break;
 		default:
 			break;
 		}
@@ -108,9 +127,57 @@ public enum Blocks {
 		case RS_FLIPFLOP:
 			screenName = "RS";
 			break;
+		case D_FLIPFLOP:
+			screenName = "D";
+			break;
+		case REGISTER:
+			screenName = "REG";
+			break;
 		default:
 			break;
 		}
 		return screenName;
 	}
+
+	/**
+	 * Returns propagation delay of base blocks of this type in units of
+	 * simulation time. AND and OR blocks are slower than their inverting
+	 * counterparts because they are built from a NAND or NOR followed by a
+	 * NOT. Compound blocks and clocked blocks have no delay of their own.
+	 * 
+	 * @return default propagation delay
+	 */
+	public int getDefaultDelay() {
+
+		int delay = 0;
+		switch (values()[ordinal()]) {
+		case AND:
+			delay = 2;
+			break;
+		case NAND:
+			delay = 1;
+			break;
+		case NOR:
+			delay = 1;
+			break;
+		case NOT:
+			delay = 1;
+			break;
+		case OR:
+			delay = 2;
+			break;
+		case RS_FLIPFLOP:
+			delay = 0;
+			break;
+		case D_FLIPFLOP:
+			delay = 0;
+			break;
+		case REGISTER:
+			delay = 0;
+			break;
+		default:
+			break;
+		}
+		return delay;
+	}
 }
@@ -0,0 +1,811 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.blocks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the structure of a circuit once, so that many
+ * <code>CircuitInstance</code> blocks can share it. The structure is taken
+ * from a prototype compound block: all base blocks reachable from its inputs
+ * become gates, all registers become clocked state, nested compound blocks
+ * are dissolved and nested instances are replaced by the gates and registers
+ * of their own definition.
+ * <p>
+ * Gates and nets are numbered like in a netlist: net
+ * <code>UNCONNECTED</code> is read by all inputs that are not driven by any
+ * output, it is followed by the nets of the inputs, by the output nets of all
+ * gates in the order they were found and by the nets of all register bits.
+ * The structure is extracted when it is needed for the first time, usually
+ * when the first instance is evaluated. So the prototype can be wired after
+ * the definition and its instances were created, but it must not be changed
+ * once the structure was extracted.
+ * <p>
+ * Instances keep only the values of all nets of the definition as
+ * consecutive signals in the default <code>SignalStore</code>. Definitions
+ * and their instances are not thread safe.
+ * 
+ * @author Christian Wichmann
+ */
+public final class CircuitDefinition {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(CircuitDefinition.class);
+
+	/**
+	 * Id of the net for all inputs that are not connected to any output.
+	 */
+	public static final int UNCONNECTED = 0;
+
+	/**
+	 * Maximum number of passes over all gates of a definition with feedback
+	 * loops until they reach a stable state.
+	 */
+	public static final int MAX_ITERATIONS = 100;
+
+	private final CompoundBlock prototype;
+	private final String[] inputIDs;
+	private final String[] outputIDs;
+	private int instanceCount = 0;
+
+	private BaseBlock[] gates;
+	private Blocks[] gateTypes;
+	private int[] gateInputStart;
+	private int[] gateInputNets;
+	private Register[] registers;
+	private int[] registerStart;
+	private int[] registerInputStart;
+	private int[] registerInputNets;
+	private int[] outputNets;
+	private int[] evaluationOrder;
+	private boolean acyclic;
+
+	/**
+	 * Initializes a definition for the structure of a compound block. The
+	 * compound block should not be changed after the first instance was
+	 * evaluated.
+	 * 
+	 * @param prototype
+	 *            compound block defining the structure
+	 */
+	public CircuitDefinition(final CompoundBlock prototype) {
+
+		this.prototype = prototype;
+		this.inputIDs = prototype.inputList();
+		this.outputIDs = prototype.outputList();
+	}
+
+	/**
+	 * Extracts the structure of the prototype if this was not done yet. The
+	 * number of gates is only known at the end, so register bits get
+	 * temporary negative nets (-1 - bit) that are resolved afterwards.
+	 */
+	private void extract() {
+
+		if (gates != null) {
+			return;
+		}
+
+		final Map<Output, Integer> nets = new IdentityHashMap<Output, Integer>();
+		final Map<Block, Integer> gateIDs = new IdentityHashMap<Block, Integer>();
+		final Map<Block, Integer> registerIDs = new IdentityHashMap<Block, Integer>();
+		final List<BaseBlock> gateList = new ArrayList<BaseBlock>();
+		final List<int[]> gateInputs = new ArrayList<int[]>();
+		final List<Register> registerList = new ArrayList<Register>();
+		final List<int[]> registerInputs = new ArrayList<int[]>();
+		final Deque<Output> pending = new ArrayDeque<Output>();
+		final int firstGateNet = UNCONNECTED + 1 + inputIDs.length;
+		int bits = 0;
+		outputNets = new int[outputIDs.length];
+
+		for (int i = 0; i < inputIDs.length; i++) {
+			final Output o = prototype.internalInput(inputIDs[i]);
+			nets.put(o, getInputNet(i));
+			pending.add(o);
+		}
+
+		// follow all connections from the inputs through the circuit
+		while (!pending.isEmpty()) {
+			final Output o = pending.poll();
+			final int net = nets.get(o);
+
+			for (Input nextHop : o.listNextHops()) {
+				final Block owner = nextHop.getOwnerBlock();
+				final String id = nextHop.getSignalID();
+
+				if (owner instanceof CompoundBlock) {
+					final CompoundBlock compound = (CompoundBlock) owner;
+					Output next = null;
+					if (!compound.isInternalOutput(nextHop)) {
+						next = compound.internalInput(id);
+					} else if (compound != prototype) {
+						next = compound.output(id);
+					} else {
+						outputNets[indexOf(outputIDs, id)] = net;
+					}
+					if (next != null && !nets.containsKey(next)) {
+						nets.put(next, net);
+						pending.add(next);
+					}
+
+				} else if (owner instanceof BaseBlock) {
+					Integer gate = gateIDs.get(owner);
+					if (gate == null) {
+						gate = gateList.size();
+						gateIDs.put(owner, gate);
+						gateList.add((BaseBlock) owner);
+						gateInputs.add(new int[owner.countInputs()]);
+						nets.put(owner.output(0), firstGateNet + gate);
+						pending.add(owner.output(0));
+					}
+					gateInputs.get(gate)[owner.inputIndex(id)] = net;
+
+				} else if (owner instanceof Register) {
+					Integer register = registerIDs.get(owner);
+					if (register == null) {
+						register = registerList.size();
+						registerIDs.put(owner, register);
+						registerList.add((Register) owner);
+						registerInputs.add(new int[owner.countInputs()]);
+						for (int k = 0; k < owner.countOutputs(); k++) {
+							nets.put(owner.output(k), -1 - bits++);
+							pending.add(owner.output(k));
+						}
+					}
+					registerInputs.get(register)[owner.inputIndex(id)] = net;
+
+				} else if (owner instanceof CircuitInstance) {
+					final CircuitDefinition definition = ((CircuitInstance) owner)
+							.getDefinition();
+					Integer first = gateIDs.get(owner);
+					if (first == null) {
+						first = gateList.size();
+						gateIDs.put(owner, first);
+						registerIDs.put(owner, registerList.size());
+						definition.copyStructure(firstGateNet + first, bits,
+								gateList, gateInputs, registerList,
+								registerInputs);
+						for (int k = 0; k < definition.countOutputs(); k++) {
+							final int inner = definition.getOutputNet(k);
+							if (!definition.isPort(inner)) {
+								nets.put(owner.output(k), definition.mapNet(
+										inner, firstGateNet + first, bits));
+								pending.add(owner.output(k));
+							}
+						}
+						bits += definition.countRegisterBits();
+					}
+
+					// connect gates, registers and outputs reading the port
+					final int port = owner.inputIndex(id);
+					definition.connectPort(port, net, gateInputs, first,
+							registerInputs, registerIDs.get(owner));
+					for (int k = 0; k < definition.countOutputs(); k++) {
+						final Output next = owner.output(k);
+						if (definition.getOutputNet(k) == definition
+								.getInputNet(port) && !nets.containsKey(next)) {
+							nets.put(next, net);
+							pending.add(next);
+						}
+					}
+
+				} else {
+					throw new IllegalArgumentException(
+							"Block can not be simulated: " + owner);
+				}
+			}
+		}
+
+		// resolve nets of register bits
+		final int firstRegisterNet = firstGateNet + gateList.size();
+		resolve(outputNets, firstRegisterNet);
+		for (int[] inputs : gateInputs) {
+			resolve(inputs, firstRegisterNet);
+		}
+		for (int[] inputs : registerInputs) {
+			resolve(inputs, firstRegisterNet);
+		}
+
+		// store connections of all gates and registers in plain arrays
+		gates = gateList.toArray(new BaseBlock[gateList.size()]);
+		gateTypes = new Blocks[gates.length];
+		for (int g = 0; g < gates.length; g++) {
+			gateTypes[g] = checkGateType(gates[g]);
+		}
+		gateInputStart = new int[gates.length + 1];
+		gateInputNets = pack(gateInputs, gateInputStart);
+		registers = registerList.toArray(new Register[registerList.size()]);
+		registerStart = new int[registers.length + 1];
+		for (int r = 0; r < registers.length; r++) {
+			registerStart[r + 1] = registerStart[r]
+					+ registers[r].getWidth();
+		}
+		registerInputStart = new int[registers.length + 1];
+		registerInputNets = pack(registerInputs, registerInputStart);
+		sortGates();
+
+		LOG.debug("Extracted definition of " + getName() + " with "
+				+ gates.length + " gates and " + bits + " register bits.");
+	}
+
+	/**
+	 * Replaces temporary negative nets of register bits by their final nets.
+	 */
+	private static void resolve(final int[] nets, final int firstRegisterNet) {
+
+		for (int i = 0; i < nets.length; i++) {
+			if (nets[i] < 0) {
+				nets[i] = firstRegisterNet - 1 - nets[i];
+			}
+		}
+	}
+
+	/**
+	 * Stores the nets of all blocks consecutively in one array and fills the
+	 * start position of every block.
+	 */
+	private static int[] pack(final List<int[]> nets, final int[] start) {
+
+		for (int b = 0; b < nets.size(); b++) {
+			start[b + 1] = start[b] + nets.get(b).length;
+		}
+		final int[] result = new int[start[nets.size()]];
+		for (int b = 0; b < nets.size(); b++) {
+			System.arraycopy(nets.get(b), 0, result, start[b],
+					nets.get(b).length);
+		}
+		return result;
+	}
+
+	/**
+	 * Appends all gates and registers of this definition to those of another
+	 * definition. Inputs reading a port are left unconnected until the port
+	 * is connected.
+	 */
+	private void copyStructure(final int firstNet, final int firstBit,
+			final List<BaseBlock> gateList, final List<int[]> gateInputs,
+			final List<Register> registerList,
+			final List<int[]> registerInputs) {
+
+		extract();
+		for (int g = 0; g < gates.length; g++) {
+			gateList.add(gates[g]);
+			gateInputs.add(mapNets(gateInputNets, gateInputStart[g],
+					gateInputStart[g + 1], firstNet, firstBit));
+		}
+		for (int r = 0; r < registers.length; r++) {
+			registerList.add(registers[r]);
+			registerInputs.add(mapNets(registerInputNets,
+					registerInputStart[r], registerInputStart[r + 1],
+					firstNet, firstBit));
+		}
+	}
+
+	private int[] mapNets(final int[] nets, final int from, final int to,
+			final int firstNet, final int firstBit) {
+
+		final int[] result = new int[to - from];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = mapNet(nets[from + i], firstNet, firstBit);
+		}
+		return result;
+	}
+
+	/**
+	 * Connects all copied gates and registers reading a port to the given
+	 * net.
+	 */
+	private void connectPort(final int port, final int net,
+			final List<int[]> gateInputs, final int firstGate,
+			final List<int[]> registerInputs, final int firstRegister) {
+
+		final int portNet = getInputNet(port);
+		connect(gateInputNets, gateInputStart, gateInputs, firstGate,
+				portNet, net);
+		connect(registerInputNets, registerInputStart, registerInputs,
+				firstRegister, portNet, net);
+	}
+
+	private static void connect(final int[] nets, final int[] start,
+			final List<int[]> copies, final int first, final int portNet,
+			final int net) {
+
+		for (int b = 0; b < start.length - 1; b++) {
+			final int[] inputs = copies.get(first + b);
+			for (int i = 0; i < inputs.length; i++) {
+				if (nets[start[b] + i] == portNet) {
+					inputs[i] = net;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns whether a net belongs to an input of this definition.
+	 */
+	private boolean isPort(final int net) {
+
+		return net != UNCONNECTED && net <= inputIDs.length;
+	}
+
+	/**
+	 * Maps a net of this definition to the net of a copy whose first gate
+	 * drives the given net and whose first register bit is the given bit.
+	 * Register bits get temporary negative nets. Ports are unconnected.
+	 */
+	private int mapNet(final int net, final int firstNet, final int firstBit) {
+
+		if (net == UNCONNECTED || isPort(net)) {
+			return UNCONNECTED;
+		} else if (net < getRegisterNet(0)) {
+			return firstNet + net - getGateNet(0);
+		}
+		return -1 - firstBit - (net - getRegisterNet(0));
+	}
+
+	/**
+	 * Sorts the gates topologically for evaluation. Gates of feedback loops
+	 * can not be sorted and are appended in the order they were found.
+	 * Register bits are sources like inputs.
+	 */
+	private void sortGates() {
+
+		final int firstGateNet = getGateNet(0);
+		final int firstRegisterNet = getRegisterNet(0);
+		final int[] pendingInputs = new int[gates.length];
+		final List<List<Integer>> readers = new ArrayList<List<Integer>>();
+		for (int g = 0; g < gates.length; g++) {
+			readers.add(new ArrayList<Integer>());
+		}
+		for (int g = 0; g < gates.length; g++) {
+			for (int i = gateInputStart[g]; i < gateInputStart[g + 1]; i++) {
+				final int net = gateInputNets[i];
+				if (net >= firstGateNet && net < firstRegisterNet) {
+					readers.get(net - firstGateNet).add(g);
+					pendingInputs[g]++;
+				}
+			}
+		}
+
+		evaluationOrder = new int[gates.length];
+		int count = 0;
+		for (int g = 0; g < gates.length; g++) {
+			if (pendingInputs[g] == 0) {
+				evaluationOrder[count++] = g;
+			}
+		}
+		for (int k = 0; k < count; k++) {
+			for (int reader : readers.get(evaluationOrder[k])) {
+				if (--pendingInputs[reader] == 0) {
+					evaluationOrder[count++] = reader;
+				}
+			}
+		}
+		acyclic = count == gates.length;
+		for (int g = 0; g < gates.length; g++) {
+			if (pendingInputs[g] > 0) {
+				evaluationOrder[count++] = g;
+			}
+		}
+	}
+
+	private static int indexOf(final String[] ids, final String id) {
+
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i].equals(id)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Given signal id not found.");
+	}
+
+	/**
+	 * Checks whether a base block can be simulated and returns its type.
+	 */
+	private static Blocks checkGateType(final BaseBlock gate) {
+
+		final Blocks type = gate.getBlockType();
+		if (type == null) {
+			throw new IllegalArgumentException(
+					"Block type of gate not set: " + gate);
+		}
+		switch (type) {
+		case AND:
+		case OR:
+		case NAND:
+		case NOR:
+		case NOT:
+			return type;
+		default:
+			throw new IllegalArgumentException(
+					"Block type can not be simulated: " + type);
+		}
+	}
+
+	/**
+	 * Evaluates all gates with the values of the given nets until no value
+	 * changes anymore. Gates outside of feedback loops need only one pass.
+	 * 
+	 * @param store
+	 *            store holding values of all nets, inputs have to be set
+	 * @param offset
+	 *            index of net <code>UNCONNECTED</code> in the store
+	 * @return false, if a feedback loop was oscillating
+	 */
+	boolean settle(final SignalStore store, final int offset) {
+
+		extract();
+		final int firstGateNet = getGateNet(0);
+		for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+			boolean changed = false;
+			for (int g : evaluationOrder) {
+				final int index = offset + firstGateNet + g;
+				final boolean value = evaluateGate(g, store, offset);
+				if (store.get(index) != value) {
+					store.set(index, value);
+					changed = true;
+				}
+			}
+			if (acyclic || !changed) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stores the values at the data inputs of all enabled registers. All
+	 * registers are sampled before any register bit changes, so all of them
+	 * are clocked at the same moment.
+	 * 
+	 * @param store
+	 *            store holding values of all nets
+	 * @param offset
+	 *            index of net <code>UNCONNECTED</code> in the store
+	 * @param next
+	 *            array receiving the new value of every register bit
+	 */
+	void clock(final SignalStore store, final int offset, final boolean[] next) {
+
+		extract();
+		for (int r = 0; r < registers.length; r++) {
+			final int first = registerInputStart[r];
+			final int width = registers[r].getWidth();
+			final boolean enabled = !registers[r].hasEnable()
+					|| store.get(offset + registerInputNets[first + width]);
+			for (int b = 0; b < width; b++) {
+				final int bit = registerStart[r] + b;
+				next[bit] = store.get(offset
+						+ (enabled ? registerInputNets[first + b]
+								: getRegisterNet(bit)));
+			}
+		}
+		for (int bit = 0; bit < next.length; bit++) {
+			store.set(offset + getRegisterNet(bit), next[bit]);
+		}
+	}
+
+	private boolean evaluateGate(final int gate, final SignalStore store,
+			final int offset) {
+
+		final int first = gateInputStart[gate];
+		final int last = gateInputStart[gate + 1];
+		switch (gateTypes[gate]) {
+		case AND:
+		case NAND:
+			boolean and = true;
+			for (int i = first; i < last && and; i++) {
+				and = store.get(offset + gateInputNets[i]);
+			}
+			return and ^ (gateTypes[gate] == Blocks.NAND);
+		case OR:
+		case NOR:
+			boolean or = false;
+			for (int i = first; i < last && !or; i++) {
+				or = store.get(offset + gateInputNets[i]);
+			}
+			return or ^ (gateTypes[gate] == Blocks.NOR);
+		default:
+			return !store.get(offset + gateInputNets[first]);
+		}
+	}
+
+	/**
+	 * Creates a new instance of this definition with a generated block id.
+	 * 
+	 * @return new instance
+	 */
+	public CircuitInstance newInstance() {
+
+		return newInstance(getName() + "." + instanceCount);
+	}
+
+	/**
+	 * Creates a new instance of this definition.
+	 * 
+	 * @param blockID
+	 *            block identification of the instance
+	 * @return new instance
+	 */
+	public CircuitInstance newInstance(final String blockID) {
+
+		instanceCount++;
+		return new CircuitInstance(blockID, this);
+	}
+
+	/**
+	 * Gets name of this definition, the block id of the prototype.
+	 * 
+	 * @return name of definition
+	 */
+	public String getName() {
+
+		return prototype.getBlockID();
+	}
+
+	/**
+	 * Gets compound block defining the structure.
+	 * 
+	 * @return prototype of all instances
+	 */
+	public CompoundBlock getPrototype() {
+
+		return prototype;
+	}
+
+	/**
+	 * Returns number of instances created by this definition.
+	 * 
+	 * @return number of instances
+	 */
+	public int countInstances() {
+
+		return instanceCount;
+	}
+
+	/**
+	 * Returns identifications of all inputs.
+	 * 
+	 * @return list of input identifications
+	 */
+	public String[] inputList() {
+
+		return inputIDs.clone();
+	}
+
+	/**
+	 * Returns identifications of all outputs.
+	 * 
+	 * @return list of output identifications
+	 */
+	public String[] outputList() {
+
+		return outputIDs.clone();
+	}
+
+	/**
+	 * Returns number of inputs.
+	 * 
+	 * @return number of inputs
+	 */
+	public int countInputs() {
+
+		return inputIDs.length;
+	}
+
+	/**
+	 * Returns number of outputs.
+	 * 
+	 * @return number of outputs
+	 */
+	public int countOutputs() {
+
+		return outputIDs.length;
+	}
+
+	/**
+	 * Returns number of nets including the net <code>UNCONNECTED</code>.
+	 * 
+	 * @return number of nets
+	 */
+	public int countNets() {
+
+		return getRegisterNet(countRegisterBits());
+	}
+
+	/**
+	 * Returns number of gates including the gates of nested instances.
+	 * 
+	 * @return number of gates
+	 */
+	public int countGates() {
+
+		extract();
+		return gates.length;
+	}
+
+	/**
+	 * Returns number of registers including the registers of nested
+	 * instances.
+	 * 
+	 * @return number of registers
+	 */
+	public int countRegisters() {
+
+		extract();
+		return registers.length;
+	}
+
+	/**
+	 * Returns number of bits stored by all registers.
+	 * 
+	 * @return number of register bits
+	 */
+	public int countRegisterBits() {
+
+		extract();
+		return registerStart[registers.length];
+	}
+
+	/**
+	 * Returns whether the definition contains neither feedback loops nor
+	 * registers.
+	 * 
+	 * @return true, if definition is combinational
+	 */
+	public boolean isCombinational() {
+
+		extract();
+		return acyclic && registers.length == 0;
+	}
+
+	/**
+	 * Gets net of an input.
+	 * 
+	 * @param index
+	 *            index of input
+	 * @return id of net
+	 */
+	public int getInputNet(final int index) {
+
+		return UNCONNECTED + 1 + index;
+	}
+
+	/**
+	 * Gets net driven by a gate.
+	 * 
+	 * @param gate
+	 *            id of gate
+	 * @return id of net
+	 */
+	public int getGateNet(final int gate) {
+
+		return UNCONNECTED + 1 + inputIDs.length + gate;
+	}
+
+	/**
+	 * Gets net of a register bit. Bits of all registers are numbered
+	 * consecutively.
+	 * 
+	 * @param bit
+	 *            id of register bit
+	 * @return id of net
+	 */
+	public int getRegisterNet(final int bit) {
+
+		extract();
+		return getGateNet(gates.length) + bit;
+	}
+
+	/**
+	 * Gets net driving an output.
+	 * 
+	 * @param index
+	 *            index of output
+	 * @return id of net
+	 */
+	public int getOutputNet(final int index) {
+
+		extract();
+		return outputNets[index];
+	}
+
+	/**
+	 * Gets base block of a gate. Gates of nested instances are represented by
+	 * the base blocks of the prototype of their definition.
+	 * 
+	 * @param gate
+	 *            id of gate
+	 * @return base block
+	 */
+	public BaseBlock getGate(final int gate) {
+
+		extract();
+		return gates[gate];
+	}
+
+	/**
+	 * Gets nets read by the inputs of a gate.
+	 * 
+	 * @param gate
+	 *            id of gate
+	 * @return copy of nets of all inputs
+	 */
+	public int[] getGateInputNets(final int gate) {
+
+		extract();
+		return Arrays.copyOfRange(gateInputNets, gateInputStart[gate],
+				gateInputStart[gate + 1]);
+	}
+
+	/**
+	 * Gets a register. Registers of nested instances are represented by the
+	 * registers of the prototype of their definition.
+	 * 
+	 * @param register
+	 *            id of register
+	 * @return register block
+	 */
+	public Register getRegister(final int register) {
+
+		extract();
+		return registers[register];
+	}
+
+	/**
+	 * Gets nets read by the inputs of a register. The nets of the data inputs
+	 * are followed by the net of the enable input, if the register has one.
+	 * 
+	 * @param register
+	 *            id of register
+	 * @return copy of nets of all inputs
+	 */
+	public int[] getRegisterInputNets(final int register) {
+
+		extract();
+		return Arrays.copyOfRange(registerInputNets,
+				registerInputStart[register],
+				registerInputStart[register + 1]);
+	}
+
+	/**
+	 * Gets nets of all bits of a register.
+	 * 
+	 * @param register
+	 *            id of register
+	 * @return nets of all outputs
+	 */
+	public int[] getRegisterOutputNets(final int register) {
+
+		extract();
+		final int[] nets = new int[registers[register].getWidth()];
+		for (int b = 0; b < nets.length; b++) {
+			nets[b] = getRegisterNet(registerStart[register] + b);
+		}
+		return nets;
+	}
+}
@@ -0,0 +1,157 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.blocks;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lightweight block sharing the structure of a <code>CircuitDefinition</code>
+ * with all other instances of the same definition. An instance stores only
+ * its inputs, outputs and the values of all nets of the definition as
+ * consecutive signals in the default <code>SignalStore</code>. So large
+ * registers and memories built from instances need much less memory than
+ * those built from compound blocks, and a snapshot of the store contains the
+ * state of all instances.
+ * <p>
+ * Evaluating an instance evaluates all gates of its definition until they
+ * reach a stable state. Values X and Z at inputs are handled like ZERO,
+ * because nets of an instance can only store two values. Registers of the
+ * definition only change when the instance is clocked.
+ * 
+ * @author Christian Wichmann
+ */
+public final class CircuitInstance extends Block {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(CircuitInstance.class);
+
+	private final CircuitDefinition definition;
+	private int firstNet = -1;
+	private boolean[] nextRegisterBits;
+	private boolean stable = true;
+
+	/**
+	 * Initializes an instance of a circuit definition. Instances should be
+	 * created by <code>CircuitDefinition.newInstance()</code>.
+	 * 
+	 * @param blockID
+	 *            block identification
+	 * @param definition
+	 *            definition containing the structure of this block
+	 */
+	CircuitInstance(final String blockID, final CircuitDefinition definition) {
+
+		super(blockID, Arrays.asList(definition.inputList()), Arrays
+				.asList(definition.outputList()));
+
+		this.definition = definition;
+		setBlockType(definition.getPrototype().getBlockType());
+	}
+
+	/**
+	 * Allocates the nets of this instance on first use. Counting the nets
+	 * extracts the structure of the definition, so the prototype can still
+	 * be wired after its instances were created.
+	 */
+	private void allocate() {
+
+		if (firstNet < 0) {
+			firstNet = SignalStore.getInstance().allocate(
+					definition.countNets());
+			nextRegisterBits = new boolean[definition.countRegisterBits()];
+		}
+	}
+
+	@Override
+	protected void calculateOutputs() {
+
+		LOG.trace("Evaluating instance of " + definition.getName() + "...");
+
+		allocate();
+		final SignalStore store = SignalStore.getInstance();
+		for (int i = 0; i < countInputs(); i++) {
+			store.set(firstNet + definition.getInputNet(i),
+					SignalStore.toBinary(input(i).getSignalValue()));
+		}
+
+		stable = definition.settle(store, firstNet);
+		if (!stable) {
+			LOG.debug("Instance " + getBlockID() + " is oscillating.");
+		}
+
+		for (int o = 0; o < countOutputs(); o++) {
+			final boolean value = store.get(firstNet
+					+ definition.getOutputNet(o));
+			output(o).setSignalValue(value ? Signals.ONE : Signals.ZERO);
+		}
+	}
+
+	/**
+	 * Stores the values at the data inputs of all enabled registers of the
+	 * definition at the same moment. Data inputs are taken from the last
+	 * evaluation, outputs change when the instance is evaluated the next
+	 * time.
+	 */
+	public void clock() {
+
+		allocate();
+		definition.clock(SignalStore.getInstance(), firstNet,
+				nextRegisterBits);
+	}
+
+	/**
+	 * Gets definition containing the structure of this instance.
+	 * 
+	 * @return circuit definition
+	 */
+	public CircuitDefinition getDefinition() {
+
+		return definition;
+	}
+
+	/**
+	 * Returns whether all nets reached a stable state during the last
+	 * evaluation.
+	 * 
+	 * @return false, if a feedback loop was oscillating
+	 */
+	public boolean isStable() {
+
+		return stable;
+	}
+
+	/**
+	 * Gets value of a net of the definition in this instance.
+	 * 
+	 * @param net
+	 *            id of net
+	 * @return value of net
+	 */
+	public Signals getNetValue(final int net) {
+
+		if (net == CircuitDefinition.UNCONNECTED) {
+			return Signals.ZERO;
+		}
+		allocate();
+		return SignalStore.getInstance().get(firstNet + net) ? Signals.ONE
+				: Signals.ZERO;
+	}
+}
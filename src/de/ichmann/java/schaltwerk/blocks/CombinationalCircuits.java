@@ -17,11 +17,16 @@
  *****************************************************************************/
 package de.ichmann.java.schaltwerk.blocks;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class providing factory methods to get combinational circuits based on given
- * input/output behavior.
+ * input/output behavior. The behavior is minimized into a sum of products,
+ * which is built from AND, OR and NOT blocks.
  * 
  * @author Christian Wichmann
  */
@@ -40,6 +45,21 @@ public class CombinationalCircuits {
 		return combinationalCircuitsFactory;
 	}
 
+	/**
+	 * Builds a minimized combinational circuit for a truth table given as
+	 * lists of boxed values. Every list of <code>input</code> holds the values
+	 * of one input for all lines of the truth table, the list
+	 * <code>output</code> holds the value of the output for every line. The
+	 * lines may be given in any order.
+	 * 
+	 * @param input
+	 *            one list of values for every input
+	 * @param output
+	 *            value of output for every line
+	 * @return compound block with a sum of products for the output
+	 * @throws IllegalArgumentException
+	 *             if truth table is not complete
+	 */
 	public CompoundBlock getCombinationalCircuit(List<List<Boolean>> input,
 			List<Boolean> output) {
 
@@ -57,17 +77,183 @@ public class CombinationalCircuits {
 			}
 			variables += 1;
 		}
-		if (lines != Math.pow(2, variables)) {
+		if (variables > TwoLevelMinimizer.MAX_VARIABLES) {
+			throw new IllegalArgumentException("Too many variables.");
+		}
+		if (lines != 1 << variables) {
 			throw new IllegalArgumentException(
 					"Not enought data sets for given number of independent variables.");
 		}
 
-		// simplify given combinational circuit
+		// collect minterms of given lines
+		final BitSet onSet = new BitSet(lines);
+		final BitSet given = new BitSet(lines);
+		for (int line = 0; line < lines; line++) {
+			int minterm = 0;
+			for (int i = 0; i < variables; i++) {
+				if (input.get(i).get(line)) {
+					minterm |= 1 << i;
+				}
+			}
+			if (given.get(minterm)) {
+				throw new IllegalArgumentException(
+						"Truth table contains a line twice.");
+			}
+			given.set(minterm);
+			if (output.get(line)) {
+				onSet.set(minterm);
+			}
+		}
+
+		return getCombinationalCircuit(variables, onSet, new BitSet());
+	}
+
+	/**
+	 * Builds a minimized combinational circuit for a truth table given as
+	 * bitsets. Bit <i>m</i> of a bitset belongs to the input vector in which
+	 * input <i>i</i> has the value of bit <i>i</i> of <i>m</i>.
+	 * 
+	 * @param variables
+	 *            number of inputs
+	 * @param onSet
+	 *            vectors for which the output is ONE
+	 * @param dontCares
+	 *            vectors for which the output may be ONE or ZERO
+	 * @return compound block with a sum of products for the output
+	 * @throws IllegalArgumentException
+	 *             if there are more than 20 inputs or the output is always
+	 *             ONE without any inputs
+	 */
+	public CompoundBlock getCombinationalCircuit(final int variables,
+			final BitSet onSet, final BitSet dontCares) {
+
+		return getCombinationalCircuit(variables, new BitSet[] { onSet },
+				new BitSet[] { dontCares });
+	}
+
+	/**
+	 * Builds a minimized combinational circuit with several outputs for truth
+	 * tables given as bitsets. Every output is minimized on its own, but
+	 * inverted inputs and identical products are shared between outputs.
+	 * 
+	 * @param variables
+	 *            number of inputs
+	 * @param onSets
+	 *            vectors for which an output is ONE, one bitset per output
+	 * @param dontCares
+	 *            vectors for which an output may be ONE or ZERO, one bitset
+	 *            per output
+	 * @return compound block with a sum of products for every output
+	 * @throws IllegalArgumentException
+	 *             if there are more than 20 inputs, the number of on-sets
+	 *             and don't cares differ or an output is always ONE without
+	 *             any inputs
+	 */
+	public CompoundBlock getCombinationalCircuit(final int variables,
+			final BitSet[] onSets, final BitSet[] dontCares) {
+
+		if (onSets.length != dontCares.length) {
+			throw new IllegalArgumentException(
+					"Number of on-sets and don't cares differ.");
+		}
+
+		final long[][] covers = new long[onSets.length][];
+		for (int o = 0; o < onSets.length; o++) {
+			covers[o] = new TwoLevelMinimizer(variables, onSets[o],
+					dontCares[o]).minimize();
+		}
 
 		// build compound block for combinational circuit
 		CompoundBlock combinationalCircuit = new CompoundBlock(
-				"CombinationalCircuit", variables, 1);
+				"CombinationalCircuit", variables, onSets.length);
+
+		final Output[] inverted = new Output[variables];
+		final Map<Long, Output> products = new HashMap<Long, Output>();
+		Output one = null;
+		for (int o = 0; o < covers.length; o++) {
+			final long[] cubes = covers[o];
+			final Input output = combinationalCircuit.internalOutput(o);
+			if (cubes.length == 0) {
+				// output stays unconnected and therefore ZERO
+				continue;
+			}
+
+			final List<Output> terms = new ArrayList<Output>();
+			for (long cube : cubes) {
+				Output term = products.get(cube);
+				if (term == null) {
+					term = buildProduct(combinationalCircuit, variables, cube,
+							inverted);
+					products.put(cube, term);
+				}
+				terms.add(term);
+			}
+
+			if (terms.contains(null)) {
+				// tautology is built as NAND of first input and ZERO
+				if (variables == 0) {
+					throw new IllegalArgumentException(
+							"Constant ONE can not be built without inputs.");
+				}
+				if (one == null) {
+					NAND nand = new NAND(2);
+					combinationalCircuit.internalInput(0).connectTo(
+							nand.input(0));
+					one = nand.output(0);
+				}
+				one.connectTo(output);
+			} else if (terms.size() == 1) {
+				terms.get(0).connectTo(output);
+			} else {
+				OR or = new OR(terms.size());
+				for (int t = 0; t < terms.size(); t++) {
+					terms.get(t).connectTo(or.input(t));
+				}
+				or.output(0).connectTo(output);
+			}
+		}
 
 		return combinationalCircuit;
 	}
+
+	/**
+	 * Builds the product of all literals of a cube.
+	 * 
+	 * @return output of product or null for the cube without literals
+	 */
+	private Output buildProduct(final CompoundBlock circuit,
+			final int variables, final long cube, final Output[] inverted) {
+
+		final int free = TwoLevelMinimizer.free(cube);
+		final int value = TwoLevelMinimizer.value(cube);
+		final List<Output> literals = new ArrayList<Output>();
+		for (int i = 0; i < variables; i++) {
+			final int bit = 1 << i;
+			if ((free & bit) != 0) {
+				continue;
+			}
+			if ((value & bit) != 0) {
+				literals.add(circuit.internalInput(i));
+			} else {
+				if (inverted[i] == null) {
+					NOT not = new NOT();
+					circuit.internalInput(i).connectTo(not.input(0));
+					inverted[i] = not.output(0);
+				}
+				literals.add(inverted[i]);
+			}
+		}
+
+		if (literals.isEmpty()) {
+			return null;
+		}
+		if (literals.size() == 1) {
+			return literals.get(0);
+		}
+		AND and = new AND(literals.size());
+		for (int l = 0; l < literals.size(); l++) {
+			literals.get(l).connectTo(and.input(l));
+		}
+		return and.output(0);
+	}
 }
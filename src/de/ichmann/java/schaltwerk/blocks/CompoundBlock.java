@@ -18,7 +18,12 @@
 package de.ichmann.java.schaltwerk.blocks;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,6 +42,10 @@ public class CompoundBlock extends Block {
 
 	private final List<Output> internalInputsList = new ArrayList<Output>();
 	private final List<Input> internalOutputsList = new ArrayList<Input>();
+	private final Map<String, Integer> internalInputIndices = new HashMap<String, Integer>();
+	private final Map<String, Integer> internalOutputIndices = new HashMap<String, Integer>();
+	private final Set<Input> internalOutputsSet = Collections
+			.newSetFromMap(new IdentityHashMap<Input, Boolean>());
 
 	/*
 	 * TODO Hold block list for every compound block. Find a good way to set all
@@ -90,11 +99,18 @@ public class CompoundBlock extends Block {
 
 		for (String s : outputList()) {
 			Input tmp = new Input(this, s);
+			if (!internalOutputIndices.containsKey(s)) {
+				internalOutputIndices.put(s, internalOutputsList.size());
+			}
 			internalOutputsList.add(tmp);
+			internalOutputsSet.add(tmp);
 		}
 
 		for (String s : inputList()) {
 			Output tmp = new Output(this, s);
+			if (!internalInputIndices.containsKey(s)) {
+				internalInputIndices.put(s, internalInputsList.size());
+			}
 			internalInputsList.add(tmp);
 		}
 	}
@@ -109,12 +125,11 @@ public class CompoundBlock extends Block {
 	 */
 	public final Output internalInput(final String inputID) {
 
-		for (Output o : internalInputsList) {
-			if (inputID.equals(o.getSignalID())) {
-				return o;
-			}
+		Integer index = internalInputIndices.get(inputID);
+		if (index == null) {
+			throw new IllegalArgumentException("Given input id not found.");
 		}
-		throw new IllegalArgumentException("Given input id not found.");
+		return internalInputsList.get(index);
 	}
 
 	/**
@@ -127,16 +142,60 @@ public class CompoundBlock extends Block {
 	 */
 	public final Input internalOutput(final String outputID) {
 
-		for (Input i : internalOutputsList) {
-			if (outputID.equals(i.getSignalID())) {
-				return i;
-			}
+		Integer index = internalOutputIndices.get(outputID);
+		if (index == null) {
+			throw new IllegalArgumentException("Given output id not found.");
+		}
+		return internalOutputsList.get(index);
+	}
+
+	/**
+	 * Returns <code>Output</code> object representing the internal connection
+	 * from the input with the given index to internal blocks.
+	 * 
+	 * @param index
+	 *            index of input to which connect the internal blocks
+	 * @return <code>Output</code> object representing the input internally
+	 */
+	public final Output internalInput(final int index) {
+
+		return internalInputsList.get(index);
+	}
+
+	/**
+	 * Returns <code>Input</code> object representing the internal connection
+	 * from internal blocks to the output with the given index.
+	 * 
+	 * @param index
+	 *            index of output to which connect the internal blocks
+	 * @return <code>Input</code> object representing the output internally
+	 */
+	public final Input internalOutput(final int index) {
+
+		return internalOutputsList.get(index);
+	}
+
+	/**
+	 * Returns whether the given <code>Input</code> object is one of the
+	 * internal connections to the outputs of this compound block. Otherwise
+	 * the given input belongs to the outer side of this block or to another
+	 * block. Only inputs owned by this block are looked up, so checking the
+	 * inputs of other blocks costs a single comparison.
+	 * 
+	 * @param input
+	 *            input to check
+	 * @return true, if given input is an internal output of this block
+	 */
+	public final boolean isInternalOutput(final Input input) {
+
+		if (input.getOwnerBlock() != this) {
+			return false;
 		}
-		throw new IllegalArgumentException("Given output id not found.");
+		return internalOutputsSet.contains(input);
 	}
 
 	@Override
-	public final void evaluate() {
+	protected final void calculateOutputs() {
 
 		/*
 		 * TODO Decouple evaluation of block and evaluation of next blocks so at
@@ -144,47 +203,32 @@ public class CompoundBlock extends Block {
 		 * evaluate on their next hops.
 		 */
 
-		if (!wasAlreadyEvaluated()) {
-			LOG.debug("Evaluate compound block " + getBlockID());
+		LOG.debug("Evaluate compound block {}", getBlockID());
 
-			// copy values from outer inputs to internal ones
-			for (String s : inputList()) {
-				internalInput(s).setSignalValue(input(s).getSignalValue());
-				internalInput(s).propagateOutput();
-			}
+		// copy values from outer inputs to internal ones
+		for (int i = 0; i < internalInputsList.size(); i++) {
+			Output o = internalInputsList.get(i);
+			o.setSignalValue(input(i).getSignalValue());
+			o.propagateOutput();
+		}
 
-			// call evaluate for all children
-			for (Output o : internalInputsList) {
-				for (Input nextHop : o.listNextHops()) {
-					nextHop.getOwnerBlock().evaluate();
+		// evaluate all children in the order they are connected
+		final int depth = countScheduledBlocks();
+		for (int i = internalInputsList.size() - 1; i >= 0; i--) {
+			Output o = internalInputsList.get(i);
+			for (int j = o.countNextHops() - 1; j >= 0; j--) {
+				Input nextHop = o.nextHop(j);
+				if (!isInternalOutput(nextHop)) {
+					scheduleBlock(nextHop.getOwnerBlock());
 				}
 			}
-
-			// set outer outputs to internal values
-			for (String s : outputList()) {
-				output(s).setSignalValue(internalOutput(s).getSignalValue());
-			}
-
-			propagateBlockOutputs();
-
-			hasBeenEvaluated();
-
-			evaluateNextHops();
 		}
-	}
+		evaluateScheduledBlocks(depth);
 
-	@Override
-	public final void unevaluate() {
-
-		// call unevaluate for all children
-		for (Output o : internalInputsList) {
-			for (Input nextHop : o.listNextHops()) {
-				nextHop.getOwnerBlock().unevaluate();
-			}
+		// set outer outputs to internal values
+		for (int i = 0; i < internalOutputsList.size(); i++) {
+			output(i).setSignalValue(
+					internalOutputsList.get(i).getSignalValue());
 		}
-
-		resetEvaluated();
-
-		unevaluateNextHops();
 	}
 }
@@ -76,25 +76,21 @@ public class NAND extends BaseBlock {
 	}
 
 	@Override
-	public void evaluate() {
+	protected void calculateOutputs() {
 
 		LOG.trace("Evaluating NAND block...");
 
-		if (!wasAlreadyEvaluated()) {
-			// calculate output of NAND block and...
-			output("1").setSignalValue(Signals.ZERO);
-			for (String s : inputList()) {
-				if (input(s).getSignalValue() == Signals.ZERO) {
-					output("1").setSignalValue(Signals.ONE);
-					break;
-				}
+		// calculate output of NAND block
+		Signals value = Signals.ZERO;
+		for (int i = 0; i < countInputs(); i++) {
+			final Signals in = input(i).getSignalValue();
+			if (in == Signals.ZERO) {
+				value = Signals.ONE;
+				break;
+			} else if (in != Signals.ONE) {
+				value = Signals.X;
 			}
-
-			propagateBlockOutputs();
-
-			hasBeenEvaluated();
-
-			evaluateNextHops();
 		}
+		output(0).setSignalValue(value);
 	}
 }
@@ -76,25 +76,21 @@ public class NOR extends BaseBlock {
 	}
 
 	@Override
-	public void evaluate() {
+	protected void calculateOutputs() {
 
 		LOG.trace("Evaluating NOR block...");
 
-		if (!wasAlreadyEvaluated()) {
-			// calculate output of NOR block and...
-			output("1").setSignalValue(Signals.ONE);
-			for (String s : inputList()) {
-				if (input(s).getSignalValue() == Signals.ONE) {
-					output("1").setSignalValue(Signals.ZERO);
-					break;
-				}
+		// calculate output of NOR block
+		Signals value = Signals.ONE;
+		for (int i = 0; i < countInputs(); i++) {
+			final Signals in = input(i).getSignalValue();
+			if (in == Signals.ONE) {
+				value = Signals.ZERO;
+				break;
+			} else if (in != Signals.ZERO) {
+				value = Signals.X;
 			}
-
-			propagateBlockOutputs();
-
-			hasBeenEvaluated();
-
-			evaluateNextHops();
 		}
+		output(0).setSignalValue(value);
 	}
 }
@@ -66,21 +66,15 @@ public class NOT extends BaseBlock {
 	}
 
 	@Override
-	public void evaluate() {
-
-		if (!wasAlreadyEvaluated()) {
-			// calculate output of NOT block and...
-			if (input("1").getSignalValue() == Signals.ONE) {
-				output("1").setSignalValue(Signals.ZERO);
-			} else if (input("1").getSignalValue() == Signals.ZERO) {
-				output("1").setSignalValue(Signals.ONE);
-			}
-
-			propagateBlockOutputs();
-
-			hasBeenEvaluated();
-
-			evaluateNextHops();
+	protected void calculateOutputs() {
+
+		// calculate output of NOT block
+		if (input(0).getSignalValue() == Signals.ONE) {
+			output(0).setSignalValue(Signals.ZERO);
+		} else if (input(0).getSignalValue() == Signals.ZERO) {
+			output(0).setSignalValue(Signals.ONE);
+		} else {
+			output(0).setSignalValue(Signals.X);
 		}
 	}
 }
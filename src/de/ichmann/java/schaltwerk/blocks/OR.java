@@ -75,25 +75,21 @@ public class OR extends BaseBlock {
 	}
 
 	@Override
-	public void evaluate() {
+	protected void calculateOutputs() {
 
 		LOG.trace("Evaluating OR block...");
 
-		if (!wasAlreadyEvaluated()) {
-			// calculate output of OR block and...
-			output("1").setSignalValue(Signals.ZERO);
-			for (String s : inputList()) {
-				if (input(s).getSignalValue() == Signals.ONE) {
-					output("1").setSignalValue(Signals.ONE);
-					break;
-				}
+		// calculate output of OR block
+		Signals value = Signals.ZERO;
+		for (int i = 0; i < countInputs(); i++) {
+			final Signals in = input(i).getSignalValue();
+			if (in == Signals.ONE) {
+				value = Signals.ONE;
+				break;
+			} else if (in != Signals.ZERO) {
+				value = Signals.X;
 			}
-
-			propagateBlockOutputs();
-
-			hasBeenEvaluated();
-
-			evaluateNextHops();
 		}
+		output(0).setSignalValue(value);
 	}
 }
@@ -83,14 +83,37 @@ public class Output extends Signal {
 		return Collections.unmodifiableList(nextHops);
 	}
 
+	/**
+	 * Returns number of next hops connected to this output.
+	 * 
+	 * @return number of next hops
+	 */
+	public final int countNextHops() {
+
+		return nextHops.size();
+	}
+
+	/**
+	 * Returns next hop for given index.
+	 * 
+	 * @param index
+	 *            index of next hop starting by zero
+	 * @return next hop for given index
+	 */
+	public final Input nextHop(final int index) {
+
+		return nextHops.get(index);
+	}
+
 	/**
 	 * Propagates value of this output to all next hops connected to this
 	 * output.
 	 */
 	protected final void propagateOutput() {
 
-		for (Input nextHop : listNextHops()) {
-			nextHop.setSignalValue(getSignalValue());
+		final Signals value = getSignalValue();
+		for (int i = 0; i < nextHops.size(); i++) {
+			nextHops.get(i).setSignalValue(value);
 		}
 	}
 
@@ -0,0 +1,188 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.blocks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clocked block storing a number of bits. The stored bits are only changed by
+ * a clock edge, i.e. a call of <code>clock()</code>, which copies the values
+ * at the data inputs. Evaluating the block only writes the stored bits to its
+ * outputs, so registers break all feedback loops running through them.
+ * <p>
+ * A register with a width of one has the input "D" and the output "Q",
+ * otherwise inputs are named "D0", "D1", ... and outputs "Q0", "Q1", ... A
+ * register with enable input "EN" only stores its data inputs when the enable
+ * input is ONE. A register with a width of one and without enable input is a
+ * D flip-flop. All bits start with the value ZERO. Like the values of all
+ * signals, the stored bits are kept in the default <code>SignalStore</code>,
+ * so a snapshot of the store contains the state of all registers.
+ * 
+ * @author Christian Wichmann
+ */
+public class Register extends Block {
+
+	/**
+	 * Identification of the enable input.
+	 */
+	public static final String ENABLE = "EN";
+
+	private static int registerBlockCount = 0;
+
+	private final int width;
+	private final boolean enable;
+	private final int stateIndex;
+
+	/**
+	 * Initializes a register. A valid block id will be generated
+	 * automatically.
+	 * 
+	 * @param width
+	 *            number of stored bits
+	 * @param enable
+	 *            whether register has an enable input
+	 */
+	public Register(final int width, final boolean enable) {
+
+		this(generateBlockID(), width, enable);
+	}
+
+	/**
+	 * Initializes a register with a given block id.
+	 * 
+	 * @param blockID
+	 *            block identification
+	 * @param width
+	 *            number of stored bits
+	 * @param enable
+	 *            whether register has an enable input
+	 * @throws IllegalArgumentException
+	 *             if width is not positive
+	 */
+	public Register(final String blockID, final int width,
+			final boolean enable) {
+
+		super(blockID, inputNames(width, enable), outputNames(width));
+
+		this.width = width;
+		this.enable = enable;
+		this.stateIndex = SignalStore.getInstance().allocate(width);
+
+		setBlockType(width == 1 && !enable ? Blocks.D_FLIPFLOP
+				: Blocks.REGISTER);
+	}
+
+	/**
+	 * Generates a new block id by combining name of this block and a
+	 * incrementing number.
+	 * 
+	 * @return new block id
+	 */
+	private static String generateBlockID() {
+
+		String s = "REG." + Integer.toString(registerBlockCount);
+
+		registerBlockCount += 1;
+
+		return s;
+	}
+
+	private static List<String> inputNames(final int width,
+			final boolean enable) {
+
+		if (width < 1) {
+			throw new IllegalArgumentException("Width has to be positive.");
+		}
+		final List<String> names = new ArrayList<String>();
+		for (int i = 0; i < width; i++) {
+			names.add(width == 1 ? "D" : "D" + i);
+		}
+		if (enable) {
+			names.add(ENABLE);
+		}
+		return names;
+	}
+
+	private static List<String> outputNames(final int width) {
+
+		final List<String> names = new ArrayList<String>();
+		for (int i = 0; i < width; i++) {
+			names.add(width == 1 ? "Q" : "Q" + i);
+		}
+		return names;
+	}
+
+	@Override
+	protected void calculateOutputs() {
+
+		// outputs only change on clock edges
+		for (int i = 0; i < width; i++) {
+			output(i).setSignalValue(getState(i));
+		}
+	}
+
+	/**
+	 * Stores the current values of all data inputs, if the register has no
+	 * enable input or the enable input is ONE. The outputs change when the
+	 * block is evaluated the next time, so all registers of a circuit can be
+	 * clocked one after another before the circuit is evaluated.
+	 */
+	public final void clock() {
+
+		if (enable && input(width).getSignalValue() != Signals.ONE) {
+			return;
+		}
+		final SignalStore store = SignalStore.getInstance();
+		for (int i = 0; i < width; i++) {
+			store.setSignalValue(stateIndex + i, input(i).getSignalValue());
+		}
+	}
+
+	/**
+	 * Returns number of bits stored by this register.
+	 * 
+	 * @return width of register
+	 */
+	public final int getWidth() {
+
+		return width;
+	}
+
+	/**
+	 * Returns whether this register has an enable input.
+	 * 
+	 * @return true, if register has an enable input
+	 */
+	public final boolean hasEnable() {
+
+		return enable;
+	}
+
+	/**
+	 * Gets a stored bit.
+	 * 
+	 * @param index
+	 *            index of bit
+	 * @return value of bit
+	 */
+	public final Signals getState(final int index) {
+
+		return SignalStore.getInstance().getSignalValue(stateIndex + index);
+	}
+}
@@ -20,27 +20,30 @@ package de.ichmann.java.schaltwerk.blocks;
 /**
  * Represents a point in a digital circuit which holds a specific signal. A
  * signal could be a Input or Output of a block.
+ * <p>
+ * The value of a signal is not held by this object but by the default
+ * <code>SignalStore</code>. Every signal only remembers its index inside the
+ * store.
  * 
  * @author Christian Wichmann
  */
 public class Signal {
 
 	private final Block owner;
-	private Signals signalValue;
+	private final int signalIndex;
 	private String signalID;
 
 	public Signal(Block owner, String signalID, Signals signalValue) {
 
-		this.owner = owner;
-		this.signalID = signalID;
-		this.signalValue = signalValue;
+		this(owner, signalID);
+		setSignalValue(signalValue);
 	}
 
 	public Signal(Block owner, String signalID) {
 
 		this.owner = owner;
 		this.signalID = signalID;
-		this.signalValue = Signals.ZERO;
+		this.signalIndex = SignalStore.getInstance().allocate();
 	}
 
 	/**
@@ -64,6 +67,16 @@ public class Signal {
 		return signalID;
 	}
 
+	/**
+	 * Gets index of this signal inside the default <code>SignalStore</code>.
+	 * 
+	 * @return index of signal value
+	 */
+	public final int getSignalIndex() {
+
+		return signalIndex;
+	}
+
 	/**
 	 * Gets signal value for this signal.
 	 * 
@@ -71,7 +84,7 @@ public class Signal {
 	 */
 	public Signals getSignalValue() {
 
-		return signalValue;
+		return SignalStore.getInstance().getSignalValue(signalIndex);
 	}
 
 	/**
@@ -82,7 +95,7 @@ public class Signal {
 	 */
 	public void setSignalValue(Signals newSignal) {
 
-		signalValue = newSignal;
+		SignalStore.getInstance().setSignalValue(signalIndex, newSignal);
 	}
 
 	@Override
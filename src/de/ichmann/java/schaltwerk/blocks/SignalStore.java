@@ -0,0 +1,306 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.blocks;
+
+import java.util.Arrays;
+
+/**
+ * Stores values of many signals packed as bits in an array of
+ * <code>long</code> words. Every signal gets an index in the store when it is
+ * allocated. A snapshot of all values is a plain copy of the array.
+ * <p>
+ * The values X and Z need a second bit per signal. These bits are held in a
+ * second array that is only created when the first signal is set to X or Z,
+ * so binary simulations do not pay for them. The pair of bits (value,
+ * unknown) encodes ZERO as (0,0), ONE as (1,0), X as (0,1) and Z as (1,1).
+ * <p>
+ * All simulators read values the same way: a gate reads Z as X, as given by
+ * <code>resolve()</code>, and wherever only two values can be held, X and
+ * therefore Z are read as ZERO, as given by <code>toBinary()</code>.
+ * <p>
+ * All <code>Signal</code> objects keep their values in the default store
+ * returned by <code>getInstance()</code>. Indices are never released, because
+ * a lost index only costs a single bit. This class is not thread safe.
+ * 
+ * @author Christian Wichmann
+ */
+public final class SignalStore {
+
+	private static final int INITIAL_WORDS = 16;
+
+	private static SignalStore signalStore = null;
+
+	private long[] words;
+	private long[] unknownWords = null;
+	private int size = 0;
+
+	/**
+	 * Initializes an empty store.
+	 */
+	public SignalStore() {
+
+		words = new long[INITIAL_WORDS];
+	}
+
+	/**
+	 * Returns default store for all signals of blocks.
+	 * 
+	 * @return default store
+	 */
+	public static SignalStore getInstance() {
+
+		if (signalStore == null) {
+			signalStore = new SignalStore();
+		}
+		return signalStore;
+	}
+
+	/**
+	 * Allocates a new signal in this store. Its value is ZERO.
+	 * 
+	 * @return index of new signal
+	 */
+	public int allocate() {
+
+		return allocate(1);
+	}
+
+	/**
+	 * Allocates a number of consecutive signals in this store. Their values
+	 * are ZERO.
+	 * 
+	 * @param count
+	 *            number of signals to allocate
+	 * @return index of first new signal
+	 */
+	public int allocate(final int count) {
+
+		final int first = size;
+		final int neededWords = countWords(first + count);
+		if (neededWords > words.length) {
+			words = Arrays.copyOf(words,
+					Math.max(neededWords, 2 * words.length));
+			if (unknownWords != null) {
+				unknownWords = Arrays.copyOf(unknownWords, words.length);
+			}
+		}
+		size += count;
+		return first;
+	}
+
+	/**
+	 * Returns number of signals allocated in this store.
+	 * 
+	 * @return number of signals
+	 */
+	public int size() {
+
+		return size;
+	}
+
+	/**
+	 * Returns the value a gate reads from a signal with the given value. A
+	 * floating signal (Z) is read as X.
+	 * 
+	 * @param value
+	 *            signal value
+	 * @return value read by a gate
+	 */
+	public static Signals resolve(final Signals value) {
+
+		return value == Signals.Z ? Signals.X : value;
+	}
+
+	/**
+	 * Returns the binary value of a signal value. X and Z are read as ZERO.
+	 * 
+	 * @param value
+	 *            signal value
+	 * @return true, if signal value is ONE
+	 */
+	public static boolean toBinary(final Signals value) {
+
+		return resolve(value) == Signals.ONE;
+	}
+
+	/**
+	 * Gets binary value of a signal as given by <code>toBinary()</code>, so
+	 * signals with value X or Z are read as ZERO.
+	 * 
+	 * @param index
+	 *            index of signal
+	 * @return true, if signal is ONE
+	 */
+	public boolean get(final int index) {
+
+		return (words[index >>> 6] & 1L << index) != 0 && !isUnknown(index);
+	}
+
+	/**
+	 * Sets value of a signal.
+	 * 
+	 * @param index
+	 *            index of signal
+	 * @param value
+	 *            true, if signal should be ONE
+	 */
+	public void set(final int index, final boolean value) {
+
+		if (value) {
+			words[index >>> 6] |= 1L << index;
+		} else {
+			words[index >>> 6] &= ~(1L << index);
+		}
+		if (unknownWords != null) {
+			unknownWords[index >>> 6] &= ~(1L << index);
+		}
+	}
+
+	/**
+	 * Returns whether a signal has the value X or Z.
+	 * 
+	 * @param index
+	 *            index of signal
+	 * @return true, if signal is X or Z
+	 */
+	public boolean isUnknown(final int index) {
+
+		return unknownWords != null
+				&& (unknownWords[index >>> 6] & 1L << index) != 0;
+	}
+
+	/**
+	 * Gets value of a signal.
+	 * 
+	 * @param index
+	 *            index of signal
+	 * @return signal value
+	 */
+	public Signals getSignalValue(final int index) {
+
+		final boolean bit = (words[index >>> 6] & 1L << index) != 0;
+		if (isUnknown(index)) {
+			return bit ? Signals.Z : Signals.X;
+		}
+		return bit ? Signals.ONE : Signals.ZERO;
+	}
+
+	/**
+	 * Sets value of a signal.
+	 * 
+	 * @param index
+	 *            index of signal
+	 * @param value
+	 *            signal value to be set
+	 */
+	public void setSignalValue(final int index, final Signals value) {
+
+		set(index, value == Signals.ONE || value == Signals.Z);
+		if (value == Signals.X || value == Signals.Z) {
+			if (unknownWords == null) {
+				unknownWords = new long[words.length];
+			}
+			unknownWords[index >>> 6] |= 1L << index;
+		}
+	}
+
+	/**
+	 * Returns a copy of the values of all signals in this store. Signals with
+	 * value X or Z are additionally marked in the words returned by
+	 * <code>snapshotUnknown()</code>.
+	 * 
+	 * @return packed values of all signals
+	 */
+	public long[] snapshot() {
+
+		return Arrays.copyOf(words, countWords(size));
+	}
+
+	/**
+	 * Returns a copy of the bits marking signals with value X or Z. Stores
+	 * that never held such a value only use two values, so no words are
+	 * needed.
+	 * 
+	 * @return packed unknown bits of all signals or null, if no signal was
+	 *         ever set to X or Z
+	 */
+	public long[] snapshotUnknown() {
+
+		if (unknownWords == null) {
+			return null;
+		}
+		return Arrays.copyOf(unknownWords, countWords(size));
+	}
+
+	/**
+	 * Restores values of the first signals from a snapshot taken earlier.
+	 * The snapshot may have been taken while the store was smaller, so
+	 * signals allocated later keep their values.
+	 * 
+	 * @param values
+	 *            packed values of signals as returned by
+	 *            <code>snapshot()</code>
+	 * @param unknown
+	 *            packed unknown bits as returned by
+	 *            <code>snapshotUnknown()</code> or null, if all restored
+	 *            signals are ZERO or ONE
+	 * @param count
+	 *            number of signals in the snapshot
+	 * @throws IllegalArgumentException
+	 *             if snapshot contains more signals than this store or its
+	 *             arrays are too short
+	 */
+	public void restore(final long[] values, final long[] unknown,
+			final int count) {
+
+		final int length = countWords(count);
+		if (count < 0 || count > size || values.length < length
+				|| unknown != null && unknown.length < length) {
+			throw new IllegalArgumentException(
+					"Snapshot does not fit into signal store.");
+		}
+		if (unknown != null && unknownWords == null) {
+			unknownWords = new long[words.length];
+		}
+		restorePrefix(words, values, count);
+		if (unknownWords != null) {
+			restorePrefix(unknownWords, unknown == null ? new long[length]
+					: unknown, count);
+		}
+	}
+
+	/**
+	 * Copies the first bits of a snapshot into an array of words. The
+	 * remaining bits of the last word stay unchanged.
+	 */
+	private static void restorePrefix(final long[] target,
+			final long[] source, final int count) {
+
+		final int full = count >>> 6;
+		System.arraycopy(source, 0, target, 0, full);
+		final long mask = (1L << count) - 1;
+		if ((count & (Long.SIZE - 1)) != 0) {
+			target[full] = target[full] & ~mask | source[full] & mask;
+		}
+	}
+
+	private static int countWords(final int count) {
+
+		return (count + Long.SIZE - 1) >>> 6;
+	}
+}
@@ -18,8 +18,9 @@
 package de.ichmann.java.schaltwerk.blocks;
 
 /**
- * Represents values a signal can have. At the moment only two possibilities
- * (binary logic) are used.
+ * Represents values a signal can have. Besides the two binary values a signal
+ * can be unknown (X) or not driven at all (Z). Base blocks treat Z at their
+ * inputs like X and never put out Z themselves.
  * 
  * @author Christian Wichmann
  */
@@ -33,5 +34,17 @@ public enum Signals {
 	/**
 	 * A binary one or true or on signal.
 	 */
-	ONE
+	ONE,
+
+	/**
+	 * An unknown signal, e.g. the output of an uninitialized flip-flop or of a
+	 * block with unknown inputs.
+	 */
+	X,
+
+	/**
+	 * A signal in high impedance state, e.g. an input not driven by any
+	 * output.
+	 */
+	Z
 }
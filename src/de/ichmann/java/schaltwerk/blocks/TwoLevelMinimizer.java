@@ -0,0 +1,378 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.blocks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Minimizes a boolean function into a sum of products. The function is given
+ * as bitsets over all minterms: bit <i>m</i> of the on-set is set if the
+ * function is ONE for the input vector <i>m</i>, where variable <i>i</i> is
+ * bit <i>i</i> of <i>m</i>. Minterms in the set of don't cares may be covered
+ * or not.
+ * <p>
+ * Products (cubes) are stored in a long: the upper int holds a mask of all
+ * variables not occurring in the product and the lower int holds the values
+ * of all other variables. A cube covers minterm <i>m</i> if <i>m</i> and the
+ * value agree in all variables not masked.
+ * <p>
+ * Functions with up to <code>EXACT_LIMIT</code> variables are minimized by
+ * Quine-McCluskey. All implicants with the same mask are stored in a bitset
+ * indexed by their values, so merging implicants is a lookup of the neighbor
+ * value. Larger functions are minimized like Espresso: every minterm not yet
+ * covered is expanded into a prime implicant by removing variables as long as
+ * the cube does not intersect the off-set. Both methods finish by removing
+ * redundant cubes from the selected cover.
+ * 
+ * @author Christian Wichmann
+ */
+final class TwoLevelMinimizer {
+
+	/**
+	 * Maximum number of variables of a function.
+	 */
+	static final int MAX_VARIABLES = 20;
+
+	/**
+	 * Maximum number of variables minimized by Quine-McCluskey.
+	 */
+	static final int EXACT_LIMIT = 10;
+
+	private final int variables;
+	private final int minterms;
+	private final BitSet onSet;
+	private final BitSet dontCares;
+
+	/**
+	 * Initializes minimizer for a given function.
+	 * 
+	 * @param variables
+	 *            number of variables
+	 * @param onSet
+	 *            minterms for which the function is ONE
+	 * @param dontCares
+	 *            minterms for which the function is not specified
+	 */
+	TwoLevelMinimizer(final int variables, final BitSet onSet,
+			final BitSet dontCares) {
+
+		if (variables < 0 || variables > MAX_VARIABLES) {
+			throw new IllegalArgumentException(
+					"Number of variables out of range: " + variables);
+		}
+		this.variables = variables;
+		this.minterms = 1 << variables;
+		if (onSet.length() > minterms || dontCares.length() > minterms) {
+			throw new IllegalArgumentException(
+					"Truth table has more entries than minterms.");
+		}
+		this.onSet = (BitSet) onSet.clone();
+		this.onSet.andNot(dontCares);
+		this.dontCares = dontCares;
+	}
+
+	/**
+	 * Gets mask of variables not occurring in a cube.
+	 */
+	static int free(final long cube) {
+
+		return (int) (cube >>> 32);
+	}
+
+	/**
+	 * Gets values of all variables occurring in a cube.
+	 */
+	static int value(final long cube) {
+
+		return (int) cube;
+	}
+
+	private static long cube(final int free, final int value) {
+
+		return (long) free << 32 | value & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Minimizes the function.
+	 * 
+	 * @return cubes of a sum of products, sorted by mask and value
+	 */
+	long[] minimize() {
+
+		final List<Long> cover;
+		if (onSet.isEmpty()) {
+			cover = new ArrayList<Long>();
+		} else if (variables <= EXACT_LIMIT) {
+			cover = selectCover(findPrimeImplicants());
+		} else {
+			cover = expandMinterms();
+		}
+		removeRedundantCubes(cover);
+
+		final long[] cubes = new long[cover.size()];
+		for (int c = 0; c < cubes.length; c++) {
+			cubes[c] = cover.get(c);
+		}
+		Arrays.sort(cubes);
+		return cubes;
+	}
+
+	/**
+	 * Finds all prime implicants by Quine-McCluskey. Implicants are merged
+	 * with increasing masks, so all implicants with a mask are known before
+	 * they are merged into larger ones.
+	 */
+	private List<Long> findPrimeImplicants() {
+
+		final BitSet[] implicants = new BitSet[minterms];
+		final BitSet[] merged = new BitSet[minterms];
+		for (int free = 0; free < minterms; free++) {
+			implicants[free] = new BitSet();
+			merged[free] = new BitSet();
+		}
+		implicants[0].or(onSet);
+		implicants[0].or(dontCares);
+
+		final List<Long> primes = new ArrayList<Long>();
+		for (int free = 0; free < minterms; free++) {
+			final BitSet current = implicants[free];
+			for (int v = current.nextSetBit(0); v >= 0; v = current
+					.nextSetBit(v + 1)) {
+				for (int b = 0; b < variables; b++) {
+					final int bit = 1 << b;
+					if ((free & bit) != 0 || (v & bit) != 0) {
+						continue;
+					}
+					if (current.get(v | bit)) {
+						implicants[free | bit].set(v);
+						merged[free].set(v);
+						merged[free].set(v | bit);
+					}
+				}
+				if (!merged[free].get(v)) {
+					primes.add(cube(free, v));
+				}
+			}
+			// release memory of finished masks
+			implicants[free] = null;
+			merged[free] = null;
+		}
+		return primes;
+	}
+
+	/**
+	 * Selects essential prime implicants and completes the cover by choosing
+	 * the prime implicant covering most of the remaining minterms.
+	 */
+	private List<Long> selectCover(final List<Long> primes) {
+
+		final int[] counts = new int[minterms];
+		for (long prime : primes) {
+			addCoverage(prime, counts, 1);
+		}
+
+		final List<Long> cover = new ArrayList<Long>();
+		final BitSet covered = new BitSet(minterms);
+		final boolean[] selected = new boolean[primes.size()];
+		for (int p = 0; p < primes.size(); p++) {
+			final long prime = primes.get(p);
+			final int free = free(prime);
+			final int value = value(prime);
+			for (int s = free;; s = (s - 1) & free) {
+				final int m = value | s;
+				if (counts[m] == 1 && onSet.get(m)) {
+					selected[p] = true;
+					break;
+				}
+				if (s == 0) {
+					break;
+				}
+			}
+			if (selected[p]) {
+				cover.add(prime);
+				markCovered(prime, covered);
+			}
+		}
+
+		BitSet remaining = (BitSet) onSet.clone();
+		remaining.andNot(covered);
+		while (!remaining.isEmpty()) {
+			int best = -1;
+			int bestCount = 0;
+			for (int p = 0; p < primes.size(); p++) {
+				if (selected[p]) {
+					continue;
+				}
+				final int count = countUncovered(primes.get(p), remaining);
+				if (count > bestCount
+						|| (count == bestCount && count > 0 && Integer
+								.bitCount(free(primes.get(p))) > Integer
+								.bitCount(free(primes.get(best))))) {
+					best = p;
+					bestCount = count;
+				}
+			}
+			selected[best] = true;
+			cover.add(primes.get(best));
+			markCovered(primes.get(best), remaining, false);
+		}
+		return cover;
+	}
+
+	/**
+	 * Expands every minterm not yet covered into a prime implicant. A
+	 * variable is removed from the cube if the mirrored half of the cube
+	 * contains no minterm of the off-set.
+	 */
+	private List<Long> expandMinterms() {
+
+		final List<Long> cover = new ArrayList<Long>();
+		final BitSet covered = new BitSet(minterms);
+		for (int m = onSet.nextSetBit(0); m >= 0; m = onSet.nextSetBit(m + 1)) {
+			if (covered.get(m)) {
+				continue;
+			}
+			int free = 0;
+			int value = m;
+			for (int b = 0; b < variables; b++) {
+				final int bit = 1 << b;
+				if (!intersectsOffSet(free, value ^ bit)) {
+					free |= bit;
+					value &= ~bit;
+				}
+			}
+			final long cube = cube(free, value);
+			cover.add(cube);
+			markCovered(cube, covered);
+		}
+		return cover;
+	}
+
+	/**
+	 * Returns whether a cube contains a minterm that is neither in the on-set
+	 * nor a don't care.
+	 */
+	private boolean intersectsOffSet(final int free, final int value) {
+
+		for (int s = free;; s = (s - 1) & free) {
+			final int m = value | s;
+			if (!onSet.get(m) && !dontCares.get(m)) {
+				return true;
+			}
+			if (s == 0) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Removes cubes whose minterms of the on-set are all covered by other
+	 * cubes. Cubes with more variables are tried first.
+	 */
+	private void removeRedundantCubes(final List<Long> cover) {
+
+		final int[] counts = new int[minterms];
+		for (long cube : cover) {
+			addCoverage(cube, counts, 1);
+		}
+
+		final Long[] order = cover.toArray(new Long[cover.size()]);
+		Arrays.sort(order, new Comparator<Long>() {
+			@Override
+			public int compare(final Long a, final Long b) {
+
+				return Integer.bitCount(free(a)) - Integer.bitCount(free(b));
+			}
+		});
+		final Set<Long> redundant = new HashSet<Long>();
+		for (Long cube : order) {
+			if (isRedundant(cube, counts)) {
+				addCoverage(cube, counts, -1);
+				redundant.add(cube);
+			}
+		}
+		cover.removeAll(redundant);
+	}
+
+	private boolean isRedundant(final long cube, final int[] counts) {
+
+		final int free = free(cube);
+		final int value = value(cube);
+		for (int s = free;; s = (s - 1) & free) {
+			final int m = value | s;
+			if (onSet.get(m) && counts[m] < 2) {
+				return false;
+			}
+			if (s == 0) {
+				return true;
+			}
+		}
+	}
+
+	private static void addCoverage(final long cube, final int[] counts,
+			final int delta) {
+
+		final int free = free(cube);
+		final int value = value(cube);
+		for (int s = free;; s = (s - 1) & free) {
+			counts[value | s] += delta;
+			if (s == 0) {
+				return;
+			}
+		}
+	}
+
+	private static void markCovered(final long cube, final BitSet covered) {
+
+		markCovered(cube, covered, true);
+	}
+
+	private static void markCovered(final long cube, final BitSet minterms,
+			final boolean state) {
+
+		final int free = free(cube);
+		final int value = value(cube);
+		for (int s = free;; s = (s - 1) & free) {
+			minterms.set(value | s, state);
+			if (s == 0) {
+				return;
+			}
+		}
+	}
+
+	private static int countUncovered(final long cube, final BitSet remaining) {
+
+		final int free = free(cube);
+		final int value = value(cube);
+		int count = 0;
+		for (int s = free;; s = (s - 1) & free) {
+			if (remaining.get(value | s)) {
+				count++;
+			}
+			if (s == 0) {
+				return count;
+			}
+		}
+	}
+}
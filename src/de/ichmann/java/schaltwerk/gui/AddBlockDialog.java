@@ -104,6 +104,14 @@ public class AddBlockDialog extends JDialog {
 				blockView = new BlockView(BlockFactory.getInstance()
 						.getRSFlipFLop(false));
 				break;
+			case D_FLIPFLOP:
+				blockView = new BlockView(BlockFactory.getInstance()
+						.getDFlipFlop());
+				break;
+			case REGISTER:
+				blockView = new BlockView(BlockFactory.getInstance()
+						.getRegister(4, true));
+				break;
 			default:
 				assert false : block;
 				break;
@@ -325,6 +325,12 @@ public class SchaltwerkFrame extends JFrame {
 				case RS_FLIPFLOP:
 					block = BlockFactory.getInstance().getRSFlipFLop(false);
 					break;
+				case D_FLIPFLOP:
+					block = BlockFactory.getInstance().getDFlipFlop();
+					break;
+				case REGISTER:
+					block = BlockFactory.getInstance().getRegister(4, true);
+					break;
 				default:
 					assert false : blockType;
 					break;
@@ -22,6 +22,7 @@ import org.xml.sax.SAXParseException;
 import de.ichmann.java.schaltwerk.blocks.AND;
 import de.ichmann.java.schaltwerk.blocks.BaseBlock;
 import de.ichmann.java.schaltwerk.blocks.Block;
+import de.ichmann.java.schaltwerk.blocks.CircuitDefinition;
 import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
 import de.ichmann.java.schaltwerk.blocks.Input;
 import de.ichmann.java.schaltwerk.blocks.NAND;
@@ -39,6 +40,13 @@ public class XMLImport {
 	// All Blocks are hashed, to allow for signal mapping.
 	private HashMap<String, Block> blockHash = new HashMap<>();
 
+	// Instances share one definition per prototype CompoundBlock.
+	private HashMap<String, CircuitDefinition> definitionHash = new HashMap<>();
+
+	// Instances are created after all blocks were loaded, because their
+	// prototypes may be defined after them.
+	private ArrayList<Element> instanceElements = new ArrayList<>();
+
 	private class SimpleErrorHandler implements ErrorHandler {
 		public void warning(SAXParseException e) throws SAXException {
 			System.out.println(e.getMessage());
@@ -186,6 +194,9 @@ public class XMLImport {
 					temp.outList);
 			blockHash.put(topLevelBlockUUID, parsedBlock);
 
+			// create instances of already loaded CompoundBlocks
+			loadInstances();
+
 			// load signal mapping from xml...
 			ArrayList<SignalMappingContainer> mapping = loadSignalMapping(signalMappingElement);
 			// ...and map the signals
@@ -229,6 +240,9 @@ public class XMLImport {
 					BaseBlock baseBlock = loadBaseBlock(child);
 					blockHash.put(baseBlock.getBlockID(), baseBlock);
 
+				} else if (child.getNodeName().equals("Instance")) {
+					instanceElements.add(child);
+
 				} else if (child.getNodeName() == "in") {
 					inList.add(child.getAttribute("name"));
 				} else if (child.getNodeName() == "out") {
@@ -241,6 +255,36 @@ public class XMLImport {
 		return new IOListContainer(inList, outList);
 	}
 
+	/**
+	 * Create all Instance elements found while loading CompoundBlocks. The
+	 * attribute 'definition' contains the uuid of the CompoundBlock used as
+	 * prototype. All instances of one prototype share a single definition, so
+	 * the prototype should not be connected to any other block.
+	 */
+	private final void loadInstances() {
+
+		for (Element element : instanceElements) {
+			String definitionUUID = element.getAttribute("definition");
+
+			CircuitDefinition definition = definitionHash.get(definitionUUID);
+			if (definition == null) {
+				Block prototype = blockHash.get(definitionUUID);
+				if (!(prototype instanceof CompoundBlock)) {
+					throw new IllegalArgumentException(
+							"Definition of instance not found: "
+									+ definitionUUID);
+				}
+				definition = new CircuitDefinition((CompoundBlock) prototype);
+				definitionHash.put(definitionUUID, definition);
+			}
+
+			Block instance = definition.newInstance(element
+					.getAttribute("uuid"));
+			blockHash.put(instance.getBlockID(), instance);
+		}
+		instanceElements.clear();
+	}
+
 	/**
 	 * Parse the top level xml tag 'SignalMapping' and return an ArrayList of
 	 * signals to map,
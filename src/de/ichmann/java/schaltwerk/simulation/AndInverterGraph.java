@@ -0,0 +1,623 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ichmann.java.schaltwerk.blocks.BaseBlock;
+import de.ichmann.java.schaltwerk.blocks.Blocks;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.Output;
+
+/**
+ * Represents a combinational circuit as And-Inverter Graph (AIG). Every node
+ * is an AND with two inputs and every edge may be complemented, so all
+ * simple gates map onto the same kind of node.
+ * <p>
+ * Signals are given as literals: literal 2 * <i>v</i> is the value of
+ * variable <i>v</i> and literal 2 * <i>v</i> + 1 is its complement. Variable
+ * 0 is the constant ZERO, so literal 0 is <code>FALSE</code> and literal 1 is
+ * <code>TRUE</code>. The variables 1 to <i>n</i> are the inputs of the
+ * circuit and all following variables are AND nodes. The two input literals
+ * of all nodes are stored in a single int array, so a node takes eight bytes
+ * and an AND node is always stored behind its inputs.
+ * <p>
+ * New nodes are simplified and structurally hashed: an AND of a constant, of
+ * a literal with itself or with its complement never creates a node, and an
+ * AND of two literals that are already joined by a node returns this node.
+ * 
+ * @author Christian Wichmann
+ */
+public final class AndInverterGraph {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(AndInverterGraph.class);
+
+	/**
+	 * Literal with the constant value ZERO.
+	 */
+	public static final int FALSE = 0;
+
+	/**
+	 * Literal with the constant value ONE.
+	 */
+	public static final int TRUE = 1;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final String circuitID;
+	private final String[] inputIDs;
+	private final String[] outputIDs;
+	private final int[] outputs;
+
+	private int[] fanins;
+	private int variableCount;
+	private int[] hashTable;
+	private int hashMask;
+
+	/**
+	 * Initializes a graph without any AND nodes. All outputs are
+	 * <code>FALSE</code> until they are set.
+	 * 
+	 * @param circuitID
+	 *            identification of circuit
+	 * @param inputIDs
+	 *            identifications of inputs
+	 * @param outputIDs
+	 *            identifications of outputs
+	 */
+	public AndInverterGraph(final String circuitID, final String[] inputIDs,
+			final String[] outputIDs) {
+
+		this.circuitID = circuitID;
+		this.inputIDs = inputIDs.clone();
+		this.outputIDs = outputIDs.clone();
+		this.outputs = new int[outputIDs.length];
+
+		variableCount = 1 + inputIDs.length;
+		fanins = new int[2 * Math.max(INITIAL_CAPACITY, variableCount)];
+		hashTable = new int[INITIAL_CAPACITY];
+		hashMask = hashTable.length - 1;
+	}
+
+	/**
+	 * Converts a combinational compound block into a graph.
+	 * 
+	 * @param circuit
+	 *            combinational compound block
+	 * @return graph for given circuit
+	 * @throws IllegalArgumentException
+	 *             if circuit contains feedback loops
+	 */
+	public static AndInverterGraph compile(final CompoundBlock circuit) {
+
+		return compile(Netlist.compile(circuit));
+	}
+
+	/**
+	 * Converts the netlist of a combinational circuit into a graph.
+	 * Unconnected inputs of gates are ZERO.
+	 * 
+	 * @param netlist
+	 *            netlist of combinational circuit
+	 * @return graph for given netlist
+	 * @throws IllegalArgumentException
+	 *             if netlist contains feedback loops
+	 */
+	public static AndInverterGraph compile(final Netlist netlist) {
+
+		if (!netlist.isCombinational()) {
+			throw new IllegalArgumentException(
+					"Only combinational circuits can be converted.");
+		}
+
+		final String[] inputIDs = new String[netlist.countInputs()];
+		for (int i = 0; i < inputIDs.length; i++) {
+			inputIDs[i] = netlist.getInputID(i);
+		}
+		final String[] outputIDs = new String[netlist.countOutputs()];
+		for (int o = 0; o < outputIDs.length; o++) {
+			outputIDs[o] = netlist.getOutputID(o);
+		}
+		final AndInverterGraph graph = new AndInverterGraph(
+				netlist.getCircuitID(), inputIDs, outputIDs);
+
+		final int[] literals = new int[netlist.countNets()];
+		literals[Netlist.UNCONNECTED] = FALSE;
+		for (int i = 0; i < inputIDs.length; i++) {
+			literals[netlist.getInputNet(i)] = graph.getInput(i);
+		}
+
+		final Blocks[] types = netlist.gateTypes();
+		final int[] inputStart = netlist.gateInputStart();
+		final int[] inputNets = netlist.gateInputNets();
+		final int[] outputNets = netlist.gateOutputNets();
+		for (int g : netlist.evaluationOrder()) {
+			final int first = inputStart[g];
+			final int last = inputStart[g + 1];
+			final int literal;
+			switch (types[g]) {
+			case AND:
+			case NAND:
+				literal = graph.and(literals, inputNets, first, last, false);
+				break;
+			case OR:
+			case NOR:
+				literal = not(graph.and(literals, inputNets, first, last,
+						true));
+				break;
+			default:
+				literal = literals[inputNets[first]];
+				break;
+			}
+			final boolean inverting = types[g] == Blocks.NAND
+					|| types[g] == Blocks.NOR || types[g] == Blocks.NOT;
+			literals[outputNets[g]] = inverting ? not(literal) : literal;
+		}
+
+		for (int o = 0; o < outputIDs.length; o++) {
+			graph.setOutput(o, literals[netlist.getOutputNet(o)]);
+		}
+
+		LOG.debug("Converted " + netlist.getCircuitID() + " with "
+				+ netlist.countGates() + " gates into " + graph.countAnds()
+				+ " AND nodes.");
+
+		return graph;
+	}
+
+	/**
+	 * Builds a balanced tree of AND nodes for the inputs of a gate.
+	 */
+	private int and(final int[] literals, final int[] nets, final int first,
+			final int last, final boolean complement) {
+
+		if (first == last) {
+			return TRUE;
+		}
+		if (last - first == 1) {
+			final int literal = literals[nets[first]];
+			return complement ? not(literal) : literal;
+		}
+		final int middle = (first + last) >>> 1;
+		return and(and(literals, nets, first, middle, complement),
+				and(literals, nets, middle, last, complement));
+	}
+
+	/**
+	 * Returns the complement of a literal.
+	 * 
+	 * @param literal
+	 *            literal
+	 * @return complemented literal
+	 */
+	public static int not(final int literal) {
+
+		return literal ^ 1;
+	}
+
+	/**
+	 * Returns whether a literal is complemented.
+	 * 
+	 * @param literal
+	 *            literal
+	 * @return true, if literal is the complement of its variable
+	 */
+	public static boolean isComplemented(final int literal) {
+
+		return (literal & 1) != 0;
+	}
+
+	/**
+	 * Returns the variable of a literal.
+	 * 
+	 * @param literal
+	 *            literal
+	 * @return variable of literal
+	 */
+	public static int variable(final int literal) {
+
+		return literal >>> 1;
+	}
+
+	/**
+	 * Returns the literal of an input of the circuit.
+	 * 
+	 * @param index
+	 *            index of input
+	 * @return literal of input
+	 */
+	public int getInput(final int index) {
+
+		if (index < 0 || index >= inputIDs.length) {
+			throw new IllegalArgumentException("Input index out of range.");
+		}
+		return 2 * (1 + index);
+	}
+
+	/**
+	 * Returns the AND of two literals. A node is only created if no node for
+	 * these literals exists and the result is not trivial.
+	 * 
+	 * @param a
+	 *            first literal
+	 * @param b
+	 *            second literal
+	 * @return literal for a AND b
+	 */
+	public int and(final int a, final int b) {
+
+		checkLiteral(a);
+		checkLiteral(b);
+		int left = Math.min(a, b);
+		int right = Math.max(a, b);
+
+		// trivial cases
+		if (left == FALSE || left == not(right)) {
+			return FALSE;
+		}
+		if (left == TRUE || left == right) {
+			return right;
+		}
+
+		// structural hashing with linear probing
+		int slot = hash(left, right) & hashMask;
+		while (hashTable[slot] != 0) {
+			final int v = hashTable[slot];
+			if (fanins[2 * v] == left && fanins[2 * v + 1] == right) {
+				return 2 * v;
+			}
+			slot = (slot + 1) & hashMask;
+		}
+
+		final int v = variableCount++;
+		if (2 * variableCount > fanins.length) {
+			fanins = Arrays.copyOf(fanins, 2 * fanins.length);
+		}
+		fanins[2 * v] = left;
+		fanins[2 * v + 1] = right;
+		hashTable[slot] = v;
+		if (2 * countAnds() > hashTable.length) {
+			rehash();
+		}
+		return 2 * v;
+	}
+
+	/**
+	 * Returns the OR of two literals.
+	 * 
+	 * @param a
+	 *            first literal
+	 * @param b
+	 *            second literal
+	 * @return literal for a OR b
+	 */
+	public int or(final int a, final int b) {
+
+		return not(and(not(a), not(b)));
+	}
+
+	/**
+	 * Doubles the hash table and inserts all nodes again.
+	 */
+	private void rehash() {
+
+		hashTable = new int[2 * hashTable.length];
+		hashMask = hashTable.length - 1;
+		for (int v = 1 + inputIDs.length; v < variableCount; v++) {
+			int slot = hash(fanins[2 * v], fanins[2 * v + 1]) & hashMask;
+			while (hashTable[slot] != 0) {
+				slot = (slot + 1) & hashMask;
+			}
+			hashTable[slot] = v;
+		}
+	}
+
+	private static int hash(final int left, final int right) {
+
+		final int h = left * 0x9E3779B1 + right;
+		return h ^ (h >>> 16);
+	}
+
+	private void checkLiteral(final int literal) {
+
+		if (literal < 0 || variable(literal) >= variableCount) {
+			throw new IllegalArgumentException("Literal not defined: "
+					+ literal);
+		}
+	}
+
+	/**
+	 * Sets the literal driving an output of the circuit.
+	 * 
+	 * @param index
+	 *            index of output
+	 * @param literal
+	 *            literal driving the output
+	 */
+	public void setOutput(final int index, final int literal) {
+
+		checkLiteral(literal);
+		outputs[index] = literal;
+	}
+
+	/**
+	 * Returns the literal driving an output of the circuit.
+	 * 
+	 * @param index
+	 *            index of output
+	 * @return literal driving the output
+	 */
+	public int getOutput(final int index) {
+
+		return outputs[index];
+	}
+
+	/**
+	 * Returns first input literal of an AND node. It is never greater than
+	 * the second one.
+	 * 
+	 * @param variable
+	 *            variable of AND node
+	 * @return first input literal
+	 */
+	public int getFanin0(final int variable) {
+
+		checkAnd(variable);
+		return fanins[2 * variable];
+	}
+
+	/**
+	 * Returns second input literal of an AND node.
+	 * 
+	 * @param variable
+	 *            variable of AND node
+	 * @return second input literal
+	 */
+	public int getFanin1(final int variable) {
+
+		checkAnd(variable);
+		return fanins[2 * variable + 1];
+	}
+
+	/**
+	 * Returns whether a variable is an AND node.
+	 * 
+	 * @param variable
+	 *            variable
+	 * @return true, if variable is an AND node
+	 */
+	public boolean isAnd(final int variable) {
+
+		return variable > inputIDs.length && variable < variableCount;
+	}
+
+	private void checkAnd(final int variable) {
+
+		if (!isAnd(variable)) {
+			throw new IllegalArgumentException("Variable is no AND node: "
+					+ variable);
+		}
+	}
+
+	/**
+	 * Gets identification of the circuit.
+	 * 
+	 * @return id of circuit
+	 */
+	public String getCircuitID() {
+
+		return circuitID;
+	}
+
+	/**
+	 * Gets identification of an input of the circuit.
+	 * 
+	 * @param index
+	 *            index of input
+	 * @return identification of input
+	 */
+	public String getInputID(final int index) {
+
+		return inputIDs[index];
+	}
+
+	/**
+	 * Gets identification of an output of the circuit.
+	 * 
+	 * @param index
+	 *            index of output
+	 * @return identification of output
+	 */
+	public String getOutputID(final int index) {
+
+		return outputIDs[index];
+	}
+
+	/**
+	 * Returns number of inputs of the circuit.
+	 * 
+	 * @return number of inputs
+	 */
+	public int countInputs() {
+
+		return inputIDs.length;
+	}
+
+	/**
+	 * Returns number of outputs of the circuit.
+	 * 
+	 * @return number of outputs
+	 */
+	public int countOutputs() {
+
+		return outputs.length;
+	}
+
+	/**
+	 * Returns number of variables including the constant and all inputs.
+	 * 
+	 * @return number of variables
+	 */
+	public int countVariables() {
+
+		return variableCount;
+	}
+
+	/**
+	 * Returns number of AND nodes.
+	 * 
+	 * @return number of AND nodes
+	 */
+	public int countAnds() {
+
+		return variableCount - 1 - inputIDs.length;
+	}
+
+	/**
+	 * Evaluates the graph for 64 input vectors at once. Bit <i>k</i> of every
+	 * word holds the value for vector <i>k</i>, like for
+	 * <code>BitParallelSimulator</code>.
+	 * 
+	 * @param inputs
+	 *            one word for every input of the circuit
+	 * @param results
+	 *            array receiving one word for every output of the circuit
+	 * @throws IllegalArgumentException
+	 *             if arrays do not match the number of inputs and outputs
+	 */
+	public void evaluate(final long[] inputs, final long[] results) {
+
+		if (inputs.length != inputIDs.length
+				|| results.length != outputs.length) {
+			throw new IllegalArgumentException(
+					"Number of words does not match inputs and outputs.");
+		}
+
+		final long[] words = new long[variableCount];
+		System.arraycopy(inputs, 0, words, 1, inputs.length);
+		for (int v = 1 + inputs.length; v < variableCount; v++) {
+			words[v] = value(words, fanins[2 * v])
+					& value(words, fanins[2 * v + 1]);
+		}
+		for (int o = 0; o < outputs.length; o++) {
+			results[o] = value(words, outputs[o]);
+		}
+	}
+
+	private static long value(final long[] words, final int literal) {
+
+		final long word = words[literal >>> 1];
+		return (literal & 1) != 0 ? ~word : word;
+	}
+
+	/**
+	 * Converts the graph back into a compound block. Every AND node becomes a
+	 * base block: an AND if no input is complemented, a NOR if both inputs are
+	 * complemented and otherwise an AND with a NOT in front of one input.
+	 * Complemented edges share a single NOT per variable. Outputs with the
+	 * constant value ONE are driven by a NAND of the first input and an
+	 * unconnected input, because only blocks reachable from an input are
+	 * simulated.
+	 * 
+	 * @return new compound block
+	 * @throws IllegalArgumentException
+	 *             if an output has the constant value ONE and the graph has
+	 *             no inputs
+	 */
+	public CompoundBlock toCircuit() {
+
+		final CompoundBlock circuit = new CompoundBlock(circuitID,
+				Arrays.asList(inputIDs), Arrays.asList(outputIDs));
+
+		final Output[] sources = new Output[variableCount];
+		final Output[] complements = new Output[variableCount];
+		for (int i = 0; i < inputIDs.length; i++) {
+			sources[1 + i] = circuit.internalInput(i);
+		}
+
+		for (int v = 1 + inputIDs.length; v < variableCount; v++) {
+			final int left = fanins[2 * v];
+			final int right = fanins[2 * v + 1];
+			final String id = "AIG." + v;
+			final BaseBlock gate;
+			if (isComplemented(left) && isComplemented(right)) {
+				gate = NetlistFlattener.createGate(Blocks.NOR, id, 2);
+				sources[variable(left)].connectTo(gate.input(0));
+				sources[variable(right)].connectTo(gate.input(1));
+			} else {
+				gate = NetlistFlattener.createGate(Blocks.AND, id, 2);
+				source(sources, complements, left).connectTo(gate.input(0));
+				source(sources, complements, right).connectTo(gate.input(1));
+			}
+			sources[v] = gate.output(0);
+		}
+
+		Output one = null;
+		for (int o = 0; o < outputs.length; o++) {
+			final int literal = outputs[o];
+			if (literal == TRUE) {
+				if (inputIDs.length == 0) {
+					throw new IllegalArgumentException(
+							"Constant ONE can not be driven without inputs.");
+				}
+				if (one == null) {
+					final BaseBlock nand = NetlistFlattener.createGate(
+							Blocks.NAND, "AIG.TRUE", 2);
+					circuit.internalInput(0).connectTo(nand.input(0));
+					one = nand.output(0);
+				}
+				one.connectTo(circuit.internalOutput(o));
+			} else if (literal != FALSE) {
+				source(sources, complements, literal).connectTo(
+						circuit.internalOutput(o));
+			}
+		}
+		return circuit;
+	}
+
+	/**
+	 * Returns the output driving a literal. NOTs for complemented literals
+	 * are created on first use.
+	 */
+	private static Output source(final Output[] sources,
+			final Output[] complements, final int literal) {
+
+		final int v = variable(literal);
+		if (!isComplemented(literal)) {
+			return sources[v];
+		}
+		if (complements[v] == null) {
+			final BaseBlock not = NetlistFlattener.createGate(Blocks.NOT,
+					"AIG.NOT." + v, 1);
+			sources[v].connectTo(not.input(0));
+			complements[v] = not.output(0);
+		}
+		return complements[v];
+	}
+
+	@Override
+	public String toString() {
+
+		return circuitID + " (" + inputIDs.length + " inputs, " + countAnds()
+				+ " ANDs)";
+	}
+}
@@ -0,0 +1,293 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+
+/**
+ * Simulates a circuit for a stream of input vectors and writes the resulting
+ * output vectors into a sink. Every vector is packed into bytes: the value of
+ * input (or output) <i>i</i> is bit <i>i</i> % 8 of byte <i>i</i> / 8. So a
+ * circuit with N inputs and M outputs reads (N + 7) / 8 bytes and writes (M +
+ * 7) / 8 bytes for every vector.
+ * <p>
+ * Vectors of combinational circuits are independent of each other, so they
+ * are simulated in blocks of 64 vectors by a <code>BitParallelSimulator</code>.
+ * Circuits with feedback loops or registers are simulated vector by vector in
+ * the order of the stream by a <code>CycleSimulator</code>, so the state of
+ * the circuit is carried from one vector to the next. Every vector of a
+ * circuit with registers is one clock cycle: its outputs are read after the
+ * registers were clocked with the inputs of the vector.
+ * <p>
+ * No objects are allocated per vector. Buffers for streaming between channels
+ * are allocated once and reused for all following calls.
+ * 
+ * @author Christian Wichmann
+ */
+public class BatchSimulator {
+
+	/**
+	 * Number of vectors read from a channel at once.
+	 */
+	private static final int VECTORS_PER_BUFFER = 64 * 1024;
+
+	private final Netlist netlist;
+	private final int inputBytes;
+	private final int outputBytes;
+
+	private final BitParallelSimulator parallelSimulator;
+	private final CycleSimulator serialSimulator;
+	private final long[] inputWords;
+	private final long[] outputWords;
+
+	private ByteBuffer inputBuffer = null;
+	private ByteBuffer outputBuffer = null;
+
+	/**
+	 * Initializes a simulator for a given compound block. The compound block
+	 * is compiled into a netlist once.
+	 * 
+	 * @param circuit
+	 *            compound block to simulate
+	 * @throws IllegalArgumentException
+	 *             if circuit has no inputs
+	 */
+	public BatchSimulator(final CompoundBlock circuit) {
+
+		this(Netlist.compile(circuit));
+	}
+
+	/**
+	 * Initializes a simulator for an already compiled netlist.
+	 * 
+	 * @param netlist
+	 *            netlist to simulate
+	 * @throws IllegalArgumentException
+	 *             if netlist has no inputs
+	 */
+	public BatchSimulator(final Netlist netlist) {
+
+		if (netlist.countInputs() == 0) {
+			throw new IllegalArgumentException("Circuit has no inputs.");
+		}
+		this.netlist = netlist;
+		this.inputBytes = (netlist.countInputs() + 7) / 8;
+		this.outputBytes = (netlist.countOutputs() + 7) / 8;
+
+		if (netlist.isCombinational()) {
+			parallelSimulator = new BitParallelSimulator(netlist);
+			serialSimulator = null;
+		} else {
+			parallelSimulator = null;
+			serialSimulator = new CycleSimulator(netlist);
+		}
+		inputWords = new long[netlist.countInputs()];
+		outputWords = new long[netlist.countOutputs()];
+	}
+
+	/**
+	 * Gets netlist simulated by this simulator.
+	 * 
+	 * @return simulated netlist
+	 */
+	public final Netlist getNetlist() {
+
+		return netlist;
+	}
+
+	/**
+	 * Gets number of bytes of a packed input vector.
+	 * 
+	 * @return bytes per input vector
+	 */
+	public final int getInputBytes() {
+
+		return inputBytes;
+	}
+
+	/**
+	 * Gets number of bytes of a packed output vector.
+	 * 
+	 * @return bytes per output vector
+	 */
+	public final int getOutputBytes() {
+
+		return outputBytes;
+	}
+
+	/**
+	 * Simulates all complete input vectors remaining in a buffer as long as
+	 * there is space for their output vectors in the other buffer. The
+	 * positions of both buffers are advanced behind the processed vectors.
+	 * 
+	 * @param inputs
+	 *            buffer with packed input vectors
+	 * @param outputs
+	 *            buffer receiving packed output vectors
+	 * @return number of simulated vectors
+	 */
+	public long simulate(final ByteBuffer inputs, final ByteBuffer outputs) {
+
+		long count = inputs.remaining() / inputBytes;
+		if (outputBytes > 0) {
+			count = Math.min(count, outputs.remaining() / outputBytes);
+		}
+
+		long done = 0;
+		while (done < count) {
+			final int vectors = (int) Math.min(count - done,
+					BitParallelSimulator.VECTORS);
+			if (parallelSimulator != null) {
+				simulateParallel(inputs, outputs, vectors);
+			} else {
+				simulateSerial(inputs, outputs, vectors);
+			}
+			done += vectors;
+		}
+		return done;
+	}
+
+	/**
+	 * Reads packed input vectors from a channel until its end and writes the
+	 * packed output vectors into another channel.
+	 * 
+	 * @param inputs
+	 *            channel with packed input vectors
+	 * @param outputs
+	 *            channel receiving packed output vectors
+	 * @return number of simulated vectors
+	 * @throws IOException
+	 *             if channels could not be read or written or if the stream
+	 *             ends inside of an input vector
+	 */
+	public long simulate(final ReadableByteChannel inputs,
+			final WritableByteChannel outputs) throws IOException {
+
+		if (inputBuffer == null) {
+			inputBuffer = ByteBuffer.allocateDirect(VECTORS_PER_BUFFER
+					* inputBytes);
+			outputBuffer = ByteBuffer.allocateDirect(VECTORS_PER_BUFFER
+					* Math.max(1, outputBytes));
+		}
+		inputBuffer.clear();
+
+		long total = 0;
+		boolean end = false;
+		while (!end) {
+			while (inputBuffer.hasRemaining()) {
+				if (inputs.read(inputBuffer) < 0) {
+					end = true;
+					break;
+				}
+			}
+
+			inputBuffer.flip();
+			outputBuffer.clear();
+			total += simulate(inputBuffer, outputBuffer);
+			outputBuffer.flip();
+			while (outputBuffer.hasRemaining()) {
+				outputs.write(outputBuffer);
+			}
+			inputBuffer.compact();
+		}
+
+		if (inputBuffer.position() > 0) {
+			throw new IOException("Stream ends inside of an input vector.");
+		}
+		return total;
+	}
+
+	/**
+	 * Simulates a block of at most 64 vectors at once. Input vectors are
+	 * transposed into one word for every input and the output words are
+	 * transposed back into vectors.
+	 */
+	private void simulateParallel(final ByteBuffer inputs,
+			final ByteBuffer outputs, final int vectors) {
+
+		final int inputStart = inputs.position();
+		for (int i = 0; i < inputWords.length; i++) {
+			final int offset = inputStart + (i >>> 3);
+			final int shift = i & 7;
+			long word = 0;
+			for (int k = 0; k < vectors; k++) {
+				final int value = inputs.get(offset + k * inputBytes);
+				word |= (long) (value >>> shift & 1) << k;
+			}
+			inputWords[i] = word;
+		}
+		inputs.position(inputStart + vectors * inputBytes);
+
+		parallelSimulator.evaluate(inputWords, outputWords);
+
+		for (int k = 0; k < vectors; k++) {
+			for (int b = 0; b < outputBytes; b++) {
+				int value = 0;
+				final int last = Math.min(outputWords.length, 8 * b + 8);
+				for (int o = 8 * b; o < last; o++) {
+					value |= (int) (outputWords[o] >>> k & 1) << (o & 7);
+				}
+				outputs.put((byte) value);
+			}
+		}
+	}
+
+	/**
+	 * Simulates vectors one after another. Circuits with registers are
+	 * clocked once for every vector.
+	 */
+	private void simulateSerial(final ByteBuffer inputs,
+			final ByteBuffer outputs, final int vectors) {
+
+		final int inputCount = inputWords.length;
+		final int outputCount = outputWords.length;
+
+		for (int k = 0; k < vectors; k++) {
+			final int inputStart = inputs.position();
+			for (int i = 0; i < inputCount; i++) {
+				final int bit = inputs.get(inputStart + (i >>> 3)) >>> (i & 7);
+				serialSimulator.setInput(i, (bit & 1) != 0 ? Signals.ONE
+						: Signals.ZERO);
+			}
+			inputs.position(inputStart + inputBytes);
+
+			if (netlist.countRegisters() > 0) {
+				serialSimulator.cycle();
+			} else {
+				serialSimulator.evaluate();
+			}
+
+			for (int b = 0; b < outputBytes; b++) {
+				int value = 0;
+				final int last = Math.min(outputCount, 8 * b + 8);
+				for (int o = 8 * b; o < last; o++) {
+					if (serialSimulator.getOutput(o) == Signals.ONE) {
+						value |= 1 << (o & 7);
+					}
+				}
+				outputs.put((byte) value);
+			}
+		}
+	}
+}
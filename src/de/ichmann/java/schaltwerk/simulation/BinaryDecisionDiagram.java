@@ -0,0 +1,1035 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ichmann.java.schaltwerk.blocks.Blocks;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+
+/**
+ * Manages reduced ordered binary decision diagrams (ROBDD) over a fixed
+ * number of variables. Every boolean function is represented by exactly one
+ * node, so two functions are equal if and only if their nodes are equal.
+ * <p>
+ * Nodes are identified by int values. Node <code>FALSE</code> and node
+ * <code>TRUE</code> are the terminals. Every other node tests a variable and
+ * has a low child for the value ZERO and a high child for the value ONE. The
+ * variables, children and hash chains of all nodes are stored in int arrays.
+ * A unique table guarantees that no two nodes have the same variable and
+ * children and a computed cache remembers recent results of
+ * <code>ite()</code>.
+ * <p>
+ * The order of the variables is given by levels: the variable at level 0 is
+ * tested first. The size of a diagram depends strongly on this order. It can
+ * be changed by <code>reorder()</code>, which rebuilds all given root nodes
+ * in a fresh node table, so node ids change. It can be improved by
+ * <code>sift()</code>, which swaps neighbouring levels in place, so the
+ * given roots keep their ids. Both free all nodes only used by other
+ * functions.
+ * <p>
+ * Nodes are never freed otherwise. A manager is not thread safe.
+ * 
+ * @author Christian Wichmann
+ */
+public final class BinaryDecisionDiagram {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(BinaryDecisionDiagram.class);
+
+	/**
+	 * Node of the constant function ZERO.
+	 */
+	public static final int FALSE = 0;
+
+	/**
+	 * Node of the constant function ONE.
+	 */
+	public static final int TRUE = 1;
+
+	private static final int INITIAL_NODES = 1 << 10;
+	private static final int CACHE_SIZE = 1 << 16;
+
+	/**
+	 * Variable of freed nodes.
+	 */
+	private static final int FREED = -2;
+
+	private final int variableCount;
+	private int[] levels;
+	private int[] order;
+
+	private int[] nodeVariables;
+	private int[] nodeLows;
+	private int[] nodeHighs;
+	private int[] nodeNext;
+	private int nodeCount;
+	private int[] buckets;
+	private int freeNodes = -1;
+	private int freeCount = 0;
+
+	// reference counts and node lists per variable, only used while sifting
+	private int[] references;
+	private int[] variableHeads;
+	private int[] variableNext;
+	private int liveNodes;
+
+	private int[] cacheKeys;
+	private int[] cacheResults;
+
+	/**
+	 * Initializes a manager with the variables in their natural order.
+	 * 
+	 * @param variables
+	 *            number of variables
+	 */
+	public BinaryDecisionDiagram(final int variables) {
+
+		this(identity(variables));
+	}
+
+	/**
+	 * Initializes a manager with a given order of the variables.
+	 * 
+	 * @param order
+	 *            variable for every level, a permutation of 0 to
+	 *            <i>n</i> - 1
+	 * @throws IllegalArgumentException
+	 *             if order is not a permutation
+	 */
+	public BinaryDecisionDiagram(final int[] order) {
+
+		this.variableCount = order.length;
+		setOrder(order);
+		clear(INITIAL_NODES);
+	}
+
+	private static int[] identity(final int variables) {
+
+		final int[] order = new int[variables];
+		for (int v = 0; v < variables; v++) {
+			order[v] = v;
+		}
+		return order;
+	}
+
+	/**
+	 * Checks and sets order of the variables.
+	 */
+	private void setOrder(final int[] newOrder) {
+
+		final int[] newLevels = new int[variableCount];
+		Arrays.fill(newLevels, -1);
+		if (newOrder.length != variableCount) {
+			throw new IllegalArgumentException("Order has wrong length.");
+		}
+		for (int l = 0; l < variableCount; l++) {
+			final int v = newOrder[l];
+			if (v < 0 || v >= variableCount || newLevels[v] >= 0) {
+				throw new IllegalArgumentException(
+						"Order is no permutation of all variables.");
+			}
+			newLevels[v] = l;
+		}
+		this.order = newOrder.clone();
+		this.levels = newLevels;
+	}
+
+	/**
+	 * Removes all nodes except the terminals and empties the cache.
+	 */
+	private void clear(final int capacity) {
+
+		nodeVariables = new int[capacity];
+		nodeLows = new int[capacity];
+		nodeHighs = new int[capacity];
+		nodeNext = new int[capacity];
+		buckets = new int[Integer.highestOneBit(capacity)];
+		Arrays.fill(buckets, -1);
+		nodeVariables[FALSE] = -1;
+		nodeVariables[TRUE] = -1;
+		nodeCount = 2;
+		freeNodes = -1;
+		freeCount = 0;
+
+		cacheKeys = new int[3 * CACHE_SIZE];
+		Arrays.fill(cacheKeys, -1);
+		cacheResults = new int[CACHE_SIZE];
+	}
+
+	/**
+	 * Returns the level of the variable tested by a node. Terminals are below
+	 * all variables.
+	 */
+	private int level(final int node) {
+
+		final int v = nodeVariables[node];
+		return v < 0 ? variableCount : levels[v];
+	}
+
+	/**
+	 * Returns the node for a variable and children. Nodes are only created if
+	 * both children differ and no equal node exists.
+	 */
+	private int makeNode(final int variable, final int low, final int high) {
+
+		if (low == high) {
+			return low;
+		}
+
+		final int bucket = hash(variable, low, high) & (buckets.length - 1);
+		for (int n = buckets[bucket]; n >= 0; n = nodeNext[n]) {
+			if (nodeVariables[n] == variable && nodeLows[n] == low
+					&& nodeHighs[n] == high) {
+				return n;
+			}
+		}
+
+		final int n;
+		if (freeNodes >= 0) {
+			n = freeNodes;
+			freeNodes = nodeNext[n];
+			freeCount--;
+		} else {
+			if (nodeCount == nodeVariables.length) {
+				grow();
+			}
+			n = nodeCount++;
+		}
+		nodeVariables[n] = variable;
+		nodeLows[n] = low;
+		nodeHighs[n] = high;
+		link(n);
+		return n;
+	}
+
+	/**
+	 * Doubles the node arrays and rebuilds the hash chains. Freed nodes keep
+	 * their link in the list of free nodes.
+	 */
+	private void grow() {
+
+		final int capacity = 2 * nodeVariables.length;
+		nodeVariables = Arrays.copyOf(nodeVariables, capacity);
+		nodeLows = Arrays.copyOf(nodeLows, capacity);
+		nodeHighs = Arrays.copyOf(nodeHighs, capacity);
+		nodeNext = Arrays.copyOf(nodeNext, capacity);
+		if (references != null) {
+			references = Arrays.copyOf(references, capacity);
+			variableNext = Arrays.copyOf(variableNext, capacity);
+		}
+		buckets = new int[capacity];
+		Arrays.fill(buckets, -1);
+		for (int n = 2; n < nodeCount; n++) {
+			if (nodeVariables[n] != FREED) {
+				link(n);
+			}
+		}
+	}
+
+	/**
+	 * Inserts a node into the hash chain of its variable and children.
+	 */
+	private void link(final int node) {
+
+		final int bucket = hash(nodeVariables[node], nodeLows[node],
+				nodeHighs[node]) & (buckets.length - 1);
+		nodeNext[node] = buckets[bucket];
+		buckets[bucket] = node;
+	}
+
+	/**
+	 * Removes a node from the hash chain of its variable and children.
+	 */
+	private void unlink(final int node) {
+
+		final int bucket = hash(nodeVariables[node], nodeLows[node],
+				nodeHighs[node]) & (buckets.length - 1);
+		if (buckets[bucket] == node) {
+			buckets[bucket] = nodeNext[node];
+			return;
+		}
+		int n = buckets[bucket];
+		while (nodeNext[n] != node) {
+			n = nodeNext[n];
+		}
+		nodeNext[n] = nodeNext[node];
+	}
+
+	/**
+	 * Puts a node that was removed from the hash chains into the list of
+	 * free nodes.
+	 */
+	private void release(final int node) {
+
+		nodeVariables[node] = FREED;
+		nodeNext[node] = freeNodes;
+		freeNodes = node;
+		freeCount++;
+	}
+
+	private static int hash(final int a, final int b, final int c) {
+
+		int h = a * 0x9E3779B1 + b;
+		h = h * 0x85EBCA6B + c;
+		return h ^ (h >>> 15);
+	}
+
+	/**
+	 * Returns the node testing a single variable.
+	 * 
+	 * @param variable
+	 *            index of variable
+	 * @return node that is ONE if and only if the variable is ONE
+	 */
+	public int variable(final int variable) {
+
+		if (variable < 0 || variable >= variableCount) {
+			throw new IllegalArgumentException("Variable out of range: "
+					+ variable);
+		}
+		return makeNode(variable, FALSE, TRUE);
+	}
+
+	/**
+	 * Returns the node for "if f then g else h".
+	 * 
+	 * @param f
+	 *            condition
+	 * @param g
+	 *            function if condition is ONE
+	 * @param h
+	 *            function if condition is ZERO
+	 * @return node of resulting function
+	 */
+	public int ite(final int f, final int g, final int h) {
+
+		// terminal cases
+		if (f == TRUE) {
+			return g;
+		}
+		if (f == FALSE) {
+			return h;
+		}
+		if (g == h) {
+			return g;
+		}
+		if (g == TRUE && h == FALSE) {
+			return f;
+		}
+
+		final int slot = hash(f, g, h) & (CACHE_SIZE - 1);
+		if (cacheKeys[3 * slot] == f && cacheKeys[3 * slot + 1] == g
+				&& cacheKeys[3 * slot + 2] == h) {
+			return cacheResults[slot];
+		}
+
+		final int top = Math.min(level(f), Math.min(level(g), level(h)));
+		final int variable = order[top];
+		final int low = ite(cofactor(f, top, false), cofactor(g, top, false),
+				cofactor(h, top, false));
+		final int high = ite(cofactor(f, top, true), cofactor(g, top, true),
+				cofactor(h, top, true));
+		final int result = makeNode(variable, low, high);
+
+		cacheKeys[3 * slot] = f;
+		cacheKeys[3 * slot + 1] = g;
+		cacheKeys[3 * slot + 2] = h;
+		cacheResults[slot] = result;
+		return result;
+	}
+
+	/**
+	 * Returns the child of a node for a value of the variable at the given
+	 * level, or the node itself if it does not test this variable.
+	 */
+	private int cofactor(final int node, final int level, final boolean value) {
+
+		if (level(node) != level) {
+			return node;
+		}
+		return value ? nodeHighs[node] : nodeLows[node];
+	}
+
+	/**
+	 * Returns the complement of a function.
+	 * 
+	 * @param f
+	 *            function
+	 * @return node of NOT f
+	 */
+	public int not(final int f) {
+
+		return ite(f, FALSE, TRUE);
+	}
+
+	/**
+	 * Returns the conjunction of two functions.
+	 * 
+	 * @param f
+	 *            first function
+	 * @param g
+	 *            second function
+	 * @return node of f AND g
+	 */
+	public int and(final int f, final int g) {
+
+		return ite(f, g, FALSE);
+	}
+
+	/**
+	 * Returns the disjunction of two functions.
+	 * 
+	 * @param f
+	 *            first function
+	 * @param g
+	 *            second function
+	 * @return node of f OR g
+	 */
+	public int or(final int f, final int g) {
+
+		return ite(f, TRUE, g);
+	}
+
+	/**
+	 * Returns the exclusive disjunction of two functions.
+	 * 
+	 * @param f
+	 *            first function
+	 * @param g
+	 *            second function
+	 * @return node of f XOR g
+	 */
+	public int xor(final int f, final int g) {
+
+		return ite(f, not(g), g);
+	}
+
+	/**
+	 * Builds diagrams for all outputs of a combinational circuit. Input
+	 * <i>i</i> of the circuit is variable <i>i</i>.
+	 * 
+	 * @param circuit
+	 *            combinational compound block
+	 * @return node for every output of the circuit
+	 * @throws IllegalArgumentException
+	 *             if circuit contains feedback loops or has more inputs than
+	 *             variables
+	 */
+	public int[] build(final CompoundBlock circuit) {
+
+		return build(Netlist.compile(circuit));
+	}
+
+	/**
+	 * Builds diagrams for all outputs of a combinational netlist. Input
+	 * <i>i</i> of the netlist is variable <i>i</i>. Unconnected inputs of
+	 * gates are ZERO.
+	 * 
+	 * @param netlist
+	 *            netlist of combinational circuit
+	 * @return node for every output of the circuit
+	 * @throws IllegalArgumentException
+	 *             if netlist contains feedback loops or has more inputs than
+	 *             variables
+	 */
+	public int[] build(final Netlist netlist) {
+
+		if (!netlist.isCombinational()) {
+			throw new IllegalArgumentException(
+					"Only combinational circuits can be converted.");
+		}
+		if (netlist.countInputs() > variableCount) {
+			throw new IllegalArgumentException(
+					"Circuit has more inputs than variables.");
+		}
+
+		final int[] nodes = new int[netlist.countNets()];
+		nodes[Netlist.UNCONNECTED] = FALSE;
+		for (int i = 0; i < netlist.countInputs(); i++) {
+			nodes[netlist.getInputNet(i)] = variable(i);
+		}
+
+		final Blocks[] types = netlist.gateTypes();
+		final int[] inputStart = netlist.gateInputStart();
+		final int[] inputNets = netlist.gateInputNets();
+		final int[] outputNets = netlist.gateOutputNets();
+		for (int g : netlist.evaluationOrder()) {
+			int node;
+			switch (types[g]) {
+			case AND:
+			case NAND:
+				node = TRUE;
+				for (int i = inputStart[g]; i < inputStart[g + 1]; i++) {
+					node = and(node, nodes[inputNets[i]]);
+				}
+				break;
+			case OR:
+			case NOR:
+				node = FALSE;
+				for (int i = inputStart[g]; i < inputStart[g + 1]; i++) {
+					node = or(node, nodes[inputNets[i]]);
+				}
+				break;
+			default:
+				node = nodes[inputNets[inputStart[g]]];
+				break;
+			}
+			if (types[g] == Blocks.NAND || types[g] == Blocks.NOR
+					|| types[g] == Blocks.NOT) {
+				node = not(node);
+			}
+			nodes[outputNets[g]] = node;
+		}
+
+		final int[] roots = new int[netlist.countOutputs()];
+		for (int o = 0; o < roots.length; o++) {
+			roots[o] = nodes[netlist.getOutputNet(o)];
+		}
+		return roots;
+	}
+
+	/**
+	 * Checks whether two combinational circuits compute the same functions.
+	 * Inputs and outputs are matched by their index.
+	 * 
+	 * @param a
+	 *            first circuit
+	 * @param b
+	 *            second circuit
+	 * @return true, if all outputs are equal for all input vectors
+	 * @throws IllegalArgumentException
+	 *             if circuits contain feedback loops or differ in their
+	 *             number of inputs or outputs
+	 */
+	public static boolean areEquivalent(final CompoundBlock a,
+			final CompoundBlock b) {
+
+		final Netlist first = Netlist.compile(a);
+		final Netlist second = Netlist.compile(b);
+		if (first.countInputs() != second.countInputs()
+				|| first.countOutputs() != second.countOutputs()) {
+			throw new IllegalArgumentException(
+					"Circuits differ in number of inputs or outputs.");
+		}
+		final BinaryDecisionDiagram bdd = new BinaryDecisionDiagram(
+				first.countInputs());
+		return Arrays.equals(bdd.build(first), bdd.build(second));
+	}
+
+	/**
+	 * Evaluates a function for given values of all variables.
+	 * 
+	 * @param f
+	 *            function
+	 * @param values
+	 *            value of every variable
+	 * @return value of function
+	 */
+	public boolean evaluate(final int f, final boolean[] values) {
+
+		int node = f;
+		while (node > TRUE) {
+			node = values[nodeVariables[node]] ? nodeHighs[node]
+					: nodeLows[node];
+		}
+		return node == TRUE;
+	}
+
+	/**
+	 * Counts the assignments of all variables for which a function is ONE.
+	 * 
+	 * @param f
+	 *            function
+	 * @return number of satisfying assignments
+	 * @throws IllegalArgumentException
+	 *             if there are more than 62 variables
+	 */
+	public long countSatisfying(final int f) {
+
+		if (variableCount > 62) {
+			throw new IllegalArgumentException(
+					"Too many variables for counting.");
+		}
+		final long[] counts = new long[nodeCount];
+		Arrays.fill(counts, -1);
+		return countSatisfying(f, counts) << level(f);
+	}
+
+	/**
+	 * Counts satisfying assignments of all variables from the level of the
+	 * given node downwards.
+	 */
+	private long countSatisfying(final int node, final long[] counts) {
+
+		if (node <= TRUE) {
+			return node;
+		}
+		if (counts[node] < 0) {
+			final int low = nodeLows[node];
+			final int high = nodeHighs[node];
+			final int level = level(node);
+			counts[node] = (countSatisfying(low, counts) << (level(low)
+					- level - 1))
+					+ (countSatisfying(high, counts) << (level(high) - level - 1));
+		}
+		return counts[node];
+	}
+
+	/**
+	 * Counts all nodes reachable from the given roots, without terminals.
+	 * 
+	 * @param roots
+	 *            root nodes
+	 * @return number of inner nodes
+	 */
+	public int countNodes(final int... roots) {
+
+		final boolean[] visited = new boolean[nodeCount];
+		final int[] stack = new int[nodeCount];
+		int top = 0;
+		int count = 0;
+		for (int root : roots) {
+			if (root > TRUE && !visited[root]) {
+				visited[root] = true;
+				stack[top++] = root;
+			}
+		}
+		while (top > 0) {
+			final int node = stack[--top];
+			count++;
+			for (int child : new int[] { nodeLows[node], nodeHighs[node] }) {
+				if (child > TRUE && !visited[child]) {
+					visited[child] = true;
+					stack[top++] = child;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Changes the order of the variables. All given roots are rebuilt under
+	 * the new order, nodes only used by other functions are freed.
+	 * 
+	 * @param newOrder
+	 *            variable for every level
+	 * @param roots
+	 *            nodes to be kept
+	 * @return new nodes for the given roots
+	 * @throws IllegalArgumentException
+	 *             if order is not a permutation
+	 */
+	public int[] reorder(final int[] newOrder, final int... roots) {
+
+		final BinaryDecisionDiagram target = new BinaryDecisionDiagram(
+				newOrder);
+		final int[] newRoots = transfer(target, roots);
+		adopt(target);
+		return newRoots;
+	}
+
+	/**
+	 * Improves the order of the variables by sifting. Every variable is moved
+	 * through all levels by swapping it with its neighbouring level, while
+	 * the other variables keep their relative order. Then it is moved back to
+	 * the level where the diagrams of all roots had the fewest nodes.
+	 * Variables are sifted in order of decreasing number of nodes testing
+	 * them, and each one is moved towards the nearer end first.
+	 * <p>
+	 * Levels are swapped in place in the unique table, so the roots keep
+	 * their node ids and a swap only visits the nodes of both levels. Nodes
+	 * not reachable from the roots are freed and the computed cache is
+	 * cleared.
+	 * 
+	 * @param roots
+	 *            nodes to be kept
+	 * @return nodes for the given roots, which are the given roots
+	 */
+	public int[] sift(final int... roots) {
+
+		final int before = countNodes(roots);
+		final int[] usage = collectGarbage(roots);
+		final Integer[] variables = new Integer[variableCount];
+		for (int v = 0; v < variableCount; v++) {
+			variables[v] = v;
+		}
+		Arrays.sort(variables, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer a, final Integer b) {
+
+				return usage[b] - usage[a];
+			}
+		});
+
+		for (int v : variables) {
+			siftVariable(v);
+		}
+
+		for (int v = 0; v < variableCount; v++) {
+			sweep(v);
+		}
+		references = null;
+		variableHeads = null;
+		variableNext = null;
+		Arrays.fill(cacheKeys, -1);
+
+		LOG.debug("Sifted diagrams from " + before + " to " + liveNodes
+				+ " nodes.");
+		return roots.clone();
+	}
+
+	/**
+	 * Counts references of all nodes reachable from the roots, frees all
+	 * other nodes and puts the reachable ones into the list of their
+	 * variable.
+	 * 
+	 * @return number of nodes testing every variable
+	 */
+	private int[] collectGarbage(final int[] roots) {
+
+		references = new int[nodeVariables.length];
+		variableNext = new int[nodeVariables.length];
+		variableHeads = new int[variableCount];
+		Arrays.fill(variableHeads, -1);
+
+		final int[] stack = new int[nodeCount];
+		int top = 0;
+		for (int root : roots) {
+			if (root > TRUE && references[root]++ == 0) {
+				stack[top++] = root;
+			}
+		}
+		while (top > 0) {
+			final int node = stack[--top];
+			if (nodeLows[node] > TRUE && references[nodeLows[node]]++ == 0) {
+				stack[top++] = nodeLows[node];
+			}
+			if (nodeHighs[node] > TRUE
+					&& references[nodeHighs[node]]++ == 0) {
+				stack[top++] = nodeHighs[node];
+			}
+		}
+
+		final int[] usage = new int[variableCount];
+		Arrays.fill(buckets, -1);
+		freeNodes = -1;
+		freeCount = 0;
+		liveNodes = 0;
+		for (int n = nodeCount - 1; n > TRUE; n--) {
+			if (references[n] > 0) {
+				link(n);
+				addToList(nodeVariables[n], n);
+				usage[nodeVariables[n]]++;
+				liveNodes++;
+			} else {
+				release(n);
+			}
+		}
+		return usage;
+	}
+
+	/**
+	 * Moves a variable through all levels and back to the level with the
+	 * fewest nodes.
+	 */
+	private void siftVariable(final int variable) {
+
+		final int last = variableCount - 1;
+		int bestSize = liveNodes;
+		int bestLevel = levels[variable];
+		final boolean upFirst = levels[variable] < last - levels[variable];
+
+		for (int pass = 0; pass < 2; pass++) {
+			if (upFirst == (pass == 0)) {
+				while (levels[variable] > 0) {
+					swap(levels[variable] - 1);
+					if (liveNodes < bestSize) {
+						bestSize = liveNodes;
+						bestLevel = levels[variable];
+					}
+				}
+			} else {
+				while (levels[variable] < last) {
+					swap(levels[variable]);
+					if (liveNodes < bestSize) {
+						bestSize = liveNodes;
+						bestLevel = levels[variable];
+					}
+				}
+			}
+		}
+
+		while (levels[variable] > bestLevel) {
+			swap(levels[variable] - 1);
+		}
+		while (levels[variable] < bestLevel) {
+			swap(levels[variable]);
+		}
+	}
+
+	/**
+	 * Swaps the variables at a level and the level below. Every node testing
+	 * the upper variable <i>x</i> that has a child testing the lower variable
+	 * <i>y</i> is turned into a node testing <i>y</i> with children testing
+	 * <i>x</i>, so it keeps its id and its function. All other nodes testing
+	 * <i>x</i> simply move down one level.
+	 */
+	private void swap(final int level) {
+
+		final int x = order[level];
+		final int y = order[level + 1];
+
+		int node = variableHeads[x];
+		variableHeads[x] = -1;
+		while (node >= 0) {
+			final int next = variableNext[node];
+			if (nodeVariables[node] == FREED) {
+				release(node);
+				node = next;
+				continue;
+			}
+			final int f0 = nodeLows[node];
+			final int f1 = nodeHighs[node];
+			final boolean lowTestsY = nodeVariables[f0] == y;
+			final boolean highTestsY = nodeVariables[f1] == y;
+			if (!lowTestsY && !highTestsY) {
+				addToList(x, node);
+			} else {
+				final int f00 = lowTestsY ? nodeLows[f0] : f0;
+				final int f01 = lowTestsY ? nodeHighs[f0] : f0;
+				final int f10 = highTestsY ? nodeLows[f1] : f1;
+				final int f11 = highTestsY ? nodeHighs[f1] : f1;
+
+				unlink(node);
+				final int low = makeReferencedNode(x, f00, f10);
+				final int high = makeReferencedNode(x, f01, f11);
+				nodeVariables[node] = y;
+				nodeLows[node] = low;
+				nodeHighs[node] = high;
+				link(node);
+				addToList(y, node);
+				dereference(f0);
+				dereference(f1);
+			}
+			node = next;
+		}
+		sweep(y);
+
+		order[level] = y;
+		order[level + 1] = x;
+		levels[y] = level;
+		levels[x] = level + 1;
+	}
+
+	/**
+	 * Returns the node for a variable and children and counts a reference to
+	 * it. New nodes count references to their children.
+	 */
+	private int makeReferencedNode(final int variable, final int low,
+			final int high) {
+
+		final int node = makeNode(variable, low, high);
+		if (node > TRUE && references[node]++ == 0) {
+			reference(low);
+			reference(high);
+			addToList(variable, node);
+			liveNodes++;
+		}
+		return node;
+	}
+
+	private void reference(final int node) {
+
+		if (node > TRUE) {
+			references[node]++;
+		}
+	}
+
+	/**
+	 * Removes a reference to a node. Nodes without references are removed
+	 * from the hash chains and marked as freed, but stay in the list of their
+	 * variable until it is swept.
+	 */
+	private void dereference(final int node) {
+
+		if (node > TRUE && --references[node] == 0) {
+			unlink(node);
+			nodeVariables[node] = FREED;
+			liveNodes--;
+			dereference(nodeLows[node]);
+			dereference(nodeHighs[node]);
+		}
+	}
+
+	private void addToList(final int variable, final int node) {
+
+		variableNext[node] = variableHeads[variable];
+		variableHeads[variable] = node;
+	}
+
+	/**
+	 * Removes all freed nodes from the list of a variable and puts them into
+	 * the list of free nodes.
+	 */
+	private void sweep(final int variable) {
+
+		int node = variableHeads[variable];
+		variableHeads[variable] = -1;
+		while (node >= 0) {
+			final int next = variableNext[node];
+			if (nodeVariables[node] == FREED) {
+				release(node);
+			} else {
+				addToList(variable, node);
+			}
+			node = next;
+		}
+	}
+
+	/**
+	 * Rebuilds nodes in another manager.
+	 */
+	private int[] transfer(final BinaryDecisionDiagram target,
+			final int[] roots) {
+
+		final int[] mapped = new int[nodeCount];
+		Arrays.fill(mapped, -1);
+		mapped[FALSE] = FALSE;
+		mapped[TRUE] = TRUE;
+		final int[] result = new int[roots.length];
+		for (int r = 0; r < roots.length; r++) {
+			result[r] = transfer(target, roots[r], mapped);
+		}
+		return result;
+	}
+
+	private int transfer(final BinaryDecisionDiagram target, final int node,
+			final int[] mapped) {
+
+		if (mapped[node] < 0) {
+			final int low = transfer(target, nodeLows[node], mapped);
+			final int high = transfer(target, nodeHighs[node], mapped);
+			mapped[node] = target.ite(target.variable(nodeVariables[node]),
+					high, low);
+		}
+		return mapped[node];
+	}
+
+	/**
+	 * Takes over order and all nodes of another manager.
+	 */
+	private void adopt(final BinaryDecisionDiagram other) {
+
+		order = other.order;
+		levels = other.levels;
+		freeNodes = other.freeNodes;
+		freeCount = other.freeCount;
+		nodeVariables = other.nodeVariables;
+		nodeLows = other.nodeLows;
+		nodeHighs = other.nodeHighs;
+		nodeNext = other.nodeNext;
+		nodeCount = other.nodeCount;
+		buckets = other.buckets;
+		cacheKeys = other.cacheKeys;
+		cacheResults = other.cacheResults;
+	}
+
+	/**
+	 * Returns number of variables.
+	 * 
+	 * @return number of variables
+	 */
+	public int countVariables() {
+
+		return variableCount;
+	}
+
+	/**
+	 * Returns number of all allocated nodes including terminals and nodes
+	 * not reachable from any root. Freed nodes are not counted.
+	 * 
+	 * @return number of allocated nodes
+	 */
+	public int countAllocatedNodes() {
+
+		return nodeCount - freeCount;
+	}
+
+	/**
+	 * Returns current order of variables.
+	 * 
+	 * @return variable for every level
+	 */
+	public int[] getOrder() {
+
+		return order.clone();
+	}
+
+	/**
+	 * Returns the level of a variable in the current order.
+	 * 
+	 * @param variable
+	 *            index of variable
+	 * @return level of variable
+	 */
+	public int getLevel(final int variable) {
+
+		return levels[variable];
+	}
+
+	/**
+	 * Returns the variable tested by a node.
+	 * 
+	 * @param node
+	 *            inner node
+	 * @return index of variable or -1 for terminals
+	 */
+	public int getVariable(final int node) {
+
+		return nodeVariables[node];
+	}
+
+	/**
+	 * Returns the child of a node for the value ZERO of its variable.
+	 * 
+	 * @param node
+	 *            inner node
+	 * @return low child
+	 */
+	public int getLow(final int node) {
+
+		return nodeLows[node];
+	}
+
+	/**
+	 * Returns the child of a node for the value ONE of its variable.
+	 * 
+	 * @param node
+	 *            inner node
+	 * @return high child
+	 */
+	public int getHigh(final int node) {
+
+		return nodeHighs[node];
+	}
+}
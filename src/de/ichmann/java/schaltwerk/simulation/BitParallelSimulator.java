@@ -0,0 +1,169 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import de.ichmann.java.schaltwerk.blocks.Blocks;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+
+/**
+ * Simulates 64 independent input vectors of a combinational circuit at once.
+ * The values of every net are packed into a single <code>long</code> word
+ * where bit <i>k</i> holds the value for vector <i>k</i>. So every gate is
+ * evaluated for all 64 vectors by a few bitwise operations.
+ * <p>
+ * Only circuits without feedback loops can be simulated, because the vectors
+ * of a word do not share any state.
+ * 
+ * @author Christian Wichmann
+ */
+public class BitParallelSimulator {
+
+	/**
+	 * Number of input vectors simulated in parallel.
+	 */
+	public static final int VECTORS = Long.SIZE;
+
+	private final Netlist netlist;
+	private final long[] netWords;
+
+	/**
+	 * Initializes a simulator for a given compound block. The compound block
+	 * is compiled into a netlist once.
+	 * 
+	 * @param circuit
+	 *            combinational compound block to simulate
+	 * @throws IllegalArgumentException
+	 *             if circuit contains feedback loops
+	 */
+	public BitParallelSimulator(final CompoundBlock circuit) {
+
+		this(Netlist.compile(circuit));
+	}
+
+	/**
+	 * Initializes a simulator for an already compiled netlist.
+	 * 
+	 * @param netlist
+	 *            netlist of combinational circuit to simulate
+	 * @throws IllegalArgumentException
+	 *             if netlist contains feedback loops
+	 */
+	public BitParallelSimulator(final Netlist netlist) {
+
+		if (!netlist.isCombinational()) {
+			throw new IllegalArgumentException(
+					"Only combinational circuits can be simulated bit parallel.");
+		}
+		this.netlist = netlist;
+		this.netWords = new long[netlist.countNets()];
+	}
+
+	/**
+	 * Gets netlist simulated by this simulator.
+	 * 
+	 * @return simulated netlist
+	 */
+	public final Netlist getNetlist() {
+
+		return netlist;
+	}
+
+	/**
+	 * Evaluates the circuit for 64 input vectors and returns the packed
+	 * values of all outputs.
+	 * 
+	 * @param inputs
+	 *            one word for every input of the circuit
+	 * @return one word for every output of the circuit
+	 */
+	public final long[] evaluate(final long[] inputs) {
+
+		long[] outputs = new long[netlist.countOutputs()];
+		evaluate(inputs, outputs);
+		return outputs;
+	}
+
+	/**
+	 * Evaluates the circuit for 64 input vectors and writes the packed values
+	 * of all outputs into a given array. No objects are allocated by this
+	 * method.
+	 * 
+	 * @param inputs
+	 *            one word for every input of the circuit
+	 * @param outputs
+	 *            array receiving one word for every output of the circuit
+	 * @throws IllegalArgumentException
+	 *             if arrays do not match the number of inputs and outputs
+	 */
+	public void evaluate(final long[] inputs, final long[] outputs) {
+
+		if (inputs.length != netlist.countInputs()
+				|| outputs.length != netlist.countOutputs()) {
+			throw new IllegalArgumentException(
+					"Number of words does not match inputs and outputs.");
+		}
+
+		final long[] words = netWords;
+		final int[] circuitInputs = netlist.inputNets();
+		for (int i = 0; i < inputs.length; i++) {
+			words[circuitInputs[i]] = inputs[i];
+		}
+
+		final Blocks[] types = netlist.gateTypes();
+		final int[] inputStart = netlist.gateInputStart();
+		final int[] inputNets = netlist.gateInputNets();
+		final int[] outputNets = netlist.gateOutputNets();
+		final int[] order = netlist.evaluationOrder();
+
+		for (int k = 0; k < order.length; k++) {
+			final int g = order[k];
+			final int first = inputStart[g];
+			final int last = inputStart[g + 1];
+			long word;
+
+			switch (types[g]) {
+			case AND:
+			case NAND:
+				word = -1L;
+				for (int i = first; i < last; i++) {
+					word &= words[inputNets[i]];
+				}
+				words[outputNets[g]] = types[g] == Blocks.AND ? word : ~word;
+				break;
+			case OR:
+			case NOR:
+				word = 0L;
+				for (int i = first; i < last; i++) {
+					word |= words[inputNets[i]];
+				}
+				words[outputNets[g]] = types[g] == Blocks.OR ? word : ~word;
+				break;
+			case NOT:
+				words[outputNets[g]] = ~words[inputNets[first]];
+				break;
+			default:
+				throw new IllegalStateException("Unknown gate type.");
+			}
+		}
+
+		final int[] circuitOutputs = netlist.outputNets();
+		for (int o = 0; o < outputs.length; o++) {
+			outputs[o] = words[circuitOutputs[o]];
+		}
+	}
+}
@@ -0,0 +1,437 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import de.ichmann.java.schaltwerk.blocks.SignalStore;
+
+/**
+ * Immutable copy of the complete state of a simulation. A checkpoint holds
+ * the packed values of all signals of a <code>SignalStore</code> and the
+ * simulation time at which it was taken. Because the default store also holds
+ * the stored bits of all registers and circuit instances, a checkpoint of a
+ * store contains everything needed to continue a simulation later. A
+ * checkpoint can be restored into any store at least as large, so many
+ * simulations can be forked from a single warm state. Signals allocated
+ * after the checkpoint was taken keep their values.
+ * <p>
+ * Checkpoints are written in a compact binary format. Every checkpoint starts
+ * with a header containing magic number, format version, type, simulation time,
+ * number of signals, number of words and a fingerprint of the words. The words
+ * hold the values of all signals. If any signal of the store was ever set to X
+ * or Z, the words marking unknown signals follow, so there are twice as many
+ * words as needed for the values. A full checkpoint is followed by all words. A
+ * delta checkpoint contains only the words that differ from a base checkpoint,
+ * so checkpoints taken often during a long simulation need little space. Its
+ * header contains the fingerprint of the base, which is checked when the delta
+ * is read.
+ * <p>
+ * All numbers are written in big-endian byte order. Changed words of a delta
+ * are stored as the distance to the previous changed word, written as
+ * variable length integer, followed by the exclusive or of the new and the
+ * old word.
+ * 
+ * @author Christian Wichmann
+ */
+public final class Checkpoint {
+
+	/**
+	 * Magic number at the start of every checkpoint ("SWCP").
+	 */
+	public static final int MAGIC = 0x53574350;
+
+	/**
+	 * Version of the binary format written by this class.
+	 */
+	public static final int VERSION = 1;
+
+	private static final byte FULL = 0;
+	private static final byte DELTA = 1;
+
+	private static final int HEADER_SIZE = 45;
+
+	private final long time;
+	private final int signals;
+	private final long[] words;
+	private final long fingerprint;
+	private final Checkpoint base;
+
+	private Checkpoint(final long time, final int signals, final long[] words,
+			final Checkpoint base) {
+
+		this.time = time;
+		this.signals = signals;
+		this.words = words;
+		this.fingerprint = fingerprint(signals, words);
+		this.base = base;
+	}
+
+	/**
+	 * Takes a full checkpoint of all signals of a store.
+	 * 
+	 * @param store
+	 *            store holding values of all signals
+	 * @param time
+	 *            simulation time of the checkpoint
+	 * @return new checkpoint
+	 */
+	public static Checkpoint capture(final SignalStore store, final long time) {
+
+		return capture(store, time, null);
+	}
+
+	/**
+	 * Takes a checkpoint of all signals of a store that is written as delta to
+	 * a given base checkpoint. The base has to be available again when the
+	 * delta is read.
+	 * 
+	 * @param store
+	 *            store holding values of all signals
+	 * @param time
+	 *            simulation time of the checkpoint
+	 * @param base
+	 *            earlier checkpoint of the same store or null for a full
+	 *            checkpoint
+	 * @return new checkpoint
+	 */
+	public static Checkpoint capture(final SignalStore store, final long time,
+			final Checkpoint base) {
+
+		final long[] values = store.snapshot();
+		final long[] unknown = store.snapshotUnknown();
+		if (unknown == null) {
+			return new Checkpoint(time, store.size(), values, base);
+		}
+		final long[] words = Arrays.copyOf(values, 2 * values.length);
+		System.arraycopy(unknown, 0, words, values.length, unknown.length);
+		return new Checkpoint(time, store.size(), words, base);
+	}
+
+	/**
+	 * Restores values of all signals of a store from this checkpoint. Signals
+	 * allocated after the checkpoint was taken keep their values.
+	 * 
+	 * @param store
+	 *            store to be restored
+	 * @throws IllegalArgumentException
+	 *             if store has less signals than the checkpoint
+	 */
+	public void restore(final SignalStore store) {
+
+		if (store.size() < signals) {
+			throw new IllegalArgumentException(
+					"Checkpoint does not fit into signal store.");
+		}
+		final int length = countWords(signals);
+		store.restore(words, words.length > length ? Arrays.copyOfRange(
+				words, length, 2 * length) : null, signals);
+	}
+
+	/**
+	 * Writes this checkpoint to a channel, e.g. a <code>FileChannel</code>.
+	 * Delta checkpoints only write the words differing from their base.
+	 * 
+	 * @param channel
+	 *            channel to write to
+	 * @throws IOException
+	 *             if checkpoint could not be written
+	 */
+	public void write(final WritableByteChannel channel) throws IOException {
+
+		final ByteBuffer payload;
+		if (base == null) {
+			payload = ByteBuffer.allocate(words.length * 8);
+			payload.asLongBuffer().put(words);
+		} else {
+			payload = encodeDelta();
+		}
+
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.put(base == null ? FULL : DELTA);
+		header.putLong(time);
+		header.putInt(signals);
+		header.putInt(words.length);
+		header.putLong(fingerprint);
+		header.putLong(base == null ? 0L : base.fingerprint);
+		header.putInt(payload.remaining());
+		header.flip();
+
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		while (payload.hasRemaining()) {
+			channel.write(payload);
+		}
+	}
+
+	private ByteBuffer encodeDelta() {
+
+		final int length = Math.max(words.length, base.words.length);
+		int changes = 0;
+		for (int i = 0; i < length; i++) {
+			if (word(words, i) != word(base.words, i)) {
+				changes++;
+			}
+		}
+
+		final ByteBuffer buffer = ByteBuffer.allocate(5 + changes * 13);
+		putVarInt(buffer, changes);
+		int previous = 0;
+		for (int i = 0; i < length; i++) {
+			final long change = word(words, i) ^ word(base.words, i);
+			if (change != 0L) {
+				putVarInt(buffer, i - previous);
+				buffer.putLong(change);
+				previous = i;
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Reads a full checkpoint from a channel.
+	 * 
+	 * @param channel
+	 *            channel to read from
+	 * @return checkpoint read from channel
+	 * @throws IOException
+	 *             if checkpoint could not be read or is corrupted
+	 * @throws IllegalArgumentException
+	 *             if channel contains a delta checkpoint
+	 */
+	public static Checkpoint read(final ReadableByteChannel channel)
+			throws IOException {
+
+		return read(channel, null);
+	}
+
+	/**
+	 * Reads a full checkpoint or a delta checkpoint from a channel. A delta
+	 * is applied to the given base, which has to be the same checkpoint the
+	 * delta was written against.
+	 * 
+	 * @param channel
+	 *            channel to read from
+	 * @param base
+	 *            base of a delta checkpoint or null
+	 * @return checkpoint read from channel
+	 * @throws IOException
+	 *             if checkpoint could not be read or is corrupted
+	 * @throws IllegalArgumentException
+	 *             if base is missing or does not match the delta
+	 */
+	public static Checkpoint read(final ReadableByteChannel channel,
+			final Checkpoint base) throws IOException {
+
+		final ByteBuffer header = readFully(channel, HEADER_SIZE);
+		if (header.getInt() != MAGIC) {
+			throw new IOException("Data is not a checkpoint.");
+		}
+		final int version = header.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported checkpoint version " + version
+					+ ".");
+		}
+		final byte type = header.get();
+		final long time = header.getLong();
+		final int signals = header.getInt();
+		final int length = header.getInt();
+		final long fingerprint = header.getLong();
+		final long baseFingerprint = header.getLong();
+		final int payloadLength = header.getInt();
+		if (type != FULL && type != DELTA || signals < 0 || length < 0
+				|| payloadLength < 0 || length > (1 << 28)
+				|| length != countWords(signals)
+				&& length != 2 * countWords(signals)) {
+			throw new IOException("Checkpoint header is corrupted.");
+		}
+
+		final long[] words = new long[length];
+		final Checkpoint result;
+		if (type == FULL) {
+			if (payloadLength != length * 8) {
+				throw new IOException("Checkpoint header is corrupted.");
+			}
+			readFully(channel, payloadLength).asLongBuffer().get(words);
+			result = new Checkpoint(time, signals, words, null);
+		} else {
+			if (base == null) {
+				throw new IllegalArgumentException(
+						"Delta checkpoint needs a base checkpoint.");
+			}
+			if (base.fingerprint != baseFingerprint) {
+				throw new IllegalArgumentException(
+						"Delta checkpoint does not belong to base checkpoint.");
+			}
+			if (payloadLength > 5 + 13 * Math.max(length, base.words.length)) {
+				throw new IOException("Checkpoint header is corrupted.");
+			}
+			decodeDelta(readFully(channel, payloadLength), base.words, words);
+			result = new Checkpoint(time, signals, words, base);
+		}
+
+		if (result.fingerprint != fingerprint) {
+			throw new IOException("Checkpoint data is corrupted.");
+		}
+		return result;
+	}
+
+	private static void decodeDelta(final ByteBuffer buffer,
+			final long[] baseWords, final long[] words) throws IOException {
+
+		System.arraycopy(baseWords, 0, words, 0,
+				Math.min(baseWords.length, words.length));
+		final int length = Math.max(words.length, baseWords.length);
+		try {
+			final int changes = getVarInt(buffer);
+			int index = 0;
+			for (int c = 0; c < changes; c++) {
+				index += getVarInt(buffer);
+				final long change = buffer.getLong();
+				if (index < 0 || index >= length) {
+					throw new IOException("Checkpoint data is corrupted.");
+				}
+				// words only present in base were removed from the store
+				if (index < words.length) {
+					words[index] ^= change;
+				}
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Checkpoint data is corrupted.", e);
+		}
+	}
+
+	private static ByteBuffer readFully(final ReadableByteChannel channel,
+			final int length) throws IOException {
+
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Unexpected end of checkpoint.");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void putVarInt(final ByteBuffer buffer, final int value) {
+
+		int v = value;
+		while ((v & ~0x7F) != 0) {
+			buffer.put((byte) (v & 0x7F | 0x80));
+			v >>>= 7;
+		}
+		buffer.put((byte) v);
+	}
+
+	private static int getVarInt(final ByteBuffer buffer) throws IOException {
+
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Checkpoint data is corrupted.");
+	}
+
+	private static int countWords(final int signals) {
+
+		return (signals + Long.SIZE - 1) >>> 6;
+	}
+
+	private static long word(final long[] words, final int index) {
+
+		return index < words.length ? words[index] : 0L;
+	}
+
+	private static long fingerprint(final int signals, final long[] words) {
+
+		// 64 bit FNV-1a over the words, mixed with the number of signals
+		long hash = 0xcbf29ce484222325L ^ signals;
+		for (long word : words) {
+			hash ^= word;
+			hash *= 0x100000001b3L;
+			hash ^= hash >>> 29;
+		}
+		return hash;
+	}
+
+	/**
+	 * Gets simulation time at which this checkpoint was taken.
+	 * 
+	 * @return simulation time
+	 */
+	public long getTime() {
+
+		return time;
+	}
+
+	/**
+	 * Returns number of signals in the checkpoint.
+	 * 
+	 * @return number of signals
+	 */
+	public int countSignals() {
+
+		return signals;
+	}
+
+	/**
+	 * Returns whether this checkpoint is written as delta to a base.
+	 * 
+	 * @return true, if checkpoint is a delta checkpoint
+	 */
+	public boolean isDelta() {
+
+		return base != null;
+	}
+
+	/**
+	 * Gets checkpoint this checkpoint is written against.
+	 * 
+	 * @return base checkpoint or null for a full checkpoint
+	 */
+	public Checkpoint getBase() {
+
+		return base;
+	}
+
+	/**
+	 * Gets fingerprint of the values in this checkpoint. Delta checkpoints
+	 * store the fingerprint of their base to detect a wrong base.
+	 * 
+	 * @return fingerprint of values
+	 */
+	public long getFingerprint() {
+
+		return fingerprint;
+	}
+}
@@ -0,0 +1,808 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ichmann.java.schaltwerk.blocks.Blocks;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+
+/**
+ * Compiles a combinational netlist into a Java class whose methods contain the
+ * bitwise operations of all gates as straight-line code. The class file is
+ * written directly as bytes and loaded by a class loader of its own, so
+ * neither a Java compiler nor a bytecode library is needed at runtime.
+ * <p>
+ * Gates are emitted in evaluation order into static methods (parts). Inside a
+ * part every net is held in a local variable, so the JIT compiler can keep
+ * the nets in registers. Nets read by later parts are passed through an
+ * array. A part ends before its bytecode exceeds 8000 bytes, because the JIT
+ * compiler of HotSpot does not compile larger methods by default. Gates with
+ * too many inputs for a single part are split over several parts, which
+ * keep the partial result in the output net of the gate. The parts are
+ * called by dispatching methods that are nested as deep as necessary, so
+ * also very large circuits never reach the limit of 64 KB per method.
+ * <p>
+ * Net ids are not stored in the constant pool, whose size is limited to
+ * 65535 entries. Every part gets the id of the output net of its first gate
+ * as parameter and addresses nets relative to it. Ids too far away are
+ * composed from two short values.
+ * 
+ * @author Christian Wichmann
+ */
+public final class CircuitCompiler {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(CircuitCompiler.class);
+
+	/**
+	 * Maximum number of bytes of code in a single generated method.
+	 */
+	private static final int MAX_PART_LENGTH = 7999;
+
+	/**
+	 * Maximum number of bytes needed to push an int constant.
+	 */
+	private static final int MAX_INT_LENGTH = 10;
+
+	/**
+	 * Maximum number of bytes needed to load a single net (array, index,
+	 * value, duplicate and local variable).
+	 */
+	private static final int MAX_LOAD_LENGTH = MAX_INT_LENGTH + 7;
+
+	/**
+	 * Maximum number of bytes needed to store a single net into an array.
+	 */
+	private static final int MAX_STORE_LENGTH = MAX_INT_LENGTH + 6;
+
+	/**
+	 * Maximum number of methods called by a single dispatching method.
+	 */
+	private static final int MAX_CALLS = MAX_PART_LENGTH
+			/ (MAX_INT_LENGTH + 6);
+
+	/**
+	 * Maximum number of entries of the constant pool and of methods of a
+	 * class.
+	 */
+	private static final int MAX_CLASS_ENTRIES = 0xffff;
+
+	/**
+	 * Maximum number of local variable slots of a generated method.
+	 */
+	private static final int MAX_LOCALS = 65000;
+
+	private static final String CLASS_NAME = CircuitCompiler.class
+			.getPackage().getName().replace('.', '/')
+			+ "/GeneratedCircuit";
+	private static final String SUPER_CLASS_NAME = CompiledCircuit.class
+			.getName().replace('.', '/');
+	private static final String PART_DESCRIPTOR = "([J[J[JI)V";
+	private static final String DISPATCH_DESCRIPTOR = "([J[J[J)V";
+
+	// slots of the parameters of a part and of its first local variable
+	private static final int INPUTS_SLOT = 0;
+	private static final int OUTPUTS_SLOT = 1;
+	private static final int NETS_SLOT = 2;
+	private static final int BASE_SLOT = 3;
+	private static final int FIRST_LOCAL = 4;
+
+	// access flags
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_PRIVATE = 0x0002;
+	private static final int ACC_PROTECTED = 0x0004;
+	private static final int ACC_STATIC = 0x0008;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+
+	// tags of constant pool entries
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	// opcodes
+	private static final int LCONST_0 = 0x09;
+	private static final int LCONST_1 = 0x0a;
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LLOAD = 0x16;
+	private static final int ILOAD_0 = 0x1a;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int LALOAD = 0x2f;
+	private static final int LSTORE = 0x37;
+	private static final int LASTORE = 0x50;
+	private static final int DUP2 = 0x5c;
+	private static final int IADD = 0x60;
+	private static final int LNEG = 0x75;
+	private static final int ISHL = 0x78;
+	private static final int IOR = 0x80;
+	private static final int LAND = 0x7f;
+	private static final int LOR = 0x81;
+	private static final int LXOR = 0x83;
+	private static final int RETURN = 0xb1;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+	private static final int WIDE = 0xc4;
+
+	private final Netlist netlist;
+	private final int[] inputIndices;
+	private final int[] gatePositions;
+	private final boolean[] circuitOutputs;
+
+	private final List<Object> constants = new ArrayList<Object>();
+	private final Map<String, Integer> constantIndices =
+			new HashMap<String, Integer>();
+
+	private final int[] localSlots;
+	private final int[] localParts;
+	private ByteArrayOutputStream code;
+	private int nextLocal;
+	private int base;
+	private int resumedInput = -1;
+	private int partCount = 0;
+
+	/**
+	 * Initializes a compiler for a given netlist.
+	 */
+	private CircuitCompiler(final Netlist netlist) {
+
+		this.netlist = netlist;
+
+		inputIndices = new int[netlist.countNets()];
+		Arrays.fill(inputIndices, -1);
+		for (int i = 0; i < netlist.countInputs(); i++) {
+			inputIndices[netlist.inputNets()[i]] = i;
+		}
+		final int[] order = netlist.evaluationOrder();
+		gatePositions = new int[order.length];
+		for (int p = 0; p < order.length; p++) {
+			gatePositions[order[p]] = p;
+		}
+		circuitOutputs = new boolean[netlist.countNets()];
+		for (int net : netlist.outputNets()) {
+			circuitOutputs[net] = true;
+		}
+
+		localSlots = new int[netlist.countNets()];
+		localParts = new int[netlist.countNets()];
+		Arrays.fill(localParts, -1);
+	}
+
+	/**
+	 * Compiles a combinational compound block into a class.
+	 * 
+	 * @param circuit
+	 *            combinational compound block
+	 * @return instance of generated class
+	 * @throws IllegalArgumentException
+	 *             if circuit contains feedback loops
+	 */
+	public static CompiledCircuit compile(final CompoundBlock circuit) {
+
+		return compile(Netlist.compile(circuit));
+	}
+
+	/**
+	 * Compiles a combinational netlist into a class.
+	 * 
+	 * @param netlist
+	 *            netlist of combinational circuit
+	 * @return instance of generated class
+	 * @throws IllegalArgumentException
+	 *             if netlist contains feedback loops
+	 */
+	public static CompiledCircuit compile(final Netlist netlist) {
+
+		if (!netlist.isCombinational()) {
+			throw new IllegalArgumentException(
+					"Only combinational circuits can be compiled.");
+		}
+
+		CircuitCompiler compiler = new CircuitCompiler(netlist);
+		final byte[] classFile;
+		try {
+			classFile = compiler.generateClass();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not generate class.", e);
+		}
+		LOG.debug("Generated class for " + netlist.getCircuitID() + " with "
+				+ compiler.partCount + " parts and " + classFile.length
+				+ " bytes.");
+
+		try {
+			Class<?> generatedClass = new GeneratedClassLoader().define(
+					CLASS_NAME.replace('/', '.'), classFile);
+			CompiledCircuit circuit = (CompiledCircuit) generatedClass
+					.newInstance();
+			circuit.initialize(netlist);
+			return circuit;
+		} catch (InstantiationException e) {
+			throw new IllegalStateException("Could not load class.", e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Could not load class.", e);
+		}
+	}
+
+	/**
+	 * Generates the whole class file.
+	 */
+	private byte[] generateClass() throws IOException {
+
+		final List<byte[]> parts = new ArrayList<byte[]>();
+		final List<Integer> partLocals = new ArrayList<Integer>();
+		final List<Integer> partBases = new ArrayList<Integer>();
+
+		// gates in evaluation order
+		final int[] order = netlist.evaluationOrder();
+		int position = 0;
+		while (position < order.length) {
+			position = generateGatePart(position);
+			parts.add(code.toByteArray());
+			partLocals.add(nextLocal);
+			partBases.add(base);
+		}
+
+		// outputs of the circuit
+		final int[] outputNets = netlist.outputNets();
+		int output = 0;
+		while (output < outputNets.length) {
+			output = generateOutputPart(output);
+			parts.add(code.toByteArray());
+			partLocals.add(nextLocal);
+			partBases.add(base);
+		}
+
+		// methods calling all parts, nested until a single method suffices
+		final int thisClass = classConstant(CLASS_NAME);
+		final int superClass = classConstant(SUPER_CLASS_NAME);
+		final List<byte[]> dispatchers = new ArrayList<byte[]>();
+		List<String> callees = new ArrayList<String>();
+		for (int k = 0; k < parts.size(); k++) {
+			callees.add("p" + k);
+		}
+		List<Integer> calleeBases = partBases;
+		while (callees.size() > MAX_CALLS) {
+			final List<String> next = new ArrayList<String>();
+			for (int from = 0; from < callees.size(); from += MAX_CALLS) {
+				final int to = Math.min(from + MAX_CALLS, callees.size());
+				dispatchers.add(generateCalls(thisClass, INPUTS_SLOT,
+						callees.subList(from, to), calleeBases == null ? null
+								: calleeBases.subList(from, to)));
+				next.add("d" + (dispatchers.size() - 1));
+			}
+			callees = next;
+			calleeBases = null;
+		}
+		final byte[] callParts = generateCalls(thisClass, INPUTS_SLOT + 1,
+				callees, calleeBases);
+		if (parts.size() + dispatchers.size() + 2 > MAX_CLASS_ENTRIES) {
+			throw new IllegalArgumentException(
+					"Circuit is too large to be compiled.");
+		}
+
+		final ByteArrayOutputStream constructor = new ByteArrayOutputStream();
+		constructor.write(ALOAD_0);
+		constructor.write(INVOKESPECIAL);
+		writeShort(constructor, methodConstant(superClass, "<init>", "()V"));
+		constructor.write(RETURN);
+
+		// collect all names before the constant pool is written
+		final int codeName = utf8Constant("Code");
+		final int[] partNames = new int[parts.size()];
+		for (int k = 0; k < parts.size(); k++) {
+			partNames[k] = utf8Constant("p" + k);
+		}
+		final int[] dispatcherNames = new int[dispatchers.size()];
+		for (int k = 0; k < dispatchers.size(); k++) {
+			dispatcherNames[k] = utf8Constant("d" + k);
+		}
+		final int partDescriptor = utf8Constant(PART_DESCRIPTOR);
+		final int dispatchDescriptor = utf8Constant(DISPATCH_DESCRIPTOR);
+		final int constructorName = utf8Constant("<init>");
+		final int constructorDescriptor = utf8Constant("()V");
+		final int evaluateName = utf8Constant("evaluateParts");
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(50);
+		writeConstantPool(out);
+		out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(0);
+		out.writeShort(0);
+
+		out.writeShort(parts.size() + dispatchers.size() + 2);
+		writeMethod(out, ACC_PUBLIC, constructorName, constructorDescriptor,
+				codeName, 1, 1, constructor.toByteArray());
+		writeMethod(out, ACC_PROTECTED, evaluateName, dispatchDescriptor,
+				codeName, 5, 4, callParts);
+		for (int k = 0; k < dispatchers.size(); k++) {
+			writeMethod(out, ACC_PRIVATE | ACC_STATIC, dispatcherNames[k],
+					dispatchDescriptor, codeName, 5, 3, dispatchers.get(k));
+		}
+		for (int k = 0; k < parts.size(); k++) {
+			writeMethod(out, ACC_PRIVATE | ACC_STATIC, partNames[k],
+					partDescriptor, codeName, 8, partLocals.get(k),
+					parts.get(k));
+		}
+		out.writeShort(0);
+		out.flush();
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Generates the code of a method calling parts or other dispatching
+	 * methods with the arrays passed to it.
+	 * 
+	 * @param thisClass
+	 *            constant of the generated class
+	 * @param firstSlot
+	 *            slot of the first array parameter
+	 * @param names
+	 *            names of the called methods
+	 * @param bases
+	 *            base nets passed to called parts or null, if dispatching
+	 *            methods are called
+	 * @return code of the method
+	 */
+	private byte[] generateCalls(final int thisClass, final int firstSlot,
+			final List<String> names, final List<Integer> bases) {
+
+		code = new ByteArrayOutputStream();
+		for (int k = 0; k < names.size(); k++) {
+			code.write(ALOAD_0 + firstSlot + INPUTS_SLOT);
+			code.write(ALOAD_0 + firstSlot + OUTPUTS_SLOT);
+			code.write(ALOAD_0 + firstSlot + NETS_SLOT);
+			if (bases != null) {
+				emitInt(bases.get(k));
+			}
+			code.write(INVOKESTATIC);
+			writeShort(code, methodConstant(thisClass, names.get(k),
+					bases != null ? PART_DESCRIPTOR : DISPATCH_DESCRIPTOR));
+		}
+		code.write(RETURN);
+		return code.toByteArray();
+	}
+
+	/**
+	 * Generates the code of a part evaluating gates starting at a given
+	 * position of the evaluation order. A gate with too many inputs for a
+	 * single part is only partially evaluated: the part combines as many
+	 * inputs as fit, passes the result in the output net of the gate and the
+	 * next part continues with the remaining inputs.
+	 * 
+	 * @param first
+	 *            position of first gate
+	 * @return position after last completely evaluated gate of the part
+	 */
+	private int generateGatePart(final int first) {
+
+		final int[] order = netlist.evaluationOrder();
+		final int[] inputStart = netlist.gateInputStart();
+		final int[] inputNets = netlist.gateInputNets();
+		final int[] outputNets = netlist.gateOutputNets();
+		final Blocks[] types = netlist.gateTypes();
+		startPart(outputNets[order[first]]);
+
+		int position = first;
+		while (position < order.length) {
+			final int g = order[position];
+			final int firstInput = resumedInput >= 0 ? resumedInput
+					: inputStart[g];
+			final int inputCount = inputStart[g + 1] - firstInput;
+			final int gateLength = MAX_LOAD_LENGTH * (inputCount + 1) + 8;
+			final int storeLength = MAX_STORE_LENGTH * (position - first + 1);
+			final boolean fits = code.size() + gateLength + storeLength + 1 <= MAX_PART_LENGTH
+					&& nextLocal + 2 * (inputCount + 2) <= MAX_LOCALS;
+			if (!fits && position > first) {
+				break;
+			}
+
+			final int operation;
+			switch (types[g]) {
+			case AND:
+			case NAND:
+				operation = LAND;
+				break;
+			case OR:
+			case NOR:
+				operation = LOR;
+				break;
+			default:
+				operation = 0;
+				break;
+			}
+
+			final int net = outputNets[g];
+			if (!fits) {
+				final int count = Math.min((MAX_PART_LENGTH - code.size() - 2
+						* MAX_STORE_LENGTH - 1)
+						/ MAX_LOAD_LENGTH - 1, (MAX_LOCALS - nextLocal) / 2 - 2);
+				resumedInput = emitInputs(g, firstInput, firstInput + count,
+						operation);
+				final int slot = nextLocal;
+				nextLocal += 2;
+				emitLocal(LSTORE, slot);
+				code.write(ALOAD_0 + NETS_SLOT);
+				emitNetIndex(net);
+				emitLocal(LLOAD, slot);
+				code.write(LASTORE);
+				endPart();
+				return position;
+			}
+
+			resumedInput = emitInputs(g, firstInput, inputStart[g + 1],
+					operation);
+			if (types[g] == Blocks.NAND || types[g] == Blocks.NOR
+					|| types[g] == Blocks.NOT) {
+				emitAllOnes();
+				code.write(LXOR);
+			}
+
+			localSlots[net] = nextLocal;
+			localParts[net] = partCount;
+			nextLocal += 2;
+			emitLocal(LSTORE, localSlots[net]);
+			position++;
+		}
+
+		// pass nets read by later parts
+		final int[] fanoutStart = netlist.fanoutStart();
+		final int[] fanoutGates = netlist.fanoutGates();
+		for (int p = first; p < position; p++) {
+			final int net = outputNets[order[p]];
+			boolean needed = circuitOutputs[net];
+			for (int f = fanoutStart[net]; f < fanoutStart[net + 1]; f++) {
+				needed |= gatePositions[fanoutGates[f]] >= position;
+			}
+			if (needed) {
+				code.write(ALOAD_0 + NETS_SLOT);
+				emitNetIndex(net);
+				emitLocal(LLOAD, localSlots[net]);
+				code.write(LASTORE);
+			}
+		}
+
+		endPart();
+		return position;
+	}
+
+	/**
+	 * Pushes the combination of a range of inputs of a gate. If the range
+	 * does not start with the first input, the partial result of the
+	 * previous part is combined, too.
+	 * 
+	 * @return input to resume with or -1, if the range ends with the last
+	 *         input of the gate
+	 */
+	private int emitInputs(final int g, final int from, final int to,
+			final int operation) {
+
+		final int[] inputStart = netlist.gateInputStart();
+		final int[] inputNets = netlist.gateInputNets();
+		final boolean resumed = from > inputStart[g];
+		if (resumed) {
+			code.write(ALOAD_0 + NETS_SLOT);
+			emitNetIndex(netlist.gateOutputNets()[g]);
+			code.write(LALOAD);
+		} else if (from == to) {
+			if (operation == LAND) {
+				emitAllOnes();
+			} else {
+				code.write(LCONST_0);
+			}
+		}
+		for (int i = from; i < to; i++) {
+			emitLoadNet(inputNets[i]);
+			if (resumed || i > from) {
+				code.write(operation);
+			}
+		}
+		return to < inputStart[g + 1] ? to : -1;
+	}
+
+	/**
+	 * Generates the code of a part copying the values of outputs of the
+	 * circuit starting at a given output.
+	 * 
+	 * @param first
+	 *            index of first output
+	 * @return index after last output of the part
+	 */
+	private int generateOutputPart(final int first) {
+
+		final int[] outputNets = netlist.outputNets();
+		startPart(outputNets[first]);
+
+		int output = first;
+		while (output < outputNets.length
+				&& code.size() + MAX_LOAD_LENGTH + MAX_STORE_LENGTH + 1 <= MAX_PART_LENGTH) {
+			code.write(ALOAD_0 + OUTPUTS_SLOT);
+			emitInt(output);
+			emitLoadNet(outputNets[output]);
+			code.write(LASTORE);
+			output++;
+		}
+
+		endPart();
+		return output;
+	}
+
+	/**
+	 * Starts code of a new part without any local variables.
+	 * 
+	 * @param base
+	 *            net passed to the part, that other nets are addressed
+	 *            relative to
+	 */
+	private void startPart(final int base) {
+
+		code = new ByteArrayOutputStream();
+		nextLocal = FIRST_LOCAL;
+		this.base = base;
+	}
+
+	/**
+	 * Finishes code of current part.
+	 */
+	private void endPart() {
+
+		code.write(RETURN);
+		partCount++;
+	}
+
+	/**
+	 * Pushes the value of a net. Nets not yet held in a local variable of the
+	 * current part are loaded from the arrays and stored into a new local
+	 * variable for further use.
+	 */
+	private void emitLoadNet(final int net) {
+
+		if (net == Netlist.UNCONNECTED) {
+			code.write(LCONST_0);
+			return;
+		}
+		if (localParts[net] == partCount) {
+			emitLocal(LLOAD, localSlots[net]);
+			return;
+		}
+
+		if (inputIndices[net] >= 0) {
+			code.write(ALOAD_0 + INPUTS_SLOT);
+			emitInt(inputIndices[net]);
+		} else {
+			code.write(ALOAD_0 + NETS_SLOT);
+			emitNetIndex(net);
+		}
+		code.write(LALOAD);
+		code.write(DUP2);
+		localSlots[net] = nextLocal;
+		localParts[net] = partCount;
+		nextLocal += 2;
+		emitLocal(LSTORE, localSlots[net]);
+	}
+
+	/**
+	 * Pushes a long with all bits set.
+	 */
+	private void emitAllOnes() {
+
+		code.write(LCONST_1);
+		code.write(LNEG);
+	}
+
+	/**
+	 * Pushes the index of a net. Large indices near the base net of the part
+	 * are added to the base.
+	 */
+	private void emitNetIndex(final int net) {
+
+		final int delta = net - base;
+		if (net > Short.MAX_VALUE && delta >= Short.MIN_VALUE
+				&& delta <= Short.MAX_VALUE) {
+			code.write(ILOAD_0 + BASE_SLOT);
+			emitInt(delta);
+			code.write(IADD);
+		} else {
+			emitInt(net);
+		}
+	}
+
+	/**
+	 * Pushes an int constant with the shortest instruction. Large values are
+	 * composed of two shorts, so the constant pool does not grow with the
+	 * size of the circuit.
+	 */
+	private void emitInt(final int value) {
+
+		if (value >= -1 && value <= 5) {
+			code.write(ICONST_0 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			code.write(BIPUSH);
+			code.write(value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			code.write(SIPUSH);
+			writeShort(code, value);
+		} else if (value >= 0 && value < 1 << 30) {
+			code.write(SIPUSH);
+			writeShort(code, value >>> 15);
+			code.write(BIPUSH);
+			code.write(15);
+			code.write(ISHL);
+			code.write(SIPUSH);
+			writeShort(code, value & Short.MAX_VALUE);
+			code.write(IOR);
+		} else {
+			throw new IllegalArgumentException(
+					"Circuit is too large to be compiled.");
+		}
+	}
+
+	/**
+	 * Emits an instruction accessing a local variable.
+	 */
+	private void emitLocal(final int opcode, final int slot) {
+
+		if (slot <= 0xff) {
+			code.write(opcode);
+			code.write(slot);
+		} else {
+			code.write(WIDE);
+			code.write(opcode);
+			writeShort(code, slot);
+		}
+	}
+
+	/**
+	 * Writes a method with a code attribute.
+	 */
+	private static void writeMethod(final DataOutputStream out,
+			final int access, final int name, final int descriptor,
+			final int codeName, final int maxStack, final int maxLocals,
+			final byte[] methodCode) throws IOException {
+
+		if (methodCode.length > MAX_CLASS_ENTRIES) {
+			throw new IllegalArgumentException(
+					"Circuit is too large to be compiled.");
+		}
+		out.writeShort(access);
+		out.writeShort(name);
+		out.writeShort(descriptor);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + methodCode.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(methodCode.length);
+		out.write(methodCode);
+		out.writeShort(0);
+		out.writeShort(0);
+	}
+
+	/**
+	 * Writes two bytes in big endian order.
+	 */
+	private static void writeShort(final ByteArrayOutputStream out,
+			final int value) {
+
+		out.write(value >>> 8 & 0xff);
+		out.write(value & 0xff);
+	}
+
+	/*
+	 * Entries of the constant pool are stored as arrays of objects: the tag
+	 * followed by the value or by the indices of other entries.
+	 */
+
+	private int addConstant(final String key, final Object[] entry) {
+
+		Integer index = constantIndices.get(key);
+		if (index == null) {
+			constants.add(entry);
+			index = constants.size();
+			constantIndices.put(key, index);
+		}
+		return index;
+	}
+
+	private int utf8Constant(final String value) {
+
+		return addConstant("U" + value, new Object[] { CONSTANT_UTF8, value });
+	}
+
+	private int classConstant(final String name) {
+
+		final int nameIndex = utf8Constant(name);
+		return addConstant("C" + name, new Object[] { CONSTANT_CLASS,
+				nameIndex });
+	}
+
+	private int methodConstant(final int owner, final String name,
+			final String descriptor) {
+
+		final int nameIndex = utf8Constant(name);
+		final int descriptorIndex = utf8Constant(descriptor);
+		final int nameAndType = addConstant("N" + name + descriptor,
+				new Object[] { CONSTANT_NAME_AND_TYPE, nameIndex,
+						descriptorIndex });
+		return addConstant("M" + owner + "." + name + descriptor,
+				new Object[] { CONSTANT_METHODREF, owner, nameAndType });
+	}
+
+	private void writeConstantPool(final DataOutputStream out)
+			throws IOException {
+
+		if (constants.size() + 1 > MAX_CLASS_ENTRIES) {
+			throw new IllegalArgumentException(
+					"Circuit is too large to be compiled.");
+		}
+		out.writeShort(constants.size() + 1);
+		for (Object constant : constants) {
+			final Object[] entry = (Object[]) constant;
+			final int tag = (Integer) entry[0];
+			out.writeByte(tag);
+			switch (tag) {
+			case CONSTANT_UTF8:
+				out.writeUTF((String) entry[1]);
+				break;
+			case CONSTANT_CLASS:
+				out.writeShort((Integer) entry[1]);
+				break;
+			default:
+				out.writeShort((Integer) entry[1]);
+				out.writeShort((Integer) entry[2]);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Class loader defining a single generated class. Every compiled circuit
+	 * gets a loader of its own, so the generated class can be unloaded when
+	 * the circuit is not used anymore.
+	 */
+	private static final class GeneratedClassLoader extends ClassLoader {
+
+		private GeneratedClassLoader() {
+
+			super(CompiledCircuit.class.getClassLoader());
+		}
+
+		private Class<?> define(final String name, final byte[] classFile) {
+
+			return defineClass(name, classFile, 0, classFile.length);
+		}
+	}
+}
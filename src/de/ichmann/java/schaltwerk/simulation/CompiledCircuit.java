@@ -0,0 +1,114 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+/**
+ * Base class of all classes generated by <code>CircuitCompiler</code>. Like
+ * <code>BitParallelSimulator</code> it evaluates a combinational circuit for
+ * 64 input vectors at once, but the gates are not interpreted. Instead the
+ * generated subclass contains the bitwise operations of all gates as
+ * straight-line code.
+ * <p>
+ * Instances hold a scratch array for nets passed between the generated
+ * methods, so an instance must not be used by several threads at once.
+ * 
+ * @author Christian Wichmann
+ */
+public abstract class CompiledCircuit {
+
+	private Netlist netlist;
+	private long[] nets;
+
+	/**
+	 * Initializes a compiled circuit. Only called by generated subclasses.
+	 */
+	protected CompiledCircuit() {
+	}
+
+	/**
+	 * Sets netlist from which this class was generated.
+	 * 
+	 * @param netlist
+	 *            compiled netlist
+	 */
+	final void initialize(final Netlist netlist) {
+
+		this.netlist = netlist;
+		this.nets = new long[netlist.countNets()];
+	}
+
+	/**
+	 * Gets netlist from which this class was generated.
+	 * 
+	 * @return compiled netlist
+	 */
+	public final Netlist getNetlist() {
+
+		return netlist;
+	}
+
+	/**
+	 * Evaluates the circuit for 64 input vectors and returns the packed
+	 * values of all outputs.
+	 * 
+	 * @param inputs
+	 *            one word for every input of the circuit
+	 * @return one word for every output of the circuit
+	 */
+	public final long[] evaluate(final long[] inputs) {
+
+		long[] outputs = new long[netlist.countOutputs()];
+		evaluate(inputs, outputs);
+		return outputs;
+	}
+
+	/**
+	 * Evaluates the circuit for 64 input vectors and writes the packed values
+	 * of all outputs into a given array. No objects are allocated by this
+	 * method.
+	 * 
+	 * @param inputs
+	 *            one word for every input of the circuit
+	 * @param outputs
+	 *            array receiving one word for every output of the circuit
+	 * @throws IllegalArgumentException
+	 *             if arrays do not match the number of inputs and outputs
+	 */
+	public final void evaluate(final long[] inputs, final long[] outputs) {
+
+		if (inputs.length != netlist.countInputs()
+				|| outputs.length != netlist.countOutputs()) {
+			throw new IllegalArgumentException(
+					"Number of words does not match inputs and outputs.");
+		}
+		evaluateParts(inputs, outputs, nets);
+	}
+
+	/**
+	 * Evaluates all gates. Implemented by generated code.
+	 * 
+	 * @param inputs
+	 *            one word for every input of the circuit
+	 * @param outputs
+	 *            array receiving one word for every output of the circuit
+	 * @param nets
+	 *            one word for every net of the netlist
+	 */
+	protected abstract void evaluateParts(long[] inputs, long[] outputs,
+			long[] nets);
+}
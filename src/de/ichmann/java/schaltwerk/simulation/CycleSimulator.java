@@ -0,0 +1,205 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.SignalStore;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+
+/**
+ * Simulates synchronous circuits cycle by cycle. All registers share one
+ * clock. On every clock edge the values at the data inputs of all enabled
+ * registers are stored in their bits at the same moment, afterwards the
+ * combinational logic is evaluated once in topological order. Registers break
+ * all feedback through them, so circuits built from gates and registers only
+ * need a single pass over their gates per cycle instead of settling feedback
+ * loops of flip-flops gate by gate.
+ * <p>
+ * The logic is only evaluated before a clock edge, if an input was changed
+ * since the last evaluation. So outputs can be read after every cycle and
+ * always show the state after the last clock edge. The complete state of the
+ * simulation can be saved as <code>Checkpoint</code> and restored later.
+ * 
+ * @author Christian Wichmann
+ */
+public class CycleSimulator extends LevelizedSimulator {
+
+	private final boolean[] nextBits;
+	private boolean evaluated = false;
+	private long cycleCount = 0;
+
+	/**
+	 * Initializes a simulator for a given compound block. The compound block
+	 * is compiled into a netlist once.
+	 * 
+	 * @param circuit
+	 *            compound block to simulate
+	 */
+	public CycleSimulator(final CompoundBlock circuit) {
+
+		this(Netlist.compile(circuit));
+	}
+
+	/**
+	 * Initializes a simulator for an already compiled netlist. All register
+	 * bits start with the value ZERO.
+	 * 
+	 * @param netlist
+	 *            netlist to simulate
+	 */
+	public CycleSimulator(final Netlist netlist) {
+
+		super(netlist, true);
+		nextBits = new boolean[netlist.countRegisterBits()];
+	}
+
+	@Override
+	public void evaluate() {
+
+		super.evaluate();
+		evaluated = true;
+	}
+
+	@Override
+	protected void netChanged(final int net) {
+
+		evaluated = false;
+	}
+
+	/**
+	 * Simulates one clock cycle. The logic is evaluated with the current
+	 * inputs if necessary, then all registers are clocked and the logic is
+	 * evaluated again with the new register bits.
+	 */
+	public void cycle() {
+
+		if (!evaluated) {
+			evaluate();
+		}
+		clockRegisters();
+		evaluate();
+		cycleCount++;
+	}
+
+	/**
+	 * Simulates a number of clock cycles without changing the inputs.
+	 * 
+	 * @param cycles
+	 *            number of clock cycles
+	 */
+	public void cycle(final int cycles) {
+
+		for (int c = 0; c < cycles; c++) {
+			cycle();
+		}
+	}
+
+	/**
+	 * Stores the values at the data inputs of all enabled registers. All bits
+	 * are sampled before the first bit is changed, so registers reading bits
+	 * of other registers see the values before the clock edge.
+	 */
+	private void clockRegisters() {
+
+		final SignalStore values = getSignalStore();
+		final Netlist netlist = getNetlist();
+		final int[] registerStart = netlist.registerStart();
+		final int[] dataNets = netlist.registerDataNets();
+		final int[] enableNets = netlist.registerEnableNets();
+		final int[] registerNets = netlist.registerNets();
+
+		for (int r = 0; r < enableNets.length; r++) {
+			final boolean enabled = enableNets[r] == Netlist.NO_ENABLE
+					|| values.get(enableNets[r]);
+			for (int b = registerStart[r]; b < registerStart[r + 1]; b++) {
+				nextBits[b] = values.get(enabled ? dataNets[b]
+						: registerNets[b]);
+			}
+		}
+		for (int b = 0; b < registerNets.length; b++) {
+			values.set(registerNets[b], nextBits[b]);
+		}
+	}
+
+	/**
+	 * Takes a full checkpoint of all nets and register bits. The number of
+	 * simulated cycles is stored as simulation time.
+	 * 
+	 * @return checkpoint of the current state
+	 */
+	public final Checkpoint checkpoint() {
+
+		return checkpoint(null);
+	}
+
+	/**
+	 * Takes a checkpoint of all nets and register bits that is written as
+	 * delta to an earlier checkpoint of this simulator.
+	 * 
+	 * @param base
+	 *            earlier checkpoint or null for a full checkpoint
+	 * @return checkpoint of the current state
+	 */
+	public final Checkpoint checkpoint(final Checkpoint base) {
+
+		return Checkpoint.capture(getSignalStore(), cycleCount, base);
+	}
+
+	/**
+	 * Restores all nets, register bits and the number of simulated cycles
+	 * from a checkpoint. The checkpoint may have been taken by another
+	 * simulator of the same netlist, so many simulations can be continued
+	 * from the same state.
+	 * 
+	 * @param checkpoint
+	 *            checkpoint to be restored
+	 * @throws IllegalArgumentException
+	 *             if checkpoint does not match the netlist
+	 */
+	public final void restore(final Checkpoint checkpoint) {
+
+		checkpoint.restore(getSignalStore());
+		cycleCount = checkpoint.getTime();
+		evaluated = false;
+	}
+
+	/**
+	 * Gets a stored bit of a register.
+	 * 
+	 * @param register
+	 *            id of register
+	 * @param bit
+	 *            index of bit inside the register
+	 * @return value of bit
+	 */
+	public final Signals getRegisterBit(final int register, final int bit) {
+
+		return getSignalStore().getSignalValue(
+				getNetlist().getRegisterNet(register, bit));
+	}
+
+	/**
+	 * Returns number of clock cycles simulated so far.
+	 * 
+	 * @return number of cycles
+	 */
+	public final long countCycles() {
+
+		return cycleCount;
+	}
+}
@@ -0,0 +1,309 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+
+/**
+ * Checks whether two combinational circuits compute the same functions.
+ * Inputs and outputs of both circuits are matched by their identifications.
+ * <p>
+ * Both circuits are converted into a single <code>AndInverterGraph</code>, a
+ * miter, whose inputs are shared by both circuits. For every output the
+ * miter contains the XOR of the outputs of both circuits, so the miter is ONE
+ * exactly for input vectors on which the circuits differ. Structural hashing
+ * already merges identical parts of both circuits. The cone of the miter is
+ * encoded into clauses by the Tseitin transformation and given to a
+ * <code>SatSolver</code>: the circuits are equivalent if the miter cannot be
+ * satisfied, otherwise the satisfying assignment is a counterexample.
+ * 
+ * @author Christian Wichmann
+ */
+public final class EquivalenceChecker {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(EquivalenceChecker.class);
+
+	private final AndInverterGraph miter;
+	private final SatSolver solver = new SatSolver();
+	private final boolean equivalent;
+	private final long[] counterexample;
+
+	/**
+	 * Checks the equivalence of two circuits.
+	 * 
+	 * @param first
+	 *            first combinational circuit
+	 * @param second
+	 *            second combinational circuit
+	 * @throws IllegalArgumentException
+	 *             if circuits contain feedback loops or do not have the same
+	 *             identifications of inputs and outputs
+	 */
+	public EquivalenceChecker(final CompoundBlock first,
+			final CompoundBlock second) {
+
+		final AndInverterGraph a = AndInverterGraph.compile(first);
+		final AndInverterGraph b = AndInverterGraph.compile(second);
+		miter = createMiter(a, b);
+
+		final int root = orOfOutputs();
+		if (root == AndInverterGraph.FALSE) {
+			equivalent = true;
+		} else {
+			encode(root);
+			equivalent = !solver.solve();
+		}
+
+		if (equivalent) {
+			counterexample = null;
+		} else {
+			counterexample = new long[miter.countInputs()];
+			for (int i = 0; i < counterexample.length; i++) {
+				final int variable = AndInverterGraph.variable(miter
+						.getInput(i));
+				counterexample[i] = solver.getValue(variable) ? 1 : 0;
+			}
+		}
+
+		LOG.debug("Checked equivalence of " + a.getCircuitID() + " and "
+				+ b.getCircuitID() + " with " + miter.countAnds()
+				+ " AND nodes in " + solver.countConflicts() + " conflicts: "
+				+ equivalent);
+	}
+
+	/**
+	 * Copies both graphs into a miter whose outputs are the XOR of the
+	 * outputs with the same identification.
+	 */
+	private static AndInverterGraph createMiter(final AndInverterGraph a,
+			final AndInverterGraph b) {
+
+		final String[] inputIDs = new String[a.countInputs()];
+		for (int i = 0; i < inputIDs.length; i++) {
+			inputIDs[i] = a.getInputID(i);
+		}
+		final String[] outputIDs = new String[a.countOutputs()];
+		for (int o = 0; o < outputIDs.length; o++) {
+			outputIDs[o] = a.getOutputID(o);
+		}
+		final String[] otherInputIDs = new String[b.countInputs()];
+		for (int i = 0; i < otherInputIDs.length; i++) {
+			otherInputIDs[i] = b.getInputID(i);
+		}
+		final String[] otherOutputIDs = new String[b.countOutputs()];
+		for (int o = 0; o < otherOutputIDs.length; o++) {
+			otherOutputIDs[o] = b.getOutputID(o);
+		}
+		if (!sameIDs(inputIDs, otherInputIDs)
+				|| !sameIDs(outputIDs, otherOutputIDs)) {
+			throw new IllegalArgumentException(
+					"Circuits differ in identifications of inputs or outputs.");
+		}
+
+		final AndInverterGraph miter = new AndInverterGraph(a.getCircuitID()
+				+ " == " + b.getCircuitID(), inputIDs, outputIDs);
+		final List<String> inputs = Arrays.asList(inputIDs);
+		final List<String> outputs = Arrays.asList(outputIDs);
+
+		final int[] first = copy(a, miter, identity(inputIDs.length));
+		final int[] inputMap = new int[otherInputIDs.length];
+		for (int i = 0; i < inputMap.length; i++) {
+			inputMap[i] = inputs.indexOf(otherInputIDs[i]);
+		}
+		final int[] second = copy(b, miter, inputMap);
+		for (int o = 0; o < otherOutputIDs.length; o++) {
+			final int index = outputs.indexOf(otherOutputIDs[o]);
+			final int x = first[index];
+			final int y = second[o];
+			miter.setOutput(index, miter.or(
+					miter.and(x, AndInverterGraph.not(y)),
+					miter.and(AndInverterGraph.not(x), y)));
+		}
+		return miter;
+	}
+
+	/**
+	 * Returns whether two arrays contain the same distinct identifications.
+	 */
+	private static boolean sameIDs(final String[] a, final String[] b) {
+
+		final Set<String> ids = new HashSet<String>(Arrays.asList(a));
+		return ids.size() == a.length && a.length == b.length
+				&& ids.containsAll(Arrays.asList(b));
+	}
+
+	private static int[] identity(final int length) {
+
+		final int[] result = new int[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = i;
+		}
+		return result;
+	}
+
+	/**
+	 * Copies all AND nodes of a graph into another one. Input <i>i</i> of the
+	 * source is connected to input <code>inputMap[i]</code> of the target.
+	 * 
+	 * @return literals of all outputs of source in target
+	 */
+	private static int[] copy(final AndInverterGraph source,
+			final AndInverterGraph target, final int[] inputMap) {
+
+		final int[] literals = new int[source.countVariables()];
+		literals[0] = AndInverterGraph.FALSE;
+		for (int i = 0; i < inputMap.length; i++) {
+			literals[AndInverterGraph.variable(source.getInput(i))] = target
+					.getInput(inputMap[i]);
+		}
+		for (int v = 1 + inputMap.length; v < literals.length; v++) {
+			literals[v] = target.and(map(source.getFanin0(v), literals),
+					map(source.getFanin1(v), literals));
+		}
+		final int[] outputs = new int[source.countOutputs()];
+		for (int o = 0; o < outputs.length; o++) {
+			outputs[o] = map(source.getOutput(o), literals);
+		}
+		return outputs;
+	}
+
+	private static int map(final int literal, final int[] literals) {
+
+		return literals[AndInverterGraph.variable(literal)]
+				^ (literal & 1);
+	}
+
+	/**
+	 * Builds the OR of all outputs of the miter.
+	 */
+	private int orOfOutputs() {
+
+		int result = AndInverterGraph.FALSE;
+		for (int o = 0; o < miter.countOutputs(); o++) {
+			result = miter.or(result, miter.getOutput(o));
+		}
+		return result;
+	}
+
+	/**
+	 * Encodes the cone of a literal into clauses that are satisfiable if and
+	 * only if the literal can be ONE. Every variable of the graph becomes a
+	 * variable of the solver. For an AND node v = a & b the clauses (!v | a),
+	 * (!v | b) and (v | !a | !b) are added.
+	 */
+	private void encode(final int root) {
+
+		final int variables = miter.countVariables();
+		while (solver.countVariables() < variables) {
+			solver.newVariable();
+		}
+		solver.addClause(AndInverterGraph.TRUE);
+
+		final boolean[] cone = new boolean[variables];
+		cone[AndInverterGraph.variable(root)] = true;
+		for (int v = variables - 1; v > 0; v--) {
+			if (cone[v] && miter.isAnd(v)) {
+				final int a = miter.getFanin0(v);
+				final int b = miter.getFanin1(v);
+				cone[AndInverterGraph.variable(a)] = true;
+				cone[AndInverterGraph.variable(b)] = true;
+				final int literal = 2 * v;
+				solver.addClause(AndInverterGraph.not(literal), a);
+				solver.addClause(AndInverterGraph.not(literal), b);
+				solver.addClause(literal, AndInverterGraph.not(a),
+						AndInverterGraph.not(b));
+			}
+		}
+		solver.addClause(root);
+	}
+
+	/**
+	 * Returns whether both circuits compute the same functions.
+	 * 
+	 * @return true, if all outputs are equal for all input vectors
+	 */
+	public boolean isEquivalent() {
+
+		return equivalent;
+	}
+
+	/**
+	 * Returns an input vector for which the circuits differ.
+	 * 
+	 * @return value of every input by its identification, or null if the
+	 *         circuits are equivalent
+	 */
+	public Map<String, Signals> getCounterexample() {
+
+		if (equivalent) {
+			return null;
+		}
+		final Map<String, Signals> result = new LinkedHashMap<String, Signals>();
+		for (int i = 0; i < counterexample.length; i++) {
+			result.put(miter.getInputID(i),
+					counterexample[i] != 0 ? Signals.ONE : Signals.ZERO);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns identifications of all outputs that differ for the
+	 * counterexample.
+	 * 
+	 * @return list of output identifications, empty if the circuits are
+	 *         equivalent
+	 */
+	public List<String> getDifferingOutputs() {
+
+		final List<String> result = new ArrayList<String>();
+		if (equivalent) {
+			return result;
+		}
+		final long[] differences = new long[miter.countOutputs()];
+		miter.evaluate(counterexample, differences);
+		for (int o = 0; o < differences.length; o++) {
+			if ((differences[o] & 1) != 0) {
+				result.add(miter.getOutputID(o));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the solver used for the proof, e.g. to read its statistics.
+	 * 
+	 * @return SAT solver
+	 */
+	public SatSolver getSolver() {
+
+		return solver;
+	}
+}
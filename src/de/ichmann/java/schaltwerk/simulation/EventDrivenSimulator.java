@@ -0,0 +1,202 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.SignalStore;
+
+/**
+ * Simulates a compound block by evaluating only gates whose inputs have
+ * changed. Every change of an input or of the output of a gate schedules all
+ * gates reading that net. Scheduled gates are held in one queue per level of
+ * the netlist and are evaluated level by level, so every gate is evaluated at
+ * most once per call in circuits without feedback.
+ * <p>
+ * The first call of <code>evaluate()</code> evaluates all gates to bring the
+ * circuit into a consistent state. After that the costs of a call only depend
+ * on the number of nets that toggle and not on the size of the circuit.
+ * 
+ * @author Christian Wichmann
+ */
+public class EventDrivenSimulator extends Simulator {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(EventDrivenSimulator.class);
+
+	private final int[] outputNets;
+	private final int[] fanoutStart;
+	private final int[] fanoutGates;
+
+	private final int[][] levelQueues;
+	private final int[] levelQueueSizes;
+	private final boolean[] scheduled;
+	private int lowestScheduledLevel;
+
+	private int evaluatedGates = 0;
+
+	/**
+	 * Initializes a simulator for a given compound block. The compound block
+	 * is compiled into a netlist once.
+	 * 
+	 * @param circuit
+	 *            compound block to simulate
+	 */
+	public EventDrivenSimulator(final CompoundBlock circuit) {
+
+		this(Netlist.compile(circuit));
+	}
+
+	/**
+	 * Initializes a simulator for an already compiled netlist. All gates are
+	 * scheduled for the first evaluation.
+	 * 
+	 * @param netlist
+	 *            netlist to simulate
+	 * @throws IllegalArgumentException
+	 *             if netlist contains registers
+	 */
+	public EventDrivenSimulator(final Netlist netlist) {
+
+		super(netlist);
+
+		outputNets = netlist.gateOutputNets();
+		fanoutStart = netlist.fanoutStart();
+		fanoutGates = netlist.fanoutGates();
+
+		// a gate can be scheduled again while its level is being processed
+		final int[] levelStart = netlist.levelStart();
+		final int levelCount = netlist.countLevels();
+		levelQueues = new int[levelCount][];
+		levelQueueSizes = new int[levelCount];
+		for (int level = 0; level < levelCount; level++) {
+			int gates = levelStart[level + 1] - levelStart[level];
+			levelQueues[level] = new int[2 * gates];
+		}
+		scheduled = new boolean[netlist.countGates()];
+		lowestScheduledLevel = levelCount;
+
+		for (int g = 0; g < netlist.countGates(); g++) {
+			schedule(g);
+		}
+	}
+
+	/**
+	 * Returns number of gate evaluations during the last call of
+	 * <code>evaluate()</code>.
+	 * 
+	 * @return number of evaluated gates
+	 */
+	public final int countEvaluatedGates() {
+
+		return evaluatedGates;
+	}
+
+	/**
+	 * Evaluates all scheduled gates level by level. Gates only schedule gates
+	 * of higher levels or of their own feedback loop. All gates of a feedback
+	 * loop are on the same level, so the level is processed again as long as
+	 * gates of the loop are scheduled. Circuits that do not settle are stopped
+	 * when every gate was evaluated the maximum number of iterations on
+	 * average, and continue with the next call.
+	 */
+	@Override
+	public void evaluate() {
+
+		final int levelCount = levelQueues.length;
+		final int limit = getMaxIterations() * Math.max(1, scheduled.length);
+		evaluatedGates = 0;
+		setStable(true);
+
+		for (int level = lowestScheduledLevel; level < levelCount; level++) {
+			while (levelQueueSizes[level] > 0) {
+				if (evaluatedGates > limit) {
+					LOG.debug("Circuit " + getNetlist().getCircuitID()
+							+ " did not settle after " + evaluatedGates
+							+ " evaluations.");
+					setStable(false);
+					lowestScheduledLevel = level;
+					return;
+				}
+				evaluateLevel(level);
+			}
+		}
+		lowestScheduledLevel = levelCount;
+	}
+
+	/**
+	 * Evaluates all gates that are currently scheduled on a level. Gates
+	 * scheduled on the same level during this call remain in the queue.
+	 */
+	private void evaluateLevel(final int level) {
+
+		final SignalStore values = getSignalStore();
+		final int[] queue = levelQueues[level];
+		final int size = levelQueueSizes[level];
+
+		for (int k = 0; k < size; k++) {
+			final int g = queue[k];
+			scheduled[g] = false;
+			evaluatedGates++;
+
+			final boolean value = evaluateGate(g);
+			final int net = outputNets[g];
+			if (values.get(net) != value) {
+				values.set(net, value);
+				scheduleFanout(net);
+			}
+		}
+
+		final int remaining = levelQueueSizes[level] - size;
+		System.arraycopy(queue, size, queue, 0, remaining);
+		levelQueueSizes[level] = remaining;
+	}
+
+	@Override
+	protected void netChanged(final int net) {
+
+		scheduleFanout(net);
+	}
+
+	/**
+	 * Schedules all gates reading the given net.
+	 */
+	private void scheduleFanout(final int net) {
+
+		for (int f = fanoutStart[net]; f < fanoutStart[net + 1]; f++) {
+			schedule(fanoutGates[f]);
+		}
+	}
+
+	/**
+	 * Schedules a gate for evaluation if it is not scheduled already.
+	 */
+	private void schedule(final int gate) {
+
+		if (!scheduled[gate]) {
+			scheduled[gate] = true;
+			final int level = getNetlist().getGateLevel(gate);
+			levelQueues[level][levelQueueSizes[level]++] = gate;
+			if (level < lowestScheduledLevel) {
+				lowestScheduledLevel = level;
+			}
+		}
+	}
+}
@@ -0,0 +1,353 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.util.Arrays;
+
+import de.ichmann.java.schaltwerk.blocks.Blocks;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.SignalStore;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+
+/**
+ * Simulates a netlist with the four signal values ZERO, ONE, X and Z for 64
+ * independent input vectors at once. Every net is stored as two bit planes
+ * (dual rail): a bit in the <i>high</i> plane is set, if the net can be ONE,
+ * and a bit in the <i>low</i> plane is set, if the net can be ZERO. So ONE is
+ * (1,0), ZERO is (0,1), X is (1,1) and Z is (0,0).
+ * <p>
+ * Gates read Z as X and are evaluated by a few bitwise operations on both
+ * planes. All nets start as X, so the state of feedback loops stays unknown
+ * until it is set by the inputs. Vectors of a feedback loop that do not
+ * reach a stable state within the maximum number of iterations are set to X.
+ * 
+ * @author Christian Wichmann
+ */
+public class FourStateSimulator {
+
+	/**
+	 * Number of input vectors simulated in parallel.
+	 */
+	public static final int VECTORS = Long.SIZE;
+
+	private final Netlist netlist;
+	private final long[] high;
+	private final long[] low;
+
+	private int maxIterations = Simulator.DEFAULT_MAX_ITERATIONS;
+	private boolean stable = true;
+
+	/**
+	 * Initializes a simulator for a given compound block. The compound block
+	 * is compiled into a netlist once.
+	 * 
+	 * @param circuit
+	 *            compound block to simulate
+	 */
+	public FourStateSimulator(final CompoundBlock circuit) {
+
+		this(Netlist.compile(circuit));
+	}
+
+	/**
+	 * Initializes a simulator for an already compiled netlist.
+	 * 
+	 * @param netlist
+	 *            netlist to simulate
+	 * @throws IllegalArgumentException
+	 *             if netlist contains registers
+	 */
+	public FourStateSimulator(final Netlist netlist) {
+
+		if (netlist.countRegisters() > 0) {
+			throw new IllegalArgumentException(
+					"Registers can only be simulated by a cycle simulator.");
+		}
+		this.netlist = netlist;
+		this.high = new long[netlist.countNets()];
+		this.low = new long[netlist.countNets()];
+		reset();
+	}
+
+	/**
+	 * Gets netlist simulated by this simulator.
+	 * 
+	 * @return simulated netlist
+	 */
+	public final Netlist getNetlist() {
+
+		return netlist;
+	}
+
+	/**
+	 * Sets all nets to X. Inputs that are not driven by any output are Z.
+	 */
+	public final void reset() {
+
+		Arrays.fill(high, -1L);
+		Arrays.fill(low, -1L);
+		high[Netlist.UNCONNECTED] = 0L;
+		low[Netlist.UNCONNECTED] = 0L;
+		stable = true;
+	}
+
+	/**
+	 * Sets value of an input of the simulated circuit for all vectors. Every
+	 * gate reads Z as X, as given by <code>SignalStore.resolve()</code>, so
+	 * an input set to Z is stored as X.
+	 * 
+	 * @param index
+	 *            index of input
+	 * @param value
+	 *            signal value to be set
+	 */
+	public final void setInput(final int index, final Signals value) {
+
+		final Signals resolved = SignalStore.resolve(value);
+		final boolean canBeOne = resolved != Signals.ZERO;
+		final boolean canBeZero = resolved != Signals.ONE;
+		setInput(index, canBeOne ? -1L : 0L, canBeZero ? -1L : 0L);
+	}
+
+	/**
+	 * Sets value of an input of the simulated circuit for every vector
+	 * separately.
+	 * 
+	 * @param index
+	 *            index of input
+	 * @param highWord
+	 *            bit <i>k</i> is set, if input can be ONE in vector <i>k</i>
+	 * @param lowWord
+	 *            bit <i>k</i> is set, if input can be ZERO in vector <i>k</i>
+	 */
+	public final void setInput(final int index, final long highWord,
+			final long lowWord) {
+
+		final int net = netlist.inputNets()[index];
+		high[net] = highWord;
+		low[net] = lowWord;
+	}
+
+	/**
+	 * Gets value of an output of the simulated circuit for a single vector.
+	 * 
+	 * @param index
+	 *            index of output
+	 * @param vector
+	 *            number of vector
+	 * @return signal value of output
+	 */
+	public final Signals getOutput(final int index, final int vector) {
+
+		final int net = netlist.outputNets()[index];
+		final boolean canBeOne = (high[net] >>> vector & 1L) != 0;
+		final boolean canBeZero = (low[net] >>> vector & 1L) != 0;
+		if (canBeOne) {
+			return canBeZero ? Signals.X : Signals.ONE;
+		} else {
+			return canBeZero ? Signals.ZERO : Signals.Z;
+		}
+	}
+
+	/**
+	 * Gets high plane of an output for all vectors.
+	 * 
+	 * @param index
+	 *            index of output
+	 * @return bit <i>k</i> is set, if output can be ONE in vector <i>k</i>
+	 */
+	public final long getOutputHigh(final int index) {
+
+		return high[netlist.outputNets()[index]];
+	}
+
+	/**
+	 * Gets low plane of an output for all vectors.
+	 * 
+	 * @param index
+	 *            index of output
+	 * @return bit <i>k</i> is set, if output can be ZERO in vector <i>k</i>
+	 */
+	public final long getOutputLow(final int index) {
+
+		return low[netlist.outputNets()[index]];
+	}
+
+	/**
+	 * Returns whether all feedback loops reached a stable state in all vectors
+	 * during the last call of <code>evaluate()</code>.
+	 * 
+	 * @return false, if a feedback loop was oscillating
+	 */
+	public final boolean isStable() {
+
+		return stable;
+	}
+
+	/**
+	 * Gets maximum number of iterations for feedback loops to reach a stable
+	 * state.
+	 * 
+	 * @return maximum number of iterations
+	 */
+	public final int getMaxIterations() {
+
+		return maxIterations;
+	}
+
+	/**
+	 * Sets maximum number of iterations for feedback loops to reach a stable
+	 * state.
+	 * 
+	 * @param maxIterations
+	 *            maximum number of iterations
+	 * @throws IllegalArgumentException
+	 *             if number of iterations is not positive
+	 */
+	public final void setMaxIterations(final int maxIterations) {
+
+		if (maxIterations < 1) {
+			throw new IllegalArgumentException(
+					"Number of iterations has to be positive.");
+		}
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * Evaluates all gates of the netlist in topological order for all vectors.
+	 * Gates outside of feedback loops are evaluated exactly once.
+	 */
+	public void evaluate() {
+
+		final int[] order = netlist.evaluationOrder();
+		final int[] componentStart = netlist.componentStart();
+		final boolean[] feedbackLoops = netlist.feedbackLoops();
+		stable = true;
+
+		for (int c = 0; c < feedbackLoops.length; c++) {
+			if (feedbackLoops[c]) {
+				stable &= settleFeedbackLoop(componentStart[c],
+						componentStart[c + 1]);
+			} else {
+				evaluateGate(order[componentStart[c]]);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the gates of a feedback loop repeatedly until no output
+	 * changes anymore in any vector. If the loop is still changing after the
+	 * maximum number of iterations, all outputs of the loop are set to X in
+	 * the vectors that changed during the last iteration.
+	 * 
+	 * @param first
+	 *            position of first gate of the loop in evaluation order
+	 * @param last
+	 *            position after last gate of the loop in evaluation order
+	 * @return true, if the loop reached a stable state in all vectors
+	 */
+	private boolean settleFeedbackLoop(final int first, final int last) {
+
+		final int[] order = netlist.evaluationOrder();
+		final int[] outputNets = netlist.gateOutputNets();
+		long changing = 0L;
+
+		for (int iteration = 0; iteration < maxIterations; iteration++) {
+			changing = 0L;
+			for (int k = first; k < last; k++) {
+				changing |= evaluateGate(order[k]);
+			}
+			if (changing == 0L) {
+				return true;
+			}
+		}
+
+		for (int k = first; k < last; k++) {
+			final int net = outputNets[order[k]];
+			high[net] |= changing;
+			low[net] |= changing;
+		}
+		return false;
+	}
+
+	/**
+	 * Calculates the output of a gate for all vectors from the current values
+	 * of its input nets and writes it to the output net of the gate.
+	 * 
+	 * @param gate
+	 *            id of gate
+	 * @return bit <i>k</i> is set, if output changed in vector <i>k</i>
+	 */
+	private long evaluateGate(final int gate) {
+
+		final Blocks type = netlist.gateTypes()[gate];
+		final int[] inputNets = netlist.gateInputNets();
+		final int first = netlist.gateInputStart()[gate];
+		final int last = netlist.gateInputStart()[gate + 1];
+		long h;
+		long l;
+
+		switch (type) {
+		case AND:
+		case NAND:
+			h = -1L;
+			l = 0L;
+			for (int i = first; i < last; i++) {
+				final long inHigh = high[inputNets[i]];
+				final long inLow = low[inputNets[i]];
+				final long z = ~(inHigh | inLow);
+				h &= inHigh | z;
+				l |= inLow | z;
+			}
+			break;
+		case OR:
+		case NOR:
+			h = 0L;
+			l = -1L;
+			for (int i = first; i < last; i++) {
+				final long inHigh = high[inputNets[i]];
+				final long inLow = low[inputNets[i]];
+				final long z = ~(inHigh | inLow);
+				h |= inHigh | z;
+				l &= inLow | z;
+			}
+			break;
+		case NOT:
+			final long inHigh = high[inputNets[first]];
+			final long inLow = low[inputNets[first]];
+			final long z = ~(inHigh | inLow);
+			h = inLow | z;
+			l = inHigh | z;
+			break;
+		default:
+			throw new IllegalStateException("Unknown gate type.");
+		}
+
+		if (type == Blocks.NAND || type == Blocks.NOR) {
+			final long swap = h;
+			h = l;
+			l = swap;
+		}
+
+		final int net = netlist.gateOutputNets()[gate];
+		final long changed = (high[net] ^ h) | (low[net] ^ l);
+		high[net] = h;
+		low[net] = l;
+		return changed;
+	}
+}
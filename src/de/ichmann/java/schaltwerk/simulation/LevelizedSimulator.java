@@ -0,0 +1,106 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.SignalStore;
+
+/**
+ * Simulates a compound block by evaluating all gates of its netlist in
+ * topological order. Every call of <code>evaluate()</code> runs once through
+ * the flat evaluation order without any recursion and without the need to
+ * reset the circuit afterwards. Only the gates of feedback loops are evaluated
+ * repeatedly until they reach a fixed point.
+ * <p>
+ * Inputs and outputs are accessed by their index in the netlist. Indices can
+ * be looked up once by <code>Netlist.inputIndex()</code> and
+ * <code>Netlist.outputIndex()</code>.
+ * 
+ * @author Christian Wichmann
+ */
+public class LevelizedSimulator extends Simulator {
+
+	/**
+	 * Initializes a simulator for a given compound block. The compound block
+	 * is compiled into a netlist once.
+	 * 
+	 * @param circuit
+	 *            compound block to simulate
+	 */
+	public LevelizedSimulator(final CompoundBlock circuit) {
+
+		this(Netlist.compile(circuit));
+	}
+
+	/**
+	 * Initializes a simulator for an already compiled netlist.
+	 * 
+	 * @param netlist
+	 *            netlist to simulate
+	 * @throws IllegalArgumentException
+	 *             if netlist contains registers
+	 */
+	public LevelizedSimulator(final Netlist netlist) {
+
+		super(netlist);
+	}
+
+	/**
+	 * Initializes a simulator for an already compiled netlist, that may
+	 * contain registers if they are clocked by the derived simulator.
+	 * 
+	 * @param netlist
+	 *            netlist to simulate
+	 * @param clocked
+	 *            true, if the derived simulator clocks the registers
+	 * @throws IllegalArgumentException
+	 *             if netlist contains registers and is not clocked
+	 */
+	protected LevelizedSimulator(final Netlist netlist, final boolean clocked) {
+
+		super(netlist, clocked);
+	}
+
+	/**
+	 * Evaluates all gates of the netlist in topological order. Gates outside
+	 * of feedback loops are evaluated exactly once. Every feedback loop is
+	 * evaluated until it reaches a stable state or until the maximum number
+	 * of iterations is reached.
+	 */
+	@Override
+	public void evaluate() {
+
+		final SignalStore values = getSignalStore();
+		final int[] outputNets = getNetlist().gateOutputNets();
+		final int[] order = getNetlist().evaluationOrder();
+		final int[] componentStart = getNetlist().componentStart();
+		final boolean[] feedbackLoops = getNetlist().feedbackLoops();
+		boolean stable = true;
+
+		for (int c = 0; c < feedbackLoops.length; c++) {
+			if (feedbackLoops[c]) {
+				stable &= settleFeedbackLoop(componentStart[c],
+						componentStart[c + 1]);
+			} else {
+				final int g = order[componentStart[c]];
+				values.set(outputNets[g], evaluateGate(g));
+			}
+		}
+		setStable(stable);
+	}
+}
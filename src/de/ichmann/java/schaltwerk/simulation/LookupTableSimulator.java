@@ -0,0 +1,513 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ichmann.java.schaltwerk.blocks.Blocks;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.SignalStore;
+
+/**
+ * Simulates a compound block after mapping its gates into lookup tables
+ * (LUT) like the logic blocks of an FPGA. Every LUT replaces a cone of gates
+ * with up to <i>k</i> input nets, its leaves. The truth table of the cone is
+ * computed once and stored as bits in a <code>long</code> array, so
+ * evaluating the whole cone means packing the values of the leaves into an
+ * index and reading a single bit. Because the netlist is flat, cones also
+ * span the borders of nested compound blocks.
+ * <p>
+ * The mapping enumerates cuts: every net keeps a few sets of at most <i>k</i>
+ * leaves from which it can be computed, preferring cuts with few levels of
+ * LUTs above the inputs and with few leaves. Starting at the outputs of the
+ * circuit, the best cut of every required net becomes a LUT and its leaves
+ * become required in turn. Gates with more than <i>k</i> inputs and gates of
+ * feedback loops are evaluated like in <code>LevelizedSimulator</code>.
+ * <p>
+ * Only nets at the borders of LUTs get values, nets inside of cones keep
+ * their old values in the signal store.
+ * 
+ * @author Christian Wichmann
+ */
+public class LookupTableSimulator extends Simulator {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(LookupTableSimulator.class);
+
+	/**
+	 * Maximum number of inputs of a lookup table.
+	 */
+	public static final int MAX_LUT_INPUTS = 8;
+
+	/**
+	 * Number of inputs of lookup tables used by default.
+	 */
+	public static final int DEFAULT_LUT_INPUTS = 6;
+
+	private static final int CUTS_PER_NET = 8;
+
+	private static final int DIRECT_GATE = -1;
+	private static final int ABSORBED_GATE = -2;
+	private static final int FEEDBACK_LOOP = -3;
+
+	private static final long[] PATTERNS = { 0xAAAAAAAAAAAAAAAAL,
+			0xCCCCCCCCCCCCCCCCL, 0xF0F0F0F0F0F0F0F0L, 0xFF00FF00FF00FF00L,
+			0xFFFF0000FFFF0000L, 0xFFFFFFFF00000000L };
+
+	private final int lutInputs;
+
+	/**
+	 * Action for every component of the netlist: index of a LUT or one of
+	 * the constants above.
+	 */
+	private final int[] schedule;
+
+	private int[] leafStart;
+	private int[] leafNets;
+	private int[] tableStart;
+	private long[] tables;
+	private int[] rootNets;
+	private int lutCount;
+	private int directGateCount;
+
+	/**
+	 * Initializes a simulator for a given compound block with LUTs of the
+	 * default size.
+	 * 
+	 * @param circuit
+	 *            compound block to simulate
+	 */
+	public LookupTableSimulator(final CompoundBlock circuit) {
+
+		this(Netlist.compile(circuit), DEFAULT_LUT_INPUTS);
+	}
+
+	/**
+	 * Initializes a simulator for an already compiled netlist.
+	 * 
+	 * @param netlist
+	 *            netlist to simulate
+	 * @param lutInputs
+	 *            maximum number of inputs of a lookup table
+	 * @throws IllegalArgumentException
+	 *             if number of inputs is not between 2 and
+	 *             <code>MAX_LUT_INPUTS</code> or netlist contains registers
+	 */
+	public LookupTableSimulator(final Netlist netlist, final int lutInputs) {
+
+		super(netlist);
+
+		if (lutInputs < 2 || lutInputs > MAX_LUT_INPUTS) {
+			throw new IllegalArgumentException(
+					"Number of LUT inputs out of range: " + lutInputs);
+		}
+		this.lutInputs = lutInputs;
+		this.schedule = new int[netlist.feedbackLoops().length];
+		map();
+
+		LOG.debug("Mapped " + netlist.countGates() + " gates of "
+				+ netlist.getCircuitID() + " into " + lutCount + " LUTs and "
+				+ directGateCount + " direct gates.");
+	}
+
+	/**
+	 * Selects cones of gates and computes their truth tables.
+	 */
+	private void map() {
+
+		final Netlist netlist = getNetlist();
+		final int[] order = netlist.evaluationOrder();
+		final int[] componentStart = netlist.componentStart();
+		final boolean[] feedbackLoops = netlist.feedbackLoops();
+		final int[] inputStart = netlist.gateInputStart();
+		final int[] inputNets = netlist.gateInputNets();
+		final int[] outputNets = netlist.gateOutputNets();
+
+		final int[] depths = new int[netlist.countNets()];
+		final int[][][] cuts = new int[netlist.countNets()][][];
+		final int[][] bestCuts = new int[netlist.countNets()][];
+		cuts[Netlist.UNCONNECTED] = new int[][] { {} };
+		for (int i = 0; i < netlist.countInputs(); i++) {
+			final int net = netlist.getInputNet(i);
+			cuts[net] = new int[][] { { net } };
+		}
+		for (int net : netlist.registerNets()) {
+			cuts[net] = new int[][] { { net } };
+		}
+
+		// enumerate cuts in topological order
+		for (int c = 0; c < feedbackLoops.length; c++) {
+			if (feedbackLoops[c]) {
+				schedule[c] = FEEDBACK_LOOP;
+				for (int k = componentStart[c]; k < componentStart[c + 1]; k++) {
+					final int net = outputNets[order[k]];
+					cuts[net] = new int[][] { { net } };
+				}
+				continue;
+			}
+
+			final int g = order[componentStart[c]];
+			final int net = outputNets[g];
+			final List<int[]> merged = mergeFaninCuts(g, cuts, depths);
+			if (merged.isEmpty()) {
+				int depth = 0;
+				for (int i = inputStart[g]; i < inputStart[g + 1]; i++) {
+					depth = Math.max(depth, depths[inputNets[i]]);
+				}
+				depths[net] = depth + 1;
+				cuts[net] = new int[][] { { net } };
+			} else {
+				bestCuts[net] = merged.get(0);
+				depths[net] = depth(merged.get(0), depths) + 1;
+				final int count = Math.min(merged.size(), CUTS_PER_NET - 1);
+				cuts[net] = new int[count + 1][];
+				cuts[net][0] = new int[] { net };
+				for (int k = 0; k < count; k++) {
+					cuts[net][k + 1] = merged.get(k);
+				}
+			}
+		}
+
+		// select cones starting at the outputs
+		final boolean[] required = new boolean[netlist.countNets()];
+		for (int o = 0; o < netlist.countOutputs(); o++) {
+			required[netlist.getOutputNet(o)] = true;
+		}
+		for (int net : netlist.registerDataNets()) {
+			required[net] = true;
+		}
+		for (int net : netlist.registerEnableNets()) {
+			if (net != Netlist.NO_ENABLE) {
+				required[net] = true;
+			}
+		}
+		for (int c = 0; c < feedbackLoops.length; c++) {
+			if (feedbackLoops[c]) {
+				for (int k = componentStart[c]; k < componentStart[c + 1]; k++) {
+					final int g = order[k];
+					for (int i = inputStart[g]; i < inputStart[g + 1]; i++) {
+						required[inputNets[i]] = true;
+					}
+				}
+			}
+		}
+		final List<int[]> selected = new ArrayList<int[]>();
+		final List<Integer> roots = new ArrayList<Integer>();
+		for (int c = feedbackLoops.length - 1; c >= 0; c--) {
+			if (feedbackLoops[c]) {
+				continue;
+			}
+			final int g = order[componentStart[c]];
+			final int net = outputNets[g];
+			if (!required[net]) {
+				schedule[c] = ABSORBED_GATE;
+			} else if (bestCuts[net] == null) {
+				schedule[c] = DIRECT_GATE;
+				directGateCount++;
+				for (int i = inputStart[g]; i < inputStart[g + 1]; i++) {
+					required[inputNets[i]] = true;
+				}
+			} else {
+				schedule[c] = selected.size();
+				selected.add(bestCuts[net]);
+				roots.add(net);
+				for (int leaf : bestCuts[net]) {
+					required[leaf] = true;
+				}
+			}
+		}
+
+		// compute truth tables of all selected cones
+		lutCount = selected.size();
+		leafStart = new int[lutCount + 1];
+		tableStart = new int[lutCount + 1];
+		rootNets = new int[lutCount];
+		for (int l = 0; l < lutCount; l++) {
+			final int leaves = selected.get(l).length;
+			leafStart[l + 1] = leafStart[l] + leaves;
+			tableStart[l + 1] = tableStart[l]
+					+ Math.max(1, (1 << leaves) >>> 6);
+			rootNets[l] = roots.get(l);
+		}
+		leafNets = new int[leafStart[lutCount]];
+		tables = new long[tableStart[lutCount]];
+		final int[] drivers = new int[netlist.countNets()];
+		final int[] positions = new int[order.length];
+		for (int k = 0; k < order.length; k++) {
+			drivers[outputNets[order[k]]] = order[k];
+			positions[order[k]] = k;
+		}
+		final long[] words = new long[netlist.countNets()];
+		for (int l = 0; l < lutCount; l++) {
+			final int[] leaves = selected.get(l);
+			System.arraycopy(leaves, 0, leafNets, leafStart[l], leaves.length);
+			computeTable(l, leaves, drivers, positions, words);
+		}
+	}
+
+	/**
+	 * Combines cuts of all input nets of a gate into cuts of its output net.
+	 * Only the best cuts of every partial combination are kept.
+	 * 
+	 * @return cuts sorted by depth and size, empty if the gate has too many
+	 *         inputs
+	 */
+	private List<int[]> mergeFaninCuts(final int gate, final int[][][] cuts,
+			final int[] depths) {
+
+		final Netlist netlist = getNetlist();
+		final int[] inputStart = netlist.gateInputStart();
+		final int[] inputNets = netlist.gateInputNets();
+		final Comparator<int[]> comparator = new Comparator<int[]>() {
+			@Override
+			public int compare(final int[] a, final int[] b) {
+
+				final int difference = depth(a, depths) - depth(b, depths);
+				return difference != 0 ? difference : a.length - b.length;
+			}
+		};
+
+		List<int[]> partial = new ArrayList<int[]>();
+		partial.add(new int[0]);
+		for (int i = inputStart[gate]; i < inputStart[gate + 1]; i++) {
+			final List<int[]> next = new ArrayList<int[]>();
+			for (int[] p : partial) {
+				for (int[] cut : cuts[inputNets[i]]) {
+					final int[] union = union(p, cut);
+					if (union != null && !contains(next, union)) {
+						next.add(union);
+					}
+				}
+			}
+			Collections.sort(next, comparator);
+			partial = next.subList(0, Math.min(next.size(), 2 * CUTS_PER_NET));
+		}
+		return partial;
+	}
+
+	/**
+	 * Returns the sorted union of two sorted cuts or null if it has too many
+	 * leaves.
+	 */
+	private int[] union(final int[] a, final int[] b) {
+
+		final int[] result = new int[a.length + b.length];
+		int i = 0;
+		int j = 0;
+		int size = 0;
+		while (i < a.length || j < b.length) {
+			final int leaf;
+			if (j == b.length || (i < a.length && a[i] < b[j])) {
+				leaf = a[i++];
+			} else if (i == a.length || b[j] < a[i]) {
+				leaf = b[j++];
+			} else {
+				leaf = a[i++];
+				j++;
+			}
+			if (size == lutInputs) {
+				return null;
+			}
+			result[size++] = leaf;
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	private static boolean contains(final List<int[]> cuts, final int[] cut) {
+
+		for (int[] other : cuts) {
+			if (Arrays.equals(other, cut)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of LUT levels above the inputs of a cut.
+	 */
+	private static int depth(final int[] cut, final int[] depths) {
+
+		int depth = 0;
+		for (int leaf : cut) {
+			depth = Math.max(depth, depths[leaf]);
+		}
+		return depth;
+	}
+
+	/**
+	 * Computes the truth table of a LUT by evaluating its cone for 64
+	 * combinations of leaf values at once. Leaf <i>i</i> is bit <i>i</i> of
+	 * the index into the table.
+	 */
+	private void computeTable(final int lut, final int[] leaves,
+			final int[] drivers, final int[] positions, final long[] words) {
+
+		final Netlist netlist = getNetlist();
+		final Blocks[] types = netlist.gateTypes();
+		final int[] inputStart = netlist.gateInputStart();
+		final int[] inputNets = netlist.gateInputNets();
+		final int[] outputNets = netlist.gateOutputNets();
+
+		// collect gates of the cone, outputs before inputs
+		final List<Integer> cone = new ArrayList<Integer>();
+		final List<Integer> pending = new ArrayList<Integer>();
+		pending.add(rootNets[lut]);
+		while (!pending.isEmpty()) {
+			final int net = pending.remove(pending.size() - 1);
+			final int g = drivers[net];
+			if (net == Netlist.UNCONNECTED
+					|| Arrays.binarySearch(leaves, net) >= 0
+					|| cone.contains(g)) {
+				continue;
+			}
+			cone.add(g);
+			for (int i = inputStart[g]; i < inputStart[g + 1]; i++) {
+				pending.add(inputNets[i]);
+			}
+		}
+		Collections.sort(cone, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer a, final Integer b) {
+
+				return positions[a] - positions[b];
+			}
+		});
+
+		words[Netlist.UNCONNECTED] = 0;
+		for (int w = tableStart[lut]; w < tableStart[lut + 1]; w++) {
+			final int block = w - tableStart[lut];
+			for (int i = 0; i < leaves.length; i++) {
+				if (i < PATTERNS.length) {
+					words[leaves[i]] = PATTERNS[i];
+				} else {
+					final int bit = block >>> (i - PATTERNS.length) & 1;
+					words[leaves[i]] = bit != 0 ? -1L : 0L;
+				}
+			}
+			for (int g : cone) {
+				words[outputNets[g]] = evaluateWord(types[g], inputNets,
+						inputStart[g], inputStart[g + 1], words);
+			}
+			tables[w] = words[rootNets[lut]];
+		}
+	}
+
+	/**
+	 * Calculates a gate for 64 values of its input nets at once.
+	 */
+	private static long evaluateWord(final Blocks type, final int[] inputNets,
+			final int first, final int last, final long[] words) {
+
+		long value;
+		switch (type) {
+		case AND:
+		case NAND:
+			value = -1L;
+			for (int i = first; i < last; i++) {
+				value &= words[inputNets[i]];
+			}
+			return type == Blocks.NAND ? ~value : value;
+		case OR:
+		case NOR:
+			value = 0L;
+			for (int i = first; i < last; i++) {
+				value |= words[inputNets[i]];
+			}
+			return type == Blocks.NOR ? ~value : value;
+		case NOT:
+			return ~words[inputNets[first]];
+		default:
+			throw new IllegalStateException("Unknown gate type.");
+		}
+	}
+
+	/**
+	 * Evaluates all LUTs and all other gates in topological order. Every
+	 * feedback loop is evaluated until it reaches a stable state or until the
+	 * maximum number of iterations is reached.
+	 */
+	@Override
+	public void evaluate() {
+
+		final SignalStore values = getSignalStore();
+		final int[] outputNets = getNetlist().gateOutputNets();
+		final int[] order = getNetlist().evaluationOrder();
+		final int[] componentStart = getNetlist().componentStart();
+		boolean stable = true;
+
+		for (int c = 0; c < schedule.length; c++) {
+			final int action = schedule[c];
+			if (action >= 0) {
+				int index = 0;
+				for (int i = leafStart[action]; i < leafStart[action + 1]; i++) {
+					if (values.get(leafNets[i])) {
+						index |= 1 << (i - leafStart[action]);
+					}
+				}
+				final long word = tables[tableStart[action] + (index >>> 6)];
+				values.set(rootNets[action], (word >>> index & 1) != 0);
+			} else if (action == DIRECT_GATE) {
+				final int g = order[componentStart[c]];
+				values.set(outputNets[g], evaluateGate(g));
+			} else if (action == FEEDBACK_LOOP) {
+				stable &= settleFeedbackLoop(componentStart[c],
+						componentStart[c + 1]);
+			}
+		}
+		setStable(stable);
+	}
+
+	/**
+	 * Returns maximum number of inputs of a lookup table.
+	 * 
+	 * @return number of LUT inputs
+	 */
+	public int getLookupTableInputs() {
+
+		return lutInputs;
+	}
+
+	/**
+	 * Returns number of lookup tables replacing gates of the netlist.
+	 * 
+	 * @return number of LUTs
+	 */
+	public int countLookupTables() {
+
+		return lutCount;
+	}
+
+	/**
+	 * Returns number of gates outside of feedback loops that are evaluated
+	 * directly, because they have more inputs than a lookup table.
+	 * 
+	 * @return number of directly evaluated gates
+	 */
+	public int countDirectGates() {
+
+		return directGateCount;
+	}
+}
@@ -0,0 +1,41 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import de.ichmann.java.schaltwerk.blocks.Signals;
+
+/**
+ * Listener that is informed about every change of the value of a net during a
+ * timing simulation.
+ * 
+ * @author Christian Wichmann
+ */
+public interface NetChangeListener {
+
+	/**
+	 * Is called after the value of a net has changed.
+	 * 
+	 * @param time
+	 *            simulation time of change
+	 * @param net
+	 *            id of changed net
+	 * @param value
+	 *            new value of net
+	 */
+	void valueChanged(long time, int net, Signals value);
+}
@@ -0,0 +1,836 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ichmann.java.schaltwerk.blocks.BaseBlock;
+import de.ichmann.java.schaltwerk.blocks.Blocks;
+import de.ichmann.java.schaltwerk.blocks.CircuitDefinition;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.Register;
+
+/**
+ * Represents a compiled and flat form of a logical circuit. All base blocks
+ * inside a compound block and its nested compound blocks are numbered
+ * consecutively as gates and every net (one output and all inputs connected to
+ * it) gets an integer id. All connections are stored in plain int arrays, so
+ * simulators can evaluate the circuit without traversing the object graph and
+ * without looking up signals by their string ids.
+ * <p>
+ * Feedback loops are found as strongly connected components of the gates.
+ * Gates and feedback loops are sorted topologically into levels. All gates of
+ * one level only depend on inputs of the circuit, on gates of lower levels or
+ * on gates of the same feedback loop. The gates of a feedback loop are stored
+ * consecutively in the evaluation order, so simulators can iterate over them
+ * until they reach a fixed point.
+ * <p>
+ * Registers are not gates. Their bits are sources like the inputs of the
+ * circuit, so feedback through registers does not form a loop. Simulators
+ * that support clocks store the values of the data inputs of all registers
+ * in their bits on every clock edge.
+ * <p>
+ * Net <code>UNCONNECTED</code> is reserved for all inputs that are not driven
+ * by any output. It is followed by the nets of the inputs of the circuit and by
+ * the output nets of all gates in evaluation order and by the nets of all
+ * register bits. So gates evaluated one after another write to neighboring
+ * nets. Blocks that can not be reached from an input of the compound block are
+ * not part of the netlist.
+ * 
+ * @author Christian Wichmann
+ */
+public final class Netlist {
+
+	private static final Logger LOG = LoggerFactory.getLogger(Netlist.class);
+
+	/**
+	 * Id of the net for all inputs that are not connected to any output.
+	 */
+	public static final int UNCONNECTED = 0;
+
+	/**
+	 * Net of the enable input of registers without enable input.
+	 */
+	public static final int NO_ENABLE = -1;
+
+	private final String circuitID;
+	private final int netCount;
+
+	private final String[] inputIDs;
+	private final int[] inputNets;
+	private final String[] outputIDs;
+	private final int[] outputNets;
+
+	private final BaseBlock[] gates;
+	private final Blocks[] gateTypes;
+	private final int[] gateInputStart;
+	private final int[] gateInputNets;
+	private final int[] gateOutputNets;
+
+	private final Register[] registers;
+	private final int[] registerStart;
+	private final int[] registerDataNets;
+	private final int[] registerEnableNets;
+	private final int[] registerNets;
+
+	private final int[] fanoutStart;
+	private final int[] fanoutGates;
+
+	private final int[] evaluationOrder;
+	private final int[] gateLevels;
+	private int[] levelStart;
+	private int[] componentStart;
+	private boolean[] feedbackLoops;
+	private int feedbackLoopCount = 0;
+	private int largestFeedbackLoop = 0;
+
+	/**
+	 * Initializes a netlist from already numbered gates and nets. Fanouts and
+	 * evaluation order are calculated from the given connections.
+	 */
+	private Netlist(final String circuitID, final int netCount,
+			final String[] inputIDs, final int[] inputNets,
+			final String[] outputIDs, final int[] outputNets,
+			final BaseBlock[] gates, final int[] gateInputStart,
+			final int[] gateInputNets, final int[] gateOutputNets,
+			final Register[] registers, final int[] registerStart,
+			final int[] registerDataNets, final int[] registerEnableNets,
+			final int[] registerNets) {
+
+		this.circuitID = circuitID;
+		this.netCount = netCount;
+		this.inputIDs = inputIDs;
+		this.inputNets = inputNets;
+		this.outputIDs = outputIDs;
+		this.outputNets = outputNets;
+		this.gates = gates;
+		this.gateInputStart = gateInputStart;
+		this.gateInputNets = gateInputNets;
+		this.gateOutputNets = gateOutputNets;
+		this.registers = registers;
+		this.registerStart = registerStart;
+		this.registerDataNets = registerDataNets;
+		this.registerEnableNets = registerEnableNets;
+		this.registerNets = registerNets;
+
+		gateTypes = new Blocks[gates.length];
+		for (int g = 0; g < gates.length; g++) {
+			gateTypes[g] = checkGateType(gates[g]);
+		}
+
+		fanoutStart = new int[netCount + 1];
+		fanoutGates = new int[gateInputNets.length];
+		collectFanouts();
+
+		evaluationOrder = new int[gates.length];
+		gateLevels = new int[gates.length];
+		levelize(findComponents());
+		sortNets();
+	}
+
+	/**
+	 * Compiles a compound block into a netlist. Nested compound blocks are
+	 * dissolved so that all gates of the netlist are base blocks which are
+	 * connected directly with each other. Registers are kept as clocked
+	 * state.
+	 * 
+	 * @param circuit
+	 *            compound block to be compiled
+	 * @return netlist for given compound block
+	 * @throws IllegalArgumentException
+	 *             if circuit contains a block that can not be simulated
+	 */
+	public static Netlist compile(final CompoundBlock circuit) {
+
+		return compile(new CircuitDefinition(circuit));
+	}
+
+	/**
+	 * Compiles the structure of a circuit definition into a netlist. Gates and
+	 * registers of nested instances are part of the netlist, so a netlist of a
+	 * definition can be used to simulate all of its instances.
+	 * 
+	 * @param definition
+	 *            circuit definition to be compiled
+	 * @return netlist for given definition
+	 * @throws IllegalArgumentException
+	 *             if definition contains a block that can not be simulated
+	 */
+	public static Netlist compile(final CircuitDefinition definition) {
+
+		final int gateCount = definition.countGates();
+		final String[] inputIDs = definition.inputList();
+		final String[] outputIDs = definition.outputList();
+		final int[] inputNets = new int[inputIDs.length];
+		for (int i = 0; i < inputNets.length; i++) {
+			inputNets[i] = definition.getInputNet(i);
+		}
+		final int[] outputNets = new int[outputIDs.length];
+		for (int o = 0; o < outputNets.length; o++) {
+			outputNets[o] = definition.getOutputNet(o);
+		}
+
+		// store connections of all gates in plain arrays
+		final BaseBlock[] gates = new BaseBlock[gateCount];
+		final int[] gateInputStart = new int[gateCount + 1];
+		final int[] gateOutputNets = new int[gateCount];
+		for (int g = 0; g < gateCount; g++) {
+			gates[g] = definition.getGate(g);
+			gateInputStart[g + 1] = gateInputStart[g]
+					+ definition.getGateInputNets(g).length;
+			gateOutputNets[g] = definition.getGateNet(g);
+		}
+		final int[] gateInputNets = new int[gateInputStart[gateCount]];
+		for (int g = 0; g < gateCount; g++) {
+			final int[] nets = definition.getGateInputNets(g);
+			System.arraycopy(nets, 0, gateInputNets, gateInputStart[g],
+					nets.length);
+		}
+
+		// store data, enable and output nets of all register bits
+		final int registerCount = definition.countRegisters();
+		final int bits = definition.countRegisterBits();
+		final Register[] registers = new Register[registerCount];
+		final int[] registerStart = new int[registerCount + 1];
+		final int[] registerDataNets = new int[bits];
+		final int[] registerEnableNets = new int[registerCount];
+		final int[] registerNets = new int[bits];
+		for (int r = 0; r < registerCount; r++) {
+			registers[r] = definition.getRegister(r);
+			final int width = registers[r].getWidth();
+			final int[] nets = definition.getRegisterInputNets(r);
+			registerStart[r + 1] = registerStart[r] + width;
+			System.arraycopy(nets, 0, registerDataNets, registerStart[r],
+					width);
+			System.arraycopy(definition.getRegisterOutputNets(r), 0,
+					registerNets, registerStart[r], width);
+			registerEnableNets[r] = registers[r].hasEnable() ? nets[width]
+					: NO_ENABLE;
+		}
+
+		Netlist netlist = new Netlist(definition.getName(),
+				definition.countNets(), inputIDs, inputNets, outputIDs,
+				outputNets, gates, gateInputStart, gateInputNets,
+				gateOutputNets, registers, registerStart, registerDataNets,
+				registerEnableNets, registerNets);
+
+		LOG.debug("Compiled netlist for " + definition.getName() + " with "
+				+ netlist.countGates() + " gates in " + netlist.countLevels()
+				+ " levels.");
+
+		return netlist;
+	}
+
+	/**
+	 * Returns the index of a string inside the given array.
+	 */
+	private static int indexOf(final String[] ids, final String id) {
+
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i].equals(id)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Given signal id not found.");
+	}
+
+	/**
+	 * Checks whether a base block can be simulated and returns its type.
+	 */
+	private static Blocks checkGateType(final BaseBlock gate) {
+
+		Blocks type = gate.getBlockType();
+		if (type == null) {
+			throw new IllegalArgumentException(
+					"Block type of gate not set: " + gate);
+		}
+		switch (type) {
+		case AND:
+		case OR:
+		case NAND:
+		case NOR:
+		case NOT:
+			return type;
+		default:
+			throw new IllegalArgumentException(
+					"Block type can not be simulated: " + type);
+		}
+	}
+
+	/**
+	 * Collects for every net all gates reading it.
+	 */
+	private void collectFanouts() {
+
+		Arrays.fill(fanoutStart, 0);
+		for (int net : gateInputNets) {
+			fanoutStart[net + 1]++;
+		}
+		for (int n = 0; n < netCount; n++) {
+			fanoutStart[n + 1] += fanoutStart[n];
+		}
+		int[] fill = Arrays.copyOf(fanoutStart, netCount);
+		for (int g = 0; g < gates.length; g++) {
+			for (int i = gateInputStart[g]; i < gateInputStart[g + 1]; i++) {
+				fanoutGates[fill[gateInputNets[i]]++] = g;
+			}
+		}
+	}
+
+	/**
+	 * Renumbers the output nets of all gates in evaluation order. Nets of
+	 * unconnected inputs, of the inputs of the circuit and of register bits
+	 * keep their ids.
+	 */
+	private void sortNets() {
+
+		final int firstGateNet = UNCONNECTED + 1 + inputNets.length;
+		final int[] newNet = new int[netCount];
+		for (int n = 0; n < firstGateNet; n++) {
+			newNet[n] = n;
+		}
+		for (int n = firstGateNet + gates.length; n < netCount; n++) {
+			newNet[n] = n;
+		}
+		for (int p = 0; p < evaluationOrder.length; p++) {
+			newNet[gateOutputNets[evaluationOrder[p]]] = firstGateNet + p;
+		}
+
+		for (int o = 0; o < outputNets.length; o++) {
+			outputNets[o] = newNet[outputNets[o]];
+		}
+		for (int i = 0; i < gateInputNets.length; i++) {
+			gateInputNets[i] = newNet[gateInputNets[i]];
+		}
+		for (int g = 0; g < gateOutputNets.length; g++) {
+			gateOutputNets[g] = newNet[gateOutputNets[g]];
+		}
+		for (int b = 0; b < registerDataNets.length; b++) {
+			registerDataNets[b] = newNet[registerDataNets[b]];
+		}
+		for (int r = 0; r < registerEnableNets.length; r++) {
+			if (registerEnableNets[r] != NO_ENABLE) {
+				registerEnableNets[r] = newNet[registerEnableNets[r]];
+			}
+		}
+		collectFanouts();
+	}
+
+	/**
+	 * Finds all strongly connected components of the gates by the algorithm
+	 * of Tarjan. The algorithm is implemented with an explicit stack, so also
+	 * very deep circuits can be handled.
+	 * 
+	 * @return component id for every gate, components are numbered in
+	 *         reverse topological order
+	 */
+	private int[] findComponents() {
+
+		final int gateCount = gates.length;
+		final int[] component = new int[gateCount];
+		final int[] index = new int[gateCount];
+		final int[] lowLink = new int[gateCount];
+		final int[] nextFanout = new int[gateCount];
+		final boolean[] onStack = new boolean[gateCount];
+		final int[] stack = new int[gateCount];
+		final int[] callStack = new int[gateCount];
+		Arrays.fill(index, -1);
+
+		int counter = 0;
+		int stackSize = 0;
+		int componentCount = 0;
+
+		for (int root = 0; root < gateCount; root++) {
+			if (index[root] >= 0) {
+				continue;
+			}
+			int depth = 0;
+			int w = root;
+
+			while (true) {
+				if (w >= 0) {
+					// visit gate for the first time
+					index[w] = counter;
+					lowLink[w] = counter;
+					counter++;
+					stack[stackSize++] = w;
+					onStack[w] = true;
+					nextFanout[w] = fanoutStart[gateOutputNets[w]];
+					callStack[depth++] = w;
+					w = -1;
+				}
+
+				final int v = callStack[depth - 1];
+				if (nextFanout[v] < fanoutStart[gateOutputNets[v] + 1]) {
+					final int next = fanoutGates[nextFanout[v]++];
+					if (index[next] < 0) {
+						w = next;
+					} else if (onStack[next]) {
+						lowLink[v] = Math.min(lowLink[v], index[next]);
+					}
+					continue;
+				}
+
+				// all fanouts of gate visited
+				depth--;
+				if (lowLink[v] == index[v]) {
+					int member;
+					do {
+						member = stack[--stackSize];
+						onStack[member] = false;
+						component[member] = componentCount;
+					} while (member != v);
+					componentCount++;
+				}
+				if (depth == 0) {
+					break;
+				}
+				final int u = callStack[depth - 1];
+				lowLink[u] = Math.min(lowLink[u], lowLink[v]);
+			}
+		}
+
+		return component;
+	}
+
+	/**
+	 * Sorts all components topologically into levels and fills the evaluation
+	 * order. Every component gets the level following the highest level of
+	 * all components it depends on. Gates of a feedback loop are sorted by
+	 * their id, so they are evaluated in the order they were found while
+	 * traversing the circuit.
+	 * 
+	 * @param component
+	 *            component id for every gate in reverse topological order
+	 */
+	private void levelize(final int[] component) {
+
+		final int gateCount = gates.length;
+		int componentCount = 0;
+		for (int g = 0; g < gateCount; g++) {
+			componentCount = Math.max(componentCount, component[g] + 1);
+		}
+
+		// collect gates of every component
+		final int[] memberStart = new int[componentCount + 1];
+		for (int g = 0; g < gateCount; g++) {
+			memberStart[component[g] + 1]++;
+		}
+		for (int c = 0; c < componentCount; c++) {
+			memberStart[c + 1] += memberStart[c];
+		}
+		final int[] members = new int[gateCount];
+		final int[] fill = Arrays.copyOf(memberStart, componentCount);
+		for (int g = 0; g < gateCount; g++) {
+			members[fill[component[g]]++] = g;
+		}
+
+		// calculate levels in topological order of the components
+		final int[] componentLevel = new int[componentCount];
+		final boolean[] cyclic = new boolean[componentCount];
+		int levelCount = 0;
+		for (int c = componentCount - 1; c >= 0; c--) {
+			cyclic[c] = memberStart[c + 1] - memberStart[c] > 1;
+			for (int m = memberStart[c]; m < memberStart[c + 1]; m++) {
+				final int net = gateOutputNets[members[m]];
+				for (int f = fanoutStart[net]; f < fanoutStart[net + 1]; f++) {
+					final int next = component[fanoutGates[f]];
+					if (next == c) {
+						cyclic[c] = true;
+					} else {
+						componentLevel[next] = Math.max(componentLevel[next],
+								componentLevel[c] + 1);
+					}
+				}
+			}
+			levelCount = Math.max(levelCount, componentLevel[c] + 1);
+		}
+
+		// sort components by level keeping their topological order
+		levelStart = new int[levelCount + 1];
+		final int[] componentsPerLevel = new int[levelCount + 1];
+		for (int c = 0; c < componentCount; c++) {
+			levelStart[componentLevel[c] + 1] += memberStart[c + 1]
+					- memberStart[c];
+			componentsPerLevel[componentLevel[c] + 1]++;
+		}
+		for (int l = 0; l < levelCount; l++) {
+			levelStart[l + 1] += levelStart[l];
+			componentsPerLevel[l + 1] += componentsPerLevel[l];
+		}
+
+		componentStart = new int[componentCount + 1];
+		feedbackLoops = new boolean[componentCount];
+		final int[] gatePosition = Arrays.copyOf(levelStart, levelCount);
+		final int[] componentPosition = Arrays.copyOf(componentsPerLevel,
+				levelCount);
+		for (int c = componentCount - 1; c >= 0; c--) {
+			final int level = componentLevel[c];
+			final int position = componentPosition[level]++;
+			componentStart[position] = gatePosition[level];
+			feedbackLoops[position] = cyclic[c];
+			for (int m = memberStart[c]; m < memberStart[c + 1]; m++) {
+				gateLevels[members[m]] = level;
+				evaluationOrder[gatePosition[level]++] = members[m];
+			}
+			if (cyclic[c]) {
+				feedbackLoopCount++;
+				largestFeedbackLoop = Math.max(largestFeedbackLoop,
+						memberStart[c + 1] - memberStart[c]);
+			}
+		}
+		componentStart[componentCount] = gateCount;
+	}
+
+	/**
+	 * Gets identification of the compiled compound block.
+	 * 
+	 * @return id of compiled circuit
+	 */
+	public String getCircuitID() {
+
+		return circuitID;
+	}
+
+	/**
+	 * Returns number of nets including the net for unconnected inputs.
+	 * 
+	 * @return number of nets
+	 */
+	public int countNets() {
+
+		return netCount;
+	}
+
+	/**
+	 * Returns number of gates (base blocks) in this netlist.
+	 * 
+	 * @return number of gates
+	 */
+	public int countGates() {
+
+		return gates.length;
+	}
+
+	/**
+	 * Returns number of levels in the evaluation order.
+	 * 
+	 * @return number of levels
+	 */
+	public int countLevels() {
+
+		return levelStart.length - 1;
+	}
+
+	/**
+	 * Returns whether the compiled circuit is purely combinational. A
+	 * combinational circuit does not contain any feedback loops or registers,
+	 * so all outputs depend only on the current values of the inputs.
+	 * 
+	 * @return true, if circuit contains no feedback loops and no registers
+	 */
+	public boolean isCombinational() {
+
+		return feedbackLoopCount == 0 && registers.length == 0;
+	}
+
+	/**
+	 * Returns number of feedback loops in the compiled circuit. Every strongly
+	 * connected component of gates counts as one feedback loop.
+	 * 
+	 * @return number of feedback loops
+	 */
+	public int countFeedbackLoops() {
+
+		return feedbackLoopCount;
+	}
+
+	/**
+	 * Returns number of gates of the largest feedback loop.
+	 * 
+	 * @return number of gates in largest feedback loop
+	 */
+	public int getLargestFeedbackLoop() {
+
+		return largestFeedbackLoop;
+	}
+
+	/**
+	 * Returns number of inputs of the compiled circuit.
+	 * 
+	 * @return number of inputs
+	 */
+	public int countInputs() {
+
+		return inputNets.length;
+	}
+
+	/**
+	 * Returns number of outputs of the compiled circuit.
+	 * 
+	 * @return number of outputs
+	 */
+	public int countOutputs() {
+
+		return outputNets.length;
+	}
+
+	/**
+	 * Returns index of an input of the compiled circuit. This index can be
+	 * used by simulators to access inputs without string comparisons.
+	 * 
+	 * @param inputID
+	 *            identification of input
+	 * @return index of input
+	 * @throws IllegalArgumentException
+	 *             if given string is not found
+	 */
+	public int inputIndex(final String inputID) {
+
+		return indexOf(inputIDs, inputID);
+	}
+
+	/**
+	 * Returns index of an output of the compiled circuit. This index can be
+	 * used by simulators to access outputs without string comparisons.
+	 * 
+	 * @param outputID
+	 *            identification of output
+	 * @return index of output
+	 * @throws IllegalArgumentException
+	 *             if given string is not found
+	 */
+	public int outputIndex(final String outputID) {
+
+		return indexOf(outputIDs, outputID);
+	}
+
+	/**
+	 * Gets identification of an input of the compiled circuit.
+	 * 
+	 * @param index
+	 *            index of input
+	 * @return identification of input
+	 */
+	public String getInputID(final int index) {
+
+		return inputIDs[index];
+	}
+
+	/**
+	 * Gets identification of an output of the compiled circuit.
+	 * 
+	 * @param index
+	 *            index of output
+	 * @return identification of output
+	 */
+	public String getOutputID(final int index) {
+
+		return outputIDs[index];
+	}
+
+	/**
+	 * Gets id of the net connected to an input of the compiled circuit.
+	 * 
+	 * @param index
+	 *            index of input
+	 * @return id of net
+	 */
+	public int getInputNet(final int index) {
+
+		return inputNets[index];
+	}
+
+	/**
+	 * Gets id of the net connected to an output of the compiled circuit.
+	 * 
+	 * @param index
+	 *            index of output
+	 * @return id of net
+	 */
+	public int getOutputNet(final int index) {
+
+		return outputNets[index];
+	}
+
+	/**
+	 * Returns base block from which a gate was compiled.
+	 * 
+	 * @param gate
+	 *            id of gate
+	 * @return base block of gate
+	 */
+	public BaseBlock getGate(final int gate) {
+
+		return gates[gate];
+	}
+
+	/**
+	 * Returns number of registers in this netlist.
+	 * 
+	 * @return number of registers
+	 */
+	public int countRegisters() {
+
+		return registers.length;
+	}
+
+	/**
+	 * Returns number of bits stored by all registers.
+	 * 
+	 * @return number of register bits
+	 */
+	public int countRegisterBits() {
+
+		return registerNets.length;
+	}
+
+	/**
+	 * Returns register block from which a register was compiled.
+	 * 
+	 * @param register
+	 *            id of register
+	 * @return register block
+	 */
+	public Register getRegister(final int register) {
+
+		return registers[register];
+	}
+
+	/**
+	 * Gets id of the net storing a bit of a register.
+	 * 
+	 * @param register
+	 *            id of register
+	 * @param bit
+	 *            index of bit inside the register
+	 * @return id of net
+	 */
+	public int getRegisterNet(final int register, final int bit) {
+
+		return registerNets[registerStart[register] + bit];
+	}
+
+	/**
+	 * Returns level of a gate in the evaluation order.
+	 * 
+	 * @param gate
+	 *            id of gate
+	 * @return level of gate
+	 */
+	public int getGateLevel(final int gate) {
+
+		return gateLevels[gate];
+	}
+
+	/*
+	 * The following methods give simulators of this package direct access to
+	 * the internal arrays. They must never be changed!
+	 */
+
+	int[] inputNets() {
+
+		return inputNets;
+	}
+
+	int[] outputNets() {
+
+		return outputNets;
+	}
+
+	Blocks[] gateTypes() {
+
+		return gateTypes;
+	}
+
+	int[] gateInputStart() {
+
+		return gateInputStart;
+	}
+
+	int[] gateInputNets() {
+
+		return gateInputNets;
+	}
+
+	int[] gateOutputNets() {
+
+		return gateOutputNets;
+	}
+
+	int[] fanoutStart() {
+
+		return fanoutStart;
+	}
+
+	int[] fanoutGates() {
+
+		return fanoutGates;
+	}
+
+	int[] evaluationOrder() {
+
+		return evaluationOrder;
+	}
+
+	int[] levelStart() {
+
+		return levelStart;
+	}
+
+	int[] componentStart() {
+
+		return componentStart;
+	}
+
+	boolean[] feedbackLoops() {
+
+		return feedbackLoops;
+	}
+
+	int[] registerStart() {
+
+		return registerStart;
+	}
+
+	int[] registerDataNets() {
+
+		return registerDataNets;
+	}
+
+	int[] registerEnableNets() {
+
+		return registerEnableNets;
+	}
+
+	int[] registerNets() {
+
+		return registerNets;
+	}
+
+	@Override
+	public String toString() {
+
+		return circuitID + " (" + gates.length + " gates, "
+				+ registerNets.length + " register bits, " + netCount
+				+ " nets)";
+	}
+}
@@ -0,0 +1,479 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.BaseBlock;
+import de.ichmann.java.schaltwerk.blocks.Block;
+import de.ichmann.java.schaltwerk.blocks.Blocks;
+import de.ichmann.java.schaltwerk.blocks.CircuitInstance;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.Input;
+import de.ichmann.java.schaltwerk.blocks.NAND;
+import de.ichmann.java.schaltwerk.blocks.NOR;
+import de.ichmann.java.schaltwerk.blocks.NOT;
+import de.ichmann.java.schaltwerk.blocks.OR;
+import de.ichmann.java.schaltwerk.blocks.Output;
+import de.ichmann.java.schaltwerk.blocks.Register;
+
+/**
+ * Dissolves all nested compound blocks and circuit instances of a circuit. The
+ * result is a new compound block with the same inputs and outputs that contains
+ * only copies of the base blocks and registers, which are connected directly
+ * with each other. So evaluating the flat circuit neither copies values across
+ * the boundaries of nested compound blocks nor follows the additional hops
+ * through their internal signals. The given circuit is not changed.
+ * <p>
+ * Copies of base blocks and registers get their hierarchical name as block id,
+ * which is the path of block ids from the top circuit to the base block
+ * separated by slashes, e.g. "Adder/HalfAdder.1/AND.3". Every net of the flat
+ * circuit remembers the hierarchical names of all signals it replaces, e.g.
+ * "Adder/HalfAdder.1:Carry" for an output of a nested compound block. So values
+ * seen in a simulation of the flat circuit can be traced back to the original
+ * design.
+ * <p>
+ * A <code>CircuitInstance</code> is dissolved like a compound block by
+ * following the connections inside the prototype of its definition. Every
+ * instance gets copies of its own, although all instances of a definition
+ * share the same prototype.
+ * <p>
+ * Like <code>Netlist</code> only blocks that can be reached from an input of
+ * the circuit are copied.
+ * 
+ * @author Christian Wichmann
+ */
+public final class NetlistFlattener {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(NetlistFlattener.class);
+
+	/**
+	 * Separator between block ids of hierarchical names.
+	 */
+	public static final String SEPARATOR = "/";
+
+	private final CompoundBlock circuit;
+	private final CompoundBlock flatCircuit;
+
+	private final Frame topFrame;
+	private final Map<Output, List<String>> names = new IdentityHashMap<Output, List<String>>();
+	private int nestedBlockCount = 0;
+	private int gateCount = 0;
+	private int registerCount = 0;
+
+	private Netlist netlist = null;
+	private List<List<String>> netNames = null;
+
+	/**
+	 * Flattens a compound block and all compound blocks nested inside of it.
+	 * 
+	 * @param circuit
+	 *            compound block to be flattened
+	 * @throws IllegalArgumentException
+	 *             if circuit contains a base block that can not be copied
+	 */
+	public NetlistFlattener(final CompoundBlock circuit) {
+
+		this.circuit = circuit;
+		this.flatCircuit = new CompoundBlock(circuit.getBlockID(),
+				Arrays.asList(circuit.inputList()), Arrays.asList(circuit
+						.outputList()));
+		this.topFrame = new Frame(circuit, null, null, null);
+		flatten();
+
+		LOG.debug("Flattened " + circuit.getBlockID() + " with "
+				+ nestedBlockCount + " nested blocks into " + gateCount
+				+ " gates and " + registerCount + " registers.");
+	}
+
+	/**
+	 * Follows all connections from the inputs through the circuit. Every
+	 * output of the original circuit is mapped to the output of the flat
+	 * circuit driving the same net.
+	 */
+	private void flatten() {
+
+		final Deque<Output> pending = new ArrayDeque<Output>();
+		final Deque<Frame> pendingFrames = new ArrayDeque<Frame>();
+		final String topScope = circuit.getBlockID();
+
+		for (int i = 0; i < circuit.countInputs(); i++) {
+			final Output o = circuit.internalInput(i);
+			final Output flat = flatCircuit.internalInput(i);
+			topFrame.drivers.put(o, flat);
+			topFrame.scopes.put(o, topScope);
+			addName(flat, topScope + ":" + o.getSignalID());
+			pending.add(o);
+			pendingFrames.add(topFrame);
+		}
+
+		while (!pending.isEmpty()) {
+			final Output o = pending.poll();
+			final Frame frame = pendingFrames.poll();
+			final Output driver = frame.drivers.get(o);
+			final String scope = frame.scopes.get(o);
+
+			for (Input nextHop : o.listNextHops()) {
+				final Block owner = nextHop.getOwnerBlock();
+				final String id = nextHop.getSignalID();
+
+				if (owner instanceof CompoundBlock) {
+					final CompoundBlock compound = (CompoundBlock) owner;
+					if (!compound.isInternalOutput(nextHop)) {
+						// enter nested compound block
+						if (!frame.outerScopes.containsKey(compound)) {
+							frame.outerScopes.put(compound, scope);
+							nestedBlockCount++;
+						}
+						final String inner = scope + SEPARATOR
+								+ compound.getBlockID();
+						follow(frame, compound.internalInput(id), driver,
+								inner, inner + ":" + id, pending, pendingFrames);
+					} else if (compound != frame.top) {
+						// leave nested compound block
+						final String outer = frame.outerScopes.get(compound);
+						follow(frame, compound.output(id), driver, outer,
+								scope + ":" + id, pending, pendingFrames);
+					} else if (frame.instance != null) {
+						// leave circuit instance
+						follow(frame.parent, frame.instance.output(id),
+								driver, frame.outerScope, scope + ":" + id,
+								pending, pendingFrames);
+					} else {
+						driver.connectTo(flatCircuit.internalOutput(id));
+					}
+
+				} else if (owner instanceof CircuitInstance) {
+					// enter prototype of circuit instance
+					final CircuitInstance instance = (CircuitInstance) owner;
+					Frame inner = frame.instances.get(instance);
+					if (inner == null) {
+						inner = new Frame(instance.getDefinition()
+								.getPrototype(), instance, frame, scope);
+						frame.instances.put(instance, inner);
+						nestedBlockCount++;
+					}
+					final String name = scope + SEPARATOR
+							+ instance.getBlockID();
+					follow(inner, inner.top.internalInput(id), driver, name,
+							name + ":" + id, pending, pendingFrames);
+
+				} else if (owner instanceof BaseBlock) {
+					final BaseBlock gate = (BaseBlock) owner;
+					BaseBlock copy = (BaseBlock) frame.copies.get(gate);
+					if (copy == null) {
+						final String name = scope + SEPARATOR
+								+ gate.getBlockID();
+						copy = copyGate(gate, name);
+						frame.copies.put(gate, copy);
+						gateCount++;
+						follow(frame, gate.output(0), copy.output(0), scope,
+								name + ":" + gate.output(0).getSignalID(),
+								pending, pendingFrames);
+					}
+					driver.connectTo(copy.input(gate.inputIndex(id)));
+
+				} else if (owner instanceof Register) {
+					// register bits are sources like the inputs of the circuit
+					final Register register = (Register) owner;
+					Register copy = (Register) frame.copies.get(register);
+					if (copy == null) {
+						final String name = scope + SEPARATOR
+								+ register.getBlockID();
+						copy = new Register(name, register.getWidth(),
+								register.hasEnable());
+						frame.copies.put(register, copy);
+						registerCount++;
+						for (int k = 0; k < register.countOutputs(); k++) {
+							follow(frame, register.output(k), copy.output(k),
+									scope, name + ":"
+											+ register.output(k).getSignalID(),
+									pending, pendingFrames);
+						}
+					}
+					driver.connectTo(copy.input(register.inputIndex(id)));
+
+				} else {
+					throw new IllegalArgumentException(
+							"Block can not be flattened: " + owner);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Maps an output of the original circuit to a driver in the flat circuit
+	 * and schedules it, if it was not already visited in the given frame. The
+	 * output gets the scope in which its next hops are found and the given
+	 * hierarchical name.
+	 */
+	private void follow(final Frame frame, final Output o,
+			final Output driver, final String scope, final String name,
+			final Deque<Output> pending, final Deque<Frame> pendingFrames) {
+
+		if (!frame.drivers.containsKey(o)) {
+			frame.drivers.put(o, driver);
+			frame.scopes.put(o, scope);
+			addName(driver, name);
+			pending.add(o);
+			pendingFrames.add(frame);
+		}
+	}
+
+	/**
+	 * Adds a hierarchical name to the net driven by an output of the flat
+	 * circuit.
+	 */
+	private void addName(final Output driver, final String name) {
+
+		List<String> list = names.get(driver);
+		if (list == null) {
+			list = new ArrayList<String>();
+			names.put(driver, list);
+		}
+		list.add(name);
+	}
+
+	/**
+	 * Creates a new base block of the same type, number of inputs and delay.
+	 */
+	private static BaseBlock copyGate(final BaseBlock gate, final String name) {
+
+		final BaseBlock copy = createGate(gate.getBlockType(), name,
+				gate.countInputs());
+		copy.setDelay(gate.getDelay());
+		return copy;
+	}
+
+	/**
+	 * Creates a new base block of a given type.
+	 * 
+	 * @param type
+	 *            type of base block
+	 * @param blockID
+	 *            identification of new block
+	 * @param inputs
+	 *            number of inputs, ignored for NOT
+	 * @return new base block
+	 * @throws IllegalArgumentException
+	 *             if type is not a simple gate
+	 */
+	static BaseBlock createGate(final Blocks type, final String blockID,
+			final int inputs) {
+
+		if (type == null) {
+			throw new IllegalArgumentException("Block type of gate not set.");
+		}
+		switch (type) {
+		case AND:
+			return new AND(blockID, inputs);
+		case OR:
+			return new OR(blockID, inputs);
+		case NAND:
+			return new NAND(blockID, inputs);
+		case NOR:
+			return new NOR(blockID, inputs);
+		case NOT:
+			return new NOT(blockID);
+		default:
+			throw new IllegalArgumentException(
+					"Block type can not be created: " + type);
+		}
+	}
+
+	/**
+	 * Gets the original circuit.
+	 * 
+	 * @return original circuit
+	 */
+	public CompoundBlock getCircuit() {
+
+		return circuit;
+	}
+
+	/**
+	 * Gets the flat circuit containing only base blocks.
+	 * 
+	 * @return flat compound block
+	 */
+	public CompoundBlock getFlatCircuit() {
+
+		return flatCircuit;
+	}
+
+	/**
+	 * Returns number of nested compound blocks and circuit instances that
+	 * have been dissolved.
+	 * 
+	 * @return number of nested blocks
+	 */
+	public int countNestedBlocks() {
+
+		return nestedBlockCount;
+	}
+
+	/**
+	 * Returns the copy of a base block of the original circuit.
+	 * 
+	 * @param gate
+	 *            base block of the original circuit outside of circuit
+	 *            instances
+	 * @return base block of the flat circuit or null, if the given block can
+	 *         not be reached from an input of the circuit
+	 */
+	public BaseBlock getFlatGate(final BaseBlock gate) {
+
+		return (BaseBlock) topFrame.copies.get(gate);
+	}
+
+	/**
+	 * Returns the copy of a register of the original circuit.
+	 * 
+	 * @param register
+	 *            register of the original circuit outside of circuit
+	 *            instances
+	 * @return register of the flat circuit or null, if the given register can
+	 *         not be reached from an input of the circuit
+	 */
+	public Register getFlatRegister(final Register register) {
+
+		return (Register) topFrame.copies.get(register);
+	}
+
+	/**
+	 * Returns the hierarchical names of all signals of the original circuit
+	 * that are joined into the net driven by the given output of the flat
+	 * circuit. The name of the driving signal comes first.
+	 * 
+	 * @param driver
+	 *            internal input or output of a base block or register of the
+	 *            flat circuit
+	 * @return list of hierarchical names
+	 */
+	public List<String> getNames(final Output driver) {
+
+		final List<String> list = names.get(driver);
+		if (list == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Gets the netlist of the flat circuit. It is compiled on the first call.
+	 * 
+	 * @return netlist of flat circuit
+	 */
+	public Netlist getNetlist() {
+
+		if (netlist == null) {
+			netlist = Netlist.compile(flatCircuit);
+			netNames = new ArrayList<List<String>>(netlist.countNets());
+			for (int n = 0; n < netlist.countNets(); n++) {
+				netNames.add(Collections.<String> emptyList());
+			}
+			for (int i = 0; i < netlist.countInputs(); i++) {
+				netNames.set(netlist.getInputNet(i),
+						getNames(flatCircuit.internalInput(i)));
+			}
+			final int[] outputNets = netlist.gateOutputNets();
+			for (int g = 0; g < netlist.countGates(); g++) {
+				netNames.set(outputNets[g],
+						getNames(netlist.getGate(g).output(0)));
+			}
+			for (int r = 0; r < netlist.countRegisters(); r++) {
+				final Register register = netlist.getRegister(r);
+				for (int b = 0; b < register.getWidth(); b++) {
+					netNames.set(netlist.getRegisterNet(r, b),
+							getNames(register.output(b)));
+				}
+			}
+		}
+		return netlist;
+	}
+
+	/**
+	 * Returns the hierarchical names of all signals of the original circuit
+	 * that are joined into a net of the netlist of the flat circuit.
+	 * 
+	 * @param net
+	 *            id of net in the netlist returned by
+	 *            <code>getNetlist()</code>
+	 * @return list of hierarchical names, empty for unconnected inputs
+	 */
+	public List<String> getNetNames(final int net) {
+
+		getNetlist();
+		return netNames.get(net);
+	}
+
+	/**
+	 * Returns the hierarchical name of the signal driving a net of the
+	 * netlist of the flat circuit.
+	 * 
+	 * @param net
+	 *            id of net in the netlist returned by
+	 *            <code>getNetlist()</code>
+	 * @return hierarchical name or null for unconnected inputs
+	 */
+	public String getNetName(final int net) {
+
+		final List<String> list = getNetNames(net);
+		return list.isEmpty() ? null : list.get(0);
+	}
+
+	/**
+	 * Copies and visited signals inside the top circuit or inside a single
+	 * circuit instance. All instances of a definition share the blocks of its
+	 * prototype, so every instance needs a frame of its own.
+	 */
+	private static final class Frame {
+
+		private final CompoundBlock top;
+		private final CircuitInstance instance;
+		private final Frame parent;
+		private final String outerScope;
+
+		private final Map<Output, Output> drivers = new IdentityHashMap<Output, Output>();
+		private final Map<Output, String> scopes = new IdentityHashMap<Output, String>();
+		private final Map<Block, String> outerScopes = new IdentityHashMap<Block, String>();
+		private final Map<Block, Block> copies = new IdentityHashMap<Block, Block>();
+		private final Map<CircuitInstance, Frame> instances = new IdentityHashMap<CircuitInstance, Frame>();
+
+		private Frame(final CompoundBlock top, final CircuitInstance instance,
+				final Frame parent, final String outerScope) {
+
+			this.top = top;
+			this.instance = instance;
+			this.parent = parent;
+			this.outerScope = outerScope;
+		}
+	}
+}
@@ -0,0 +1,701 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ichmann.java.schaltwerk.blocks.BaseBlock;
+import de.ichmann.java.schaltwerk.blocks.Blocks;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.Input;
+import de.ichmann.java.schaltwerk.blocks.Output;
+import de.ichmann.java.schaltwerk.blocks.Register;
+
+/**
+ * Removes redundant gates from a circuit before it is simulated. The circuit
+ * is flattened by a <code>NetlistFlattener</code> and the following passes
+ * are repeated until none of them changes the circuit anymore:
+ * <ul>
+ * <li>Constant propagation: unconnected inputs are ZERO. Gates with a
+ * controlling constant input are replaced by a constant, all other constant
+ * inputs are removed.</li>
+ * <li>Double NOT removal: a NOT of a NOT is replaced by the input of the
+ * first NOT.</li>
+ * <li>Chain collapsing: an AND (OR) driving only a single AND or NAND (OR or
+ * NOR) is merged into the wider gate.</li>
+ * <li>Structural hashing: gates of the same type with the same inputs are
+ * merged. Duplicate inputs of a gate are removed.</li>
+ * <li>Dead gate removal: gates and registers from which no output of the
+ * circuit can be reached are removed.</li>
+ * </ul>
+ * Registers are kept like in a <code>Netlist</code>: their bits are sources
+ * like the inputs of the circuit, so gates are never merged across them.
+ * The optimized circuit is a new flat compound block with the same inputs and
+ * outputs and the same logic function. Its gates keep the hierarchical names
+ * given by the flattener, but they get default delays, so timing simulations
+ * of the optimized circuit may differ from the original one. Outputs with the
+ * constant value ONE are driven by a NAND of the first input and an
+ * unconnected input, because only blocks reachable from an input are
+ * simulated. Therefore circuits without inputs can not be optimized, if ONE
+ * drives an output or a register.
+ * 
+ * @author Christian Wichmann
+ */
+public final class NetlistOptimizer {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(NetlistOptimizer.class);
+
+	/**
+	 * Optimization passes that can be enabled separately.
+	 */
+	public enum Pass {
+		CONSTANT_PROPAGATION, DOUBLE_NOT_REMOVAL, CHAIN_COLLAPSING,
+		STRUCTURAL_HASHING, DEAD_GATE_REMOVAL
+	}
+
+	/**
+	 * Net id representing the constant value ONE. The constant value ZERO is
+	 * represented by <code>Netlist.UNCONNECTED</code>.
+	 */
+	private static final int CONSTANT_ONE = -1;
+
+	private final Netlist netlist;
+	private final Set<Pass> passes;
+	private final Map<Pass, Integer> changes = new EnumMap<Pass, Integer>(
+			Pass.class);
+
+	private final Blocks[] types;
+	private final int[][] inputs;
+	private final boolean[] alive;
+	private final int[] drivers;
+	private final int[] replacements;
+	private final int[] outputs;
+	private final int[][] registerInputs;
+	private final boolean[] aliveRegisters;
+	private final int[] registerDrivers;
+	private int gateCount;
+	private Output one = null;
+
+	private final CompoundBlock optimizedCircuit;
+
+	/**
+	 * Optimizes a circuit with all passes.
+	 * 
+	 * @param circuit
+	 *            compound block to be optimized
+	 * @throws IllegalArgumentException
+	 *             if circuit contains a block that can not be simulated or
+	 *             needs the constant value ONE without having inputs
+	 */
+	public NetlistOptimizer(final CompoundBlock circuit) {
+
+		this(circuit, EnumSet.allOf(Pass.class));
+	}
+
+	/**
+	 * Optimizes a circuit with the given passes.
+	 * 
+	 * @param circuit
+	 *            compound block to be optimized
+	 * @param passes
+	 *            passes to be run
+	 * @throws IllegalArgumentException
+	 *             if circuit contains a block that can not be simulated or
+	 *             needs the constant value ONE without having inputs
+	 */
+	public NetlistOptimizer(final CompoundBlock circuit, final Set<Pass> passes) {
+
+		this.netlist = new NetlistFlattener(circuit).getNetlist();
+		this.passes = EnumSet.copyOf(passes);
+		for (Pass pass : Pass.values()) {
+			changes.put(pass, 0);
+		}
+
+		final int[] inputStart = netlist.gateInputStart();
+		final int[] inputNets = netlist.gateInputNets();
+		gateCount = netlist.countGates();
+		types = Arrays.copyOf(netlist.gateTypes(), gateCount);
+		inputs = new int[gateCount][];
+		alive = new boolean[gateCount];
+		for (int g = 0; g < gateCount; g++) {
+			inputs[g] = Arrays.copyOfRange(inputNets, inputStart[g],
+					inputStart[g + 1]);
+			alive[g] = true;
+		}
+		drivers = new int[netlist.countNets()];
+		Arrays.fill(drivers, -1);
+		replacements = new int[netlist.countNets()];
+		for (int n = 0; n < replacements.length; n++) {
+			replacements[n] = n;
+		}
+		for (int g = 0; g < gateCount; g++) {
+			drivers[netlist.gateOutputNets()[g]] = g;
+		}
+		outputs = Arrays.copyOf(netlist.outputNets(), netlist.countOutputs());
+
+		// data nets of every register followed by its enable net
+		final int[] registerStart = netlist.registerStart();
+		registerInputs = new int[netlist.countRegisters()][];
+		aliveRegisters = new boolean[registerInputs.length];
+		registerDrivers = new int[netlist.countNets()];
+		Arrays.fill(registerDrivers, -1);
+		for (int r = 0; r < registerInputs.length; r++) {
+			final int enable = netlist.registerEnableNets()[r];
+			registerInputs[r] = Arrays.copyOfRange(netlist.registerDataNets(),
+					registerStart[r], registerStart[r + 1]
+							+ (enable != Netlist.NO_ENABLE ? 1 : 0));
+			if (enable != Netlist.NO_ENABLE) {
+				registerInputs[r][registerInputs[r].length - 1] = enable;
+			}
+			aliveRegisters[r] = true;
+			for (int b = registerStart[r]; b < registerStart[r + 1]; b++) {
+				registerDrivers[netlist.registerNets()[b]] = r;
+			}
+		}
+
+		optimize();
+		optimizedCircuit = buildCircuit(circuit);
+
+		LOG.debug("Optimized " + circuit.getBlockID() + " from "
+				+ netlist.countGates() + " to " + gateCount + " gates: "
+				+ changes);
+	}
+
+	/**
+	 * Runs all enabled passes until the circuit does not change anymore.
+	 */
+	private void optimize() {
+
+		int changed;
+		do {
+			changed = 0;
+			if (passes.contains(Pass.CONSTANT_PROPAGATION)) {
+				changed += count(Pass.CONSTANT_PROPAGATION,
+						propagateConstants());
+			}
+			if (passes.contains(Pass.DOUBLE_NOT_REMOVAL)) {
+				changed += count(Pass.DOUBLE_NOT_REMOVAL, removeDoubleNots());
+			}
+			if (passes.contains(Pass.CHAIN_COLLAPSING)) {
+				changed += count(Pass.CHAIN_COLLAPSING, collapseChains());
+			}
+			if (passes.contains(Pass.STRUCTURAL_HASHING)) {
+				changed += count(Pass.STRUCTURAL_HASHING, hashStructurally());
+			}
+			if (passes.contains(Pass.DEAD_GATE_REMOVAL)) {
+				changed += count(Pass.DEAD_GATE_REMOVAL, removeDeadGates());
+			}
+		} while (changed > 0);
+	}
+
+	/**
+	 * Adds number of changes to the statistics of a pass.
+	 */
+	private int count(final Pass pass, final int changed) {
+
+		changes.put(pass, changes.get(pass) + changed);
+		return changed;
+	}
+
+	/**
+	 * Follows replacements of a net to its current net or constant.
+	 */
+	private int resolve(final int net) {
+
+		int n = net;
+		while (n != CONSTANT_ONE && replacements[n] != n) {
+			n = replacements[n];
+		}
+		return n;
+	}
+
+	/**
+	 * Removes a gate and replaces its output by another net or constant. A
+	 * gate that would be replaced by its own output only holds its initial
+	 * value, so it is replaced by ZERO.
+	 */
+	private void replace(final int gate, final int net) {
+
+		final int output = netlist.gateOutputNets()[gate];
+		final int replacement = resolve(net);
+		replacements[output] = replacement == output ? Netlist.UNCONNECTED
+				: replacement;
+		alive[gate] = false;
+		gateCount--;
+	}
+
+	/**
+	 * Returns whether a gate of the given type is an AND or a NAND.
+	 */
+	private static boolean isAndLike(final Blocks type) {
+
+		return type == Blocks.AND || type == Blocks.NAND;
+	}
+
+	/**
+	 * Returns whether a gate of the given type inverts its result.
+	 */
+	private static boolean isInverting(final Blocks type) {
+
+		return type == Blocks.NAND || type == Blocks.NOR || type == Blocks.NOT;
+	}
+
+	/**
+	 * Replaces a gate with less than two inputs by a constant, by its input
+	 * or by a NOT.
+	 * 
+	 * @return true, if gate was changed
+	 */
+	private boolean reduce(final int gate) {
+
+		final Blocks type = types[gate];
+		if (type == Blocks.NOT || inputs[gate].length > 1) {
+			return false;
+		}
+		if (inputs[gate].length == 0) {
+			// empty AND is ONE, empty OR is ZERO
+			final boolean one = isAndLike(type) != isInverting(type);
+			replace(gate, one ? CONSTANT_ONE : Netlist.UNCONNECTED);
+		} else if (isInverting(type)) {
+			types[gate] = Blocks.NOT;
+		} else {
+			replace(gate, inputs[gate][0]);
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces gates with controlling constant inputs by constants and
+	 * removes all other constant inputs.
+	 * 
+	 * @return number of changed gates
+	 */
+	private int propagateConstants() {
+
+		int changed = 0;
+		for (int g : netlist.evaluationOrder()) {
+			if (!alive[g]) {
+				continue;
+			}
+			final int[] in = inputs[g];
+			for (int i = 0; i < in.length; i++) {
+				in[i] = resolve(in[i]);
+			}
+
+			if (types[g] == Blocks.NOT) {
+				if (in[0] == Netlist.UNCONNECTED) {
+					replace(g, CONSTANT_ONE);
+					changed++;
+				} else if (in[0] == CONSTANT_ONE) {
+					replace(g, Netlist.UNCONNECTED);
+					changed++;
+				}
+				continue;
+			}
+
+			final boolean andLike = isAndLike(types[g]);
+			final int controlling = andLike ? Netlist.UNCONNECTED
+					: CONSTANT_ONE;
+			final int neutral = andLike ? CONSTANT_ONE : Netlist.UNCONNECTED;
+			int kept = 0;
+			boolean controlled = false;
+			for (int net : in) {
+				if (net == controlling) {
+					controlled = true;
+				} else if (net != neutral) {
+					in[kept++] = net;
+				}
+			}
+
+			if (controlled) {
+				final boolean one = !andLike != isInverting(types[g]);
+				replace(g, one ? CONSTANT_ONE : Netlist.UNCONNECTED);
+				changed++;
+			} else {
+				final boolean removed = kept < in.length;
+				if (removed) {
+					inputs[g] = Arrays.copyOf(in, kept);
+				}
+				if (reduce(g) || removed) {
+					changed++;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Replaces NOTs of NOTs by the input of the first NOT.
+	 * 
+	 * @return number of removed gates
+	 */
+	private int removeDoubleNots() {
+
+		int changed = 0;
+		for (int g : netlist.evaluationOrder()) {
+			if (!alive[g] || types[g] != Blocks.NOT) {
+				continue;
+			}
+			final int net = resolve(inputs[g][0]);
+			final int d = net >= 0 ? drivers[net] : -1;
+			if (d >= 0 && d != g && alive[d] && types[d] == Blocks.NOT) {
+				replace(g, resolve(inputs[d][0]));
+				changed++;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Merges ANDs (ORs) driving a single AND or NAND (OR or NOR) into the
+	 * wider gate.
+	 * 
+	 * @return number of merged gates
+	 */
+	private int collapseChains() {
+
+		final int[] fanouts = countFanouts();
+
+		int changed = 0;
+		for (int g : netlist.evaluationOrder()) {
+			if (!alive[g] || types[g] == Blocks.NOT) {
+				continue;
+			}
+			final Blocks chained = isAndLike(types[g]) ? Blocks.AND
+					: Blocks.OR;
+			int[] in = inputs[g];
+			for (int i = 0; i < in.length; i++) {
+				final int net = resolve(in[i]);
+				final int d = net >= 0 ? drivers[net] : -1;
+				if (d >= 0 && d != g && alive[d] && types[d] == chained
+						&& fanouts[net] == 1) {
+					final int[] merged = new int[in.length - 1
+							+ inputs[d].length];
+					System.arraycopy(in, 0, merged, 0, i);
+					System.arraycopy(inputs[d], 0, merged, i,
+							inputs[d].length);
+					System.arraycopy(in, i + 1, merged, i + inputs[d].length,
+							in.length - i - 1);
+					alive[d] = false;
+					gateCount--;
+					in = merged;
+					i--;
+					changed++;
+				} else {
+					in[i] = net;
+				}
+			}
+			inputs[g] = in;
+		}
+		return changed;
+	}
+
+	/**
+	 * Counts for every net the gates, registers and outputs of the circuit
+	 * reading it.
+	 */
+	private int[] countFanouts() {
+
+		final int[] fanouts = new int[netlist.countNets()];
+		for (int g = 0; g < inputs.length; g++) {
+			if (alive[g]) {
+				for (int net : inputs[g]) {
+					final int n = resolve(net);
+					if (n >= 0) {
+						fanouts[n]++;
+					}
+				}
+			}
+		}
+		for (int r = 0; r < registerInputs.length; r++) {
+			if (aliveRegisters[r]) {
+				for (int net : registerInputs[r]) {
+					final int n = resolve(net);
+					if (n >= 0) {
+						fanouts[n]++;
+					}
+				}
+			}
+		}
+		for (int net : outputs) {
+			final int n = resolve(net);
+			if (n >= 0) {
+				fanouts[n]++;
+			}
+		}
+		return fanouts;
+	}
+
+	/**
+	 * Merges gates with the same type and inputs. Inputs of all gates are
+	 * sorted and duplicate inputs are removed before.
+	 * 
+	 * @return number of changed or merged gates
+	 */
+	private int hashStructurally() {
+
+		final Map<String, Integer> hashes = new HashMap<String, Integer>();
+
+		int changed = 0;
+		for (int g : netlist.evaluationOrder()) {
+			if (!alive[g]) {
+				continue;
+			}
+			final int[] in = inputs[g];
+			for (int i = 0; i < in.length; i++) {
+				in[i] = resolve(in[i]);
+			}
+			Arrays.sort(in);
+			int kept = 0;
+			for (int i = 0; i < in.length; i++) {
+				if (i == 0 || in[i] != in[i - 1]) {
+					in[kept++] = in[i];
+				}
+			}
+			if (kept < in.length) {
+				inputs[g] = Arrays.copyOf(in, kept);
+				changed++;
+				if (reduce(g)) {
+					continue;
+				}
+			}
+
+			final String key = types[g] + Arrays.toString(inputs[g]);
+			final Integer other = hashes.get(key);
+			if (other == null) {
+				hashes.put(key, g);
+			} else {
+				replace(g, netlist.gateOutputNets()[other]);
+				changed++;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Removes all gates and registers from which no output of the circuit can
+	 * be reached.
+	 * 
+	 * @return number of removed gates and registers
+	 */
+	private int removeDeadGates() {
+
+		final boolean[] live = new boolean[inputs.length];
+		final boolean[] liveRegisters = new boolean[registerInputs.length];
+		// gates are pushed as their id, registers as -1 - id
+		final int[] stack = new int[inputs.length + registerInputs.length];
+		int top = 0;
+		for (int net : outputs) {
+			top = markLive(net, live, liveRegisters, stack, top);
+		}
+		while (top > 0) {
+			final int g = stack[--top];
+			for (int net : g >= 0 ? inputs[g] : registerInputs[-1 - g]) {
+				top = markLive(net, live, liveRegisters, stack, top);
+			}
+		}
+
+		int changed = 0;
+		for (int g = 0; g < inputs.length; g++) {
+			if (alive[g] && !live[g]) {
+				alive[g] = false;
+				gateCount--;
+				changed++;
+			}
+		}
+		for (int r = 0; r < registerInputs.length; r++) {
+			if (aliveRegisters[r] && !liveRegisters[r]) {
+				aliveRegisters[r] = false;
+				changed++;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Marks the gate or register driving a net as live and pushes it, if it
+	 * was not marked before.
+	 * 
+	 * @return new top of stack
+	 */
+	private int markLive(final int net, final boolean[] live,
+			final boolean[] liveRegisters, final int[] stack, final int top) {
+
+		final int n = resolve(net);
+		if (n < 0) {
+			return top;
+		}
+		final int d = drivers[n];
+		if (d >= 0 && alive[d] && !live[d]) {
+			live[d] = true;
+			stack[top] = d;
+			return top + 1;
+		}
+		final int r = registerDrivers[n];
+		if (r >= 0 && aliveRegisters[r] && !liveRegisters[r]) {
+			liveRegisters[r] = true;
+			stack[top] = -1 - r;
+			return top + 1;
+		}
+		return top;
+	}
+
+	/**
+	 * Builds a new flat compound block from all remaining gates and
+	 * registers.
+	 */
+	private CompoundBlock buildCircuit(final CompoundBlock circuit) {
+
+		final CompoundBlock optimized = new CompoundBlock(
+				circuit.getBlockID(), Arrays.asList(circuit.inputList()),
+				Arrays.asList(circuit.outputList()));
+
+		final Output[] sources = new Output[netlist.countNets()];
+		for (int i = 0; i < netlist.countInputs(); i++) {
+			sources[netlist.getInputNet(i)] = optimized.internalInput(i);
+		}
+		final BaseBlock[] gates = new BaseBlock[inputs.length];
+		for (int g : netlist.evaluationOrder()) {
+			if (alive[g]) {
+				gates[g] = NetlistFlattener.createGate(types[g], netlist
+						.getGate(g).getBlockID(), inputs[g].length);
+				sources[netlist.gateOutputNets()[g]] = gates[g].output(0);
+			}
+		}
+		final Register[] registers = new Register[registerInputs.length];
+		for (int r = 0; r < registers.length; r++) {
+			if (aliveRegisters[r]) {
+				final Register original = netlist.getRegister(r);
+				registers[r] = new Register(original.getBlockID(),
+						original.getWidth(), original.hasEnable());
+				for (int b = 0; b < original.getWidth(); b++) {
+					sources[netlist.getRegisterNet(r, b)] = registers[r]
+							.output(b);
+				}
+			}
+		}
+
+		for (int g : netlist.evaluationOrder()) {
+			if (alive[g]) {
+				for (int i = 0; i < inputs[g].length; i++) {
+					final int net = resolve(inputs[g][i]);
+					if (net > Netlist.UNCONNECTED) {
+						sources[net].connectTo(gates[g].input(i));
+					}
+				}
+			}
+		}
+
+		for (int r = 0; r < registers.length; r++) {
+			if (aliveRegisters[r]) {
+				for (int i = 0; i < registerInputs[r].length; i++) {
+					connect(optimized, sources, resolve(registerInputs[r][i]),
+							registers[r].input(i));
+				}
+			}
+		}
+
+		for (int o = 0; o < outputs.length; o++) {
+			connect(optimized, sources, resolve(outputs[o]),
+					optimized.internalOutput(o));
+		}
+		return optimized;
+	}
+
+	/**
+	 * Connects an input of a register or an output of the optimized circuit
+	 * to a net. The constant value ONE is driven by a NAND of the first input
+	 * of the circuit and an unconnected input, that is created on first use.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the constant value ONE is needed in a circuit without
+	 *             inputs
+	 */
+	private void connect(final CompoundBlock optimized, final Output[] sources,
+			final int net, final Input input) {
+
+		if (net > Netlist.UNCONNECTED) {
+			sources[net].connectTo(input);
+		} else if (net == CONSTANT_ONE) {
+			if (netlist.countInputs() == 0) {
+				throw new IllegalArgumentException(
+						"Constant ONE can not be driven without inputs.");
+			}
+			if (one == null) {
+				final BaseBlock nand = NetlistFlattener.createGate(
+						Blocks.NAND, optimized.getBlockID()
+								+ NetlistFlattener.SEPARATOR + "ONE", 2);
+				optimized.internalInput(0).connectTo(nand.input(0));
+				one = nand.output(0);
+			}
+			one.connectTo(input);
+		}
+	}
+
+	/**
+	 * Gets the optimized circuit.
+	 * 
+	 * @return flat compound block with remaining gates
+	 */
+	public CompoundBlock getOptimizedCircuit() {
+
+		return optimizedCircuit;
+	}
+
+	/**
+	 * Returns number of gates of the flattened circuit before optimization.
+	 * 
+	 * @return number of original gates
+	 */
+	public int countOriginalGates() {
+
+		return netlist.countGates();
+	}
+
+	/**
+	 * Returns number of gates of the optimized circuit. A NAND driving
+	 * constant outputs is not counted.
+	 * 
+	 * @return number of remaining gates
+	 */
+	public int countOptimizedGates() {
+
+		return gateCount;
+	}
+
+	/**
+	 * Returns how many gates have been changed or removed by a pass.
+	 * 
+	 * @param pass
+	 *            optimization pass
+	 * @return number of changes
+	 */
+	public int countChanges(final Pass pass) {
+
+		return changes.get(pass);
+	}
+}
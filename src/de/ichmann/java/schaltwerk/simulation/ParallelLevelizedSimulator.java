@@ -0,0 +1,246 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.SignalStore;
+
+/**
+ * Simulates a compound block like <code>LevelizedSimulator</code> but
+ * evaluates the gates of wide levels on all cores of a
+ * <code>ForkJoinPool</code>. All gates of one level are independent of each
+ * other, so a level can be split into chunks that are evaluated in parallel.
+ * <p>
+ * Values of nets are packed as bits into words of a <code>SignalStore</code>,
+ * so two threads must never write into the same word. Because the netlist
+ * numbers the output nets of all gates in evaluation order, every chunk
+ * writes into a range of words of its own when chunks are only split where
+ * a new word starts. Chunks contain at least a given number of gates so that
+ * threads seldom write into the same cache line.
+ * <p>
+ * Levels that fit into a single chunk and levels containing feedback loops
+ * are evaluated serially by the calling thread.
+ * 
+ * @author Christian Wichmann
+ */
+public class ParallelLevelizedSimulator extends Simulator {
+
+	/**
+	 * Default minimal number of gates evaluated by a single task.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+	private final ForkJoinPool pool;
+
+	private final int[] outputNets;
+	private final int[] order;
+	private final int[] componentStart;
+	private final boolean[] feedbackLoops;
+
+	private final int[] chunkComponents;
+	private final int[] levelChunkStart;
+	private final boolean[] serialLevels;
+
+	/**
+	 * Initializes a simulator for a given compound block. The compound block
+	 * is compiled into a netlist once.
+	 * 
+	 * @param circuit
+	 *            compound block to simulate
+	 */
+	public ParallelLevelizedSimulator(final CompoundBlock circuit) {
+
+		this(Netlist.compile(circuit));
+	}
+
+	/**
+	 * Initializes a simulator for an already compiled netlist. Tasks are
+	 * executed by a pool shared by all simulators with one thread for every
+	 * available processor.
+	 * 
+	 * @param netlist
+	 *            netlist to simulate
+	 * @throws IllegalArgumentException
+	 *             if netlist contains registers
+	 */
+	public ParallelLevelizedSimulator(final Netlist netlist) {
+
+		this(netlist, SimulationPool.getInstance(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Initializes a simulator for an already compiled netlist.
+	 * 
+	 * @param netlist
+	 *            netlist to simulate
+	 * @param pool
+	 *            pool executing the tasks
+	 * @param chunkSize
+	 *            minimal number of gates evaluated by a single task
+	 * @throws IllegalArgumentException
+	 *             if chunk size is not positive or netlist contains
+	 *             registers
+	 */
+	public ParallelLevelizedSimulator(final Netlist netlist,
+			final ForkJoinPool pool, final int chunkSize) {
+
+		super(netlist);
+
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException(
+					"Size of chunks has to be positive.");
+		}
+		this.pool = pool;
+
+		outputNets = netlist.gateOutputNets();
+		order = netlist.evaluationOrder();
+		componentStart = netlist.componentStart();
+		feedbackLoops = netlist.feedbackLoops();
+
+		// split levels at component boundaries where a new word starts
+		final int[] levelStart = netlist.levelStart();
+		final int levelCount = levelStart.length - 1;
+		final int componentCount = feedbackLoops.length;
+		final int[] chunks = new int[componentCount + 1];
+		levelChunkStart = new int[levelCount + 1];
+		serialLevels = new boolean[levelCount];
+
+		int k = 0;
+		int c = 0;
+		for (int l = 0; l < levelCount; l++) {
+			levelChunkStart[l] = k;
+			chunks[k++] = c;
+			boolean serial = false;
+			while (c < componentCount
+					&& componentStart[c] < levelStart[l + 1]) {
+				final int p = componentStart[c];
+				final int word = outputNets[order[p]] >>> 6;
+				serial |= feedbackLoops[c];
+				if (p - componentStart[chunks[k - 1]] >= chunkSize
+						&& word != outputNets[order[p - 1]] >>> 6) {
+					chunks[k++] = c;
+				}
+				c++;
+			}
+			serialLevels[l] = serial || k - levelChunkStart[l] == 1;
+		}
+		levelChunkStart[levelCount] = k;
+		chunks[k] = componentCount;
+		chunkComponents = Arrays.copyOf(chunks, k + 1);
+	}
+
+	/**
+	 * Returns number of levels that are evaluated in parallel.
+	 * 
+	 * @return number of parallel levels
+	 */
+	public final int countParallelLevels() {
+
+		int count = 0;
+		for (boolean serial : serialLevels) {
+			if (!serial) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Evaluates all levels of the netlist one after another. Gates of one
+	 * level are evaluated in parallel, if the level is wide enough.
+	 */
+	@Override
+	public void evaluate() {
+
+		boolean stable = true;
+
+		for (int l = 0; l < serialLevels.length; l++) {
+			final int firstChunk = levelChunkStart[l];
+			final int lastChunk = levelChunkStart[l + 1];
+			if (serialLevels[l]) {
+				stable &= evaluateComponents(chunkComponents[firstChunk],
+						chunkComponents[lastChunk]);
+			} else {
+				pool.invoke(new ChunkTask(firstChunk, lastChunk));
+			}
+		}
+
+		setStable(stable);
+	}
+
+	/**
+	 * Evaluates a range of components in evaluation order.
+	 * 
+	 * @param first
+	 *            first component to evaluate
+	 * @param last
+	 *            component after last component to evaluate
+	 * @return true, if all feedback loops reached a stable state
+	 */
+	private boolean evaluateComponents(final int first, final int last) {
+
+		final SignalStore values = getSignalStore();
+		boolean stable = true;
+
+		for (int c = first; c < last; c++) {
+			if (feedbackLoops[c]) {
+				stable &= settleFeedbackLoop(componentStart[c],
+						componentStart[c + 1]);
+			} else {
+				final int g = order[componentStart[c]];
+				values.set(outputNets[g], evaluateGate(g));
+			}
+		}
+		return stable;
+	}
+
+	/**
+	 * Task evaluating a range of chunks of a level. Ranges are split in
+	 * halves until every task evaluates a single chunk.
+	 */
+	private final class ChunkTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int firstChunk;
+		private final int lastChunk;
+
+		private ChunkTask(final int firstChunk, final int lastChunk) {
+
+			this.firstChunk = firstChunk;
+			this.lastChunk = lastChunk;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (lastChunk - firstChunk == 1) {
+				evaluateComponents(chunkComponents[firstChunk],
+						chunkComponents[lastChunk]);
+			} else {
+				final int middle = (firstChunk + lastChunk) >>> 1;
+				invokeAll(new ChunkTask(firstChunk, middle), new ChunkTask(
+						middle, lastChunk));
+			}
+		}
+	}
+}
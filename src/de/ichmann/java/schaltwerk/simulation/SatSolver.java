@@ -0,0 +1,563 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Decides the satisfiability of boolean formulas in conjunctive normal form
+ * by conflict driven clause learning (CDCL).
+ * <p>
+ * Literals are encoded like in the <code>AndInverterGraph</code>: literal 2 *
+ * <i>v</i> is variable <i>v</i> and literal 2 * <i>v</i> + 1 is its
+ * complement. Every clause watches its first two literals, so only clauses
+ * watching a literal that became false have to be visited during unit
+ * propagation. A conflict is analyzed up to the first unique implication
+ * point and the resulting clause is learned, before the solver jumps back to
+ * the second highest decision level of this clause.
+ * <p>
+ * Decisions take the unassigned variable with the highest activity from a
+ * binary heap and assign the value it had last. Variables in conflicts gain
+ * activity while older activities decay. The search is restarted after a
+ * number of conflicts given by the Luby sequence.
+ * 
+ * @author Christian Wichmann
+ */
+public final class SatSolver {
+
+	private static final int UNASSIGNED = -1;
+	private static final int NO_REASON = -1;
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int RESTART_INTERVAL = 100;
+	private static final double ACTIVITY_DECAY = 0.95;
+	private static final double ACTIVITY_LIMIT = 1e100;
+
+	private int variableCount;
+	private int[] values = new int[INITIAL_CAPACITY];
+	private int[] levels = new int[INITIAL_CAPACITY];
+	private int[] reasons = new int[INITIAL_CAPACITY];
+	private boolean[] phases = new boolean[INITIAL_CAPACITY];
+	private boolean[] seen = new boolean[INITIAL_CAPACITY];
+	private double[] activities = new double[INITIAL_CAPACITY];
+	private double activityIncrement = 1;
+
+	private int[] heap = new int[INITIAL_CAPACITY];
+	private int[] heapPositions = new int[INITIAL_CAPACITY];
+	private int heapSize;
+
+	private int[] trail = new int[INITIAL_CAPACITY];
+	private int trailSize;
+	private int propagated;
+	private int[] trailLimits = new int[INITIAL_CAPACITY];
+	private int decisionLevel;
+
+	private int[][] clauses = new int[INITIAL_CAPACITY][];
+	private int clauseCount;
+	private int[][] watches = new int[2 * INITIAL_CAPACITY][];
+	private int[] watchCounts = new int[2 * INITIAL_CAPACITY];
+
+	private boolean inconsistent;
+	private long conflicts;
+	private long decisions;
+	private long propagations;
+	private long restarts;
+
+	/**
+	 * Creates a new variable.
+	 * 
+	 * @return index of variable
+	 */
+	public int newVariable() {
+
+		if (variableCount == values.length) {
+			final int capacity = 2 * values.length;
+			values = Arrays.copyOf(values, capacity);
+			levels = Arrays.copyOf(levels, capacity);
+			reasons = Arrays.copyOf(reasons, capacity);
+			phases = Arrays.copyOf(phases, capacity);
+			seen = Arrays.copyOf(seen, capacity);
+			activities = Arrays.copyOf(activities, capacity);
+			heap = Arrays.copyOf(heap, capacity);
+			heapPositions = Arrays.copyOf(heapPositions, capacity);
+			trail = Arrays.copyOf(trail, capacity);
+			trailLimits = Arrays.copyOf(trailLimits, capacity);
+			watches = Arrays.copyOf(watches, 2 * capacity);
+			watchCounts = Arrays.copyOf(watchCounts, 2 * capacity);
+		}
+		final int variable = variableCount++;
+		values[variable] = UNASSIGNED;
+		reasons[variable] = NO_REASON;
+		watches[2 * variable] = new int[4];
+		watches[2 * variable + 1] = new int[4];
+		heapPositions[variable] = -1;
+		insertIntoHeap(variable);
+		return variable;
+	}
+
+	/**
+	 * Adds a clause, the disjunction of the given literals. Clauses can only
+	 * be added between calls of <code>solve()</code>.
+	 * 
+	 * @param literals
+	 *            literals of clause
+	 * @return false, if the formula became unsatisfiable
+	 * @throws IllegalArgumentException
+	 *             if a literal refers to an unknown variable
+	 */
+	public boolean addClause(final int... literals) {
+
+		cancelUntil(0);
+		if (inconsistent) {
+			return false;
+		}
+
+		final int[] sorted = literals.clone();
+		Arrays.sort(sorted);
+		int size = 0;
+		for (int k = 0; k < sorted.length; k++) {
+			final int literal = sorted[k];
+			if (literal < 0 || literal >>> 1 >= variableCount) {
+				throw new IllegalArgumentException("Unknown variable in literal "
+						+ literal + ".");
+			}
+			if (size > 0 && literal == (sorted[size - 1] ^ 1)) {
+				// clause contains a literal and its complement
+				return true;
+			}
+			if (value(literal) == 1) {
+				return true;
+			}
+			if (value(literal) == 0
+					|| (size > 0 && literal == sorted[size - 1])) {
+				continue;
+			}
+			sorted[size++] = literal;
+		}
+
+		if (size == 0) {
+			inconsistent = true;
+		} else if (size == 1) {
+			assign(sorted[0], NO_REASON);
+			inconsistent = propagate() != NO_REASON;
+		} else {
+			storeClause(Arrays.copyOf(sorted, size));
+		}
+		return !inconsistent;
+	}
+
+	/**
+	 * Stores a clause and watches its first two literals.
+	 */
+	private int storeClause(final int[] clause) {
+
+		if (clauseCount == clauses.length) {
+			clauses = Arrays.copyOf(clauses, 2 * clauses.length);
+		}
+		final int index = clauseCount++;
+		clauses[index] = clause;
+		watch(clause[0], index);
+		watch(clause[1], index);
+		return index;
+	}
+
+	private void watch(final int literal, final int clause) {
+
+		if (watchCounts[literal] == watches[literal].length) {
+			watches[literal] = Arrays.copyOf(watches[literal],
+					2 * watches[literal].length);
+		}
+		watches[literal][watchCounts[literal]++] = clause;
+	}
+
+	/**
+	 * Returns 1 if a literal is true, 0 if it is false and -1 if its
+	 * variable is unassigned.
+	 */
+	private int value(final int literal) {
+
+		final int value = values[literal >>> 1];
+		return value == UNASSIGNED ? UNASSIGNED : value ^ (literal & 1);
+	}
+
+	private void assign(final int literal, final int reason) {
+
+		final int variable = literal >>> 1;
+		values[variable] = (literal & 1) ^ 1;
+		levels[variable] = decisionLevel;
+		reasons[variable] = reason;
+		trail[trailSize++] = literal;
+	}
+
+	/**
+	 * Propagates all assignments on the trail.
+	 * 
+	 * @return index of a conflicting clause or <code>NO_REASON</code>
+	 */
+	private int propagate() {
+
+		while (propagated < trailSize) {
+			final int falseLiteral = trail[propagated++] ^ 1;
+			final int[] list = watches[falseLiteral];
+			final int count = watchCounts[falseLiteral];
+			propagations++;
+
+			int i = 0;
+			int j = 0;
+			watching: while (i < count) {
+				final int index = list[i++];
+				final int[] clause = clauses[index];
+				if (clause[0] == falseLiteral) {
+					clause[0] = clause[1];
+					clause[1] = falseLiteral;
+				}
+				if (value(clause[0]) == 1) {
+					list[j++] = index;
+					continue;
+				}
+
+				// look for another literal to watch
+				for (int k = 2; k < clause.length; k++) {
+					if (value(clause[k]) != 0) {
+						clause[1] = clause[k];
+						clause[k] = falseLiteral;
+						watch(clause[1], index);
+						continue watching;
+					}
+				}
+
+				list[j++] = index;
+				if (value(clause[0]) == 0) {
+					while (i < count) {
+						list[j++] = list[i++];
+					}
+					watchCounts[falseLiteral] = j;
+					propagated = trailSize;
+					return index;
+				}
+				assign(clause[0], index);
+			}
+			watchCounts[falseLiteral] = j;
+		}
+		return NO_REASON;
+	}
+
+	/**
+	 * Learns a clause from a conflict and jumps back to the level at which
+	 * this clause becomes unit.
+	 */
+	private void learn(final int conflict) {
+
+		final int[] learned = new int[decisionLevel + variableCount];
+		int size = 1;
+		int pending = 0;
+		int literal = -1;
+		int reason = conflict;
+		int index = trailSize - 1;
+		do {
+			final int[] clause = clauses[reason];
+			for (int k = literal < 0 ? 0 : 1; k < clause.length; k++) {
+				final int variable = clause[k] >>> 1;
+				if (!seen[variable] && levels[variable] > 0) {
+					seen[variable] = true;
+					bumpActivity(variable);
+					if (levels[variable] == decisionLevel) {
+						pending++;
+					} else {
+						learned[size++] = clause[k];
+					}
+				}
+			}
+			while (!seen[trail[index] >>> 1]) {
+				index--;
+			}
+			literal = trail[index--];
+			reason = reasons[literal >>> 1];
+			seen[literal >>> 1] = false;
+			pending--;
+		} while (pending > 0);
+		learned[0] = literal ^ 1;
+
+		// literal with the highest level is watched beside the asserting one
+		int backjumpLevel = 0;
+		for (int k = 1; k < size; k++) {
+			seen[learned[k] >>> 1] = false;
+			if (levels[learned[k] >>> 1] > backjumpLevel) {
+				backjumpLevel = levels[learned[k] >>> 1];
+				final int swap = learned[1];
+				learned[1] = learned[k];
+				learned[k] = swap;
+			}
+		}
+
+		cancelUntil(backjumpLevel);
+		if (size == 1) {
+			assign(learned[0], NO_REASON);
+		} else {
+			assign(learned[0], storeClause(Arrays.copyOf(learned, size)));
+		}
+		activityIncrement /= ACTIVITY_DECAY;
+	}
+
+	/**
+	 * Removes all assignments above a decision level.
+	 */
+	private void cancelUntil(final int level) {
+
+		if (decisionLevel <= level) {
+			return;
+		}
+		final int limit = trailLimits[level];
+		for (int t = trailSize - 1; t >= limit; t--) {
+			final int variable = trail[t] >>> 1;
+			phases[variable] = values[variable] == 1;
+			values[variable] = UNASSIGNED;
+			reasons[variable] = NO_REASON;
+			if (heapPositions[variable] < 0) {
+				insertIntoHeap(variable);
+			}
+		}
+		trailSize = limit;
+		propagated = limit;
+		decisionLevel = level;
+	}
+
+	/**
+	 * Decides whether the clauses added so far are satisfiable. If they are,
+	 * a satisfying assignment can be read by <code>getValue()</code>.
+	 * 
+	 * @return true, if formula is satisfiable
+	 */
+	public boolean solve() {
+
+		cancelUntil(0);
+		if (inconsistent || propagate() != NO_REASON) {
+			inconsistent = true;
+			return false;
+		}
+
+		int restart = 1;
+		long conflictLimit = RESTART_INTERVAL * luby(restart);
+		long conflictsSinceRestart = 0;
+		while (true) {
+			final int conflict = propagate();
+			if (conflict != NO_REASON) {
+				conflicts++;
+				conflictsSinceRestart++;
+				if (decisionLevel == 0) {
+					inconsistent = true;
+					return false;
+				}
+				learn(conflict);
+			} else if (conflictsSinceRestart >= conflictLimit) {
+				cancelUntil(0);
+				restarts++;
+				restart++;
+				conflictLimit = RESTART_INTERVAL * luby(restart);
+				conflictsSinceRestart = 0;
+			} else {
+				final int variable = nextDecision();
+				if (variable < 0) {
+					return true;
+				}
+				decisions++;
+				trailLimits[decisionLevel++] = trailSize;
+				assign(2 * variable + (phases[variable] ? 0 : 1), NO_REASON);
+			}
+		}
+	}
+
+	/**
+	 * Returns element <i>i</i> of the Luby sequence 1, 1, 2, 1, 1, 2, 4, ...
+	 * starting with <i>i</i> = 1.
+	 */
+	private static long luby(final int i) {
+
+		int x = i;
+		while (true) {
+			int k = 1;
+			while ((1 << k) - 1 < x) {
+				k++;
+			}
+			if (x == (1 << k) - 1) {
+				return 1L << (k - 1);
+			}
+			x -= (1 << (k - 1)) - 1;
+		}
+	}
+
+	/**
+	 * Returns the unassigned variable with the highest activity or -1 if all
+	 * variables are assigned.
+	 */
+	private int nextDecision() {
+
+		while (heapSize > 0) {
+			final int variable = removeFromHeap();
+			if (values[variable] == UNASSIGNED) {
+				return variable;
+			}
+		}
+		return -1;
+	}
+
+	private void bumpActivity(final int variable) {
+
+		activities[variable] += activityIncrement;
+		if (activities[variable] > ACTIVITY_LIMIT) {
+			for (int v = 0; v < variableCount; v++) {
+				activities[v] /= ACTIVITY_LIMIT;
+			}
+			activityIncrement /= ACTIVITY_LIMIT;
+		}
+		if (heapPositions[variable] >= 0) {
+			siftUp(heapPositions[variable]);
+		}
+	}
+
+	private void insertIntoHeap(final int variable) {
+
+		heap[heapSize] = variable;
+		heapPositions[variable] = heapSize;
+		siftUp(heapSize++);
+	}
+
+	private int removeFromHeap() {
+
+		final int top = heap[0];
+		heapPositions[top] = -1;
+		heapSize--;
+		if (heapSize > 0) {
+			heap[0] = heap[heapSize];
+			heapPositions[heap[0]] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	private void siftUp(final int position) {
+
+		final int variable = heap[position];
+		int p = position;
+		while (p > 0) {
+			final int parent = (p - 1) >>> 1;
+			if (activities[heap[parent]] >= activities[variable]) {
+				break;
+			}
+			heap[p] = heap[parent];
+			heapPositions[heap[p]] = p;
+			p = parent;
+		}
+		heap[p] = variable;
+		heapPositions[variable] = p;
+	}
+
+	private void siftDown(final int position) {
+
+		final int variable = heap[position];
+		int p = position;
+		while (2 * p + 1 < heapSize) {
+			int child = 2 * p + 1;
+			if (child + 1 < heapSize
+					&& activities[heap[child + 1]] > activities[heap[child]]) {
+				child++;
+			}
+			if (activities[heap[child]] <= activities[variable]) {
+				break;
+			}
+			heap[p] = heap[child];
+			heapPositions[heap[p]] = p;
+			p = child;
+		}
+		heap[p] = variable;
+		heapPositions[variable] = p;
+	}
+
+	/**
+	 * Returns the value of a variable in the satisfying assignment found by
+	 * the last call of <code>solve()</code>.
+	 * 
+	 * @param variable
+	 *            index of variable
+	 * @return value of variable
+	 */
+	public boolean getValue(final int variable) {
+
+		return values[variable] == 1;
+	}
+
+	/**
+	 * Returns number of variables.
+	 * 
+	 * @return number of variables
+	 */
+	public int countVariables() {
+
+		return variableCount;
+	}
+
+	/**
+	 * Returns number of clauses including learned clauses but without unit
+	 * clauses.
+	 * 
+	 * @return number of stored clauses
+	 */
+	public int countClauses() {
+
+		return clauseCount;
+	}
+
+	/**
+	 * Returns number of conflicts during all searches.
+	 * 
+	 * @return number of conflicts
+	 */
+	public long countConflicts() {
+
+		return conflicts;
+	}
+
+	/**
+	 * Returns number of decisions during all searches.
+	 * 
+	 * @return number of decisions
+	 */
+	public long countDecisions() {
+
+		return decisions;
+	}
+
+	/**
+	 * Returns number of propagated assignments during all searches.
+	 * 
+	 * @return number of propagations
+	 */
+	public long countPropagations() {
+
+		return propagations;
+	}
+
+	/**
+	 * Returns number of restarts during all searches.
+	 * 
+	 * @return number of restarts
+	 */
+	public long countRestarts() {
+
+		return restarts;
+	}
+}
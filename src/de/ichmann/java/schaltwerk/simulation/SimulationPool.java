@@ -0,0 +1,49 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Holds the pool of threads shared by all parallel simulations that were not
+ * given a pool of their own. The pool has one thread for every available
+ * processor. Its threads are daemon threads, so the pool never has to be shut
+ * down.
+ * 
+ * @author Christian Wichmann
+ */
+final class SimulationPool {
+
+	private static ForkJoinPool pool = null;
+
+	private SimulationPool() {
+	}
+
+	/**
+	 * Returns pool shared by all parallel simulations.
+	 * 
+	 * @return shared pool
+	 */
+	static synchronized ForkJoinPool getInstance() {
+
+		if (pool == null) {
+			pool = new ForkJoinPool();
+		}
+		return pool;
+	}
+}
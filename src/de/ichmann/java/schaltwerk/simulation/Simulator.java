@@ -0,0 +1,315 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import de.ichmann.java.schaltwerk.blocks.Blocks;
+import de.ichmann.java.schaltwerk.blocks.SignalStore;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+
+/**
+ * Class as base of all simulators working on a compiled netlist. It holds the
+ * values of all nets in a <code>SignalStore</code> indexed by net id and
+ * provides access to inputs and outputs of the simulated circuit by their
+ * index in the netlist.
+ * 
+ * @author Christian Wichmann
+ */
+public abstract class Simulator {
+
+	/**
+	 * Default number of iterations for feedback loops to reach a stable
+	 * state.
+	 */
+	public static final int DEFAULT_MAX_ITERATIONS = 100;
+
+	private final Netlist netlist;
+	private final SignalStore netValues;
+
+	private final Blocks[] types;
+	private final int[] inputStart;
+	private final int[] inputNets;
+
+	private final boolean[] previousState;
+	private final boolean[] secondPreviousState;
+
+	private int maxIterations = DEFAULT_MAX_ITERATIONS;
+	private boolean stable = true;
+
+	/**
+	 * Initializes a simulator for a compiled netlist. All nets start with the
+	 * value ZERO. Registers are never clocked by this simulator, so netlists
+	 * containing registers have to be simulated by <code>CycleSimulator</code>.
+	 * 
+	 * @param netlist
+	 *            netlist to simulate
+	 * @throws IllegalArgumentException
+	 *             if netlist contains registers
+	 */
+	public Simulator(final Netlist netlist) {
+
+		this(netlist, false);
+	}
+
+	/**
+	 * Initializes a simulator for a compiled netlist. All nets start with the
+	 * value ZERO.
+	 * 
+	 * @param netlist
+	 *            netlist to simulate
+	 * @param clocked
+	 *            true, if the derived simulator clocks the registers
+	 * @throws IllegalArgumentException
+	 *             if netlist contains registers and is not clocked
+	 */
+	protected Simulator(final Netlist netlist, final boolean clocked) {
+
+		if (!clocked && netlist.countRegisters() > 0) {
+			throw new IllegalArgumentException(
+					"Registers can only be simulated by a cycle simulator.");
+		}
+		this.netlist = netlist;
+		this.netValues = new SignalStore();
+		this.netValues.allocate(netlist.countNets());
+		this.types = netlist.gateTypes();
+		this.inputStart = netlist.gateInputStart();
+		this.inputNets = netlist.gateInputNets();
+		this.previousState = new boolean[netlist.getLargestFeedbackLoop()];
+		this.secondPreviousState = new boolean[netlist.getLargestFeedbackLoop()];
+	}
+
+	/**
+	 * Gets netlist simulated by this simulator.
+	 * 
+	 * @return simulated netlist
+	 */
+	public final Netlist getNetlist() {
+
+		return netlist;
+	}
+
+	/**
+	 * Sets value of an input of the simulated circuit. Simulators derived from
+	 * this class know only binary values, so X and Z are set as ZERO as given
+	 * by <code>SignalStore.toBinary()</code>. Use
+	 * <code>FourStateSimulator</code> to simulate unknown values.
+	 * 
+	 * @param index
+	 *            index of input
+	 * @param value
+	 *            signal value to be set
+	 */
+	public final void setInput(final int index, final Signals value) {
+
+		final int net = netlist.inputNets()[index];
+		final boolean newValue = SignalStore.toBinary(value);
+		if (netValues.get(net) != newValue) {
+			netValues.set(net, newValue);
+			netChanged(net);
+		}
+	}
+
+	/**
+	 * Gets value of an output of the simulated circuit.
+	 * 
+	 * @param index
+	 *            index of output
+	 * @return signal value of output
+	 */
+	public final Signals getOutput(final int index) {
+
+		return netValues.getSignalValue(netlist.outputNets()[index]);
+	}
+
+	/**
+	 * Evaluates the netlist with the current input values. Circuits without
+	 * feedback reach a stable state after one call of this method.
+	 */
+	public abstract void evaluate();
+
+	/**
+	 * Returns whether all feedback loops reached a stable state during the
+	 * last call of <code>evaluate()</code>.
+	 * 
+	 * @return false, if a feedback loop was oscillating
+	 */
+	public final boolean isStable() {
+
+		return stable;
+	}
+
+	/**
+	 * Sets whether all feedback loops reached a stable state.
+	 * 
+	 * @param stable
+	 *            false, if a feedback loop was oscillating
+	 */
+	protected final void setStable(final boolean stable) {
+
+		this.stable = stable;
+	}
+
+	/**
+	 * Gets maximum number of iterations for feedback loops to reach a stable
+	 * state.
+	 * 
+	 * @return maximum number of iterations
+	 */
+	public final int getMaxIterations() {
+
+		return maxIterations;
+	}
+
+	/**
+	 * Sets maximum number of iterations for feedback loops to reach a stable
+	 * state. If a loop is not stable after this number of iterations, it is
+	 * considered to be oscillating.
+	 * 
+	 * @param maxIterations
+	 *            maximum number of iterations
+	 * @throws IllegalArgumentException
+	 *             if number of iterations is not positive
+	 */
+	public final void setMaxIterations(final int maxIterations) {
+
+		if (maxIterations < 1) {
+			throw new IllegalArgumentException(
+					"Number of iterations has to be positive.");
+		}
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * Is called whenever the value of an input of the circuit changes.
+	 * Subclasses can use this to schedule the gates reading the net.
+	 * 
+	 * @param net
+	 *            id of changed net
+	 */
+	protected void netChanged(final int net) {
+	}
+
+	/**
+	 * Returns store holding values of all nets. It is indexed by net id, so a
+	 * snapshot of the store contains the complete state of the simulation.
+	 * 
+	 * @return values of all nets
+	 */
+	public final SignalStore getSignalStore() {
+
+		return netValues;
+	}
+
+	/**
+	 * Evaluates the gates of a feedback loop repeatedly until no output
+	 * changes anymore. Iteration stops early when the outputs of the loop
+	 * return to the state of two iterations ago, because the loop will
+	 * oscillate forever in this case.
+	 * 
+	 * @param first
+	 *            position of first gate of the loop in evaluation order
+	 * @param last
+	 *            position after last gate of the loop in evaluation order
+	 * @return true, if the loop reached a stable state
+	 */
+	protected final boolean settleFeedbackLoop(final int first,
+			final int last) {
+
+		final SignalStore values = netValues;
+		final int[] order = netlist.evaluationOrder();
+		final int[] outputNets = netlist.gateOutputNets();
+
+		for (int k = first; k < last; k++) {
+			previousState[k - first] = values.get(outputNets[order[k]]);
+		}
+
+		for (int iteration = 0; iteration < maxIterations; iteration++) {
+			boolean changed = false;
+			boolean repeated = iteration > 0;
+
+			for (int k = first; k < last; k++) {
+				final int g = order[k];
+				final boolean value = evaluateGate(g);
+				if (values.get(outputNets[g]) != value) {
+					values.set(outputNets[g], value);
+					changed = true;
+				}
+				repeated &= secondPreviousState[k - first] == value;
+				secondPreviousState[k - first] = previousState[k - first];
+				previousState[k - first] = value;
+			}
+
+			if (!changed) {
+				return true;
+			}
+			if (repeated) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Calculates the output value of a gate from the current values of its
+	 * input nets. The value is not written to the output net of the gate.
+	 * 
+	 * @param gate
+	 *            id of gate
+	 * @return new value of the output of the gate
+	 */
+	protected final boolean evaluateGate(final int gate) {
+
+		final SignalStore values = netValues;
+		final int first = inputStart[gate];
+		final int last = inputStart[gate + 1];
+
+		switch (types[gate]) {
+		case AND:
+			for (int i = first; i < last; i++) {
+				if (!values.get(inputNets[i])) {
+					return false;
+				}
+			}
+			return true;
+		case NAND:
+			for (int i = first; i < last; i++) {
+				if (!values.get(inputNets[i])) {
+					return true;
+				}
+			}
+			return false;
+		case OR:
+			for (int i = first; i < last; i++) {
+				if (values.get(inputNets[i])) {
+					return true;
+				}
+			}
+			return false;
+		case NOR:
+			for (int i = first; i < last; i++) {
+				if (values.get(inputNets[i])) {
+					return false;
+				}
+			}
+			return true;
+		case NOT:
+			return !values.get(inputNets[first]);
+		default:
+			throw new IllegalStateException("Unknown gate type.");
+		}
+	}
+}
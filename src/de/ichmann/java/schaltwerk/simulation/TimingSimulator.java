@@ -0,0 +1,362 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.SignalStore;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+
+/**
+ * Simulates a compound block with propagation delays of its gates. The delay
+ * of every gate is taken from its base block (see
+ * <code>BaseBlock.getDelay()</code>). A change of the output of a gate is
+ * scheduled as event at the current time plus the delay of the gate, so short
+ * pulses (glitches) caused by different path lengths are visible to all
+ * registered <code>NetChangeListener</code>.
+ * <p>
+ * Events are held in a timing wheel: a ring of slots, one for every point in
+ * time up to the largest delay in the netlist. Because no event can be
+ * scheduled further into the future than this delay, the wheel never
+ * overflows and scheduling an event is only an append to an
+ * <code>int</code> array. An event is encoded as net id and new value in a
+ * single <code>int</code>.
+ * <p>
+ * Delays are transport delays: a change of the output of a gate is always
+ * scheduled, even if it is shorter than the delay of the gate.
+ * 
+ * @author Christian Wichmann
+ */
+public class TimingSimulator extends Simulator {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(TimingSimulator.class);
+
+	private static final int INITIAL_SLOT_SIZE = 16;
+
+	private final int[] outputNets;
+	private final int[] fanoutStart;
+	private final int[] fanoutGates;
+	private final int[] delays;
+	private final int maxDelay;
+
+	private final int[][] slots;
+	private final int[] slotSizes;
+	private final int slotMask;
+	private int scheduledEvents = 0;
+
+	private final boolean[] projectedValues;
+	private final int[] pendingGates;
+	private final boolean[] pending;
+	private int pendingCount = 0;
+
+	private long time = 0;
+	private long processedEvents = 0;
+
+	private final List<NetChangeListener> listeners = new ArrayList<NetChangeListener>();
+
+	/**
+	 * Initializes a simulator for a given compound block. The compound block
+	 * is compiled into a netlist once.
+	 * 
+	 * @param circuit
+	 *            compound block to simulate
+	 */
+	public TimingSimulator(final CompoundBlock circuit) {
+
+		this(Netlist.compile(circuit));
+	}
+
+	/**
+	 * Initializes a simulator for an already compiled netlist. All nets start
+	 * with the value ZERO at time 0 and all gates are evaluated once at that
+	 * time.
+	 * 
+	 * @param netlist
+	 *            netlist to simulate
+	 * @throws IllegalArgumentException
+	 *             if netlist contains registers
+	 */
+	public TimingSimulator(final Netlist netlist) {
+
+		super(netlist);
+
+		outputNets = netlist.gateOutputNets();
+		fanoutStart = netlist.fanoutStart();
+		fanoutGates = netlist.fanoutGates();
+
+		final int gateCount = netlist.countGates();
+		delays = new int[gateCount];
+		int largestDelay = 1;
+		for (int g = 0; g < gateCount; g++) {
+			delays[g] = Math.max(1, netlist.getGate(g).getDelay());
+			largestDelay = Math.max(largestDelay, delays[g]);
+		}
+		maxDelay = largestDelay;
+
+		// ring has to hold all points in time from now to now plus max delay
+		final int slotCount = Integer.highestOneBit(maxDelay) << 1;
+		slots = new int[slotCount][INITIAL_SLOT_SIZE];
+		slotSizes = new int[slotCount];
+		slotMask = slotCount - 1;
+
+		projectedValues = new boolean[netlist.countNets()];
+		pendingGates = new int[gateCount];
+		pending = new boolean[gateCount];
+		for (int g = 0; g < gateCount; g++) {
+			pending[g] = true;
+			pendingGates[g] = g;
+		}
+		pendingCount = gateCount;
+	}
+
+	/**
+	 * Registers a listener that is informed about all changes of nets.
+	 * 
+	 * @param listener
+	 *            listener to add
+	 */
+	public final void addNetChangeListener(final NetChangeListener listener) {
+
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a registered listener.
+	 * 
+	 * @param listener
+	 *            listener to remove
+	 */
+	public final void removeNetChangeListener(final NetChangeListener listener) {
+
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Gets current simulation time.
+	 * 
+	 * @return simulation time
+	 */
+	public final long getTime() {
+
+		return time;
+	}
+
+	/**
+	 * Gets number of events processed since this simulator was created.
+	 * 
+	 * @return number of processed events
+	 */
+	public final long countProcessedEvents() {
+
+		return processedEvents;
+	}
+
+	/**
+	 * Gets the largest delay of all gates of the netlist.
+	 * 
+	 * @return largest delay
+	 */
+	public final int getMaxDelay() {
+
+		return maxDelay;
+	}
+
+	/**
+	 * Runs the simulation until no more events are scheduled. Inputs set
+	 * before this call change at the current simulation time. If the circuit
+	 * has not become quiet after the maximum number of iterations times the
+	 * number of gates times the largest delay, it is considered to be
+	 * oscillating and the simulation stops.
+	 */
+	@Override
+	public void evaluate() {
+
+		final long limit = (long) getMaxIterations()
+				* Math.max(1, getNetlist().countGates()) * maxDelay;
+		final boolean quiet = run(limit);
+		if (!quiet) {
+			LOG.debug("Netlist {} still active at time {}.", getNetlist()
+					.getCircuitID(), time);
+		}
+		setStable(quiet);
+	}
+
+	/**
+	 * Runs the simulation for a given duration or until no more events are
+	 * scheduled. The simulation time is advanced by the whole duration in
+	 * both cases.
+	 * 
+	 * @param duration
+	 *            duration to simulate
+	 * @return true, if no more events are scheduled
+	 * @throws IllegalArgumentException
+	 *             if duration is negative
+	 */
+	public final boolean advance(final long duration) {
+
+		if (duration < 0) {
+			throw new IllegalArgumentException(
+					"Duration must not be negative.");
+		}
+		final long end = time + duration;
+		final boolean quiet = run(duration);
+		time = end;
+		return quiet;
+	}
+
+	@Override
+	protected void netChanged(final int net) {
+
+		final boolean value = getSignalStore().get(net);
+		projectedValues[net] = value;
+		fireValueChanged(net, value);
+		scheduleFanout(net);
+	}
+
+	/**
+	 * Processes events until no more events are scheduled or until the given
+	 * duration has passed.
+	 * 
+	 * @param duration
+	 *            maximum duration to simulate
+	 * @return true, if no more events are scheduled
+	 */
+	private boolean run(final long duration) {
+
+		final SignalStore values = getSignalStore();
+		final long end = time + duration;
+
+		while (true) {
+			evaluatePendingGates();
+			if (scheduledEvents == 0) {
+				return true;
+			}
+
+			// find next point in time with events, there is one within max delay
+			long next = time + 1;
+			while (slotSizes[(int) next & slotMask] == 0) {
+				next++;
+			}
+			if (next > end) {
+				time = end;
+				return false;
+			}
+			time = next;
+
+			final int slot = (int) time & slotMask;
+			final int[] events = slots[slot];
+			final int count = slotSizes[slot];
+			slotSizes[slot] = 0;
+			scheduledEvents -= count;
+			processedEvents += count;
+
+			for (int i = 0; i < count; i++) {
+				final int net = events[i] >>> 1;
+				final boolean value = (events[i] & 1) != 0;
+				if (values.get(net) != value) {
+					values.set(net, value);
+					fireValueChanged(net, value);
+					scheduleFanout(net);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evaluates all gates whose inputs changed at the current time and
+	 * schedules events for all outputs that will change.
+	 */
+	private void evaluatePendingGates() {
+
+		for (int i = 0; i < pendingCount; i++) {
+			final int g = pendingGates[i];
+			pending[g] = false;
+			final boolean value = evaluateGate(g);
+			final int net = outputNets[g];
+			if (projectedValues[net] != value) {
+				projectedValues[net] = value;
+				scheduleEvent(time + delays[g], net, value);
+			}
+		}
+		pendingCount = 0;
+	}
+
+	/**
+	 * Adds an event to the slot of the timing wheel for a point in time.
+	 * 
+	 * @param eventTime
+	 *            point in time when net changes
+	 * @param net
+	 *            id of net
+	 * @param value
+	 *            new value of net
+	 */
+	private void scheduleEvent(final long eventTime, final int net,
+			final boolean value) {
+
+		final int slot = (int) eventTime & slotMask;
+		if (slotSizes[slot] == slots[slot].length) {
+			slots[slot] = Arrays.copyOf(slots[slot], 2 * slots[slot].length);
+		}
+		slots[slot][slotSizes[slot]++] = net << 1 | (value ? 1 : 0);
+		scheduledEvents++;
+	}
+
+	/**
+	 * Marks all gates reading a net to be evaluated at the current time.
+	 * 
+	 * @param net
+	 *            id of changed net
+	 */
+	private void scheduleFanout(final int net) {
+
+		for (int i = fanoutStart[net]; i < fanoutStart[net + 1]; i++) {
+			final int g = fanoutGates[i];
+			if (!pending[g]) {
+				pending[g] = true;
+				pendingGates[pendingCount++] = g;
+			}
+		}
+	}
+
+	/**
+	 * Informs all registered listeners about a changed net.
+	 * 
+	 * @param net
+	 *            id of changed net
+	 * @param value
+	 *            new value of net
+	 */
+	private void fireValueChanged(final int net, final boolean value) {
+
+		if (listeners.isEmpty()) {
+			return;
+		}
+		final Signals signal = value ? Signals.ONE : Signals.ZERO;
+		for (int i = 0; i < listeners.size(); i++) {
+			listeners.get(i).valueChanged(time, net, signal);
+		}
+	}
+}
@@ -0,0 +1,350 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+
+/**
+ * Represents the complete truth table of a combinational circuit. The table
+ * has one line (vector) for every combination of input values: in vector
+ * <i>v</i> input <i>i</i> has the value of bit <i>i</i> of <i>v</i>. For
+ * every output all its values are stored as a bitset of 2^N bits packed into
+ * <code>long</code> words, bit <i>k</i> of word <i>w</i> holding the value of
+ * vector 64 * <i>w</i> + <i>k</i>.
+ * <p>
+ * The table is computed by a <code>BitParallelSimulator</code> that simulates
+ * 64 vectors at once. The words of the input space are split into ranges that
+ * are simulated on all cores of a <code>ForkJoinPool</code>. Because inputs
+ * 0 to 5 change inside a word, their values are fixed bit patterns and all
+ * other inputs are constant for a whole word.
+ * <p>
+ * The bitsets can be held in memory or in a memory mapped file, so tables of
+ * circuits with many inputs do not have to fit onto the heap. A mapped file
+ * contains the bitsets of all outputs one after another as words in little
+ * endian byte order.
+ * 
+ * @author Christian Wichmann
+ */
+public final class TruthTable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TruthTable.class);
+
+	/**
+	 * Maximum number of inputs of a circuit whose truth table can be
+	 * calculated.
+	 */
+	public static final int MAX_INPUTS = 32;
+
+	/**
+	 * Number of words simulated by a single task.
+	 */
+	private static final int WORDS_PER_TASK = 4096;
+
+	private static final long[] INPUT_PATTERNS = { 0xAAAAAAAAAAAAAAAAL,
+			0xCCCCCCCCCCCCCCCCL, 0xF0F0F0F0F0F0F0F0L, 0xFF00FF00FF00FF00L,
+			0xFFFF0000FFFF0000L, 0xFFFFFFFF00000000L };
+
+	private final int inputCount;
+	private final LongBuffer[] columns;
+
+	/**
+	 * Initializes an empty truth table with given bitsets for all outputs.
+	 */
+	private TruthTable(final int inputCount, final LongBuffer[] columns) {
+
+		this.inputCount = inputCount;
+		this.columns = columns;
+	}
+
+	/**
+	 * Computes the truth table of a combinational compound block in memory.
+	 * All cores of the machine are used.
+	 * 
+	 * @param circuit
+	 *            combinational compound block
+	 * @return truth table of circuit
+	 * @throws IllegalArgumentException
+	 *             if circuit contains feedback loops or has too many inputs
+	 */
+	public static TruthTable compute(final CompoundBlock circuit) {
+
+		return compute(Netlist.compile(circuit), SimulationPool.getInstance());
+	}
+
+	/**
+	 * Computes the truth table of a combinational netlist in memory.
+	 * 
+	 * @param netlist
+	 *            netlist of combinational circuit
+	 * @param pool
+	 *            pool executing the simulation
+	 * @return truth table of netlist
+	 * @throws IllegalArgumentException
+	 *             if netlist contains feedback loops or has too many inputs
+	 */
+	public static TruthTable compute(final Netlist netlist,
+			final ForkJoinPool pool) {
+
+		checkNetlist(netlist);
+		final long words = countWords(netlist.countInputs());
+		final LongBuffer[] columns = new LongBuffer[netlist.countOutputs()];
+		for (int o = 0; o < columns.length; o++) {
+			columns[o] = LongBuffer.allocate((int) words);
+		}
+		TruthTable table = new TruthTable(netlist.countInputs(), columns);
+		table.fill(netlist, pool);
+		return table;
+	}
+
+	/**
+	 * Computes the truth table of a combinational netlist into a memory
+	 * mapped file. An existing file is overwritten.
+	 * 
+	 * @param netlist
+	 *            netlist of combinational circuit
+	 * @param file
+	 *            file to write truth table to
+	 * @param pool
+	 *            pool executing the simulation
+	 * @return truth table of netlist backed by the file
+	 * @throws IOException
+	 *             if file could not be mapped
+	 * @throws IllegalArgumentException
+	 *             if netlist contains feedback loops or has too many inputs
+	 */
+	public static TruthTable compute(final Netlist netlist, final File file,
+			final ForkJoinPool pool) throws IOException {
+
+		checkNetlist(netlist);
+		final long bytes = countWords(netlist.countInputs()) * Long.SIZE / 8;
+		final LongBuffer[] columns = new LongBuffer[netlist.countOutputs()];
+
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			randomAccessFile.setLength(bytes * columns.length);
+			FileChannel channel = randomAccessFile.getChannel();
+			for (int o = 0; o < columns.length; o++) {
+				columns[o] = channel
+						.map(FileChannel.MapMode.READ_WRITE, o * bytes, bytes)
+						.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+			}
+		} finally {
+			randomAccessFile.close();
+		}
+
+		TruthTable table = new TruthTable(netlist.countInputs(), columns);
+		table.fill(netlist, pool);
+		return table;
+	}
+
+	/**
+	 * Checks whether the truth table of a netlist can be calculated.
+	 */
+	private static void checkNetlist(final Netlist netlist) {
+
+		if (!netlist.isCombinational()) {
+			throw new IllegalArgumentException(
+					"Truth tables exist only for combinational circuits.");
+		}
+		if (netlist.countInputs() > MAX_INPUTS) {
+			throw new IllegalArgumentException("Circuit has more than "
+					+ MAX_INPUTS + " inputs.");
+		}
+	}
+
+	/**
+	 * Returns number of words needed to store one bit for every vector.
+	 */
+	private static long countWords(final int inputs) {
+
+		return inputs <= 6 ? 1 : 1L << (inputs - 6);
+	}
+
+	/**
+	 * Simulates all vectors and stores the results into the bitsets.
+	 */
+	private void fill(final Netlist netlist, final ForkJoinPool pool) {
+
+		final long start = System.nanoTime();
+		pool.invoke(new SimulationTask(netlist, 0, countWords(inputCount)));
+		LOG.debug("Computed truth table of " + netlist.getCircuitID()
+				+ " with " + countVectors() + " vectors in "
+				+ (System.nanoTime() - start) / 1000000 + " ms.");
+	}
+
+	/**
+	 * Gets number of inputs of the circuit.
+	 * 
+	 * @return number of inputs
+	 */
+	public int countInputs() {
+
+		return inputCount;
+	}
+
+	/**
+	 * Gets number of outputs of the circuit.
+	 * 
+	 * @return number of outputs
+	 */
+	public int countOutputs() {
+
+		return columns.length;
+	}
+
+	/**
+	 * Gets number of vectors (lines) of this truth table.
+	 * 
+	 * @return number of vectors
+	 */
+	public long countVectors() {
+
+		return 1L << inputCount;
+	}
+
+	/**
+	 * Gets value of an output for a given vector of input values.
+	 * 
+	 * @param output
+	 *            index of output
+	 * @param vector
+	 *            input values, bit <i>i</i> is the value of input <i>i</i>
+	 * @return value of output
+	 */
+	public boolean get(final int output, final long vector) {
+
+		final long word = columns[output].get((int) (vector >>> 6));
+		return (word >>> vector & 1L) != 0;
+	}
+
+	/**
+	 * Gets values of an output for 64 consecutive vectors.
+	 * 
+	 * @param output
+	 *            index of output
+	 * @param word
+	 *            index of word, containing vectors 64 * word to 64 * word + 63
+	 * @return packed values of output
+	 */
+	public long getWord(final int output, final long word) {
+
+		return columns[output].get((int) word);
+	}
+
+	/**
+	 * Counts the vectors for which an output is ONE.
+	 * 
+	 * @param output
+	 *            index of output
+	 * @return number of vectors with output ONE
+	 */
+	public long countOnes(final int output) {
+
+		final LongBuffer column = columns[output];
+		long count = 0;
+		for (int w = 0; w < column.limit(); w++) {
+			count += Long.bitCount(column.get(w));
+		}
+		return count;
+	}
+
+	/**
+	 * Returns all values of an output in the form used by
+	 * <code>CombinationalCircuits.getCombinationalCircuit()</code>. Only
+	 * useful for small circuits.
+	 * 
+	 * @param output
+	 *            index of output
+	 * @return values of output for all vectors in ascending order
+	 */
+	public List<Boolean> getOutputColumn(final int output) {
+
+		final int vectors = (int) Math.min(countVectors(), Integer.MAX_VALUE);
+		List<Boolean> column = new ArrayList<Boolean>(vectors);
+		for (int v = 0; v < vectors; v++) {
+			column.add(get(output, v));
+		}
+		return column;
+	}
+
+	/**
+	 * Task simulating a range of words. Ranges are split in halves until they
+	 * are small enough to be simulated by a single simulator.
+	 */
+	private final class SimulationTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Netlist netlist;
+		private final long firstWord;
+		private final long lastWord;
+
+		private SimulationTask(final Netlist netlist, final long firstWord,
+				final long lastWord) {
+
+			this.netlist = netlist;
+			this.firstWord = firstWord;
+			this.lastWord = lastWord;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (lastWord - firstWord > WORDS_PER_TASK) {
+				final long middle = (firstWord + lastWord) >>> 1;
+				invokeAll(new SimulationTask(netlist, firstWord, middle),
+						new SimulationTask(netlist, middle, lastWord));
+				return;
+			}
+
+			final BitParallelSimulator simulator = new BitParallelSimulator(
+					netlist);
+			final long[] inputs = new long[inputCount];
+			final long[] outputs = new long[columns.length];
+			final long mask = inputCount < 6 ? (1L << (1 << inputCount)) - 1
+					: -1L;
+			for (int i = 0; i < inputCount && i < 6; i++) {
+				inputs[i] = INPUT_PATTERNS[i];
+			}
+
+			for (long w = firstWord; w < lastWord; w++) {
+				for (int i = 6; i < inputCount; i++) {
+					inputs[i] = (w >>> (i - 6) & 1L) != 0 ? -1L : 0L;
+				}
+				simulator.evaluate(inputs, outputs);
+				for (int o = 0; o < outputs.length; o++) {
+					columns[o].put((int) w, outputs[o] & mask);
+				}
+			}
+		}
+	}
+}
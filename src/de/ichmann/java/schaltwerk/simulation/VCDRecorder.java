@@ -0,0 +1,640 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ichmann.java.schaltwerk.blocks.BaseBlock;
+import de.ichmann.java.schaltwerk.blocks.Block;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.Input;
+import de.ichmann.java.schaltwerk.blocks.Output;
+import de.ichmann.java.schaltwerk.blocks.Register;
+import de.ichmann.java.schaltwerk.blocks.SignalStore;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+
+/**
+ * Records all changes of the nets of a simulation as Value Change Dump (VCD)
+ * that can be viewed with any waveform viewer. The recorder is registered as
+ * <code>NetChangeListener</code> at a <code>TimingSimulator</code> or samples
+ * the nets of any other simulator by <code>sample()</code>, e.g. after every
+ * cycle of a <code>CycleSimulator</code>.
+ * <p>
+ * Every recorded net gets a short identifier code of printable characters.
+ * The scopes of the dump follow the nesting of compound blocks: ports of a
+ * compound block and outputs of the gates and registers inside of it are
+ * declared in its scope. Ports connected to the same net share its code.
+ * Nets only reachable through circuit instances are declared in the top
+ * scope with the id of their gate and their net id as name.
+ * <p>
+ * Changes are encoded into a fixed number of direct buffers. Full buffers
+ * are written to the channel by a background thread, while the simulation
+ * continues with the next free buffer. If the channel is slower than the
+ * simulation, the simulation waits for a free buffer, so the recorder never
+ * needs more memory than its buffers, no matter how long the simulation
+ * runs. The channel is not closed by the recorder.
+ * 
+ * @author Christian Wichmann
+ */
+public final class VCDRecorder implements NetChangeListener, Closeable {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(VCDRecorder.class);
+
+	/**
+	 * Default size of every buffer in bytes.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Number of buffers used by every recorder.
+	 */
+	public static final int BUFFER_COUNT = 4;
+
+	private static final int MIN_BUFFER_SIZE = 64;
+	private static final int MAX_LINE = 32;
+	private static final int FIRST_CODE_CHAR = 33;
+	private static final int CODE_CHARS = 94;
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+	private static final long POLL_INTERVAL = 100;
+
+	private final WritableByteChannel channel;
+	private final BlockingQueue<ByteBuffer> fullBuffers;
+	private final BlockingQueue<ByteBuffer> freeBuffers;
+	private final Thread writer;
+	private volatile IOException failure = null;
+
+	private final byte[][] codes;
+	private final int[] recordedNets;
+	private final byte[] lastValues;
+
+	private ByteBuffer buffer;
+	private long time = -1;
+	private long changes = 0;
+	private boolean closed = false;
+
+	/**
+	 * Scope of the dump holding the variables of a compound block.
+	 */
+	private static final class Scope {
+
+		private final String name;
+		private final List<Scope> children = new ArrayList<Scope>();
+		private final List<String> names = new ArrayList<String>();
+		private final List<Integer> nets = new ArrayList<Integer>();
+
+		private Scope(final String name) {
+
+			this.name = name;
+		}
+
+		private void add(final String name, final int net) {
+
+			if (net != Netlist.UNCONNECTED) {
+				names.add(name);
+				nets.add(net);
+			}
+		}
+	}
+
+	/**
+	 * Initializes a recorder with buffers of the default size and writes the
+	 * declarations of all nets to the channel.
+	 * 
+	 * @param circuit
+	 *            compound block the netlist was compiled from
+	 * @param netlist
+	 *            netlist of the simulation to record
+	 * @param channel
+	 *            channel to write the dump to
+	 * @throws IllegalArgumentException
+	 *             if netlist was not compiled from circuit
+	 */
+	public VCDRecorder(final CompoundBlock circuit, final Netlist netlist,
+			final WritableByteChannel channel) {
+
+		this(circuit, netlist, channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Initializes a recorder and writes the declarations of all nets to the
+	 * channel.
+	 * 
+	 * @param circuit
+	 *            compound block the netlist was compiled from
+	 * @param netlist
+	 *            netlist of the simulation to record
+	 * @param channel
+	 *            channel to write the dump to
+	 * @param bufferSize
+	 *            size of every buffer in bytes
+	 * @throws IllegalArgumentException
+	 *             if netlist was not compiled from circuit or buffer size is
+	 *             too small
+	 */
+	public VCDRecorder(final CompoundBlock circuit, final Netlist netlist,
+			final WritableByteChannel channel, final int bufferSize) {
+
+		if (bufferSize < MIN_BUFFER_SIZE) {
+			throw new IllegalArgumentException("Buffer size has to be at least "
+					+ MIN_BUFFER_SIZE + " bytes.");
+		}
+		this.channel = channel;
+
+		final Scope top = collectScopes(circuit, netlist);
+		codes = new byte[netlist.countNets()][];
+		final List<Integer> nets = new ArrayList<Integer>();
+		assignCodes(top, nets);
+		recordedNets = new int[nets.size()];
+		for (int i = 0; i < recordedNets.length; i++) {
+			recordedNets[i] = nets.get(i);
+		}
+		lastValues = new byte[netlist.countNets()];
+
+		// room for all buffers and the end marker, so handing over never waits
+		fullBuffers = new ArrayBlockingQueue<ByteBuffer>(BUFFER_COUNT + 1);
+		freeBuffers = new ArrayBlockingQueue<ByteBuffer>(BUFFER_COUNT);
+		for (int i = 1; i < BUFFER_COUNT; i++) {
+			freeBuffers.add(ByteBuffer.allocateDirect(bufferSize));
+		}
+		buffer = ByteBuffer.allocateDirect(bufferSize);
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+
+				writeBuffers();
+			}
+		}, "VCD writer " + netlist.getCircuitID());
+		writer.setDaemon(true);
+		writer.start();
+
+		writeDeclarations(top);
+		LOG.debug("Recording " + recordedNets.length + " nets of "
+				+ netlist.getCircuitID() + ".");
+	}
+
+	/**
+	 * Follows all connections from the inputs of the circuit and collects the
+	 * names of all nets in the scopes of the compound blocks they belong to.
+	 */
+	private static Scope collectScopes(final CompoundBlock circuit,
+			final Netlist netlist) {
+
+		final Map<Block, Integer> gates = new IdentityHashMap<Block, Integer>();
+		for (int g = netlist.countGates() - 1; g >= 0; g--) {
+			gates.put(netlist.getGate(g), netlist.gateOutputNets()[g]);
+		}
+		final Map<Block, Integer> registers = new IdentityHashMap<Block, Integer>();
+		for (int r = 0; r < netlist.countRegisters(); r++) {
+			registers.put(netlist.getRegister(r), r);
+		}
+
+		final Scope top = new Scope(circuit.getBlockID());
+		final Map<Block, Scope> scopes = new IdentityHashMap<Block, Scope>();
+		final Map<Block, Scope> parents = new IdentityHashMap<Block, Scope>();
+		final Map<Output, Integer> nets = new IdentityHashMap<Output, Integer>();
+		final Map<Output, Scope> outputScopes = new IdentityHashMap<Output, Scope>();
+		final Deque<Output> pending = new ArrayDeque<Output>();
+		final boolean[] named = new boolean[netlist.countNets()];
+
+		for (int i = 0; i < netlist.countInputs(); i++) {
+			final Output o = circuit.internalInput(netlist.getInputID(i));
+			nets.put(o, netlist.getInputNet(i));
+			outputScopes.put(o, top);
+			pending.add(o);
+			top.add(netlist.getInputID(i), netlist.getInputNet(i));
+		}
+
+		while (!pending.isEmpty()) {
+			final Output o = pending.poll();
+			final int net = nets.get(o);
+			final Scope scope = outputScopes.get(o);
+			named[net] = true;
+
+			for (Input nextHop : o.listNextHops()) {
+				final Block owner = nextHop.getOwnerBlock();
+				final String id = nextHop.getSignalID();
+				Output next = null;
+				Scope nextScope = scope;
+				int nextNet = net;
+
+				if (owner instanceof CompoundBlock) {
+					final CompoundBlock compound = (CompoundBlock) owner;
+					if (!compound.isInternalOutput(nextHop)) {
+						Scope inner = scopes.get(compound);
+						if (inner == null) {
+							inner = new Scope(compound.getBlockID());
+							scopes.put(compound, inner);
+							parents.put(compound, scope);
+							scope.children.add(inner);
+						}
+						inner.add(id, net);
+						next = compound.internalInput(id);
+						nextScope = inner;
+					} else if (compound != circuit) {
+						scopes.get(compound).add(id, net);
+						next = compound.output(id);
+						nextScope = parents.get(compound);
+					} else {
+						top.add(id, net);
+					}
+
+				} else if (owner instanceof BaseBlock) {
+					final Integer gateNet = gates.get(owner);
+					if (gateNet == null) {
+						throw new IllegalArgumentException(
+								"Netlist was not compiled from circuit.");
+					}
+					next = owner.output(0);
+					nextNet = gateNet;
+					if (!nets.containsKey(next)) {
+						scope.add(owner.getBlockID(), nextNet);
+					}
+
+				} else if (owner instanceof Register) {
+					final Integer register = registers.get(owner);
+					if (register == null) {
+						throw new IllegalArgumentException(
+								"Netlist was not compiled from circuit.");
+					}
+					if (!nets.containsKey(owner.output(0))) {
+						for (int k = 0; k < owner.countOutputs(); k++) {
+							final Output q = owner.output(k);
+							final int bit = netlist.getRegisterNet(register, k);
+							scope.add(owner.getBlockID() + "."
+									+ q.getSignalID(), bit);
+							nets.put(q, bit);
+							outputScopes.put(q, scope);
+							pending.add(q);
+						}
+					}
+				}
+
+				if (next != null && !nets.containsKey(next)) {
+					nets.put(next, nextNet);
+					outputScopes.put(next, nextScope);
+					pending.add(next);
+				}
+			}
+		}
+
+		// gates and registers of circuit instances are not reachable by their
+		// blocks
+		for (int g = 0; g < netlist.countGates(); g++) {
+			final int net = netlist.gateOutputNets()[g];
+			if (!named[net]) {
+				named[net] = true;
+				top.add(netlist.getGate(g).getBlockID() + "." + net, net);
+			}
+		}
+		for (int r = 0; r < netlist.countRegisters(); r++) {
+			final Register register = netlist.getRegister(r);
+			for (int k = 0; k < register.getWidth(); k++) {
+				final int net = netlist.getRegisterNet(r, k);
+				if (!named[net]) {
+					named[net] = true;
+					top.add(register.getBlockID() + "." + net, net);
+				}
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * Gives every net declared in a scope or its children an identifier code
+	 * in the order of declaration.
+	 */
+	private void assignCodes(final Scope scope, final List<Integer> nets) {
+
+		for (int net : scope.nets) {
+			if (codes[net] == null) {
+				codes[net] = code(nets.size());
+				nets.add(net);
+			}
+		}
+		for (Scope child : scope.children) {
+			assignCodes(child, nets);
+		}
+	}
+
+	/**
+	 * Returns the identifier code for a number as digits of printable
+	 * characters, least significant digit first.
+	 */
+	private static byte[] code(final int number) {
+
+		int length = 1;
+		for (int n = number / CODE_CHARS; n > 0; n /= CODE_CHARS) {
+			length++;
+		}
+		final byte[] code = new byte[length];
+		int n = number;
+		for (int i = 0; i < length; i++) {
+			code[i] = (byte) (FIRST_CODE_CHAR + n % CODE_CHARS);
+			n /= CODE_CHARS;
+		}
+		return code;
+	}
+
+	private void writeDeclarations(final Scope top) {
+
+		writeText("$version Schaltwerk $end\n");
+		writeText("$timescale 1 ns $end\n");
+		writeScope(top);
+		writeText("$enddefinitions $end\n");
+	}
+
+	private void writeScope(final Scope scope) {
+
+		writeText("$scope module " + reference(scope.name) + " $end\n");
+		for (int i = 0; i < scope.names.size(); i++) {
+			final byte[] code = codes[scope.nets.get(i)];
+			writeText("$var wire 1 "
+					+ new String(code, StandardCharsets.US_ASCII) + " "
+					+ reference(scope.names.get(i)) + " $end\n");
+		}
+		for (Scope child : scope.children) {
+			writeScope(child);
+		}
+		writeText("$upscope $end\n");
+	}
+
+	/**
+	 * Replaces all characters that are not allowed in a reference of a VCD
+	 * file by underscores.
+	 */
+	private static String reference(final String name) {
+
+		final StringBuilder reference = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			reference.append(c > ' ' && c < 127 ? c : '_');
+		}
+		return reference.toString();
+	}
+
+	@Override
+	public void valueChanged(final long time, final int net,
+			final Signals value) {
+
+		if (codes[net] == null) {
+			return;
+		}
+		writeTime(time);
+		writeValue(net, value);
+	}
+
+	/**
+	 * Records all nets whose values differ from the values recorded last.
+	 * The first call records the values of all nets.
+	 * 
+	 * @param time
+	 *            current simulation time
+	 * @param store
+	 *            store holding values of all nets, e.g. the store of a
+	 *            simulator
+	 * @throws IllegalArgumentException
+	 *             if time is before the time of the last change
+	 */
+	public void sample(final long time, final SignalStore store) {
+
+		final boolean first = this.time < 0;
+		writeTime(time);
+		if (first) {
+			writeText("$dumpvars\n");
+		}
+		for (int net : recordedNets) {
+			final Signals value = store.getSignalValue(net);
+			if (lastValues[net] != character(value)) {
+				writeValue(net, value);
+			}
+		}
+		if (first) {
+			writeText("$end\n");
+		}
+	}
+
+	private void writeTime(final long time) {
+
+		if (time == this.time) {
+			return;
+		}
+		if (time < this.time) {
+			throw new IllegalArgumentException(
+					"Changes have to be recorded in order of time.");
+		}
+		this.time = time;
+		ensureRemaining(MAX_LINE);
+		buffer.put((byte) '#');
+		putDecimal(time);
+		buffer.put((byte) '\n');
+	}
+
+	private void writeValue(final int net, final Signals value) {
+
+		final byte[] code = codes[net];
+		ensureRemaining(code.length + 2);
+		lastValues[net] = character(value);
+		buffer.put(lastValues[net]);
+		buffer.put(code);
+		buffer.put((byte) '\n');
+		changes++;
+	}
+
+	private static byte character(final Signals value) {
+
+		switch (value) {
+		case ONE:
+			return '1';
+		case ZERO:
+			return '0';
+		case Z:
+			return 'z';
+		default:
+			return 'x';
+		}
+	}
+
+	private void putDecimal(final long value) {
+
+		long divisor = 1;
+		while (value / divisor >= 10) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			buffer.put((byte) ('0' + value / divisor % 10));
+		}
+	}
+
+	private void writeText(final String text) {
+
+		for (int i = 0; i < text.length(); i++) {
+			ensureRemaining(1);
+			buffer.put((byte) text.charAt(i));
+		}
+	}
+
+	/**
+	 * Hands the current buffer to the writer thread if it has not enough space
+	 * left and waits for a free buffer.
+	 */
+	private void ensureRemaining(final int bytes) {
+
+		if (closed) {
+			throw new IllegalStateException("Recorder is already closed.");
+		}
+		if (buffer != null && buffer.remaining() >= bytes) {
+			return;
+		}
+		if (buffer == null || failure != null) {
+			throw new IllegalStateException("Writing value change dump failed.",
+					failure);
+		}
+		buffer.flip();
+		try {
+			fullBuffers.put(buffer);
+			buffer = null;
+			while (buffer == null) {
+				buffer = freeBuffers.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				if (buffer == null && !writer.isAlive()) {
+					throw new IllegalStateException(
+							"Writer thread of value change dump stopped.",
+							failure);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(
+					"Interrupted while waiting for a free buffer.", e);
+		}
+	}
+
+	/**
+	 * Writes full buffers to the channel until the recorder is closed. After
+	 * an error or an interrupt all further buffers are dropped, but still
+	 * returned, so the simulation is never blocked by a failed channel.
+	 */
+	private void writeBuffers() {
+
+		while (true) {
+			final ByteBuffer full;
+			try {
+				full = fullBuffers.take();
+			} catch (InterruptedException e) {
+				fail(new IOException("Writer thread was interrupted.", e));
+				continue;
+			}
+			if (full == END) {
+				return;
+			}
+			try {
+				while (failure == null && full.hasRemaining()) {
+					channel.write(full);
+				}
+			} catch (IOException e) {
+				fail(e);
+			} catch (RuntimeException e) {
+				fail(new IOException("Writing value change dump failed.", e));
+			}
+			full.clear();
+			freeBuffers.add(full);
+		}
+	}
+
+	/**
+	 * Remembers the first error of the writer thread.
+	 */
+	private void fail(final IOException e) {
+
+		LOG.debug("Writing value change dump failed: " + e);
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Writes all remaining changes to the channel and stops the writer thread.
+	 * The channel itself is not closed.
+	 * 
+	 * @throws IOException
+	 *             if the dump could not be written to the channel
+	 */
+	@Override
+	public void close() throws IOException {
+
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			// buffer is missing, if the writer thread stopped before
+			if (buffer != null) {
+				buffer.flip();
+				fullBuffers.put(buffer);
+			}
+			fullBuffers.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing dump.", e);
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		if (buffer == null) {
+			throw new IOException("Writer thread of value change dump stopped.");
+		}
+	}
+
+	/**
+	 * Returns number of recorded value changes.
+	 * 
+	 * @return number of value changes
+	 */
+	public long countChanges() {
+
+		return changes;
+	}
+
+	/**
+	 * Returns number of nets declared in the dump.
+	 * 
+	 * @return number of recorded nets
+	 */
+	public int countRecordedNets() {
+
+		return recordedNets.length;
+	}
+}
@@ -0,0 +1,356 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import de.ichmann.java.schaltwerk.blocks.Signals;
+
+/**
+ * Gives random access to the value changes of all nets recorded by a
+ * <code>WaveformWriter</code>. Only the index of the file is mapped into
+ * memory. It holds the first time, position and length of every block of
+ * changes, sorted by net and time. The value of a net at any point in time is
+ * found by a binary search over the blocks of the net and reading a single
+ * block, so looking at a few nets of a large recording never reads the
+ * changes of all other nets.
+ * <p>
+ * The last block read is kept decoded, so stepping through the changes of a
+ * net reads every block only once. Before its first recorded change, the
+ * value of a net is X. This class is not thread safe.
+ * <p>
+ * A file starts with magic number, version and number of nets. The blocks of
+ * changes follow. The index at the end of the file contains the number of
+ * the first block of every net and an entry of first time, position, length
+ * and number of changes for every block. It is followed by the position of
+ * the index, the time of the last change, the number of blocks and the magic
+ * number again. All numbers are written in big-endian byte order.
+ * 
+ * @author Christian Wichmann
+ */
+public final class WaveformDatabase {
+
+	/**
+	 * Magic number at the start and the end of every file ("SWWF").
+	 */
+	public static final int MAGIC = 0x53575746;
+
+	/**
+	 * Version of the file format.
+	 */
+	public static final int VERSION = 1;
+
+	static final int ENTRY_SIZE = 24;
+	static final byte NO_VALUE = -1;
+
+	private static final int HEADER_SIZE = 12;
+	private static final Signals[] VALUES = { Signals.ZERO, Signals.ONE,
+			Signals.X, Signals.Z };
+
+	private final FileChannel channel;
+	private final int netCount;
+	private final long endTime;
+	private final int blockCount;
+	private final MappedByteBuffer index;
+	private final int entryStart;
+
+	private int cachedBlock = -1;
+	private int cachedCount = 0;
+	private long[] cachedTimes = new long[0];
+	private byte[] cachedValues = new byte[0];
+	private ByteBuffer blockBuffer = ByteBuffer.allocate(0);
+
+	/**
+	 * Opens a waveform file and maps its index into memory.
+	 * 
+	 * @param channel
+	 *            channel of a file written by <code>WaveformWriter</code>
+	 * @throws IOException
+	 *             if file could not be read or is not a waveform file
+	 */
+	public WaveformDatabase(final FileChannel channel) throws IOException {
+
+		this.channel = channel;
+		final long size = channel.size();
+		if (size < HEADER_SIZE + ENTRY_SIZE) {
+			throw new IOException("File is not a waveform file.");
+		}
+
+		final ByteBuffer header = read(0, HEADER_SIZE);
+		if (header.getInt() != MAGIC) {
+			throw new IOException("File is not a waveform file.");
+		}
+		final int version = header.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported waveform version " + version
+					+ ".");
+		}
+		netCount = header.getInt();
+
+		final ByteBuffer trailer = read(size - ENTRY_SIZE, ENTRY_SIZE);
+		final long indexOffset = trailer.getLong();
+		endTime = trailer.getLong();
+		blockCount = trailer.getInt();
+		entryStart = 4 * (netCount + 1);
+		final long indexSize = entryStart + (long) ENTRY_SIZE * blockCount;
+		if (trailer.getInt() != MAGIC || netCount < 0 || blockCount < 0
+				|| indexOffset < HEADER_SIZE
+				|| indexOffset + indexSize != size - ENTRY_SIZE
+				|| indexSize > Integer.MAX_VALUE) {
+			throw new IOException("Waveform file is incomplete or corrupted.");
+		}
+		index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset,
+				indexSize);
+	}
+
+	/**
+	 * Returns code of a signal value used in blocks of changes.
+	 */
+	static byte code(final Signals value) {
+
+		switch (value) {
+		case ZERO:
+			return 0;
+		case ONE:
+			return 1;
+		case X:
+			return 2;
+		default:
+			return 3;
+		}
+	}
+
+	/**
+	 * Gets the value of a net at a point in time, including all changes at
+	 * exactly that time.
+	 * 
+	 * @param net
+	 *            id of net
+	 * @param time
+	 *            point in time
+	 * @return value of net, X before the first change of the net
+	 * @throws IOException
+	 *             if a block could not be read
+	 */
+	public Signals getValue(final int net, final long time) throws IOException {
+
+		final int block = findBlock(net, time);
+		if (block < 0) {
+			return Signals.X;
+		}
+		decode(block);
+
+		// the block starts at or before time, so its first change counts
+		int low = 1;
+		int high = cachedCount - 1;
+		int found = 0;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			if (cachedTimes[middle] <= time) {
+				found = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return VALUES[cachedValues[found]];
+	}
+
+	/**
+	 * Gets the time of the first change of a net after a point in time.
+	 * 
+	 * @param net
+	 *            id of net
+	 * @param time
+	 *            point in time
+	 * @return time of next change or -1, if the net does not change anymore
+	 * @throws IOException
+	 *             if a block could not be read
+	 */
+	public long nextChange(final int net, final long time) throws IOException {
+
+		final int first = Math.max(findBlock(net, time), index.getInt(4 * net));
+		final int last = index.getInt(4 * (net + 1));
+		for (int block = first; block < last; block++) {
+			decode(block);
+			for (int c = 0; c < cachedCount; c++) {
+				if (cachedTimes[c] > time) {
+					return cachedTimes[c];
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the number of changes of a net.
+	 * 
+	 * @param net
+	 *            id of net
+	 * @return number of changes
+	 */
+	public long countChanges(final int net) {
+
+		checkNet(net);
+		long count = 0;
+		final int last = index.getInt(4 * (net + 1));
+		for (int block = index.getInt(4 * net); block < last; block++) {
+			count += index.getInt(entry(block) + 20);
+		}
+		return count;
+	}
+
+	/**
+	 * Searches the last block of a net starting at or before a point in
+	 * time.
+	 * 
+	 * @return number of block or -1, if net has not changed before
+	 */
+	private int findBlock(final int net, final long time) {
+
+		checkNet(net);
+		int low = index.getInt(4 * net);
+		int high = index.getInt(4 * (net + 1)) - 1;
+		int found = -1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			if (index.getLong(entry(middle)) <= time) {
+				found = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return found;
+	}
+
+	private void checkNet(final int net) {
+
+		if (net < 0 || net >= netCount) {
+			throw new IllegalArgumentException("Net " + net
+					+ " is not part of the waveform.");
+		}
+	}
+
+	private int entry(final int block) {
+
+		return entryStart + ENTRY_SIZE * block;
+	}
+
+	/**
+	 * Reads and decodes a block of changes, if it is not the cached block.
+	 */
+	private void decode(final int block) throws IOException {
+
+		if (block == cachedBlock) {
+			return;
+		}
+		final int entry = entry(block);
+		long time = index.getLong(entry);
+		final long offset = index.getLong(entry + 8);
+		final int length = index.getInt(entry + 16);
+		final int count = index.getInt(entry + 20);
+
+		if (blockBuffer.capacity() < length) {
+			blockBuffer = ByteBuffer.allocate(length);
+		}
+		blockBuffer.clear().limit(length);
+		readFully(blockBuffer, offset);
+		blockBuffer.flip();
+		if (cachedTimes.length < count) {
+			cachedTimes = new long[count];
+			cachedValues = new byte[count];
+		}
+
+		cachedBlock = -1;
+		for (int c = 0; c < count; c++) {
+			long change = 0;
+			int shift = 0;
+			byte b;
+			do {
+				if (!blockBuffer.hasRemaining() || shift > 63) {
+					throw new IOException("Waveform block is corrupted.");
+				}
+				b = blockBuffer.get();
+				change |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			time += change >>> 2;
+			cachedTimes[c] = time;
+			cachedValues[c] = (byte) (change & 3);
+		}
+		cachedCount = count;
+		cachedBlock = block;
+	}
+
+	private ByteBuffer read(final long offset, final int length)
+			throws IOException {
+
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		readFully(buffer, offset);
+		buffer.flip();
+		return buffer;
+	}
+
+	private void readFully(final ByteBuffer buffer, final long offset)
+			throws IOException {
+
+		long position = offset;
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of waveform file.");
+			}
+			position += read;
+		}
+	}
+
+	/**
+	 * Returns number of nets in the waveform.
+	 * 
+	 * @return number of nets
+	 */
+	public int countNets() {
+
+		return netCount;
+	}
+
+	/**
+	 * Returns number of blocks of changes in the waveform.
+	 * 
+	 * @return number of blocks
+	 */
+	public int countBlocks() {
+
+		return blockCount;
+	}
+
+	/**
+	 * Gets time of the last recording.
+	 * 
+	 * @return time of last change or sample
+	 */
+	public long getEndTime() {
+
+		return endTime;
+	}
+}
@@ -0,0 +1,422 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk.simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ichmann.java.schaltwerk.blocks.SignalStore;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+
+/**
+ * Records all changes of the nets of a simulation into a file that can be
+ * read by <code>WaveformDatabase</code>. Like <code>VCDRecorder</code> the
+ * writer is registered as <code>NetChangeListener</code> at a
+ * <code>TimingSimulator</code> or samples the nets of any other simulator by
+ * <code>sample()</code>.
+ * <p>
+ * Changes are stored column by column: every net collects its changes in a
+ * block of its own. A change is written as variable length integer holding
+ * the time since the previous change of the block and the new value. When a
+ * block is full, it is appended to the file and its first time, position and
+ * length are remembered for the index. Blocks start small and grow up to the
+ * block size, so nets that rarely change need little memory. The index is
+ * written to the end of the file when the writer is closed.
+ * <p>
+ * All blocks together never hold more bytes than the buffer size. When a
+ * block has to grow beyond it, the largest blocks are appended to the file
+ * early, until only half of the buffer size is used, and their memory is
+ * released. So besides the buffer size the heap only holds the index
+ * entries, that need 24 bytes for every written block, no matter how many
+ * nets change.
+ * 
+ * @author Christian Wichmann
+ */
+public final class WaveformWriter implements NetChangeListener, Closeable {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(WaveformWriter.class);
+
+	/**
+	 * Default size of a block in bytes.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+	/**
+	 * Default maximum number of bytes held by all blocks together.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 16 << 20;
+
+	private static final int FIRST_BLOCK_SIZE = 32;
+	private static final int MAX_CHANGE_SIZE = 10;
+	private static final int OUTPUT_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final int netCount;
+	private final int blockSize;
+	private final long bufferSize;
+
+	private final byte[][] blocks;
+	private final int[] blockLengths;
+	private final int[] blockCounts;
+	private final long[] firstTimes;
+	private final long[] lastTimes;
+	private final byte[] lastValues;
+
+	private int entryCount = 0;
+	private int[] entryNets = new int[256];
+	private long[] entryTimes = new long[256];
+	private long[] entryOffsets = new long[256];
+	private int[] entryLengths = new int[256];
+	private int[] entryChanges = new int[256];
+
+	private final ByteBuffer output;
+	private long bufferedBytes = 0;
+	private long position;
+	private long time = 0;
+	private long changes = 0;
+	private boolean closed = false;
+
+	/**
+	 * Initializes a writer with the default block size for all nets of a
+	 * netlist and writes the file header.
+	 * 
+	 * @param netlist
+	 *            netlist of the simulation to record
+	 * @param channel
+	 *            channel of an empty file
+	 * @throws IOException
+	 *             if header could not be written
+	 */
+	public WaveformWriter(final Netlist netlist, final FileChannel channel)
+			throws IOException {
+
+		this(netlist.countNets(), channel, DEFAULT_BLOCK_SIZE,
+				DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Initializes a writer for a number of nets and writes the file header.
+	 * 
+	 * @param netCount
+	 *            number of nets
+	 * @param channel
+	 *            channel of an empty file
+	 * @param blockSize
+	 *            maximum size of a block in bytes
+	 * @param bufferSize
+	 *            maximum number of bytes held by all blocks together
+	 * @throws IOException
+	 *             if header could not be written
+	 * @throws IllegalArgumentException
+	 *             if block size is too small or buffer size is smaller than
+	 *             two blocks
+	 */
+	public WaveformWriter(final int netCount, final FileChannel channel,
+			final int blockSize, final long bufferSize) throws IOException {
+
+		if (blockSize < FIRST_BLOCK_SIZE) {
+			throw new IllegalArgumentException("Block size has to be at least "
+					+ FIRST_BLOCK_SIZE + " bytes.");
+		}
+		if (bufferSize < 2 * blockSize) {
+			throw new IllegalArgumentException(
+					"Buffer size has to hold at least two blocks.");
+		}
+		this.channel = channel;
+		this.netCount = netCount;
+		this.blockSize = blockSize;
+		this.bufferSize = bufferSize;
+
+		blocks = new byte[netCount][];
+		blockLengths = new int[netCount];
+		blockCounts = new int[netCount];
+		firstTimes = new long[netCount];
+		lastTimes = new long[netCount];
+		lastValues = new byte[netCount];
+		Arrays.fill(lastValues, WaveformDatabase.NO_VALUE);
+
+		position = channel.position();
+		output = ByteBuffer.allocateDirect(OUTPUT_SIZE);
+		output.putInt(WaveformDatabase.MAGIC);
+		output.putInt(WaveformDatabase.VERSION);
+		output.putInt(netCount);
+		position += output.position();
+	}
+
+	@Override
+	public void valueChanged(final long time, final int net,
+			final Signals value) {
+
+		checkTime(time);
+		record(net, WaveformDatabase.code(value));
+	}
+
+	/**
+	 * Records all nets whose values differ from the values recorded last.
+	 * The first call records the values of all nets.
+	 * 
+	 * @param time
+	 *            current simulation time
+	 * @param store
+	 *            store holding values of all nets, e.g. the store of a
+	 *            simulator
+	 * @throws IllegalArgumentException
+	 *             if time is before the time of the last change
+	 */
+	public void sample(final long time, final SignalStore store) {
+
+		checkTime(time);
+		for (int net = 0; net < netCount; net++) {
+			final byte code = WaveformDatabase.code(store.getSignalValue(net));
+			if (lastValues[net] != code) {
+				record(net, code);
+			}
+		}
+	}
+
+	private void checkTime(final long time) {
+
+		if (closed) {
+			throw new IllegalStateException("Writer is already closed.");
+		}
+		if (time < this.time) {
+			throw new IllegalArgumentException(
+					"Changes have to be recorded in order of time.");
+		}
+		this.time = time;
+	}
+
+	/**
+	 * Appends a change at the current time to the block of a net. A full
+	 * block is written to the file first.
+	 */
+	private void record(final int net, final byte code) {
+
+		byte[] block = blocks[net];
+		if (block == null) {
+			reserve(FIRST_BLOCK_SIZE);
+			block = new byte[FIRST_BLOCK_SIZE];
+			blocks[net] = block;
+		} else if (blockLengths[net] + MAX_CHANGE_SIZE > block.length) {
+			if (block.length < blockSize) {
+				final int capacity = Math.min(2 * block.length, blockSize);
+				reserve(capacity - block.length);
+				if (blocks[net] == null) {
+					// block was written to make room, so it starts empty
+					bufferedBytes += block.length;
+					block = new byte[capacity];
+				} else {
+					block = Arrays.copyOf(block, capacity);
+				}
+				blocks[net] = block;
+			} else {
+				flushBlock(net);
+			}
+		}
+
+		if (blockCounts[net] == 0) {
+			firstTimes[net] = time;
+			lastTimes[net] = time;
+		}
+		long change = (time - lastTimes[net]) << 2 | code;
+		int length = blockLengths[net];
+		while ((change & ~0x7FL) != 0) {
+			block[length++] = (byte) (change & 0x7F | 0x80);
+			change >>>= 7;
+		}
+		block[length++] = (byte) change;
+		blockLengths[net] = length;
+		blockCounts[net]++;
+		lastTimes[net] = time;
+		lastValues[net] = code;
+		changes++;
+	}
+
+	/**
+	 * Makes room for more bytes in the blocks. If the buffer size would be
+	 * exceeded, the largest blocks are written and released until only half
+	 * of the buffer size is used.
+	 */
+	private void reserve(final int bytes) {
+
+		if (bufferedBytes + bytes > bufferSize) {
+			final long[] sizes = new long[netCount];
+			int count = 0;
+			for (int net = 0; net < netCount; net++) {
+				if (blocks[net] != null) {
+					// sort by size, the net is kept in the lower bits
+					sizes[count++] = (long) blocks[net].length << 32 | net;
+				}
+			}
+			Arrays.sort(sizes, 0, count);
+			for (int i = count - 1; i >= 0
+					&& bufferedBytes + bytes > bufferSize / 2; i--) {
+				final int net = (int) sizes[i];
+				if (blockCounts[net] > 0) {
+					flushBlock(net);
+				}
+				bufferedBytes -= blocks[net].length;
+				blocks[net] = null;
+			}
+			LOG.trace("Wrote blocks early, " + bufferedBytes
+					+ " bytes are buffered.");
+		}
+		bufferedBytes += bytes;
+	}
+
+	/**
+	 * Appends the block of a net to the file and adds an entry to the index.
+	 */
+	private void flushBlock(final int net) {
+
+		if (entryCount == entryNets.length) {
+			final int capacity = 2 * entryCount;
+			entryNets = Arrays.copyOf(entryNets, capacity);
+			entryTimes = Arrays.copyOf(entryTimes, capacity);
+			entryOffsets = Arrays.copyOf(entryOffsets, capacity);
+			entryLengths = Arrays.copyOf(entryLengths, capacity);
+			entryChanges = Arrays.copyOf(entryChanges, capacity);
+		}
+		entryNets[entryCount] = net;
+		entryTimes[entryCount] = firstTimes[net];
+		entryOffsets[entryCount] = position;
+		entryLengths[entryCount] = blockLengths[net];
+		entryChanges[entryCount] = blockCounts[net];
+		entryCount++;
+
+		try {
+			put(blocks[net], blockLengths[net]);
+		} catch (IOException e) {
+			throw new IllegalStateException("Writing waveform failed.", e);
+		}
+		blockLengths[net] = 0;
+		blockCounts[net] = 0;
+	}
+
+	private void put(final byte[] bytes, final int length) throws IOException {
+
+		int offset = 0;
+		while (offset < length) {
+			if (!output.hasRemaining()) {
+				drain();
+			}
+			final int count = Math.min(length - offset, output.remaining());
+			output.put(bytes, offset, count);
+			offset += count;
+		}
+		position += length;
+	}
+
+	private void drain() throws IOException {
+
+		output.flip();
+		while (output.hasRemaining()) {
+			channel.write(output);
+		}
+		output.clear();
+	}
+
+	/**
+	 * Writes all remaining blocks and the index to the file. The channel
+	 * itself is not closed.
+	 * 
+	 * @throws IOException
+	 *             if waveform could not be written
+	 */
+	@Override
+	public void close() throws IOException {
+
+		if (closed) {
+			return;
+		}
+		for (int net = 0; net < netCount; net++) {
+			if (blockCounts[net] > 0) {
+				flushBlock(net);
+			}
+		}
+		closed = true;
+
+		// sort entries by net, entries of a net are already sorted by time
+		final int[] blockStart = new int[netCount + 1];
+		for (int e = 0; e < entryCount; e++) {
+			blockStart[entryNets[e] + 1]++;
+		}
+		for (int net = 0; net < netCount; net++) {
+			blockStart[net + 1] += blockStart[net];
+		}
+		final int[] order = new int[entryCount];
+		final int[] next = Arrays.copyOf(blockStart, netCount);
+		for (int e = 0; e < entryCount; e++) {
+			order[next[entryNets[e]]++] = e;
+		}
+
+		final long indexOffset = position;
+		final ByteBuffer bytes = ByteBuffer
+				.allocate(WaveformDatabase.ENTRY_SIZE);
+		for (int net = 0; net <= netCount; net++) {
+			bytes.clear();
+			bytes.putInt(blockStart[net]);
+			put(bytes.array(), bytes.position());
+		}
+		for (int e : order) {
+			bytes.clear();
+			bytes.putLong(entryTimes[e]);
+			bytes.putLong(entryOffsets[e]);
+			bytes.putInt(entryLengths[e]);
+			bytes.putInt(entryChanges[e]);
+			put(bytes.array(), bytes.position());
+		}
+		bytes.clear();
+		bytes.putLong(indexOffset);
+		bytes.putLong(time);
+		bytes.putInt(entryCount);
+		bytes.putInt(WaveformDatabase.MAGIC);
+		put(bytes.array(), bytes.position());
+		drain();
+
+		LOG.debug("Wrote " + changes + " changes in " + entryCount
+				+ " blocks with " + position + " bytes.");
+	}
+
+	/**
+	 * Returns number of bytes currently held by the blocks of all nets.
+	 * 
+	 * @return number of buffered bytes, never more than the buffer size
+	 */
+	public long countBufferedBytes() {
+
+		return bufferedBytes;
+	}
+
+	/**
+	 * Returns number of recorded value changes.
+	 * 
+	 * @return number of value changes
+	 */
+	public long countChanges() {
+
+		return changes;
+	}
+}
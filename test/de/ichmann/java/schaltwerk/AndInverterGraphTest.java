@@ -0,0 +1,197 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NAND;
+import de.ichmann.java.schaltwerk.blocks.NOR;
+import de.ichmann.java.schaltwerk.blocks.NOT;
+import de.ichmann.java.schaltwerk.blocks.OR;
+import de.ichmann.java.schaltwerk.simulation.AndInverterGraph;
+import de.ichmann.java.schaltwerk.simulation.BitParallelSimulator;
+import de.ichmann.java.schaltwerk.simulation.TruthTable;
+
+/**
+ * Tests conversion of circuits into And-Inverter Graphs and back.
+ * 
+ * @author Christian Wichmann
+ */
+public class AndInverterGraphTest {
+
+	private CompoundBlock circuit;
+
+	/**
+	 * Sets up test environment by designing a circuit with four inputs and
+	 * the outputs !(1 & 2), !(2 | 3 | 4), (1 & 2) | !4, 1 & 2 & 3 and an
+	 * unconnected output.
+	 * 
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		circuit = new CompoundBlock("Circuit", 4, 5);
+		NAND nand = new NAND(2);
+		NOR nor = new NOR(3);
+		AND and = new AND(2);
+		NOT not = new NOT();
+		OR or = new OR(2);
+		AND and3 = new AND(3);
+		circuit.internalInput("1").connectTo(nand.input("1"));
+		circuit.internalInput("2").connectTo(nand.input("2"));
+		circuit.internalInput("2").connectTo(nor.input("1"));
+		circuit.internalInput("3").connectTo(nor.input("2"));
+		circuit.internalInput("4").connectTo(nor.input("3"));
+		circuit.internalInput("1").connectTo(and.input("1"));
+		circuit.internalInput("2").connectTo(and.input("2"));
+		circuit.internalInput("4").connectTo(not.input("1"));
+		and.output("1").connectTo(or.input("1"));
+		not.output("1").connectTo(or.input("2"));
+		circuit.internalInput("1").connectTo(and3.input("1"));
+		circuit.internalInput("2").connectTo(and3.input("2"));
+		circuit.internalInput("3").connectTo(and3.input("3"));
+		nand.output("1").connectTo(circuit.internalOutput("1"));
+		nor.output("1").connectTo(circuit.internalOutput("2"));
+		or.output("1").connectTo(circuit.internalOutput("3"));
+		and3.output("1").connectTo(circuit.internalOutput("4"));
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.AndInverterGraph#compile(de.ichmann.java.schaltwerk.blocks.CompoundBlock)}
+	 * .
+	 */
+	@Test
+	public final void testCompile() {
+
+		AndInverterGraph graph = AndInverterGraph.compile(circuit);
+		assertEquals("", 4, graph.countInputs());
+		assertEquals("", 5, graph.countOutputs());
+
+		// 1 & 2 is shared by NAND, AND and the first node of AND(3)
+		assertEquals("", 6, graph.countAnds());
+		assertEquals("", AndInverterGraph.not(graph.getOutput(0)),
+				graph.and(graph.getInput(0), graph.getInput(1)));
+		assertEquals("", AndInverterGraph.FALSE, graph.getOutput(4));
+
+		BitParallelSimulator simulator = new BitParallelSimulator(circuit);
+		Random random = new Random(7);
+		long[] inputs = new long[4];
+		long[] expected = new long[5];
+		long[] actual = new long[5];
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < inputs.length; i++) {
+				inputs[i] = random.nextLong();
+			}
+			simulator.evaluate(inputs, expected);
+			graph.evaluate(inputs, actual);
+			assertArrayEquals("", expected, actual);
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.AndInverterGraph#and(int, int)}
+	 * .
+	 */
+	@Test
+	public final void testAnd() {
+
+		AndInverterGraph graph = new AndInverterGraph("Graph", new String[] {
+				"a", "b" }, new String[] { "1" });
+		int a = graph.getInput(0);
+		int b = graph.getInput(1);
+
+		assertEquals("", AndInverterGraph.FALSE,
+				graph.and(a, AndInverterGraph.not(a)));
+		assertEquals("", AndInverterGraph.FALSE,
+				graph.and(a, AndInverterGraph.FALSE));
+		assertEquals("", a, graph.and(AndInverterGraph.TRUE, a));
+		assertEquals("", a, graph.and(a, a));
+		assertEquals("", 0, graph.countAnds());
+
+		int ab = graph.and(a, b);
+		assertEquals("", ab, graph.and(b, a));
+		assertEquals("", AndInverterGraph.not(graph.and(
+				AndInverterGraph.not(a), AndInverterGraph.not(b))), graph.or(
+				a, b));
+		assertEquals("", 2, graph.countAnds());
+		assertTrue("", graph.isAnd(AndInverterGraph.variable(ab)));
+		assertEquals("", a, graph.getFanin0(AndInverterGraph.variable(ab)));
+		assertEquals("", b, graph.getFanin1(AndInverterGraph.variable(ab)));
+
+		// many nodes force the hash table to grow
+		int last = ab;
+		for (int k = 0; k < 1000; k++) {
+			last = graph.and(last, (k & 1) == 0 ? a : AndInverterGraph.not(b));
+			last = AndInverterGraph.not(last);
+		}
+		int count = graph.countAnds();
+		last = ab;
+		for (int k = 0; k < 1000; k++) {
+			last = graph.and(last, (k & 1) == 0 ? a : AndInverterGraph.not(b));
+			last = AndInverterGraph.not(last);
+		}
+		assertEquals("", count, graph.countAnds());
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.AndInverterGraph#toCircuit()}
+	 * .
+	 */
+	@Test
+	public final void testToCircuit() {
+
+		AndInverterGraph graph = AndInverterGraph.compile(circuit);
+		graph.setOutput(4, AndInverterGraph.TRUE);
+		CompoundBlock converted = graph.toCircuit();
+
+		TruthTable expected = TruthTable.compute(circuit);
+		TruthTable actual = TruthTable.compute(converted);
+		for (int o = 0; o < 4; o++) {
+			for (int v = 0; v < expected.countVectors(); v++) {
+				assertEquals("", expected.get(o, v), actual.get(o, v));
+			}
+		}
+		assertEquals("", 16, actual.countOnes(4));
+	}
+
+	/**
+	 * Tests rejecting a graph without inputs whose output is constant ONE.
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.AndInverterGraph#toCircuit()}
+	 * .
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public final void testToCircuitWithoutInputs() {
+
+		AndInverterGraph graph = new AndInverterGraph("Constant",
+				new String[0], new String[] { "Q" });
+		graph.setOutput(0, AndInverterGraph.TRUE);
+		graph.toCircuit();
+	}
+}
@@ -0,0 +1,163 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.BlockFactory;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NOT;
+import de.ichmann.java.schaltwerk.blocks.Register;
+import de.ichmann.java.schaltwerk.simulation.BatchSimulator;
+
+/**
+ * Tests simulation of streams of packed vectors.
+ * 
+ * @author Christian Wichmann
+ */
+public class BatchSimulatorTest {
+
+	private static final int WIDTH = 10;
+
+	/**
+	 * Creates a circuit with outputs !in(i) and in(i) & in(i + 1).
+	 */
+	private CompoundBlock createCircuit() {
+
+		CompoundBlock circuit = new CompoundBlock("Circuit", WIDTH, 2 * WIDTH);
+		for (int i = 0; i < WIDTH; i++) {
+			NOT not = new NOT();
+			AND and = new AND(2);
+			String id = Integer.toString(i + 1);
+			circuit.internalInput(id).connectTo(not.input("1"));
+			circuit.internalInput(id).connectTo(and.input("1"));
+			circuit.internalInput(Integer.toString((i + 1) % WIDTH + 1))
+					.connectTo(and.input("2"));
+			not.output("1").connectTo(
+					circuit.internalOutput(Integer.toString(2 * i + 1)));
+			and.output("1").connectTo(
+					circuit.internalOutput(Integer.toString(2 * i + 2)));
+		}
+		return circuit;
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.BatchSimulator#simulate(java.nio.ByteBuffer, java.nio.ByteBuffer)}
+	 * .
+	 */
+	@Test
+	public final void testSimulateBuffer() {
+
+		BatchSimulator simulator = new BatchSimulator(createCircuit());
+		assertEquals("", 2, simulator.getInputBytes());
+		assertEquals("", 3, simulator.getOutputBytes());
+
+		final int vectors = 1 << WIDTH;
+		ByteBuffer inputs = ByteBuffer.allocate(2 * vectors);
+		for (int v = 0; v < vectors; v++) {
+			inputs.put((byte) v);
+			inputs.put((byte) (v >>> 8));
+		}
+		inputs.flip();
+		ByteBuffer outputs = ByteBuffer.allocate(3 * vectors);
+		assertEquals("", vectors, simulator.simulate(inputs, outputs));
+		assertFalse("", inputs.hasRemaining());
+		outputs.flip();
+
+		for (int v = 0; v < vectors; v++) {
+			int packed = outputs.get() & 0xff;
+			packed |= (outputs.get() & 0xff) << 8;
+			packed |= (outputs.get() & 0xff) << 16;
+			for (int i = 0; i < WIDTH; i++) {
+				boolean a = (v >>> i & 1) != 0;
+				boolean b = (v >>> ((i + 1) % WIDTH) & 1) != 0;
+				assertEquals("", !a, (packed >>> (2 * i) & 1) != 0);
+				assertEquals("", a && b, (packed >>> (2 * i + 1) & 1) != 0);
+			}
+		}
+	}
+
+	/**
+	 * Tests streaming of a sequential circuit between channels. Test method
+	 * for
+	 * {@link de.ichmann.java.schaltwerk.simulation.BatchSimulator#simulate(java.nio.channels.ReadableByteChannel, java.nio.channels.WritableByteChannel)}
+	 * .
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public final void testSimulateChannel() throws IOException {
+
+		BatchSimulator simulator = new BatchSimulator(BlockFactory
+				.getInstance().getRSFlipFLop(false));
+
+		// reset, hold, set, hold
+		byte[] stimuli = { 2, 0, 1, 0 };
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		long count = simulator.simulate(
+				Channels.newChannel(new ByteArrayInputStream(stimuli)),
+				Channels.newChannel(stream));
+
+		assertEquals("", 4, count);
+		byte[] results = stream.toByteArray();
+		assertEquals("", 4, results.length);
+		assertEquals("", 2, results[0]);
+		assertEquals("", 2, results[1]);
+		assertEquals("", 1, results[2]);
+		assertEquals("", 1, results[3]);
+	}
+
+	/**
+	 * Tests that registers are clocked once for every vector, so a shift
+	 * register delays its input by one vector per stage. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.BatchSimulator#simulate(java.nio.ByteBuffer, java.nio.ByteBuffer)}
+	 * .
+	 */
+	@Test
+	public final void testSimulateRegisters() {
+
+		CompoundBlock shift = new CompoundBlock("Shift", 1, 2);
+		Register first = BlockFactory.getInstance().getDFlipFlop();
+		Register second = BlockFactory.getInstance().getDFlipFlop();
+		shift.internalInput(0).connectTo(first.input("D"));
+		first.output("Q").connectTo(second.input("D"));
+		first.output("Q").connectTo(shift.internalOutput(0));
+		second.output("Q").connectTo(shift.internalOutput(1));
+
+		BatchSimulator simulator = new BatchSimulator(shift);
+		byte[] stimuli = { 1, 0, 0, 1, 1, 0 };
+		ByteBuffer outputs = ByteBuffer.allocate(stimuli.length);
+		assertEquals("", stimuli.length,
+				simulator.simulate(ByteBuffer.wrap(stimuli), outputs));
+
+		for (int k = 0; k < stimuli.length; k++) {
+			int previous = k > 0 ? stimuli[k - 1] : 0;
+			assertEquals("", stimuli[k] | previous << 1, outputs.get(k));
+		}
+	}
+}
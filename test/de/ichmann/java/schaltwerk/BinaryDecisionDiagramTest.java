@@ -0,0 +1,166 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NOR;
+import de.ichmann.java.schaltwerk.blocks.NOT;
+import de.ichmann.java.schaltwerk.blocks.Output;
+import de.ichmann.java.schaltwerk.simulation.BinaryDecisionDiagram;
+
+/**
+ * Tests binary decision diagrams built from circuits.
+ * 
+ * @author Christian Wichmann
+ */
+public class BinaryDecisionDiagramTest {
+
+	/**
+	 * Creates a 2-to-4 decoder from inverters and AND gates.
+	 */
+	private CompoundBlock createAndDecoder(final boolean swapped) {
+
+		CompoundBlock decoder = new CompoundBlock("DEC", 2, 4);
+		NOT[] inverted = { new NOT(), new NOT() };
+		Output[][] literals = new Output[2][2];
+		for (int i = 0; i < 2; i++) {
+			decoder.internalInput(i).connectTo(inverted[i].input(0));
+			literals[i][0] = inverted[i].output(0);
+			literals[i][1] = decoder.internalInput(i);
+		}
+		for (int y = 0; y < 4; y++) {
+			AND and = new AND(2);
+			literals[0][y & 1].connectTo(and.input(0));
+			literals[1][y >> 1].connectTo(and.input(1));
+			int output = swapped && (y == 1 || y == 2) ? 3 - y : y;
+			and.output(0).connectTo(decoder.internalOutput(output));
+		}
+		return decoder;
+	}
+
+	/**
+	 * Creates a 2-to-4 decoder from inverters and NOR gates.
+	 */
+	private CompoundBlock createNorDecoder() {
+
+		CompoundBlock decoder = new CompoundBlock("DEC", 2, 4);
+		NOT[] inverted = { new NOT(), new NOT() };
+		Output[][] literals = new Output[2][2];
+		for (int i = 0; i < 2; i++) {
+			decoder.internalInput(i).connectTo(inverted[i].input(0));
+			literals[i][0] = decoder.internalInput(i);
+			literals[i][1] = inverted[i].output(0);
+		}
+		for (int y = 0; y < 4; y++) {
+			NOR nor = new NOR(2);
+			literals[0][y & 1].connectTo(nor.input(0));
+			literals[1][y >> 1].connectTo(nor.input(1));
+			nor.output(0).connectTo(decoder.internalOutput(y));
+		}
+		return decoder;
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.BinaryDecisionDiagram#areEquivalent(CompoundBlock, CompoundBlock)}
+	 * .
+	 */
+	@Test
+	public final void testAreEquivalent() {
+
+		assertTrue("", BinaryDecisionDiagram.areEquivalent(
+				createAndDecoder(false), createNorDecoder()));
+		assertFalse("", BinaryDecisionDiagram.areEquivalent(
+				createAndDecoder(true), createNorDecoder()));
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.BinaryDecisionDiagram#build(CompoundBlock)}
+	 * .
+	 */
+	@Test
+	public final void testBuild() {
+
+		BinaryDecisionDiagram bdd = new BinaryDecisionDiagram(2);
+		int[] outputs = bdd.build(createNorDecoder());
+		assertEquals("", 4, outputs.length);
+		for (int y = 0; y < 4; y++) {
+			assertEquals("", 1, bdd.countSatisfying(outputs[y]));
+			for (int v = 0; v < 4; v++) {
+				boolean[] values = { (v & 1) != 0, (v & 2) != 0 };
+				assertEquals("", v == y, bdd.evaluate(outputs[y], values));
+			}
+		}
+
+		// unused variables double the number of satisfying assignments
+		BinaryDecisionDiagram wide = new BinaryDecisionDiagram(5);
+		int[] wideOutputs = wide.build(createAndDecoder(false));
+		assertEquals("", 8, wide.countSatisfying(wideOutputs[3]));
+		assertEquals("", 32, wide.countSatisfying(BinaryDecisionDiagram.TRUE));
+		assertEquals("", 24,
+				wide.countSatisfying(wide.not(wideOutputs[3])));
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.BinaryDecisionDiagram#sift(int[])}
+	 * .
+	 */
+	@Test
+	public final void testSift() {
+
+		// x0 x1 + x2 x3 + x4 x5 is exponential under a separated order
+		BinaryDecisionDiagram bdd = new BinaryDecisionDiagram(new int[] { 0,
+				2, 4, 1, 3, 5 });
+		int f = BinaryDecisionDiagram.FALSE;
+		for (int i = 0; i < 6; i += 2) {
+			f = bdd.or(f, bdd.and(bdd.variable(i), bdd.variable(i + 1)));
+		}
+		assertEquals("", 14, bdd.countNodes(f));
+		long count = bdd.countSatisfying(f);
+
+		// levels are swapped in place, so the root keeps its id
+		int sifted = bdd.sift(f)[0];
+		assertEquals("", f, sifted);
+		assertEquals("", 6, bdd.countNodes(sifted));
+		assertEquals("", 8, bdd.countAllocatedNodes());
+		assertEquals("", count, bdd.countSatisfying(sifted));
+		assertEquals("", sifted, bdd.or(bdd.and(bdd.variable(4),
+				bdd.variable(5)), bdd.or(bdd.and(bdd.variable(2),
+				bdd.variable(3)), bdd.and(bdd.variable(0), bdd.variable(1)))));
+
+		int[] reordered = bdd.reorder(new int[] { 5, 4, 3, 2, 1, 0 }, sifted);
+		assertEquals("", 6, bdd.countNodes(reordered));
+		assertEquals("", 5, bdd.getVariable(reordered[0]));
+		for (int v = 0; v < 64; v++) {
+			boolean[] values = new boolean[6];
+			for (int i = 0; i < 6; i++) {
+				values[i] = (v >>> i & 1) != 0;
+			}
+			boolean expected = values[0] && values[1] || values[2]
+					&& values[3] || values[4] && values[5];
+			assertEquals("", expected, bdd.evaluate(reordered[0], values));
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.BlockFactory;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NAND;
+import de.ichmann.java.schaltwerk.blocks.NOR;
+import de.ichmann.java.schaltwerk.blocks.NOT;
+import de.ichmann.java.schaltwerk.simulation.BitParallelSimulator;
+
+/**
+ * Tests bit parallel simulation of combinational compound blocks.
+ * 
+ * @author Christian Wichmann
+ */
+public class BitParallelSimulatorTest {
+
+	private CompoundBlock circuit;
+
+	/**
+	 * Sets up test environment by designing a circuit with three inputs and
+	 * the outputs !(1 & 2), !(2 | 3) and !(!(1 & 2) | 3).
+	 * 
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		circuit = new CompoundBlock("Circuit", 3, 3);
+		NAND nand = new NAND(2);
+		NOR nor1 = new NOR(2);
+		NOR nor2 = new NOR(2);
+		NOT not = new NOT();
+		circuit.internalInput("1").connectTo(nand.input("1"));
+		circuit.internalInput("2").connectTo(nand.input("2"));
+		circuit.internalInput("2").connectTo(nor1.input("1"));
+		circuit.internalInput("3").connectTo(nor1.input("2"));
+		circuit.internalInput("3").connectTo(nor2.input("2"));
+		nand.output("1").connectTo(nor2.input("1"));
+		nand.output("1").connectTo(circuit.internalOutput("1"));
+		nor1.output("1").connectTo(not.input("1"));
+		not.output("1").connectTo(circuit.internalOutput("2"));
+		nor2.output("1").connectTo(circuit.internalOutput("3"));
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.BitParallelSimulator#evaluate(long[])}
+	 * .
+	 */
+	@Test
+	public final void testEvaluate() {
+
+		BitParallelSimulator simulator = new BitParallelSimulator(circuit);
+
+		// vector k uses the lowest three bits of k as inputs
+		long[] inputs = new long[3];
+		for (int k = 0; k < BitParallelSimulator.VECTORS; k++) {
+			for (int i = 0; i < 3; i++) {
+				inputs[i] |= (long) (k >> i & 1) << k;
+			}
+		}
+		long[] outputs = simulator.evaluate(inputs);
+
+		for (int k = 0; k < BitParallelSimulator.VECTORS; k++) {
+			boolean a = (k & 1) != 0;
+			boolean b = (k & 2) != 0;
+			boolean c = (k & 4) != 0;
+			assertEquals("", !(a && b), (outputs[0] >>> k & 1) == 1);
+			assertEquals("", b || c, (outputs[1] >>> k & 1) == 1);
+			assertEquals("", !(!(a && b) || c), (outputs[2] >>> k & 1) == 1);
+		}
+	}
+
+	/**
+	 * Tests that circuits with feedback loops are rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public final void testFeedback() {
+
+		new BitParallelSimulator(BlockFactory.getInstance().getRSFlipFLop(
+				false));
+	}
+}
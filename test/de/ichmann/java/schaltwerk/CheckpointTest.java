@@ -0,0 +1,307 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.BlockFactory;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NOT;
+import de.ichmann.java.schaltwerk.blocks.Output;
+import de.ichmann.java.schaltwerk.blocks.Register;
+import de.ichmann.java.schaltwerk.blocks.SignalStore;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+import de.ichmann.java.schaltwerk.simulation.Checkpoint;
+import de.ichmann.java.schaltwerk.simulation.CycleSimulator;
+import de.ichmann.java.schaltwerk.simulation.Netlist;
+
+/**
+ * Tests saving and restoring the state of simulations with checkpoints.
+ * 
+ * @author Christian Wichmann
+ */
+public class CheckpointTest {
+
+	private static final int BITS = 8;
+
+	private Netlist netlist;
+
+	/**
+	 * Sets up test environment by compiling a ripple counter made of a
+	 * register and half adders built from AND and NOT gates.
+	 * 
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		List<String> inputs = new ArrayList<String>();
+		List<String> outputs = new ArrayList<String>();
+		inputs.add("INC");
+		for (int i = 0; i < BITS; i++) {
+			outputs.add("Q" + i);
+		}
+		CompoundBlock counter = new CompoundBlock("Counter", inputs, outputs);
+
+		Register register = BlockFactory.getInstance().getRegister(BITS,
+				false);
+		Output carry = counter.internalInput("INC");
+		for (int i = 0; i < BITS; i++) {
+			Output q = register.output(i);
+			AND and = new AND(2);
+			q.connectTo(and.input(0));
+			carry.connectTo(and.input(1));
+			xor(q, carry, and.output(0)).connectTo(register.input(i));
+			carry = and.output(0);
+			q.connectTo(counter.internalOutput("Q" + i));
+		}
+		netlist = Netlist.compile(counter);
+	}
+
+	private Output xor(Output a, Output b, Output and) {
+
+		// (a OR b) AND NOT (a AND b), with a OR b as NOT (NOT a AND NOT b)
+		NOT notA = new NOT();
+		NOT notB = new NOT();
+		NOT notAnd = new NOT();
+		NOT nor = new NOT();
+		AND neither = new AND(2);
+		AND result = new AND(2);
+		a.connectTo(notA.input(0));
+		b.connectTo(notB.input(0));
+		notA.output(0).connectTo(neither.input(0));
+		notB.output(0).connectTo(neither.input(1));
+		neither.output(0).connectTo(nor.input(0));
+		and.connectTo(notAnd.input(0));
+		nor.output(0).connectTo(result.input(0));
+		notAnd.output(0).connectTo(result.input(1));
+		return result.output(0);
+	}
+
+	private int value(CycleSimulator simulator) {
+
+		int value = 0;
+		for (int i = 0; i < BITS; i++) {
+			if (simulator.getOutput(i) == Signals.ONE) {
+				value |= 1 << i;
+			}
+		}
+		return value;
+	}
+
+	private CycleSimulator counting(int cycles) {
+
+		CycleSimulator simulator = new CycleSimulator(netlist);
+		simulator.setInput(0, Signals.ONE);
+		simulator.cycle(cycles);
+		return simulator;
+	}
+
+	/**
+	 * Tests continuing a simulation and other simulations of the same netlist
+	 * from a checkpoint. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.CycleSimulator#restore(Checkpoint)}
+	 * .
+	 */
+	@Test
+	public final void testRestore() {
+
+		CycleSimulator simulator = counting(5);
+		Checkpoint checkpoint = simulator.checkpoint();
+		assertEquals("", 5, checkpoint.getTime());
+		assertFalse("", checkpoint.isDelta());
+
+		simulator.cycle(7);
+		assertEquals("", 12, value(simulator));
+		simulator.restore(checkpoint);
+		assertEquals("", 5, simulator.countCycles());
+		assertEquals("", 5, value(simulator));
+		simulator.cycle();
+		assertEquals("", 6, value(simulator));
+
+		// fork a second run with different inputs from the same state
+		CycleSimulator fork = new CycleSimulator(netlist);
+		fork.restore(checkpoint);
+		fork.setInput(0, Signals.ZERO);
+		fork.cycle(10);
+		assertEquals("", 5, value(fork));
+		assertEquals("", 15, fork.countCycles());
+		assertEquals("", 6, value(simulator));
+	}
+
+	/**
+	 * Tests writing a full and a delta checkpoint to a file and reading them
+	 * again. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.Checkpoint#write(java.nio.channels.WritableByteChannel)}
+	 * .
+	 * 
+	 * @throws IOException
+	 *             if temporary file could not be written
+	 */
+	@Test
+	public final void testWriteDelta() throws IOException {
+
+		CycleSimulator simulator = counting(100);
+		Checkpoint full = simulator.checkpoint();
+		simulator.cycle(3);
+		Checkpoint delta = simulator.checkpoint(full);
+		assertTrue("", delta.isDelta());
+		assertSame("", full, delta.getBase());
+
+		File file = File.createTempFile("schaltwerk", ".checkpoint");
+		file.deleteOnExit();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		FileChannel channel = raf.getChannel();
+		try {
+			full.write(channel);
+			final long fullSize = channel.position();
+			delta.write(channel);
+			assertTrue("", channel.position() - fullSize < fullSize);
+
+			channel.position(0);
+			Checkpoint readFull = Checkpoint.read(channel);
+			Checkpoint readDelta = Checkpoint.read(channel, readFull);
+			assertEquals("", full.getFingerprint(), readFull.getFingerprint());
+			assertEquals("", delta.getFingerprint(),
+					readDelta.getFingerprint());
+			assertEquals("", 103, readDelta.getTime());
+
+			CycleSimulator restored = new CycleSimulator(netlist);
+			restored.restore(readDelta);
+			assertEquals("", 103, value(restored));
+			restored.restore(readFull);
+			assertEquals("", 100, value(restored));
+
+			channel.position(fullSize);
+			try {
+				Checkpoint.read(channel, readDelta);
+				fail("Delta should not be applied to wrong base.");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Tests reading data that is no checkpoint. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.Checkpoint#read(java.nio.channels.ReadableByteChannel)}
+	 * .
+	 * 
+	 * @throws IOException
+	 *             if temporary file could not be written
+	 */
+	@Test(expected = IOException.class)
+	public final void testReadCorrupted() throws IOException {
+
+		File file = File.createTempFile("schaltwerk", ".checkpoint");
+		file.deleteOnExit();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		FileChannel channel = raf.getChannel();
+		try {
+			counting(1).checkpoint().write(channel);
+			channel.write(ByteBuffer.wrap(new byte[] { 1 }), 0);
+			channel.position(0);
+			Checkpoint.read(channel);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Tests restoring the stored bits of register blocks from a checkpoint of
+	 * the default signal store, after more blocks were created. Test method
+	 * for
+	 * {@link de.ichmann.java.schaltwerk.simulation.Checkpoint#capture(SignalStore, long)}
+	 * .
+	 */
+	@Test
+	public final void testRegisterState() {
+
+		Register register = BlockFactory.getInstance().getRegister(2, false);
+		register.input("D0").setSignalValue(Signals.ONE);
+		register.clock();
+
+		Checkpoint checkpoint = Checkpoint.capture(SignalStore.getInstance(),
+				1);
+		register.input("D0").setSignalValue(Signals.ZERO);
+		register.input("D1").setSignalValue(Signals.ONE);
+		register.clock();
+		assertEquals("", Signals.ZERO, register.getState(0));
+
+		// blocks created later grow the store and keep their state
+		int size = SignalStore.getInstance().size();
+		BlockFactory.getInstance().getRSFlipFlopInstance();
+		assertTrue("", SignalStore.getInstance().size() > size);
+		Register later = BlockFactory.getInstance().getRegister(1, false);
+		later.input(0).setSignalValue(Signals.ONE);
+		later.clock();
+
+		checkpoint.restore(SignalStore.getInstance());
+		assertEquals("", Signals.ONE, register.getState(0));
+		assertEquals("", Signals.ZERO, register.getState(1));
+		assertEquals("", Signals.ONE, later.getState(0));
+	}
+
+	/**
+	 * Tests restoring a snapshot taken before more signals were allocated.
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.blocks.SignalStore#restore(long[], long[], int)}
+	 * .
+	 */
+	@Test
+	public final void testRestoreStore() {
+
+		SignalStore store = new SignalStore();
+		store.allocate(100);
+		store.set(5, true);
+		long[] values = store.snapshot();
+		assertNull("", store.snapshotUnknown());
+
+		store.allocate(100);
+		store.set(70, true);
+		store.set(101, true);
+		store.setSignalValue(5, Signals.X);
+		store.setSignalValue(150, Signals.Z);
+		long[] fourState = store.snapshot();
+		long[] unknown = store.snapshotUnknown();
+		assertEquals("", values.length * 2, unknown.length);
+
+		store.restore(values, null, 100);
+		assertEquals("", Signals.ONE, store.getSignalValue(5));
+		assertEquals("", Signals.ZERO, store.getSignalValue(70));
+		assertEquals("", Signals.ONE, store.getSignalValue(101));
+		assertEquals("", Signals.Z, store.getSignalValue(150));
+
+		store.restore(fourState, unknown, store.size());
+		assertEquals("", Signals.X, store.getSignalValue(5));
+	}
+}
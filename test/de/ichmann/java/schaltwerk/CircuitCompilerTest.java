@@ -0,0 +1,233 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.BaseBlock;
+import de.ichmann.java.schaltwerk.blocks.BlockFactory;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NAND;
+import de.ichmann.java.schaltwerk.blocks.NOR;
+import de.ichmann.java.schaltwerk.blocks.NOT;
+import de.ichmann.java.schaltwerk.blocks.OR;
+import de.ichmann.java.schaltwerk.blocks.Output;
+import de.ichmann.java.schaltwerk.simulation.BitParallelSimulator;
+import de.ichmann.java.schaltwerk.simulation.CircuitCompiler;
+import de.ichmann.java.schaltwerk.simulation.CompiledCircuit;
+import de.ichmann.java.schaltwerk.simulation.Netlist;
+
+/**
+ * Tests compilation of combinational circuits into generated classes.
+ * 
+ * @author Christian Wichmann
+ */
+public class CircuitCompilerTest {
+
+	private static final int WIDTH = 32;
+	private static final int STAGES = 400;
+	private static final int WIDE_INPUTS = 10000;
+
+	/**
+	 * Creates a circuit with many stages of gates. Every stage combines
+	 * neighbouring signals of the previous stage.
+	 */
+	private CompoundBlock createLargeCircuit(final int width, final int stages) {
+
+		CompoundBlock circuit = new CompoundBlock("Large", width, width);
+		Output[] signals = new Output[width];
+		for (int i = 0; i < width; i++) {
+			signals[i] = circuit.internalInput(i);
+		}
+
+		for (int s = 0; s < stages; s++) {
+			Output[] next = new Output[width];
+			for (int i = 0; i < width; i++) {
+				BaseBlock gate;
+				switch ((s + i) % 4) {
+				case 0:
+					gate = new AND(3);
+					break;
+				case 1:
+					gate = new OR(3);
+					break;
+				case 2:
+					gate = new NAND(3);
+					break;
+				default:
+					gate = new NOR(3);
+					break;
+				}
+				signals[i].connectTo(gate.input(0));
+				signals[(i + 1) % width].connectTo(gate.input(1));
+				circuit.internalInput((s + i) % width).connectTo(gate.input(2));
+				next[i] = gate.output(0);
+			}
+			signals = next;
+		}
+
+		for (int i = 0; i < width; i++) {
+			signals[i].connectTo(circuit.internalOutput(i));
+		}
+		return circuit;
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.CircuitCompiler#compile(de.ichmann.java.schaltwerk.blocks.CompoundBlock)}
+	 * .
+	 */
+	@Test
+	public final void testCompile() {
+
+		CompoundBlock circuit = new CompoundBlock("Circuit", 3, 3);
+		NAND nand = new NAND(2);
+		NOR nor = new NOR(2);
+		NOT not = new NOT();
+		circuit.internalInput("1").connectTo(nand.input("1"));
+		circuit.internalInput("2").connectTo(nand.input("2"));
+		nand.output("1").connectTo(nor.input("1"));
+		circuit.internalInput("3").connectTo(nor.input("2"));
+		circuit.internalInput("3").connectTo(not.input("1"));
+		nand.output("1").connectTo(circuit.internalOutput("1"));
+		nor.output("1").connectTo(circuit.internalOutput("2"));
+		not.output("1").connectTo(circuit.internalOutput("3"));
+
+		CompiledCircuit compiled = CircuitCompiler.compile(circuit);
+		long a = 0xFF00FF00FF00FF00L;
+		long b = 0xF0F0F0F0F0F0F0F0L;
+		long c = 0xCCCCCCCCCCCCCCCCL;
+		long[] outputs = compiled.evaluate(new long[] { a, b, c });
+		assertEquals("", ~(a & b), outputs[0]);
+		assertEquals("", ~(~(a & b) | c), outputs[1]);
+		assertEquals("", ~c, outputs[2]);
+	}
+
+	/**
+	 * Compares a large compiled circuit with the bit parallel simulator. Test
+	 * method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.CircuitCompiler#compile(de.ichmann.java.schaltwerk.simulation.Netlist)}
+	 * .
+	 */
+	@Test
+	public final void testCompileLarge() {
+
+		Netlist netlist = Netlist.compile(createLargeCircuit(WIDTH, STAGES));
+		CompiledCircuit compiled = CircuitCompiler.compile(netlist);
+
+		// many gates must be split into several methods
+		assertTrue("", compiled.getClass().getDeclaredMethods().length > 3);
+		assertSameResults(netlist, compiled);
+	}
+
+	/**
+	 * Compiles a circuit with more nets than fit into the constant pool of a
+	 * class, so net ids have to be addressed relative to the parts. Test
+	 * method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.CircuitCompiler#compile(de.ichmann.java.schaltwerk.simulation.Netlist)}
+	 * .
+	 */
+	@Test
+	public final void testCompileHuge() {
+
+		Netlist netlist = Netlist.compile(createLargeCircuit(512, 200));
+		assertTrue("", netlist.countNets() > 65535 + Short.MAX_VALUE);
+		CompiledCircuit compiled = CircuitCompiler.compile(netlist);
+		assertSameResults(netlist, compiled);
+	}
+
+	/**
+	 * Compiles gates with more inputs than fit into a single part. Test
+	 * method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.CircuitCompiler#compile(de.ichmann.java.schaltwerk.simulation.Netlist)}
+	 * .
+	 */
+	@Test
+	public final void testCompileWideGates() {
+
+		CompoundBlock circuit = new CompoundBlock("Wide", 2 * WIDE_INPUTS, 3);
+		AND and = new AND(WIDE_INPUTS);
+		NAND nand = new NAND(WIDE_INPUTS);
+		OR or = new OR(WIDE_INPUTS);
+		for (int i = 0; i < WIDE_INPUTS; i++) {
+			circuit.internalInput(i).connectTo(and.input(i));
+			circuit.internalInput(i).connectTo(nand.input(i));
+			circuit.internalInput(WIDE_INPUTS + i).connectTo(or.input(i));
+		}
+		and.output(0).connectTo(circuit.internalOutput(0));
+		nand.output(0).connectTo(circuit.internalOutput(1));
+		or.output(0).connectTo(circuit.internalOutput(2));
+
+		// only a few inputs are not neutral for the gates
+		Random random = new Random(42);
+		long[] inputs = new long[2 * WIDE_INPUTS];
+		long all = -1L;
+		long any = 0L;
+		for (int i = 0; i < WIDE_INPUTS; i++) {
+			boolean rare = random.nextInt(1000) == 0;
+			inputs[i] = rare ? random.nextLong() : -1L;
+			inputs[WIDE_INPUTS + i] = rare ? random.nextLong() : 0L;
+			all &= inputs[i];
+			any |= inputs[WIDE_INPUTS + i];
+		}
+
+		CompiledCircuit compiled = CircuitCompiler.compile(circuit);
+		long[] outputs = compiled.evaluate(inputs);
+		assertEquals("", all, outputs[0]);
+		assertEquals("", ~all, outputs[1]);
+		assertEquals("", any, outputs[2]);
+	}
+
+	/**
+	 * Compares results of a compiled circuit with the results of the bit
+	 * parallel simulator for random inputs.
+	 */
+	private void assertSameResults(final Netlist netlist,
+			final CompiledCircuit compiled) {
+
+		BitParallelSimulator simulator = new BitParallelSimulator(netlist);
+		Random random = new Random(42);
+		long[] inputs = new long[netlist.countInputs()];
+		long[] expected = new long[netlist.countOutputs()];
+		long[] actual = new long[netlist.countOutputs()];
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < inputs.length; i++) {
+				inputs[i] = random.nextLong();
+			}
+			simulator.evaluate(inputs, expected);
+			compiled.evaluate(inputs, actual);
+			assertArrayEquals("", expected, actual);
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.CircuitCompiler#compile(de.ichmann.java.schaltwerk.blocks.CompoundBlock)}
+	 * .
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public final void testCompileSequential() {
+
+		CircuitCompiler.compile(BlockFactory.getInstance().getRSFlipFLop(false));
+	}
+}
@@ -0,0 +1,178 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.BlockFactory;
+import de.ichmann.java.schaltwerk.blocks.CircuitDefinition;
+import de.ichmann.java.schaltwerk.blocks.CircuitInstance;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+import de.ichmann.java.schaltwerk.simulation.LevelizedSimulator;
+import de.ichmann.java.schaltwerk.simulation.Netlist;
+
+/**
+ * Tests circuit definitions and their instances with rs-flip-flops and a
+ * register built from them.
+ * 
+ * @author Christian Wichmann
+ */
+public class CircuitDefinitionTest {
+
+	private static final int BITS = 8;
+
+	private CompoundBlock register;
+
+	/**
+	 * Builds a register of rs-flip-flop instances with inputs "S0", "R0",
+	 * "S1", ... and outputs "Q0", "Q1", ...
+	 * 
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		List<String> inputs = new ArrayList<String>();
+		List<String> outputs = new ArrayList<String>();
+		for (int i = 0; i < BITS; i++) {
+			inputs.add("S" + i);
+			inputs.add("R" + i);
+			outputs.add("Q" + i);
+		}
+		register = new CompoundBlock("REG", inputs, outputs);
+		for (int i = 0; i < BITS; i++) {
+			CircuitInstance rsff = BlockFactory.getInstance()
+					.getRSFlipFlopInstance();
+			register.internalInput("S" + i).connectTo(rsff.input("S"));
+			register.internalInput("R" + i).connectTo(rsff.input("R"));
+			rsff.output("Q").connectTo(register.internalOutput("Q" + i));
+		}
+	}
+
+	/**
+	 * Tests that instances share their definition but keep their own state.
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.blocks.CircuitDefinition#newInstance()}
+	 * .
+	 */
+	@Test
+	public final void testNewInstance() {
+
+		CircuitInstance a = BlockFactory.getInstance().getRSFlipFlopInstance();
+		CircuitInstance b = BlockFactory.getInstance().getRSFlipFlopInstance();
+		assertSame("", a.getDefinition(), b.getDefinition());
+		assertEquals("", 2, a.getDefinition().countGates());
+		assertFalse("", a.getDefinition().isCombinational());
+		assertFalse("", a.getBlockID().equals(b.getBlockID()));
+
+		a.input("S").setSignalValue(Signals.ONE);
+		a.evaluate();
+		a.unevaluate();
+		b.evaluate();
+		b.unevaluate();
+		assertEquals("", Signals.ONE, a.output("Q").getSignalValue());
+		assertEquals("", Signals.ZERO, b.output("Q").getSignalValue());
+
+		a.input("S").setSignalValue(Signals.ZERO);
+		a.evaluate();
+		a.unevaluate();
+		assertEquals("", Signals.ONE, a.output("Q").getSignalValue());
+		assertEquals("", Signals.ZERO, a.output("~Q").getSignalValue());
+
+		a.input("R").setSignalValue(Signals.ONE);
+		a.evaluate();
+		a.unevaluate();
+		assertEquals("", Signals.ZERO, a.output("Q").getSignalValue());
+		assertEquals("", Signals.ONE, a.output("~Q").getSignalValue());
+		assertTrue("", a.isStable());
+	}
+
+	/**
+	 * Tests compiling a register of instances into a netlist. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.Netlist#compile(CircuitDefinition)}
+	 * .
+	 */
+	@Test
+	public final void testCompile() {
+
+		LevelizedSimulator simulator = new LevelizedSimulator(register);
+		Netlist netlist = simulator.getNetlist();
+		assertEquals("", 2 * BITS, netlist.countGates());
+		assertEquals("", BITS, netlist.countFeedbackLoops());
+
+		for (int i = 0; i < BITS; i += 2) {
+			simulator.setInput(netlist.inputIndex("S" + i), Signals.ONE);
+		}
+		simulator.evaluate();
+		for (int i = 0; i < BITS; i++) {
+			simulator.setInput(netlist.inputIndex("S" + i), Signals.ZERO);
+		}
+		simulator.evaluate();
+		for (int i = 0; i < BITS; i++) {
+			assertEquals("", i % 2 == 0 ? Signals.ONE : Signals.ZERO,
+					simulator.getOutput(netlist.outputIndex("Q" + i)));
+		}
+
+		simulator.setInput(netlist.inputIndex("R0"), Signals.ONE);
+		simulator.evaluate();
+		assertEquals("", Signals.ZERO,
+				simulator.getOutput(netlist.outputIndex("Q0")));
+		assertEquals("", Signals.ONE,
+				simulator.getOutput(netlist.outputIndex("Q2")));
+		assertTrue("", simulator.isStable());
+	}
+
+	/**
+	 * Tests instances of a definition that contains instances itself. Test
+	 * method for
+	 * {@link de.ichmann.java.schaltwerk.blocks.CircuitDefinition#countGates()}
+	 * .
+	 */
+	@Test
+	public final void testNestedInstances() {
+
+		CircuitDefinition definition = new CircuitDefinition(register);
+		assertEquals("", 2 * BITS, definition.countGates());
+		assertEquals("", 1 + 2 * BITS + 2 * BITS, definition.countNets());
+
+		CircuitInstance first = definition.newInstance();
+		CircuitInstance second = definition.newInstance();
+		first.input("S3").setSignalValue(Signals.ONE);
+		first.evaluate();
+		first.unevaluate();
+		first.input("S3").setSignalValue(Signals.ZERO);
+		first.evaluate();
+		first.unevaluate();
+		second.evaluate();
+		second.unevaluate();
+
+		for (int i = 0; i < BITS; i++) {
+			assertEquals("", i == 3 ? Signals.ONE : Signals.ZERO, first
+					.output("Q" + i).getSignalValue());
+			assertEquals("", Signals.ZERO, second.output("Q" + i)
+					.getSignalValue());
+		}
+	}
+}
@@ -19,10 +19,19 @@ package de.ichmann.java.schaltwerk;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import de.ichmann.java.schaltwerk.blocks.CombinationalCircuits;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.simulation.Netlist;
+import de.ichmann.java.schaltwerk.simulation.TruthTable;
+
 /**
  * Tests class for generating combinational circuits automatically based on
  * input/output behavior.
@@ -45,6 +54,21 @@ public class CombinationalCircuitsTest {
 	public void tearDown() throws Exception {
 	}
 
+	/**
+	 * Asserts that a circuit has the given output for all vectors which are
+	 * not don't cares.
+	 */
+	private void assertFunction(final CompoundBlock circuit,
+			final BitSet onSet, final BitSet dontCares) {
+
+		TruthTable table = TruthTable.compute(circuit);
+		for (int v = 0; v < table.countVectors(); v++) {
+			if (!dontCares.get(v)) {
+				assertEquals("", onSet.get(v), table.get(0, v));
+			}
+		}
+	}
+
 	/**
 	 * Test method for
 	 * {@link de.ichmann.java.schaltwerk.blocks.CombinationalCircuits#getCombinationalCircuit(java.util.List, java.util.List)}
@@ -52,7 +76,109 @@ public class CombinationalCircuitsTest {
 	 */
 	@Test
 	public final void testGetCombinationalCircuit() {
-		fail("Not yet implemented");
+
+		// majority of three inputs, lines in reverse order
+		List<List<Boolean>> input = new ArrayList<List<Boolean>>();
+		for (int i = 0; i < 3; i++) {
+			input.add(new ArrayList<Boolean>());
+		}
+		List<Boolean> output = new ArrayList<Boolean>();
+		BitSet onSet = new BitSet();
+		for (int v = 7; v >= 0; v--) {
+			for (int i = 0; i < 3; i++) {
+				input.get(i).add((v >>> i & 1) != 0);
+			}
+			output.add(Integer.bitCount(v) >= 2);
+			if (Integer.bitCount(v) >= 2) {
+				onSet.set(v);
+			}
+		}
+
+		CompoundBlock circuit = CombinationalCircuits.getInstance()
+				.getCombinationalCircuit(input, output);
+		assertFunction(circuit, onSet, new BitSet());
+		// three products and a sum
+		assertEquals("", 4, Netlist.compile(circuit).countGates());
+	}
+
+	/**
+	 * Tests minimization with don't cares. Test method for
+	 * {@link de.ichmann.java.schaltwerk.blocks.CombinationalCircuits#getCombinationalCircuit(int, BitSet, BitSet)}
+	 * .
+	 */
+	@Test
+	public final void testGetCombinationalCircuitDontCares() {
+
+		// odd BCD digits, codes above nine are never used
+		BitSet onSet = new BitSet();
+		BitSet dontCares = new BitSet();
+		for (int v = 0; v < 16; v++) {
+			if (v > 9) {
+				dontCares.set(v);
+			} else if ((v & 1) != 0) {
+				onSet.set(v);
+			}
+		}
+
+		CompoundBlock circuit = CombinationalCircuits.getInstance()
+				.getCombinationalCircuit(4, onSet, dontCares);
+		assertFunction(circuit, onSet, dontCares);
+		assertEquals("", 0, Netlist.compile(circuit).countGates());
+
+		circuit = CombinationalCircuits.getInstance().getCombinationalCircuit(
+				4, new BitSet(), new BitSet());
+		assertFunction(circuit, new BitSet(), new BitSet());
+	}
+
+	/**
+	 * Tests minimization of functions with many inputs. Test method for
+	 * {@link de.ichmann.java.schaltwerk.blocks.CombinationalCircuits#getCombinationalCircuit(int, BitSet[], BitSet[])}
+	 * .
+	 */
+	@Test
+	public final void testGetCombinationalCircuitLarge() {
+
+		final int variables = 20;
+		BitSet first = new BitSet();
+		BitSet second = new BitSet();
+		for (int v = 0; v < 1 << variables; v++) {
+			boolean a = (v & 1) != 0 && (v >>> 5 & 1) != 0
+					&& (v >>> 19 & 1) == 0;
+			boolean b = (v >>> 10 & 1) != 0 && (v >>> 11 & 1) != 0;
+			if (a || b) {
+				first.set(v);
+			}
+			if (b) {
+				second.set(v);
+			}
+		}
+
+		CompoundBlock circuit = CombinationalCircuits.getInstance()
+				.getCombinationalCircuit(variables,
+						new BitSet[] { first, second },
+						new BitSet[] { new BitSet(), new BitSet() });
+		TruthTable table = TruthTable.compute(circuit);
+		for (int v = 0; v < 1 << variables; v++) {
+			assertEquals("", first.get(v), table.get(0, v));
+			assertEquals("", second.get(v), table.get(1, v));
+		}
+
+		// two shared products, one NOT and one sum
+		assertEquals("", 4, Netlist.compile(circuit).countGates());
 	}
 
+	/**
+	 * Tests rejecting an output that is always ONE without any inputs. Test
+	 * method for
+	 * {@link de.ichmann.java.schaltwerk.blocks.CombinationalCircuits#getCombinationalCircuit(int, BitSet, BitSet)}
+	 * .
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public final void testGetCombinationalCircuitWithoutInputs() {
+
+		BitSet onSet = new BitSet();
+		onSet.set(0);
+		CombinationalCircuits.getInstance().getCombinationalCircuit(0, onSet,
+				new BitSet());
+	}
 }
@@ -25,6 +25,7 @@ import org.junit.Test;
 import de.ichmann.java.schaltwerk.blocks.AND;
 import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
 import de.ichmann.java.schaltwerk.blocks.NOR;
+import de.ichmann.java.schaltwerk.blocks.NOT;
 import de.ichmann.java.schaltwerk.blocks.OR;
 import de.ichmann.java.schaltwerk.blocks.Signals;
 
@@ -149,4 +150,34 @@ public class CompoundBlockTest {
 		circuit2.unevaluate();
 		assertEquals("", Signals.ZERO, circuit2.output("1").getSignalValue());
 	}
+
+	/**
+	 * Tests a long chain of blocks that would overflow the stack if blocks
+	 * were evaluated recursively. Test method for
+	 * {@link de.ichmann.java.schaltwerk.blocks.CompoundBlock#evaluate()}.
+	 */
+	@Test
+	public final void testEvaluateLongChain() {
+
+		CompoundBlock chain = new CompoundBlock("Chain", 1, 1);
+		NOT first = new NOT();
+		NOT last = first;
+		chain.internalInput("1").connectTo(first.input("1"));
+		for (int i = 1; i < 100000; i++) {
+			NOT next = new NOT();
+			last.output("1").connectTo(next.input("1"));
+			last = next;
+		}
+		last.output("1").connectTo(chain.internalOutput("1"));
+
+		chain.input("1").setSignalValue(Signals.ONE);
+		chain.evaluate();
+		chain.unevaluate();
+		assertEquals("", Signals.ONE, chain.output("1").getSignalValue());
+
+		chain.input("1").setSignalValue(Signals.ZERO);
+		chain.evaluate();
+		chain.unevaluate();
+		assertEquals("", Signals.ZERO, chain.output("1").getSignalValue());
+	}
 }
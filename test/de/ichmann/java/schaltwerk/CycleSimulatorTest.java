@@ -0,0 +1,250 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.BlockFactory;
+import de.ichmann.java.schaltwerk.blocks.CircuitDefinition;
+import de.ichmann.java.schaltwerk.blocks.CircuitInstance;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NAND;
+import de.ichmann.java.schaltwerk.blocks.Output;
+import de.ichmann.java.schaltwerk.blocks.Register;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+import de.ichmann.java.schaltwerk.simulation.CycleSimulator;
+import de.ichmann.java.schaltwerk.simulation.Netlist;
+
+/**
+ * Tests clocked simulation of registers with a counter, a shift register and
+ * a register with enable input.
+ * 
+ * @author Christian Wichmann
+ */
+public class CycleSimulatorTest {
+
+	private static final int BITS = 4;
+
+	private CompoundBlock counter;
+
+	/**
+	 * Sets up test environment by designing a counter from a register and
+	 * half adders. The counter is incremented on every clock edge while input
+	 * "INC" is ONE.
+	 * 
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		List<String> inputs = new ArrayList<String>();
+		List<String> outputs = new ArrayList<String>();
+		inputs.add("INC");
+		for (int i = 0; i < BITS; i++) {
+			outputs.add("Q" + i);
+		}
+		counter = new CompoundBlock("Counter", inputs, outputs);
+
+		Register register = BlockFactory.getInstance().getRegister(BITS,
+				false);
+		Output carry = counter.internalInput("INC");
+		for (int i = 0; i < BITS; i++) {
+			Output q = register.output(i);
+			xor(q, carry).connectTo(register.input(i));
+			AND and = new AND(2);
+			q.connectTo(and.input(0));
+			carry.connectTo(and.input(1));
+			carry = and.output(0);
+			q.connectTo(counter.internalOutput("Q" + i));
+		}
+	}
+
+	private Output xor(Output a, Output b) {
+
+		NAND nand1 = new NAND(2);
+		NAND nand2 = new NAND(2);
+		NAND nand3 = new NAND(2);
+		NAND nand4 = new NAND(2);
+		a.connectTo(nand1.input(0));
+		b.connectTo(nand1.input(1));
+		a.connectTo(nand2.input(0));
+		nand1.output(0).connectTo(nand2.input(1));
+		b.connectTo(nand3.input(0));
+		nand1.output(0).connectTo(nand3.input(1));
+		nand2.output(0).connectTo(nand4.input(0));
+		nand3.output(0).connectTo(nand4.input(1));
+		return nand4.output(0);
+	}
+
+	private int value(CycleSimulator simulator) {
+
+		int value = 0;
+		for (int i = 0; i < BITS; i++) {
+			if (simulator.getOutput(i) == Signals.ONE) {
+				value |= 1 << i;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Tests compiling registers into a netlist. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.Netlist#compile(CompoundBlock)}
+	 * .
+	 */
+	@Test
+	public final void testCompile() {
+
+		Netlist netlist = Netlist.compile(counter);
+		assertEquals("", 1, netlist.countRegisters());
+		assertEquals("", BITS, netlist.countRegisterBits());
+		assertEquals("", 5 * BITS, netlist.countGates());
+		assertEquals("", 0, netlist.countFeedbackLoops());
+		assertFalse("", netlist.isCombinational());
+		assertEquals("", 2 + 5 * BITS + BITS, netlist.countNets());
+	}
+
+	/**
+	 * Tests the counter over more cycles than it can count. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.CycleSimulator#cycle()} .
+	 */
+	@Test
+	public final void testCycle() {
+
+		CycleSimulator simulator = new CycleSimulator(counter);
+		simulator.setInput(0, Signals.ONE);
+		simulator.evaluate();
+		assertEquals("", 0, value(simulator));
+
+		for (int c = 1; c <= 20; c++) {
+			simulator.cycle();
+			assertEquals("", c % (1 << BITS), value(simulator));
+		}
+
+		simulator.setInput(0, Signals.ZERO);
+		simulator.cycle(5);
+		assertEquals("", 20 % (1 << BITS), value(simulator));
+		assertEquals("", 25, simulator.countCycles());
+		assertEquals("", Signals.ONE, simulator.getRegisterBit(0, 2));
+		assertTrue("", simulator.isStable());
+	}
+
+	/**
+	 * Tests a shift register of d-flip-flops that are connected directly, so
+	 * all flip-flops have to be clocked at the same moment. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.CycleSimulator#cycle()} .
+	 */
+	@Test
+	public final void testShiftRegister() {
+
+		CompoundBlock shift = new CompoundBlock("Shift", 1, 3);
+		Output previous = shift.internalInput(0);
+		for (int i = 0; i < 3; i++) {
+			Register dff = BlockFactory.getInstance().getDFlipFlop();
+			previous.connectTo(dff.input("D"));
+			dff.output("Q").connectTo(shift.internalOutput(i));
+			previous = dff.output("Q");
+		}
+
+		CycleSimulator simulator = new CycleSimulator(shift);
+		boolean[] sequence = { true, false, true, true, false, false };
+		for (int c = 0; c < sequence.length; c++) {
+			simulator.setInput(0, sequence[c] ? Signals.ONE : Signals.ZERO);
+			simulator.cycle();
+			for (int i = 0; i < 3; i++) {
+				boolean expected = c - i >= 0 && sequence[c - i];
+				assertEquals("", expected ? Signals.ONE : Signals.ZERO,
+						simulator.getOutput(i));
+			}
+		}
+	}
+
+	/**
+	 * Tests a register that only stores its inputs while enabled. Test method
+	 * for {@link de.ichmann.java.schaltwerk.blocks.Register#clock()} .
+	 */
+	@Test
+	public final void testEnable() {
+
+		Register register = BlockFactory.getInstance().getRegister(2, true);
+		register.input("D0").setSignalValue(Signals.ONE);
+		register.input("D1").setSignalValue(Signals.ONE);
+		register.clock();
+		register.evaluate();
+		register.unevaluate();
+		assertEquals("", Signals.ZERO, register.output("Q0").getSignalValue());
+
+		register.input(Register.ENABLE).setSignalValue(Signals.ONE);
+		register.clock();
+		assertEquals("", Signals.ZERO, register.output("Q0").getSignalValue());
+		register.evaluate();
+		register.unevaluate();
+		assertEquals("", Signals.ONE, register.output("Q0").getSignalValue());
+		assertEquals("", Signals.ONE, register.output("Q1").getSignalValue());
+
+		register.input(Register.ENABLE).setSignalValue(Signals.ZERO);
+		register.input("D1").setSignalValue(Signals.ZERO);
+		register.clock();
+		register.evaluate();
+		register.unevaluate();
+		assertEquals("", Signals.ONE, register.output("Q1").getSignalValue());
+	}
+
+	/**
+	 * Tests instances of a definition containing a register. Test method for
+	 * {@link de.ichmann.java.schaltwerk.blocks.CircuitInstance#clock()} .
+	 */
+	@Test
+	public final void testInstanceClock() {
+
+		CircuitDefinition definition = new CircuitDefinition(counter);
+		assertEquals("", BITS, definition.countRegisterBits());
+		assertFalse("", definition.isCombinational());
+
+		CircuitInstance first = definition.newInstance();
+		CircuitInstance second = definition.newInstance();
+		first.input("INC").setSignalValue(Signals.ONE);
+		first.evaluate();
+		first.unevaluate();
+		second.evaluate();
+		second.unevaluate();
+		for (int c = 1; c <= 6; c++) {
+			first.clock();
+			second.clock();
+			first.evaluate();
+			first.unevaluate();
+			second.evaluate();
+			second.unevaluate();
+		}
+
+		assertEquals("", Signals.ZERO, first.output("Q0").getSignalValue());
+		assertEquals("", Signals.ONE, first.output("Q1").getSignalValue());
+		assertEquals("", Signals.ONE, first.output("Q2").getSignalValue());
+		for (int i = 0; i < BITS; i++) {
+			assertEquals("", Signals.ZERO, second.output("Q" + i)
+					.getSignalValue());
+		}
+	}
+}
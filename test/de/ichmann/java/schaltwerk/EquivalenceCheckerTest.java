@@ -0,0 +1,180 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.BaseBlock;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NAND;
+import de.ichmann.java.schaltwerk.blocks.OR;
+import de.ichmann.java.schaltwerk.blocks.Output;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+import de.ichmann.java.schaltwerk.simulation.EquivalenceChecker;
+import de.ichmann.java.schaltwerk.simulation.NetlistOptimizer;
+
+/**
+ * Tests equivalence checking of ripple carry adders.
+ * 
+ * @author Christian Wichmann
+ */
+public class EquivalenceCheckerTest {
+
+	private static final int BITS = 12;
+
+	/**
+	 * Connects two outputs to the inputs of a gate and returns its output.
+	 */
+	private Output gate(final Output a, final Output b, final String type) {
+
+		final BaseBlock gate;
+		if ("AND".equals(type)) {
+			gate = new AND(2);
+		} else if ("OR".equals(type)) {
+			gate = new OR(2);
+		} else {
+			gate = new NAND(2);
+		}
+		a.connectTo(gate.input(0));
+		b.connectTo(gate.input(1));
+		return gate.output(0);
+	}
+
+	private Output xor(final Output a, final Output b, final boolean nands) {
+
+		if (nands) {
+			final Output n = gate(a, b, "NAND");
+			return gate(gate(a, n, "NAND"), gate(b, n, "NAND"), "NAND");
+		}
+		return gate(gate(a, b, "OR"), gate(a, b, "NAND"), "AND");
+	}
+
+	/**
+	 * Creates a ripple carry adder with inputs A0.., B0.. and Ci and outputs
+	 * S0.. and Co. The second variant uses only NANDs for XOR, a majority
+	 * gate for the carry and lists its inputs in reverse order. At bit
+	 * <code>bug</code> the carry is computed wrong.
+	 */
+	private CompoundBlock createAdder(final boolean variant, final int bug) {
+
+		List<String> inputs = new ArrayList<String>();
+		List<String> outputs = new ArrayList<String>();
+		for (int i = 0; i < BITS; i++) {
+			inputs.add("A" + i);
+			outputs.add("S" + i);
+		}
+		for (int i = 0; i < BITS; i++) {
+			inputs.add("B" + i);
+		}
+		inputs.add("Ci");
+		outputs.add("Co");
+		if (variant) {
+			Collections.reverse(inputs);
+		}
+
+		CompoundBlock adder = new CompoundBlock("ADD", inputs, outputs);
+		Output carry = adder.internalInput("Ci");
+		for (int i = 0; i < BITS; i++) {
+			Output a = adder.internalInput("A" + i);
+			Output b = adder.internalInput("B" + i);
+			Output half = xor(a, b, variant);
+			xor(half, carry, variant).connectTo(
+					adder.internalOutput("S" + i));
+			if (i == bug) {
+				carry = gate(gate(a, b, "AND"), gate(half, carry, "OR"), "OR");
+			} else if (variant) {
+				carry = gate(gate(gate(a, b, "AND"), gate(a, carry, "AND"),
+						"OR"), gate(b, carry, "AND"), "OR");
+			} else {
+				carry = gate(gate(a, b, "AND"), gate(half, carry, "AND"), "OR");
+			}
+		}
+		carry.connectTo(adder.internalOutput("Co"));
+		return adder;
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.EquivalenceChecker#isEquivalent()}
+	 * .
+	 */
+	@Test
+	public final void testIsEquivalent() {
+
+		EquivalenceChecker checker = new EquivalenceChecker(createAdder(
+				false, -1), createAdder(true, -1));
+		assertTrue("", checker.isEquivalent());
+		assertNull("", checker.getCounterexample());
+		assertTrue("", checker.getDifferingOutputs().isEmpty());
+
+		CompoundBlock adder = createAdder(false, -1);
+		CompoundBlock optimized = new NetlistOptimizer(adder)
+				.getOptimizedCircuit();
+		assertTrue("", new EquivalenceChecker(adder, optimized).isEquivalent());
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.EquivalenceChecker#getCounterexample()}
+	 * .
+	 */
+	@Test
+	public final void testGetCounterexample() {
+
+		EquivalenceChecker checker = new EquivalenceChecker(createAdder(
+				false, -1), createAdder(true, 5));
+		assertFalse("", checker.isEquivalent());
+
+		// wrong carry is only visible if A5 ^ B5 and no carry reaches bit 5
+		Map<String, Signals> vector = checker.getCounterexample();
+		assertEquals("", 2 * BITS + 1, vector.size());
+		long a = 0;
+		long b = 0;
+		for (int i = 0; i < BITS; i++) {
+			a |= (vector.get("A" + i) == Signals.ONE ? 1L : 0L) << i;
+			b |= (vector.get("B" + i) == Signals.ONE ? 1L : 0L) << i;
+		}
+		long ci = vector.get("Ci") == Signals.ONE ? 1 : 0;
+		long mask = (1L << 5) - 1;
+		assertEquals("", 0, ((a & mask) + (b & mask) + ci) >> 5);
+		assertEquals("", 1, (a ^ b) >> 5 & 1);
+		assertFalse("", checker.getDifferingOutputs().isEmpty());
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.EquivalenceChecker#EquivalenceChecker(CompoundBlock, CompoundBlock)}
+	 * .
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public final void testDifferentPorts() {
+
+		CompoundBlock other = new CompoundBlock("ADD", Arrays.asList("A0",
+				"B0"), Arrays.asList("S0"));
+		new EquivalenceChecker(createAdder(false, -1), other);
+	}
+}
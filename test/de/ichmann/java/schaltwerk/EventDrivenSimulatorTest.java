@@ -0,0 +1,138 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.BlockFactory;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NOT;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+import de.ichmann.java.schaltwerk.simulation.EventDrivenSimulator;
+import de.ichmann.java.schaltwerk.simulation.Netlist;
+
+/**
+ * Tests event driven simulation of compound blocks.
+ * 
+ * @author Christian Wichmann
+ */
+public class EventDrivenSimulatorTest {
+
+	private static final int WIDTH = 16;
+
+	private CompoundBlock circuit;
+
+	/**
+	 * Sets up test environment by designing a circuit with independent cones:
+	 * every output is the AND of two inputs followed by a chain of two NOTs.
+	 * 
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		circuit = new CompoundBlock("Cones", 2 * WIDTH, WIDTH);
+		for (int i = 0; i < WIDTH; i++) {
+			AND and = new AND(2);
+			NOT not1 = new NOT();
+			NOT not2 = new NOT();
+			circuit.internalInput(Integer.toString(2 * i + 1)).connectTo(
+					and.input("1"));
+			circuit.internalInput(Integer.toString(2 * i + 2)).connectTo(
+					and.input("2"));
+			and.output("1").connectTo(not1.input("1"));
+			not1.output("1").connectTo(not2.input("1"));
+			not2.output("1").connectTo(
+					circuit.internalOutput(Integer.toString(i + 1)));
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.EventDrivenSimulator#evaluate()}
+	 * .
+	 */
+	@Test
+	public final void testEvaluate() {
+
+		EventDrivenSimulator simulator = new EventDrivenSimulator(circuit);
+		simulator.evaluate();
+		assertEquals("", 3 * WIDTH, simulator.countEvaluatedGates());
+
+		// nothing changed, so nothing has to be evaluated
+		simulator.evaluate();
+		assertEquals("", 0, simulator.countEvaluatedGates());
+
+		// output of AND does not change
+		simulator.setInput(0, Signals.ONE);
+		simulator.evaluate();
+		assertEquals("", 1, simulator.countEvaluatedGates());
+		assertEquals("", Signals.ZERO, simulator.getOutput(0));
+
+		// only one cone toggles
+		simulator.setInput(1, Signals.ONE);
+		simulator.evaluate();
+		assertEquals("", 3, simulator.countEvaluatedGates());
+		assertEquals("", Signals.ONE, simulator.getOutput(0));
+		for (int i = 1; i < WIDTH; i++) {
+			assertEquals("", Signals.ZERO, simulator.getOutput(i));
+		}
+	}
+
+	/**
+	 * Tests feedback loops with a rs-flip-flop. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.EventDrivenSimulator#evaluate()}
+	 * .
+	 */
+	@Test
+	public final void testEvaluateFeedback() {
+
+		EventDrivenSimulator simulator = new EventDrivenSimulator(
+				BlockFactory.getInstance().getRSFlipFLop(false));
+		Netlist netlist = simulator.getNetlist();
+		int s = netlist.inputIndex("S");
+		int r = netlist.inputIndex("R");
+		int q = netlist.outputIndex("Q");
+		int nq = netlist.outputIndex("~Q");
+
+		simulator.setInput(r, Signals.ONE);
+		simulator.evaluate();
+		assertEquals("", Signals.ZERO, simulator.getOutput(q));
+		assertEquals("", Signals.ONE, simulator.getOutput(nq));
+
+		simulator.setInput(r, Signals.ZERO);
+		simulator.setInput(s, Signals.ONE);
+		simulator.evaluate();
+		assertEquals("", Signals.ONE, simulator.getOutput(q));
+		assertEquals("", Signals.ZERO, simulator.getOutput(nq));
+
+		simulator.setInput(s, Signals.ZERO);
+		simulator.evaluate();
+		assertEquals("", Signals.ONE, simulator.getOutput(q));
+		assertEquals("", Signals.ZERO, simulator.getOutput(nq));
+
+		simulator.setInput(r, Signals.ONE);
+		simulator.evaluate();
+		assertEquals("", Signals.ZERO, simulator.getOutput(q));
+		assertEquals("", Signals.ONE, simulator.getOutput(nq));
+	}
+}
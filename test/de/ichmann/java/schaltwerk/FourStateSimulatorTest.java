@@ -0,0 +1,215 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.BlockFactory;
+import de.ichmann.java.schaltwerk.blocks.CircuitDefinition;
+import de.ichmann.java.schaltwerk.blocks.CircuitInstance;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NOR;
+import de.ichmann.java.schaltwerk.blocks.NOT;
+import de.ichmann.java.schaltwerk.blocks.Register;
+import de.ichmann.java.schaltwerk.blocks.SignalStore;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+import de.ichmann.java.schaltwerk.simulation.FourStateSimulator;
+import de.ichmann.java.schaltwerk.simulation.LevelizedSimulator;
+import de.ichmann.java.schaltwerk.simulation.Netlist;
+import de.ichmann.java.schaltwerk.simulation.Simulator;
+
+/**
+ * Tests simulation of compound blocks with four signal values.
+ * 
+ * @author Christian Wichmann
+ */
+public class FourStateSimulatorTest {
+
+	/**
+	 * Tests propagation of X and Z through an AND followed by a NOT. Test
+	 * method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.FourStateSimulator#evaluate()}
+	 * .
+	 */
+	@Test
+	public final void testEvaluate() {
+
+		CompoundBlock circuit = new CompoundBlock("Circuit", 2, 2);
+		AND and = new AND(3);
+		NOT not = new NOT();
+		circuit.internalInput("1").connectTo(and.input("1"));
+		circuit.internalInput("2").connectTo(and.input("2"));
+		and.output("1").connectTo(not.input("1"));
+		and.output("1").connectTo(circuit.internalOutput("1"));
+		not.output("1").connectTo(circuit.internalOutput("2"));
+
+		FourStateSimulator simulator = new FourStateSimulator(circuit);
+
+		// third input of AND is not connected and therefore Z
+		simulator.setInput(0, Signals.ONE);
+		simulator.setInput(1, Signals.ONE);
+		simulator.evaluate();
+		assertEquals("", Signals.X, simulator.getOutput(0, 0));
+		assertEquals("", Signals.X, simulator.getOutput(1, 0));
+
+		simulator.setInput(1, Signals.ZERO);
+		simulator.evaluate();
+		assertEquals("", Signals.ZERO, simulator.getOutput(0, 0));
+		assertEquals("", Signals.ONE, simulator.getOutput(1, 0));
+
+		// vector 0 is ZERO, vector 1 is ONE, vector 2 is X
+		simulator.setInput(0, Signals.X);
+		simulator.setInput(1, 6L, 5L);
+		simulator.evaluate();
+		assertEquals("", Signals.ZERO, simulator.getOutput(0, 0));
+		assertEquals("", Signals.X, simulator.getOutput(0, 1));
+		assertEquals("", Signals.X, simulator.getOutput(0, 2));
+		assertEquals("", Signals.ONE, simulator.getOutput(1, 0));
+	}
+
+	/**
+	 * Tests that the state of a rs-flip-flop is unknown until it is reset.
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.FourStateSimulator#evaluate()}
+	 * .
+	 */
+	@Test
+	public final void testEvaluateFeedback() {
+
+		FourStateSimulator simulator = new FourStateSimulator(BlockFactory
+				.getInstance().getRSFlipFLop(false));
+		Netlist netlist = simulator.getNetlist();
+		int s = netlist.inputIndex("S");
+		int r = netlist.inputIndex("R");
+		int q = netlist.outputIndex("Q");
+		int nq = netlist.outputIndex("~Q");
+
+		simulator.setInput(s, Signals.ZERO);
+		simulator.setInput(r, Signals.ZERO);
+		simulator.evaluate();
+		assertTrue("", simulator.isStable());
+		assertEquals("", Signals.X, simulator.getOutput(q, 0));
+		assertEquals("", Signals.X, simulator.getOutput(nq, 0));
+
+		simulator.setInput(r, Signals.ONE);
+		simulator.evaluate();
+		assertEquals("", Signals.ZERO, simulator.getOutput(q, 0));
+		assertEquals("", Signals.ONE, simulator.getOutput(nq, 0));
+
+		simulator.setInput(r, Signals.ZERO);
+		simulator.evaluate();
+		assertEquals("", Signals.ZERO, simulator.getOutput(q, 0));
+		assertEquals("", Signals.ONE, simulator.getOutput(nq, 0));
+
+		simulator.reset();
+		simulator.setInput(s, Signals.ZERO);
+		simulator.setInput(r, Signals.ZERO);
+		simulator.evaluate();
+		assertEquals("", Signals.X, simulator.getOutput(q, 0));
+	}
+
+	/**
+	 * Tests that an oscillating feedback loop results in X. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.FourStateSimulator#evaluate()}
+	 * .
+	 */
+	@Test
+	public final void testEvaluateOscillation() {
+
+		CompoundBlock oscillator = new CompoundBlock("Oscillator", 1, 1);
+		NOR nor = new NOR(2);
+		oscillator.internalInput("1").connectTo(nor.input("1"));
+		nor.output("1").connectTo(nor.input("2"));
+		nor.output("1").connectTo(oscillator.internalOutput("1"));
+
+		FourStateSimulator simulator = new FourStateSimulator(oscillator);
+		simulator.setInput(0, Signals.ONE);
+		simulator.evaluate();
+		assertTrue("", simulator.isStable());
+		assertEquals("", Signals.ZERO, simulator.getOutput(0, 0));
+
+		simulator.setInput(0, Signals.ZERO);
+		simulator.evaluate();
+		assertFalse("", simulator.isStable());
+		assertEquals("", Signals.X, simulator.getOutput(0, 0));
+	}
+
+	/**
+	 * Tests that all paths read a Z input the same way: a gate reads it as X
+	 * and binary paths read it as ZERO. Test method for
+	 * {@link de.ichmann.java.schaltwerk.blocks.SignalStore#resolve(Signals)}
+	 * .
+	 */
+	@Test
+	public final void testZInput() {
+
+		CompoundBlock inverter = new CompoundBlock("Inverter", 1, 1);
+		NOT not = new NOT();
+		inverter.internalInput("1").connectTo(not.input("1"));
+		not.output("1").connectTo(inverter.internalOutput("1"));
+
+		SignalStore store = new SignalStore();
+		store.allocate(2);
+		store.setSignalValue(0, Signals.Z);
+		store.setSignalValue(1, Signals.X);
+		assertEquals("", Signals.Z, store.getSignalValue(0));
+		assertEquals("", store.get(1), store.get(0));
+		assertFalse("", store.get(0));
+
+		FourStateSimulator simulator = new FourStateSimulator(inverter);
+		simulator.setInput(0, Signals.Z);
+		simulator.evaluate();
+		assertEquals("", Signals.X, simulator.getOutput(0, 0));
+
+		inverter.input("1").setSignalValue(Signals.Z);
+		inverter.evaluate();
+		inverter.unevaluate();
+		assertEquals("", Signals.X, inverter.output("1").getSignalValue());
+
+		Simulator binary = new LevelizedSimulator(inverter);
+		binary.setInput(0, Signals.Z);
+		binary.evaluate();
+		assertEquals("", Signals.ONE, binary.getOutput(0));
+
+		CircuitInstance instance = new CircuitDefinition(inverter)
+				.newInstance();
+		instance.input("1").setSignalValue(Signals.Z);
+		instance.evaluate();
+		instance.unevaluate();
+		assertEquals("", Signals.ONE, instance.output("1").getSignalValue());
+	}
+
+	/**
+	 * Tests rejecting a netlist with registers that would never be clocked.
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.FourStateSimulator#FourStateSimulator(Netlist)}
+	 * .
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public final void testRegisters() {
+
+		CompoundBlock delay = new CompoundBlock("Delay", 1, 1);
+		Register register = BlockFactory.getInstance().getDFlipFlop();
+		delay.internalInput(0).connectTo(register.input("D"));
+		register.output("Q").connectTo(delay.internalOutput(0));
+		new FourStateSimulator(Netlist.compile(delay));
+	}
+}
@@ -0,0 +1,216 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.BlockFactory;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NOR;
+import de.ichmann.java.schaltwerk.blocks.NOT;
+import de.ichmann.java.schaltwerk.blocks.OR;
+import de.ichmann.java.schaltwerk.blocks.Register;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+import de.ichmann.java.schaltwerk.simulation.LevelizedSimulator;
+import de.ichmann.java.schaltwerk.simulation.Netlist;
+
+/**
+ * Tests simulation of compound blocks with compiled netlists.
+ * 
+ * @author Christian Wichmann
+ */
+public class LevelizedSimulatorTest {
+
+	private CompoundBlock circuit;
+	private CompoundBlock nestedCircuit;
+
+	/**
+	 * Sets up test environment by designing a small logic circuit and a
+	 * circuit containing it twice.
+	 * 
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		circuit = createAndOr("AND-OR");
+
+		// (1 & 2 | 3 & 4) & !(5 & 6 | 7 & 8) by using nested circuits
+		nestedCircuit = new CompoundBlock("Nested", 8, 1);
+		CompoundBlock first = createAndOr("AND-OR.1");
+		CompoundBlock second = createAndOr("AND-OR.2");
+		NOT not = new NOT();
+		AND and = new AND(2);
+		for (int i = 1; i <= 4; i++) {
+			nestedCircuit.internalInput(Integer.toString(i)).connectTo(
+					first.input(Integer.toString(i)));
+			nestedCircuit.internalInput(Integer.toString(i + 4)).connectTo(
+					second.input(Integer.toString(i)));
+		}
+		first.output("1").connectTo(and.input("1"));
+		second.output("1").connectTo(not.input("1"));
+		not.output("1").connectTo(and.input("2"));
+		and.output("1").connectTo(nestedCircuit.internalOutput("1"));
+	}
+
+	private CompoundBlock createAndOr(String blockID) {
+
+		AND and1 = new AND(2);
+		AND and2 = new AND(2);
+		OR or1 = new OR(2);
+		and1.output("1").connectTo(or1.input("1"));
+		and2.output("1").connectTo(or1.input("2"));
+
+		CompoundBlock c = new CompoundBlock(blockID, 4, 1);
+		c.internalInput("1").connectTo(and1.input("1"));
+		c.internalInput("2").connectTo(and1.input("2"));
+		c.internalInput("3").connectTo(and2.input("1"));
+		c.internalInput("4").connectTo(and2.input("2"));
+		or1.output("1").connectTo(c.internalOutput("1"));
+		return c;
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.Netlist#compile(CompoundBlock)}
+	 * .
+	 */
+	@Test
+	public final void testCompile() {
+
+		Netlist netlist = Netlist.compile(circuit);
+		assertEquals("", 3, netlist.countGates());
+		assertEquals("", 2, netlist.countLevels());
+		assertEquals("", 4, netlist.countInputs());
+		assertEquals("", 1, netlist.countOutputs());
+
+		Netlist nested = Netlist.compile(nestedCircuit);
+		assertEquals("", 8, nested.countGates());
+		assertEquals("", 4, nested.countLevels());
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.LevelizedSimulator#evaluate()}
+	 * .
+	 */
+	@Test
+	public final void testEvaluate() {
+
+		LevelizedSimulator simulator = new LevelizedSimulator(nestedCircuit);
+
+		for (int vector = 0; vector < 256; vector++) {
+			boolean[] in = new boolean[8];
+			for (int i = 0; i < 8; i++) {
+				in[i] = (vector >> i & 1) == 1;
+				simulator.setInput(i, in[i] ? Signals.ONE : Signals.ZERO);
+			}
+			simulator.evaluate();
+
+			boolean expected = (in[0] && in[1] || in[2] && in[3])
+					&& !(in[4] && in[5] || in[6] && in[7]);
+			assertEquals("", expected ? Signals.ONE : Signals.ZERO,
+					simulator.getOutput(0));
+		}
+	}
+
+	/**
+	 * Tests feedback loops with a rs-flip-flop. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.LevelizedSimulator#evaluate()}
+	 * .
+	 */
+	@Test
+	public final void testEvaluateFeedback() {
+
+		LevelizedSimulator simulator = new LevelizedSimulator(BlockFactory
+				.getInstance().getRSFlipFLop(false));
+		Netlist netlist = simulator.getNetlist();
+		int s = netlist.inputIndex("S");
+		int r = netlist.inputIndex("R");
+		int q = netlist.outputIndex("Q");
+		int nq = netlist.outputIndex("~Q");
+
+		simulator.setInput(s, Signals.ONE);
+		simulator.setInput(r, Signals.ZERO);
+		simulator.evaluate();
+		assertEquals("", Signals.ONE, simulator.getOutput(q));
+
+		simulator.setInput(s, Signals.ZERO);
+		simulator.evaluate();
+		assertEquals("", Signals.ONE, simulator.getOutput(q));
+
+		simulator.setInput(r, Signals.ONE);
+		simulator.evaluate();
+		assertEquals("", Signals.ZERO, simulator.getOutput(q));
+		assertEquals("", Signals.ONE, simulator.getOutput(nq));
+
+		simulator.setInput(r, Signals.ZERO);
+		simulator.evaluate();
+		assertEquals("", Signals.ZERO, simulator.getOutput(q));
+		assertEquals("", Signals.ONE, simulator.getOutput(nq));
+		assertTrue("", simulator.isStable());
+	}
+
+	/**
+	 * Tests detection of oscillating feedback loops with a NOR block whose
+	 * output is connected to its own input. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.LevelizedSimulator#evaluate()}
+	 * .
+	 */
+	@Test
+	public final void testEvaluateOscillation() {
+
+		CompoundBlock oscillator = new CompoundBlock("Oscillator", 1, 1);
+		NOR nor = new NOR(2);
+		oscillator.internalInput("1").connectTo(nor.input("1"));
+		nor.output("1").connectTo(nor.input("2"));
+		nor.output("1").connectTo(oscillator.internalOutput("1"));
+
+		LevelizedSimulator simulator = new LevelizedSimulator(oscillator);
+		assertEquals("", 1, simulator.getNetlist().countFeedbackLoops());
+
+		simulator.setInput(0, Signals.ONE);
+		simulator.evaluate();
+		assertTrue("", simulator.isStable());
+		assertEquals("", Signals.ZERO, simulator.getOutput(0));
+
+		simulator.setInput(0, Signals.ZERO);
+		simulator.evaluate();
+		assertFalse("", simulator.isStable());
+	}
+
+	/**
+	 * Tests rejecting a netlist with registers that would never be clocked.
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.LevelizedSimulator#LevelizedSimulator(Netlist)}
+	 * .
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public final void testRegisters() {
+
+		CompoundBlock delay = new CompoundBlock("Delay", 1, 1);
+		Register register = BlockFactory.getInstance().getDFlipFlop();
+		delay.internalInput(0).connectTo(register.input("D"));
+		register.output("Q").connectTo(delay.internalOutput(0));
+		new LevelizedSimulator(Netlist.compile(delay));
+	}
+}
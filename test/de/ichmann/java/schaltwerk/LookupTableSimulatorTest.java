@@ -0,0 +1,227 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.BaseBlock;
+import de.ichmann.java.schaltwerk.blocks.BlockFactory;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NAND;
+import de.ichmann.java.schaltwerk.blocks.NOR;
+import de.ichmann.java.schaltwerk.blocks.NOT;
+import de.ichmann.java.schaltwerk.blocks.OR;
+import de.ichmann.java.schaltwerk.blocks.Output;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+import de.ichmann.java.schaltwerk.simulation.LevelizedSimulator;
+import de.ichmann.java.schaltwerk.simulation.LookupTableSimulator;
+import de.ichmann.java.schaltwerk.simulation.Netlist;
+
+/**
+ * Tests simulation of circuits mapped into lookup tables.
+ * 
+ * @author Christian Wichmann
+ */
+public class LookupTableSimulatorTest {
+
+	private static final int WIDTH = 16;
+	private static final int STAGES = 24;
+
+	/**
+	 * Creates a circuit with many stages of gates. Every stage combines
+	 * neighbouring signals of the previous stage and a wide AND combines the
+	 * first signals of all stages.
+	 */
+	private CompoundBlock createLargeCircuit() {
+
+		CompoundBlock circuit = new CompoundBlock("Large", WIDTH, WIDTH + 1);
+		Output[] signals = new Output[WIDTH];
+		for (int i = 0; i < WIDTH; i++) {
+			signals[i] = circuit.internalInput(i);
+		}
+
+		AND wide = new AND(STAGES);
+		for (int s = 0; s < STAGES; s++) {
+			Output[] next = new Output[WIDTH];
+			for (int i = 0; i < WIDTH; i++) {
+				BaseBlock gate;
+				switch ((s + i) % 5) {
+				case 0:
+					gate = new AND(3);
+					break;
+				case 1:
+					gate = new OR(3);
+					break;
+				case 2:
+					gate = new NAND(3);
+					break;
+				case 3:
+					gate = new NOR(3);
+					break;
+				default:
+					gate = new NOT();
+					break;
+				}
+				signals[i].connectTo(gate.input(0));
+				if (gate.countInputs() > 1) {
+					signals[(i + 1) % WIDTH].connectTo(gate.input(1));
+					circuit.internalInput((s + i) % WIDTH).connectTo(
+							gate.input(2));
+				}
+				next[i] = gate.output(0);
+			}
+			signals = next;
+			signals[0].connectTo(wide.input(s));
+		}
+
+		for (int i = 0; i < WIDTH; i++) {
+			signals[i].connectTo(circuit.internalOutput(i));
+		}
+		wide.output(0).connectTo(circuit.internalOutput(WIDTH));
+		return circuit;
+	}
+
+	/**
+	 * Creates a circuit with the outputs (1 & 2 | 3 & 4) & !(5 & 6 | 7 & 8)
+	 * from two nested compound blocks.
+	 */
+	private CompoundBlock createNestedCircuit() {
+
+		CompoundBlock circuit = new CompoundBlock("Nested", 8, 1);
+		AND and = new AND(2);
+		NOT not = new NOT();
+		for (int n = 0; n < 2; n++) {
+			CompoundBlock andOr = new CompoundBlock("AND-OR." + n, 4, 1);
+			AND and1 = new AND(2);
+			AND and2 = new AND(2);
+			OR or = new OR(2);
+			andOr.internalInput(0).connectTo(and1.input(0));
+			andOr.internalInput(1).connectTo(and1.input(1));
+			andOr.internalInput(2).connectTo(and2.input(0));
+			andOr.internalInput(3).connectTo(and2.input(1));
+			and1.output(0).connectTo(or.input(0));
+			and2.output(0).connectTo(or.input(1));
+			or.output(0).connectTo(andOr.internalOutput(0));
+			for (int i = 0; i < 4; i++) {
+				circuit.internalInput(4 * n + i).connectTo(andOr.input(i));
+			}
+			andOr.output(0).connectTo(n == 0 ? and.input(0) : not.input(0));
+		}
+		not.output(0).connectTo(and.input(1));
+		and.output(0).connectTo(circuit.internalOutput(0));
+		return circuit;
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.LookupTableSimulator#evaluate()}
+	 * .
+	 */
+	@Test
+	public final void testEvaluate() {
+
+		// both nested blocks and the gates behind them fit into a single LUT
+		LookupTableSimulator simulator = new LookupTableSimulator(
+				Netlist.compile(createNestedCircuit()),
+				LookupTableSimulator.MAX_LUT_INPUTS);
+		assertEquals("", 1, simulator.countLookupTables());
+
+		for (int vector = 0; vector < 256; vector++) {
+			boolean[] in = new boolean[8];
+			for (int i = 0; i < 8; i++) {
+				in[i] = (vector >> i & 1) == 1;
+				simulator.setInput(i, in[i] ? Signals.ONE : Signals.ZERO);
+			}
+			simulator.evaluate();
+
+			boolean expected = (in[0] && in[1] || in[2] && in[3])
+					&& !(in[4] && in[5] || in[6] && in[7]);
+			assertEquals("", expected ? Signals.ONE : Signals.ZERO,
+					simulator.getOutput(0));
+		}
+	}
+
+	/**
+	 * Compares a large circuit mapped into LUTs of different sizes with the
+	 * levelized simulator. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.LookupTableSimulator#LookupTableSimulator(Netlist, int)}
+	 * .
+	 */
+	@Test
+	public final void testEvaluateLarge() {
+
+		Netlist netlist = Netlist.compile(createLargeCircuit());
+		LevelizedSimulator expected = new LevelizedSimulator(netlist);
+		Random random = new Random(42);
+		for (int k : new int[] { 3, 6, 8 }) {
+			LookupTableSimulator actual = new LookupTableSimulator(netlist, k);
+			assertTrue("", actual.countLookupTables() < netlist.countGates());
+			assertEquals("", 1, actual.countDirectGates());
+
+			for (int round = 0; round < 200; round++) {
+				for (int i = 0; i < WIDTH; i++) {
+					Signals value = random.nextBoolean() ? Signals.ONE
+							: Signals.ZERO;
+					expected.setInput(i, value);
+					actual.setInput(i, value);
+				}
+				expected.evaluate();
+				actual.evaluate();
+				for (int o = 0; o < netlist.countOutputs(); o++) {
+					assertEquals("", expected.getOutput(o),
+							actual.getOutput(o));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests feedback loops with a rs-flip-flop. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.LookupTableSimulator#evaluate()}
+	 * .
+	 */
+	@Test
+	public final void testEvaluateFeedback() {
+
+		LookupTableSimulator simulator = new LookupTableSimulator(
+				BlockFactory.getInstance().getRSFlipFLop(false));
+		Netlist netlist = simulator.getNetlist();
+		int s = netlist.inputIndex("S");
+		int r = netlist.inputIndex("R");
+		int q = netlist.outputIndex("Q");
+
+		simulator.setInput(s, Signals.ONE);
+		simulator.setInput(r, Signals.ZERO);
+		simulator.evaluate();
+		assertEquals("", Signals.ONE, simulator.getOutput(q));
+
+		simulator.setInput(s, Signals.ZERO);
+		simulator.evaluate();
+		assertEquals("", Signals.ONE, simulator.getOutput(q));
+
+		simulator.setInput(r, Signals.ONE);
+		simulator.evaluate();
+		assertEquals("", Signals.ZERO, simulator.getOutput(q));
+		assertTrue("", simulator.isStable());
+	}
+}
@@ -0,0 +1,266 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.BlockFactory;
+import de.ichmann.java.schaltwerk.blocks.CircuitInstance;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.Input;
+import de.ichmann.java.schaltwerk.blocks.NAND;
+import de.ichmann.java.schaltwerk.blocks.NOT;
+import de.ichmann.java.schaltwerk.blocks.OR;
+import de.ichmann.java.schaltwerk.blocks.Output;
+import de.ichmann.java.schaltwerk.blocks.Register;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+import de.ichmann.java.schaltwerk.simulation.CycleSimulator;
+import de.ichmann.java.schaltwerk.simulation.LevelizedSimulator;
+import de.ichmann.java.schaltwerk.simulation.Netlist;
+import de.ichmann.java.schaltwerk.simulation.NetlistFlattener;
+
+/**
+ * Tests flattening of nested compound blocks.
+ * 
+ * @author Christian Wichmann
+ */
+public class NetlistFlattenerTest {
+
+	private CompoundBlock circuit;
+
+	/**
+	 * Creates a half adder with outputs S = A ^ B and C = A & B.
+	 */
+	private CompoundBlock createHalfAdder(final String blockID) {
+
+		CompoundBlock ha = new CompoundBlock(blockID, Arrays.asList("A", "B"),
+				Arrays.asList("S", "C"));
+		OR or = new OR("OR", 2);
+		NAND nand = new NAND("NAND", 2);
+		AND sum = new AND("SUM", 2);
+		AND carry = new AND("CARRY", 2);
+		for (int i = 1; i <= 2; i++) {
+			String id = Integer.toString(i);
+			Output input = ha.internalInput(i - 1);
+			input.connectTo(or.input(id));
+			input.connectTo(nand.input(id));
+			input.connectTo(carry.input(id));
+		}
+		or.output("1").connectTo(sum.input("1"));
+		nand.output("1").connectTo(sum.input("2"));
+		sum.output("1").connectTo(ha.internalOutput("S"));
+		carry.output("1").connectTo(ha.internalOutput("C"));
+		return ha;
+	}
+
+	/**
+	 * Sets up test environment by designing a full adder from two half adders
+	 * nested inside of a top circuit.
+	 * 
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		CompoundBlock fa = new CompoundBlock("FA", Arrays.asList("A", "B",
+				"Ci"), Arrays.asList("S", "Co"));
+		CompoundBlock ha1 = createHalfAdder("HA.1");
+		CompoundBlock ha2 = createHalfAdder("HA.2");
+		OR or = new OR("OR", 2);
+		fa.internalInput("A").connectTo(ha1.input("A"));
+		fa.internalInput("B").connectTo(ha1.input("B"));
+		ha1.output("S").connectTo(ha2.input("A"));
+		fa.internalInput("Ci").connectTo(ha2.input("B"));
+		ha1.output("C").connectTo(or.input("1"));
+		ha2.output("C").connectTo(or.input("2"));
+		ha2.output("S").connectTo(fa.internalOutput("S"));
+		or.output("1").connectTo(fa.internalOutput("Co"));
+
+		circuit = new CompoundBlock("Top", 3, 2);
+		for (int i = 0; i < 3; i++) {
+			circuit.internalInput(i).connectTo(fa.input(i));
+		}
+		fa.output("S").connectTo(circuit.internalOutput("1"));
+		fa.output("Co").connectTo(circuit.internalOutput("2"));
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.NetlistFlattener#getFlatCircuit()}
+	 * .
+	 */
+	@Test
+	public final void testGetFlatCircuit() {
+
+		NetlistFlattener flattener = new NetlistFlattener(circuit);
+		assertEquals("", 3, flattener.countNestedBlocks());
+		CompoundBlock flat = flattener.getFlatCircuit();
+
+		// all next hops are base blocks or outputs of the flat circuit
+		for (int i = 0; i < 3; i++) {
+			for (Input nextHop : flat.internalInput(i).listNextHops()) {
+				assertNotSame("", CompoundBlock.class, nextHop.getOwnerBlock()
+						.getClass());
+			}
+		}
+
+		for (int v = 0; v < 8; v++) {
+			for (int i = 0; i < 3; i++) {
+				Signals value = (v >>> i & 1) != 0 ? Signals.ONE
+						: Signals.ZERO;
+				flat.input(i).setSignalValue(value);
+			}
+			// reconvergent paths may need more than one evaluation cycle
+			for (int cycle = 0; cycle < 4; cycle++) {
+				flat.evaluate();
+				flat.unevaluate();
+			}
+
+			int sum = Integer.bitCount(v);
+			assertEquals("", (sum & 1) != 0 ? Signals.ONE : Signals.ZERO, flat
+					.output(0).getSignalValue());
+			assertEquals("", (sum & 2) != 0 ? Signals.ONE : Signals.ZERO, flat
+					.output(1).getSignalValue());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.NetlistFlattener#getNetNames(int)}
+	 * .
+	 */
+	@Test
+	public final void testGetNetNames() {
+
+		NetlistFlattener flattener = new NetlistFlattener(circuit);
+		Netlist netlist = flattener.getNetlist();
+		assertEquals("", 9, netlist.countGates());
+
+		List<String> carry = flattener.getNetNames(netlist.getOutputNet(1));
+		assertEquals("", "Top/FA/OR:1", carry.get(0));
+		assertTrue("", carry.contains("Top/FA:Co"));
+		assertEquals("", 2, carry.size());
+
+		List<String> sum = flattener.getNetNames(netlist.getOutputNet(0));
+		assertEquals("", "Top/FA/HA.2/SUM:1", sum.get(0));
+		assertTrue("", sum.contains("Top/FA/HA.2:S"));
+		assertTrue("", sum.contains("Top/FA:S"));
+
+		List<String> input = flattener.getNetNames(netlist.getInputNet(2));
+		assertEquals("", Arrays.asList("Top:3", "Top/FA:Ci", "Top/FA/HA.2:B"),
+				input);
+
+		Output flatOr = netlist.getGate(0).output(0);
+		assertEquals("", flatOr.getOwnerBlock().getBlockID() + ":1", flattener
+				.getNames(flatOr).get(0));
+		assertNull("", flattener.getNetName(Netlist.UNCONNECTED));
+	}
+
+	/**
+	 * Tests copying a register inside a nested compound block. Test method
+	 * for
+	 * {@link de.ichmann.java.schaltwerk.simulation.NetlistFlattener#getFlatRegister(Register)}
+	 * .
+	 */
+	@Test
+	public final void testRegisters() {
+
+		CompoundBlock toggle = new CompoundBlock("Toggle", Arrays.asList("EN"),
+				Arrays.asList("Q"));
+		Register register = new Register("REG", 1, true);
+		NOT not = new NOT("NOT");
+		toggle.internalInput("EN").connectTo(register.input(Register.ENABLE));
+		register.output(0).connectTo(not.input(0));
+		not.output(0).connectTo(register.input(0));
+		register.output(0).connectTo(toggle.internalOutput("Q"));
+
+		CompoundBlock top = new CompoundBlock("Top", 1, 1);
+		top.internalInput(0).connectTo(toggle.input(0));
+		toggle.output(0).connectTo(top.internalOutput(0));
+
+		NetlistFlattener flattener = new NetlistFlattener(top);
+		Register copy = flattener.getFlatRegister(register);
+		assertEquals("", "Top/Toggle/REG", copy.getBlockID());
+		Netlist netlist = flattener.getNetlist();
+		assertEquals("", 1, netlist.countRegisters());
+		assertSame("", copy, netlist.getRegister(0));
+		assertEquals("", "Top/Toggle/REG:Q",
+				flattener.getNetName(netlist.getRegisterNet(0, 0)));
+
+		CycleSimulator simulator = new CycleSimulator(netlist);
+		simulator.setInput(0, Signals.ONE);
+		for (int c = 1; c <= 4; c++) {
+			simulator.cycle();
+			assertEquals("", c % 2 == 1 ? Signals.ONE : Signals.ZERO,
+					simulator.getOutput(0));
+		}
+	}
+
+	/**
+	 * Tests dissolving two instances of the same definition into separate
+	 * copies of its gates. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.NetlistFlattener#getNetlist()}
+	 * .
+	 */
+	@Test
+	public final void testInstances() {
+
+		CircuitInstance ff1 = BlockFactory.getInstance().getRSFlipFlopInstance();
+		CircuitInstance ff2 = BlockFactory.getInstance().getRSFlipFlopInstance();
+		CompoundBlock top = new CompoundBlock("Top", Arrays.asList("A", "B"),
+				Arrays.asList("Q1", "Q2"));
+		top.internalInput("A").connectTo(ff1.input("S"));
+		top.internalInput("B").connectTo(ff1.input("R"));
+		top.internalInput("B").connectTo(ff2.input("S"));
+		top.internalInput("A").connectTo(ff2.input("R"));
+		ff1.output("Q").connectTo(top.internalOutput("Q1"));
+		ff2.output("Q").connectTo(top.internalOutput("Q2"));
+
+		NetlistFlattener flattener = new NetlistFlattener(top);
+		assertEquals("", 2, flattener.countNestedBlocks());
+		Netlist netlist = flattener.getNetlist();
+		assertEquals("", 2 * ff1.getDefinition().countGates(),
+				netlist.countGates());
+		assertTrue("", flattener.getNetNames(netlist.getInputNet(0)).contains(
+				"Top/" + ff2.getBlockID() + ":R"));
+
+		LevelizedSimulator simulator = new LevelizedSimulator(netlist);
+		simulator.setInput(0, Signals.ONE);
+		simulator.evaluate();
+		assertEquals("", Signals.ONE, simulator.getOutput(0));
+		assertEquals("", Signals.ZERO, simulator.getOutput(1));
+
+		// both flip-flops keep their state
+		simulator.setInput(0, Signals.ZERO);
+		simulator.evaluate();
+		assertEquals("", Signals.ONE, simulator.getOutput(0));
+		assertEquals("", Signals.ZERO, simulator.getOutput(1));
+
+		simulator.setInput(1, Signals.ONE);
+		simulator.evaluate();
+		assertEquals("", Signals.ZERO, simulator.getOutput(0));
+		assertEquals("", Signals.ONE, simulator.getOutput(1));
+	}
+}
@@ -0,0 +1,206 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.util.EnumSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.BlockFactory;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NAND;
+import de.ichmann.java.schaltwerk.blocks.NOT;
+import de.ichmann.java.schaltwerk.blocks.OR;
+import de.ichmann.java.schaltwerk.blocks.Register;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+import de.ichmann.java.schaltwerk.simulation.CycleSimulator;
+import de.ichmann.java.schaltwerk.simulation.Netlist;
+import de.ichmann.java.schaltwerk.simulation.NetlistOptimizer;
+import de.ichmann.java.schaltwerk.simulation.NetlistOptimizer.Pass;
+import de.ichmann.java.schaltwerk.simulation.TruthTable;
+
+/**
+ * Tests optimization passes on circuits with redundant gates.
+ * 
+ * @author Christian Wichmann
+ */
+public class NetlistOptimizerTest {
+
+	private CompoundBlock circuit;
+
+	/**
+	 * Sets up test environment by designing a circuit with inputs a, b, c and
+	 * the outputs !!a, (a & b) & c, (a | b) & !(c & 0), b | a, !(c & 0) and
+	 * !!(c & 0). A NOT of c is not connected to any output.
+	 * 
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		circuit = new CompoundBlock("Redundant", 3, 6);
+		NOT not1 = new NOT();
+		NOT not2 = new NOT();
+		AND and1 = new AND(2);
+		AND and2 = new AND(2);
+		OR or1 = new OR(2);
+		OR or2 = new OR(2);
+		NAND nand = new NAND(2);
+		AND and3 = new AND(2);
+		NOT not3 = new NOT();
+		NOT dead = new NOT();
+
+		circuit.internalInput("1").connectTo(not1.input("1"));
+		not1.output("1").connectTo(not2.input("1"));
+		not2.output("1").connectTo(circuit.internalOutput("1"));
+
+		circuit.internalInput("1").connectTo(and1.input("1"));
+		circuit.internalInput("2").connectTo(and1.input("2"));
+		and1.output("1").connectTo(and2.input("1"));
+		circuit.internalInput("3").connectTo(and2.input("2"));
+		and2.output("1").connectTo(circuit.internalOutput("2"));
+
+		circuit.internalInput("1").connectTo(or1.input("1"));
+		circuit.internalInput("2").connectTo(or1.input("2"));
+		circuit.internalInput("2").connectTo(or2.input("1"));
+		circuit.internalInput("1").connectTo(or2.input("2"));
+		circuit.internalInput("3").connectTo(nand.input("1"));
+		or1.output("1").connectTo(and3.input("1"));
+		nand.output("1").connectTo(and3.input("2"));
+		and3.output("1").connectTo(circuit.internalOutput("3"));
+		or2.output("1").connectTo(circuit.internalOutput("4"));
+
+		nand.output("1").connectTo(circuit.internalOutput("5"));
+		nand.output("1").connectTo(not3.input("1"));
+		not3.output("1").connectTo(circuit.internalOutput("6"));
+		circuit.internalInput("3").connectTo(dead.input("1"));
+	}
+
+	/**
+	 * Compares truth tables of original and optimized circuit.
+	 */
+	private void assertSameFunction(final CompoundBlock optimized) {
+
+		TruthTable expected = TruthTable.compute(circuit);
+		TruthTable actual = TruthTable.compute(optimized);
+		for (int o = 0; o < expected.countOutputs(); o++) {
+			for (int v = 0; v < expected.countVectors(); v++) {
+				assertEquals("", expected.get(o, v), actual.get(o, v));
+			}
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.NetlistOptimizer#getOptimizedCircuit()}
+	 * .
+	 */
+	@Test
+	public final void testGetOptimizedCircuit() {
+
+		NetlistOptimizer optimizer = new NetlistOptimizer(circuit);
+		assertEquals("", 10, optimizer.countOriginalGates());
+
+		// only a & b & c and a | b remain
+		assertEquals("", 2, optimizer.countOptimizedGates());
+		assertTrue("", optimizer.countChanges(Pass.CONSTANT_PROPAGATION) > 0);
+		assertEquals("", 1, optimizer.countChanges(Pass.DOUBLE_NOT_REMOVAL));
+		assertEquals("", 1, optimizer.countChanges(Pass.CHAIN_COLLAPSING));
+		assertTrue("", optimizer.countChanges(Pass.STRUCTURAL_HASHING) > 0);
+		assertTrue("", optimizer.countChanges(Pass.DEAD_GATE_REMOVAL) > 0);
+
+		CompoundBlock optimized = optimizer.getOptimizedCircuit();
+		assertSameFunction(optimized);
+		// two gates and the NAND driving the constant output
+		assertEquals("", 3, Netlist.compile(optimized).countGates());
+	}
+
+	/**
+	 * Tests single passes. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.NetlistOptimizer#NetlistOptimizer(CompoundBlock, java.util.Set)}
+	 * .
+	 */
+	@Test
+	public final void testSinglePasses() {
+
+		for (Pass pass : Pass.values()) {
+			NetlistOptimizer optimizer = new NetlistOptimizer(circuit,
+					EnumSet.of(pass));
+			assertTrue("", optimizer.countOptimizedGates() < 10);
+			assertSameFunction(optimizer.getOptimizedCircuit());
+		}
+
+		NetlistOptimizer optimizer = new NetlistOptimizer(circuit,
+				EnumSet.of(Pass.DEAD_GATE_REMOVAL));
+		assertEquals("", 9, optimizer.countOptimizedGates());
+	}
+
+	/**
+	 * Tests that feedback loops are kept.
+	 */
+	@Test
+	public final void testSequentialCircuit() {
+
+		NetlistOptimizer optimizer = new NetlistOptimizer(BlockFactory
+				.getInstance().getRSFlipFLop(false));
+		assertEquals("", optimizer.countOriginalGates(),
+				optimizer.countOptimizedGates());
+		assertFalse("", Netlist.compile(optimizer.getOptimizedCircuit())
+				.isCombinational());
+	}
+
+	/**
+	 * Tests that registers are kept and that registers not driving any
+	 * output are removed.
+	 */
+	@Test
+	public final void testRegisters() {
+
+		CompoundBlock shift = new CompoundBlock("Shift", 1, 1);
+		NOT not1 = new NOT();
+		NOT not2 = new NOT();
+		Register first = new Register(1, false);
+		Register second = new Register(1, false);
+		Register dead = new Register(1, false);
+		shift.internalInput(0).connectTo(not1.input(0));
+		not1.output(0).connectTo(not2.input(0));
+		not2.output(0).connectTo(first.input(0));
+		first.output(0).connectTo(second.input(0));
+		first.output(0).connectTo(dead.input(0));
+		second.output(0).connectTo(shift.internalOutput(0));
+
+		NetlistOptimizer optimizer = new NetlistOptimizer(shift);
+		assertEquals("", 0, optimizer.countOptimizedGates());
+		Netlist netlist = Netlist.compile(optimizer.getOptimizedCircuit());
+		assertEquals("", 2, netlist.countRegisters());
+
+		CycleSimulator simulator = new CycleSimulator(netlist);
+		boolean[] sequence = { true, false, true, true, false, false };
+		for (int c = 0; c < sequence.length; c++) {
+			simulator.setInput(0, sequence[c] ? Signals.ONE : Signals.ZERO);
+			simulator.cycle();
+			Signals expected = c > 0 && sequence[c - 1] ? Signals.ONE
+					: Signals.ZERO;
+			assertEquals("", expected, simulator.getOutput(0));
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.BlockFactory;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NAND;
+import de.ichmann.java.schaltwerk.blocks.NOR;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+import de.ichmann.java.schaltwerk.simulation.LevelizedSimulator;
+import de.ichmann.java.schaltwerk.simulation.Netlist;
+import de.ichmann.java.schaltwerk.simulation.ParallelLevelizedSimulator;
+
+/**
+ * Tests parallel simulation of compound blocks.
+ * 
+ * @author Christian Wichmann
+ */
+public class ParallelLevelizedSimulatorTest {
+
+	private static final int WIDTH = 1000;
+
+	private ForkJoinPool pool;
+
+	/**
+	 * Sets up test environment by creating a pool with four threads.
+	 * 
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		pool = new ForkJoinPool(4);
+	}
+
+	/**
+	 * Shuts down pool.
+	 * 
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+
+		pool.shutdown();
+	}
+
+	/**
+	 * Compares results with serial simulation of a wide circuit with two
+	 * levels. Every NOR of the second level reads neighboring NANDs of the
+	 * first level. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.ParallelLevelizedSimulator#evaluate()}
+	 * .
+	 */
+	@Test
+	public final void testEvaluate() {
+
+		CompoundBlock circuit = new CompoundBlock("Wide", WIDTH, WIDTH);
+		NAND[] nands = new NAND[WIDTH];
+		for (int i = 0; i < WIDTH; i++) {
+			nands[i] = new NAND(2);
+			circuit.internalInput(Integer.toString(i + 1)).connectTo(
+					nands[i].input("1"));
+			circuit.internalInput(Integer.toString((i + 1) % WIDTH + 1))
+					.connectTo(nands[i].input("2"));
+		}
+		for (int i = 0; i < WIDTH; i++) {
+			NOR nor = new NOR(2);
+			nands[i].output("1").connectTo(nor.input("1"));
+			nands[(i + 7) % WIDTH].output("1").connectTo(nor.input("2"));
+			nor.output("1").connectTo(
+					circuit.internalOutput(Integer.toString(i + 1)));
+		}
+
+		Netlist netlist = Netlist.compile(circuit);
+		ParallelLevelizedSimulator parallel = new ParallelLevelizedSimulator(
+				netlist, pool, 64);
+		LevelizedSimulator serial = new LevelizedSimulator(netlist);
+		assertEquals("", 2, parallel.countParallelLevels());
+
+		Random random = new Random(42);
+		for (int run = 0; run < 20; run++) {
+			for (int i = 0; i < WIDTH; i++) {
+				Signals value = random.nextBoolean() ? Signals.ONE
+						: Signals.ZERO;
+				parallel.setInput(i, value);
+				serial.setInput(i, value);
+			}
+			parallel.evaluate();
+			serial.evaluate();
+			for (int o = 0; o < WIDTH; o++) {
+				assertEquals("", serial.getOutput(o), parallel.getOutput(o));
+			}
+		}
+	}
+
+	/**
+	 * Tests that feedback loops are evaluated serially. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.ParallelLevelizedSimulator#evaluate()}
+	 * .
+	 */
+	@Test
+	public final void testEvaluateFeedback() {
+
+		ParallelLevelizedSimulator simulator = new ParallelLevelizedSimulator(
+				Netlist.compile(BlockFactory.getInstance().getRSFlipFLop(false)),
+				pool, 1);
+		assertEquals("", 0, simulator.countParallelLevels());
+
+		simulator.setInput(1, Signals.ONE);
+		simulator.evaluate();
+		assertTrue("", simulator.isStable());
+		assertEquals("", Signals.ZERO, simulator.getOutput(0));
+		assertEquals("", Signals.ONE, simulator.getOutput(1));
+	}
+}
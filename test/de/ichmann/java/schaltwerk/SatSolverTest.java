@@ -0,0 +1,128 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.simulation.SatSolver;
+
+/**
+ * Tests the CDCL solver on satisfiable and unsatisfiable formulas.
+ * 
+ * @author Christian Wichmann
+ */
+public class SatSolverTest {
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.SatSolver#solve()} .
+	 */
+	@Test
+	public final void testSolvePigeonhole() {
+
+		// six pigeons do not fit into five holes
+		final int pigeons = 6;
+		final int holes = 5;
+		SatSolver solver = new SatSolver();
+		for (int v = 0; v < pigeons * holes; v++) {
+			solver.newVariable();
+		}
+		for (int p = 0; p < pigeons; p++) {
+			int[] clause = new int[holes];
+			for (int h = 0; h < holes; h++) {
+				clause[h] = 2 * (p * holes + h);
+			}
+			solver.addClause(clause);
+		}
+		for (int h = 0; h < holes; h++) {
+			for (int p = 0; p < pigeons; p++) {
+				for (int q = p + 1; q < pigeons; q++) {
+					solver.addClause(2 * (p * holes + h) + 1,
+							2 * (q * holes + h) + 1);
+				}
+			}
+		}
+		assertFalse("", solver.solve());
+		assertTrue("", solver.countConflicts() > 0);
+	}
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.SatSolver#getValue(int)} .
+	 */
+	@Test
+	public final void testGetValue() {
+
+		// random 3-SAT below the threshold with a planted solution
+		final int variables = 200;
+		Random random = new Random(42);
+		boolean[] planted = new boolean[variables];
+		SatSolver solver = new SatSolver();
+		for (int v = 0; v < variables; v++) {
+			planted[v] = random.nextBoolean();
+			solver.newVariable();
+		}
+		List<int[]> clauses = new ArrayList<int[]>();
+		while (clauses.size() < 4 * variables) {
+			int[] clause = new int[3];
+			boolean satisfied = false;
+			for (int k = 0; k < 3; k++) {
+				int v = random.nextInt(variables);
+				clause[k] = 2 * v + (random.nextBoolean() ? 1 : 0);
+				satisfied |= planted[v] == ((clause[k] & 1) == 0);
+			}
+			if (satisfied) {
+				clauses.add(clause);
+				solver.addClause(clause);
+			}
+		}
+
+		assertTrue("", solver.solve());
+		for (int[] clause : clauses) {
+			boolean satisfied = false;
+			for (int literal : clause) {
+				satisfied |= solver.getValue(literal >>> 1) == ((literal & 1) == 0);
+			}
+			assertTrue("", satisfied);
+		}
+
+		// forbid the found assignment of the first variables
+		int[] blocking = new int[10];
+		for (int v = 0; v < 10; v++) {
+			blocking[v] = 2 * v + (solver.getValue(v) ? 1 : 0);
+		}
+		boolean[] previous = new boolean[10];
+		for (int v = 0; v < 10; v++) {
+			previous[v] = solver.getValue(v);
+		}
+		solver.addClause(blocking);
+		if (solver.solve()) {
+			boolean differs = false;
+			for (int v = 0; v < 10; v++) {
+				differs |= solver.getValue(v) != previous[v];
+			}
+			assertTrue("", differs);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NOR;
+import de.ichmann.java.schaltwerk.blocks.NOT;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+import de.ichmann.java.schaltwerk.simulation.NetChangeListener;
+import de.ichmann.java.schaltwerk.simulation.TimingSimulator;
+
+/**
+ * Tests simulation of compound blocks with propagation delays.
+ * 
+ * @author Christian Wichmann
+ */
+public class TimingSimulatorTest {
+
+	private CompoundBlock circuit;
+	private NOT not;
+
+	/**
+	 * Sets up test environment by designing a circuit with a static hazard:
+	 * the output is the AND of the input and its inverted value.
+	 * 
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		circuit = new CompoundBlock("Hazard", 1, 1);
+		AND and = new AND(2);
+		not = new NOT();
+		circuit.internalInput("1").connectTo(and.input("1"));
+		circuit.internalInput("1").connectTo(not.input("1"));
+		not.output("1").connectTo(and.input("2"));
+		and.output("1").connectTo(circuit.internalOutput("1"));
+	}
+
+	/**
+	 * Tests that the glitch at the output is visible. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.TimingSimulator#evaluate()}
+	 * .
+	 */
+	@Test
+	public final void testEvaluate() {
+
+		TimingSimulator simulator = new TimingSimulator(circuit);
+		final int output = simulator.getNetlist().getOutputNet(0);
+		final List<String> changes = new ArrayList<String>();
+		simulator.addNetChangeListener(new NetChangeListener() {
+
+			@Override
+			public void valueChanged(long time, int net, Signals value) {
+
+				if (net == output) {
+					changes.add(time + ":" + value);
+				}
+			}
+		});
+
+		// inverter needs one unit to put out ONE
+		simulator.evaluate();
+		assertEquals("", 1, simulator.getTime());
+		assertEquals("", Signals.ZERO, simulator.getOutput(0));
+		assertTrue("", changes.isEmpty());
+
+		// AND sees ONE at both inputs until inverter switches
+		simulator.setInput(0, Signals.ONE);
+		simulator.evaluate();
+		assertTrue("", simulator.isStable());
+		assertEquals("", Signals.ZERO, simulator.getOutput(0));
+		assertEquals("", 2, changes.size());
+		assertEquals("", "3:ONE", changes.get(0));
+		assertEquals("", "4:ZERO", changes.get(1));
+	}
+
+	/**
+	 * Tests delays set for a single block. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.TimingSimulator#advance(long)}
+	 * .
+	 */
+	@Test
+	public final void testAdvance() {
+
+		not.setDelay(5);
+		TimingSimulator simulator = new TimingSimulator(circuit);
+		assertEquals("", 5, simulator.getMaxDelay());
+		assertFalse("", simulator.advance(4));
+		assertTrue("", simulator.advance(1));
+		assertEquals("", 5, simulator.getTime());
+
+		simulator.setInput(0, Signals.ONE);
+		assertFalse("", simulator.advance(2));
+		assertEquals("", Signals.ONE, simulator.getOutput(0));
+		assertTrue("", simulator.advance(10));
+		assertEquals("", Signals.ZERO, simulator.getOutput(0));
+		assertEquals("", 17, simulator.getTime());
+	}
+
+	/**
+	 * Tests that an oscillating feedback loop is detected. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.TimingSimulator#evaluate()}
+	 * .
+	 */
+	@Test
+	public final void testEvaluateOscillation() {
+
+		CompoundBlock oscillator = new CompoundBlock("Oscillator", 1, 1);
+		NOR nor = new NOR(2);
+		oscillator.internalInput("1").connectTo(nor.input("1"));
+		nor.output("1").connectTo(nor.input("2"));
+		nor.output("1").connectTo(oscillator.internalOutput("1"));
+
+		TimingSimulator simulator = new TimingSimulator(oscillator);
+		simulator.setMaxIterations(10);
+		simulator.evaluate();
+		assertFalse("", simulator.isStable());
+
+		simulator.setInput(0, Signals.ONE);
+		simulator.evaluate();
+		assertTrue("", simulator.isStable());
+		assertEquals("", Signals.ZERO, simulator.getOutput(0));
+	}
+
+	/**
+	 * Tests that delays have to be positive.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public final void testSetDelay() {
+
+		not.setDelay(0);
+	}
+}
@@ -0,0 +1,118 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NAND;
+import de.ichmann.java.schaltwerk.blocks.NOR;
+import de.ichmann.java.schaltwerk.blocks.OR;
+import de.ichmann.java.schaltwerk.simulation.Netlist;
+import de.ichmann.java.schaltwerk.simulation.TruthTable;
+
+/**
+ * Tests calculation of truth tables of combinational compound blocks.
+ * 
+ * @author Christian Wichmann
+ */
+public class TruthTableTest {
+
+	private static final int WIDTH = 20;
+
+	/**
+	 * Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.TruthTable#compute(de.ichmann.java.schaltwerk.blocks.CompoundBlock)}
+	 * .
+	 */
+	@Test
+	public final void testCompute() {
+
+		CompoundBlock circuit = new CompoundBlock("Circuit", 3, 2);
+		NAND nand = new NAND(2);
+		NOR nor = new NOR(2);
+		circuit.internalInput("1").connectTo(nand.input("1"));
+		circuit.internalInput("2").connectTo(nand.input("2"));
+		nand.output("1").connectTo(nor.input("1"));
+		circuit.internalInput("3").connectTo(nor.input("2"));
+		nand.output("1").connectTo(circuit.internalOutput("1"));
+		nor.output("1").connectTo(circuit.internalOutput("2"));
+
+		TruthTable table = TruthTable.compute(circuit);
+		assertEquals("", 8, table.countVectors());
+		for (int v = 0; v < 8; v++) {
+			boolean a = (v & 1) != 0;
+			boolean b = (v & 2) != 0;
+			boolean c = (v & 4) != 0;
+			assertEquals("", !(a && b), table.get(0, v));
+			assertEquals("", !(!(a && b) || c), table.get(1, v));
+		}
+		assertEquals("", 0, table.getWord(0, 0) >>> 8);
+
+		List<Boolean> column = table.getOutputColumn(1);
+		assertEquals("", 8, column.size());
+		assertEquals("", Boolean.TRUE, column.get(3));
+		assertEquals("", 1, table.countOnes(1));
+	}
+
+	/**
+	 * Tests a circuit with more inputs than fit into a single word and writes
+	 * its truth table into a file. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.TruthTable#compute(Netlist, File, ForkJoinPool)}
+	 * .
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public final void testComputeFile() throws Exception {
+
+		CompoundBlock circuit = new CompoundBlock("Wide", WIDTH, 2);
+		AND and = new AND(WIDTH);
+		OR or = new OR(WIDTH);
+		for (int i = 1; i <= WIDTH; i++) {
+			circuit.internalInput(Integer.toString(i)).connectTo(
+					and.input(Integer.toString(i)));
+			circuit.internalInput(Integer.toString(i)).connectTo(
+					or.input(Integer.toString(i)));
+		}
+		and.output("1").connectTo(circuit.internalOutput("1"));
+		or.output("1").connectTo(circuit.internalOutput("2"));
+
+		File file = File.createTempFile("truthtable", ".bin");
+		file.deleteOnExit();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			TruthTable table = TruthTable.compute(Netlist.compile(circuit),
+					file, pool);
+			assertEquals("", 1, table.countOnes(0));
+			assertTrue("", table.get(0, (1L << WIDTH) - 1));
+			assertEquals("", (1L << WIDTH) - 1, table.countOnes(1));
+			assertFalse("", table.get(1, 0));
+			assertEquals("", 2 * (1L << WIDTH) / 8, file.length());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
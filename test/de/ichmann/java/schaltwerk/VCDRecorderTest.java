@@ -0,0 +1,225 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.AND;
+import de.ichmann.java.schaltwerk.blocks.BlockFactory;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.NOT;
+import de.ichmann.java.schaltwerk.blocks.Register;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+import de.ichmann.java.schaltwerk.simulation.CycleSimulator;
+import de.ichmann.java.schaltwerk.simulation.Netlist;
+import de.ichmann.java.schaltwerk.simulation.TimingSimulator;
+import de.ichmann.java.schaltwerk.simulation.VCDRecorder;
+
+/**
+ * Tests recording value changes of simulations as value change dump.
+ * 
+ * @author Christian Wichmann
+ */
+public class VCDRecorderTest {
+
+	private CompoundBlock outer;
+	private CompoundBlock inner;
+
+	/**
+	 * Sets up test environment by nesting a compound block with an AND gate
+	 * inside a compound block that inverts its result.
+	 * 
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		outer = new CompoundBlock("Outer", 2, 1);
+		inner = new CompoundBlock("Inner", 2, 1);
+		AND and = new AND(2);
+		NOT not = new NOT();
+
+		outer.internalInput(0).connectTo(inner.input(0));
+		outer.internalInput(1).connectTo(inner.input(1));
+		inner.internalInput(0).connectTo(and.input(0));
+		inner.internalInput(1).connectTo(and.input(1));
+		and.output(0).connectTo(inner.internalOutput(0));
+		inner.output(0).connectTo(not.input(0));
+		not.output(0).connectTo(outer.internalOutput(0));
+	}
+
+	/**
+	 * Tests declarations of nested scopes and recording changes of a timing
+	 * simulation. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.VCDRecorder#valueChanged(long, int, Signals)}
+	 * .
+	 * 
+	 * @throws IOException
+	 *             if dump could not be written
+	 */
+	@Test
+	public final void testScopes() throws IOException {
+
+		Netlist netlist = Netlist.compile(outer);
+		TimingSimulator simulator = new TimingSimulator(netlist);
+		ByteArrayOutputStream dump = new ByteArrayOutputStream();
+		VCDRecorder recorder = new VCDRecorder(outer, netlist,
+				Channels.newChannel(dump), 64);
+		assertEquals("", 4, recorder.countRecordedNets());
+
+		simulator.addNetChangeListener(recorder);
+		recorder.sample(simulator.getTime(), simulator.getSignalStore());
+		simulator.evaluate();
+		simulator.setInput(0, Signals.ONE);
+		simulator.setInput(1, Signals.ONE);
+		simulator.evaluate();
+		recorder.close();
+
+		String text = dump.toString("US-ASCII");
+		assertTrue("", text.startsWith("$version"));
+		int outerScope = text.indexOf("$scope module Outer $end");
+		int innerScope = text.indexOf("$scope module Inner $end");
+		assertTrue("", outerScope >= 0 && innerScope > outerScope);
+		assertTrue("", text.indexOf("$upscope $end") > innerScope);
+		assertTrue("", text.contains("$enddefinitions $end\n#0\n$dumpvars\n"));
+
+		// both inputs rise at once, AND and NOT follow after their delays
+		String[] lines = text.substring(text.indexOf("$end\n#0\n")).split("\n");
+		assertEquals("", "#" + simulator.getTime(), lines[lines.length - 2]);
+		assertTrue("", lines[lines.length - 1].startsWith("0"));
+		assertEquals("", 4 + 1 + 4, recorder.countChanges());
+	}
+
+	/**
+	 * Tests sampling a cycle simulation over many cycles with buffers much
+	 * smaller than the dump. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.VCDRecorder#sample(long, de.ichmann.java.schaltwerk.blocks.SignalStore)}
+	 * .
+	 * 
+	 * @throws IOException
+	 *             if dump could not be written
+	 */
+	@Test
+	public final void testSample() throws IOException {
+
+		CompoundBlock toggle = new CompoundBlock("Toggle", 1, 1);
+		Register register = BlockFactory.getInstance().getRegister(1, true);
+		NOT not = new NOT();
+		toggle.internalInput(0).connectTo(register.input(Register.ENABLE));
+		register.output(0).connectTo(not.input(0));
+		not.output(0).connectTo(register.input(0));
+		register.output(0).connectTo(toggle.internalOutput(0));
+
+		Netlist netlist = Netlist.compile(toggle);
+		CycleSimulator simulator = new CycleSimulator(netlist);
+		ByteArrayOutputStream dump = new ByteArrayOutputStream();
+		VCDRecorder recorder = new VCDRecorder(toggle, netlist,
+				Channels.newChannel(dump), 64);
+		assertEquals("", 3, recorder.countRecordedNets());
+
+		final int cycles = 1000;
+		simulator.setInput(0, Signals.ONE);
+		simulator.evaluate();
+		recorder.sample(0, simulator.getSignalStore());
+		for (int c = 1; c <= cycles; c++) {
+			simulator.cycle();
+			recorder.sample(c, simulator.getSignalStore());
+		}
+		recorder.close();
+
+		assertEquals("", 3 + 2 * cycles, recorder.countChanges());
+		String text = dump.toString("US-ASCII");
+		assertTrue("", text.contains("\n#" + cycles + "\n"));
+		assertEquals("", 1, text.split("\\$enddefinitions").length - 1);
+	}
+
+	/**
+	 * Tests rejecting a netlist that was compiled from another circuit. Test
+	 * method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.VCDRecorder#VCDRecorder(CompoundBlock, Netlist, java.nio.channels.WritableByteChannel)}
+	 * .
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public final void testWrongNetlist() {
+
+		CompoundBlock other = new CompoundBlock("Other", 2, 1);
+		AND and = new AND(2);
+		other.internalInput(0).connectTo(and.input(0));
+		other.internalInput(1).connectTo(and.input(1));
+		and.output(0).connectTo(other.internalOutput(0));
+
+		Netlist netlist = Netlist.compile(outer);
+		new VCDRecorder(other, netlist, Channels
+				.newChannel(new ByteArrayOutputStream()));
+	}
+
+	/**
+	 * Tests that an interrupted writer thread never blocks the simulation or
+	 * closing the recorder. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.VCDRecorder#close()} .
+	 * 
+	 * @throws IOException
+	 *             if dump could not be written
+	 */
+	@Test(timeout = 10000)
+	public final void testInterruptedWriter() throws IOException {
+
+		CompoundBlock toggle = new CompoundBlock("Interrupted", 1, 1);
+		Register register = BlockFactory.getInstance().getRegister(1, true);
+		NOT not = new NOT();
+		toggle.internalInput(0).connectTo(register.input(Register.ENABLE));
+		register.output(0).connectTo(not.input(0));
+		not.output(0).connectTo(register.input(0));
+		register.output(0).connectTo(toggle.internalOutput(0));
+
+		Netlist netlist = Netlist.compile(toggle);
+		CycleSimulator simulator = new CycleSimulator(netlist);
+		VCDRecorder recorder = new VCDRecorder(toggle, netlist,
+				Channels.newChannel(new ByteArrayOutputStream()), 64);
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("VCD writer Interrupted")) {
+				thread.interrupt();
+			}
+		}
+
+		simulator.setInput(0, Signals.ONE);
+		boolean failed = false;
+		for (int c = 0; c < 100000 && !failed; c++) {
+			simulator.cycle();
+			try {
+				recorder.sample(c, simulator.getSignalStore());
+			} catch (IllegalStateException e) {
+				failed = true;
+			}
+		}
+		assertTrue("", failed);
+		try {
+			recorder.close();
+			fail("Closing should report the interrupted writer.");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/*****************************************************************************
+ * Schaltwerk - A free and extensible digital simulator
+ * Copyright (c) 2013 Christian Wichmann
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ *****************************************************************************/
+package de.ichmann.java.schaltwerk;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ichmann.java.schaltwerk.blocks.BlockFactory;
+import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.Output;
+import de.ichmann.java.schaltwerk.blocks.Register;
+import de.ichmann.java.schaltwerk.blocks.Signals;
+import de.ichmann.java.schaltwerk.simulation.CycleSimulator;
+import de.ichmann.java.schaltwerk.simulation.Netlist;
+import de.ichmann.java.schaltwerk.simulation.WaveformDatabase;
+import de.ichmann.java.schaltwerk.simulation.WaveformWriter;
+
+/**
+ * Tests recording a shift register into a waveform file and reading values
+ * at random points in time.
+ * 
+ * @author Christian Wichmann
+ */
+public class WaveformDatabaseTest {
+
+	private static final int STAGES = 3;
+	private static final int CYCLES = 2000;
+
+	private Netlist netlist;
+	private boolean[] sequence;
+	private RandomAccessFile file;
+
+	/**
+	 * Sets up test environment by recording a shift register fed with a
+	 * random sequence into a temporary file. Small blocks are used, so every
+	 * net is stored in many blocks.
+	 * 
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		CompoundBlock shift = new CompoundBlock("Shift", 1, STAGES);
+		Output previous = shift.internalInput(0);
+		for (int i = 0; i < STAGES; i++) {
+			Register dff = BlockFactory.getInstance().getDFlipFlop();
+			previous.connectTo(dff.input("D"));
+			dff.output("Q").connectTo(shift.internalOutput(i));
+			previous = dff.output("Q");
+		}
+		netlist = Netlist.compile(shift);
+
+		File temp = File.createTempFile("schaltwerk", ".waveform");
+		temp.deleteOnExit();
+		file = new RandomAccessFile(temp, "rw");
+		WaveformWriter writer = new WaveformWriter(netlist.countNets(),
+				file.getChannel(), 32, WaveformWriter.DEFAULT_BUFFER_SIZE);
+
+		Random random = new Random(42);
+		sequence = new boolean[CYCLES];
+		CycleSimulator simulator = new CycleSimulator(netlist);
+		simulator.evaluate();
+		writer.sample(0, simulator.getSignalStore());
+		for (int c = 1; c < CYCLES; c++) {
+			sequence[c] = random.nextBoolean();
+			simulator.setInput(0, sequence[c] ? Signals.ONE : Signals.ZERO);
+			simulator.cycle();
+			writer.sample(c, simulator.getSignalStore());
+		}
+		writer.close();
+	}
+
+	/**
+	 * Closes temporary file.
+	 * 
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+
+		file.close();
+	}
+
+	private Signals expected(final int stage, final int cycle) {
+
+		final int c = cycle - stage;
+		return c > 0 && sequence[c] ? Signals.ONE : Signals.ZERO;
+	}
+
+	/**
+	 * Tests reading values of all outputs at random points in time. Test
+	 * method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.WaveformDatabase#getValue(int, long)}
+	 * .
+	 * 
+	 * @throws IOException
+	 *             if waveform could not be read
+	 */
+	@Test
+	public final void testGetValue() throws IOException {
+
+		WaveformDatabase database = new WaveformDatabase(file.getChannel());
+		assertEquals("", netlist.countNets(), database.countNets());
+		assertEquals("", CYCLES - 1, database.getEndTime());
+		assertTrue("", database.countBlocks() > netlist.countNets());
+
+		Random random = new Random(7);
+		for (int k = 0; k < 1000; k++) {
+			int cycle = random.nextInt(CYCLES);
+			int stage = random.nextInt(STAGES);
+			assertEquals("", expected(stage, cycle), database.getValue(
+					netlist.getOutputNet(stage), cycle));
+		}
+		assertEquals("", Signals.X, database.getValue(netlist.getOutputNet(0),
+				-1));
+	}
+
+	/**
+	 * Tests stepping through all changes of an output. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.WaveformDatabase#nextChange(int, long)}
+	 * .
+	 * 
+	 * @throws IOException
+	 *             if waveform could not be read
+	 */
+	@Test
+	public final void testNextChange() throws IOException {
+
+		WaveformDatabase database = new WaveformDatabase(file.getChannel());
+		final int net = netlist.getOutputNet(STAGES - 1);
+
+		long changes = 0;
+		long time = database.nextChange(net, 0);
+		while (time >= 0) {
+			changes++;
+			assertEquals("", expected(STAGES - 1, (int) time),
+					database.getValue(net, time));
+			assertFalse("", expected(STAGES - 1, (int) time) == expected(
+					STAGES - 1, (int) time - 1));
+			time = database.nextChange(net, time);
+		}
+		assertEquals("", changes + 1, database.countChanges(net));
+	}
+
+	/**
+	 * Tests opening a file whose index is missing. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.WaveformDatabase#WaveformDatabase(FileChannel)}
+	 * .
+	 * 
+	 * @throws IOException
+	 *             if waveform could not be read
+	 */
+	@Test(expected = IOException.class)
+	public final void testTruncated() throws IOException {
+
+		FileChannel channel = file.getChannel();
+		channel.truncate(channel.size() - 10);
+		new WaveformDatabase(channel);
+	}
+
+	/**
+	 * Tests recording many nets with a buffer much smaller than the blocks of
+	 * all nets. Test method for
+	 * {@link de.ichmann.java.schaltwerk.simulation.WaveformWriter#valueChanged(long, int, Signals)}
+	 * .
+	 * 
+	 * @throws IOException
+	 *             if waveform could not be written or read
+	 */
+	@Test
+	public final void testBufferSize() throws IOException {
+
+		final int nets = 500;
+		final int times = 200;
+		final int bufferSize = 4096;
+		FileChannel channel = file.getChannel();
+		channel.truncate(0);
+		channel.position(0);
+		WaveformWriter writer = new WaveformWriter(nets, channel, 256,
+				bufferSize);
+		for (int t = 0; t < times; t++) {
+			for (int net = 0; net < nets; net++) {
+				if (t == 0 || period(net, t) != period(net, t - 1)) {
+					writer.valueChanged(t, net, value(net, t));
+				}
+				assertTrue("", writer.countBufferedBytes() <= bufferSize);
+			}
+		}
+		writer.close();
+
+		WaveformDatabase database = new WaveformDatabase(channel);
+		Random random = new Random(3);
+		for (int k = 0; k < 1000; k++) {
+			int net = random.nextInt(nets);
+			int t = random.nextInt(times);
+			assertEquals("", value(net, t), database.getValue(net, t));
+		}
+	}
+
+	private int period(final int net, final int time) {
+
+		return time / (net % 7 + 1);
+	}
+
+	private Signals value(final int net, final int time) {
+
+		return (period(net, time) & 1) != 0 ? Signals.ONE : Signals.ZERO;
+	}
+}
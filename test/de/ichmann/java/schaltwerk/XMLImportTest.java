@@ -3,17 +3,22 @@ package de.ichmann.java.schaltwerk;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
 
 import de.ichmann.java.schaltwerk.blocks.CompoundBlock;
+import de.ichmann.java.schaltwerk.blocks.Signals;
 import de.ichmann.java.schaltwerk.io.XMLImport;
 
 public class XMLImportTest {
 
-	private static String xmlFile = "/home/erebos/projects/workspaces/workspace_schaltwerk/Schaltwerk/test/de/ichmann/java/schaltwerk/example.xml";
+	private static String xmlFile = "test/de/ichmann/java/schaltwerk/example.xml";
 
 	@BeforeClass
 	public static void setUpBeforeClass() throws Exception {
@@ -34,4 +39,52 @@ public class XMLImportTest {
 		fail("not yet implemented!");
 	}
 
+	/**
+	 * Tests importing two chained instances of an inverter whose prototype is
+	 * wired by the signal mapping after the instances were created. Test
+	 * method for
+	 * {@link de.ichmann.java.schaltwerk.io.XMLImport#loadDocument(Document)}
+	 * .
+	 * 
+	 * @throws Exception
+	 *             if document could not be parsed
+	 */
+	@Test
+	public void testLoadInstances() throws Exception {
+
+		String xml = "<SchaltWerk>"
+				+ "<CompoundBlock uuid=\"10\">"
+				+ "<in name=\"A\"/><out name=\"Y\"/><out name=\"Z\"/>"
+				+ "<CompoundBlock uuid=\"20\">"
+				+ "<in name=\"1\"/><out name=\"1\"/>"
+				+ "<BaseBlock type=\"not\" uuid=\"21\">"
+				+ "<in name=\"1\"/><out name=\"1\"/></BaseBlock>"
+				+ "</CompoundBlock>"
+				+ "<Instance definition=\"20\" uuid=\"30\"/>"
+				+ "<Instance definition=\"20\" uuid=\"31\"/>"
+				+ "</CompoundBlock>"
+				+ "<SignalMapping>"
+				+ "<Mapping from=\"20_1\" to=\"21_1\"/>"
+				+ "<Mapping from=\"21_1\" to=\"20_1\"/>"
+				+ "<Mapping from=\"10_A\" to=\"30_1\"/>"
+				+ "<Mapping from=\"30_1\" to=\"31_1\"/>"
+				+ "<Mapping from=\"30_1\" to=\"10_Y\"/>"
+				+ "<Mapping from=\"31_1\" to=\"10_Z\"/>"
+				+ "</SignalMapping>" + "</SchaltWerk>";
+		Document d = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new InputSource(new StringReader(xml)));
+		CompoundBlock block = new XMLImport().loadDocument(d);
+
+		block.input("A").setSignalValue(Signals.ZERO);
+		block.evaluate();
+		block.unevaluate();
+		assertEquals("", Signals.ONE, block.output("Y").getSignalValue());
+		assertEquals("", Signals.ZERO, block.output("Z").getSignalValue());
+
+		block.input("A").setSignalValue(Signals.ONE);
+		block.evaluate();
+		block.unevaluate();
+		assertEquals("", Signals.ZERO, block.output("Y").getSignalValue());
+		assertEquals("", Signals.ONE, block.output("Z").getSignalValue());
+	}
 }